@@ -1,33 +1,107 @@
 package com.atakmap.android.feature4boundaryalert.plugin;
 
 import android.util.Log;
+import com.atakmap.android.feature4boundaryalert.plugin.cot.FixQueue;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.BatchContainment;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.BoundaryCrossing;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.BoundaryModel;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.BoundarySnapshot;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.EdgeDistance;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.GeofenceFile;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.GeofenceImporter;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.Hysteresis;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.PolygonGeofence;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.ProjectedPolygon;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.TrackStateTable;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.TrackTransition;
 import com.atakmap.coremap.maps.coords.GeoPoint;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.RandomAccess;
 
 /**
  * Manages polygon boundaries and performs point-in-polygon detection
- * using the ray casting algorithm.
+ * using the ray casting algorithm. Completing the polygon prepares it
+ * once so per-fix checks only look at the edges near the point.
+ *
+ * Safe to use from several threads: the geometry lives in a
+ * {@link BoundaryModel} whose snapshots are read without locking, so
+ * fixes can be checked on worker threads while the polygon is edited on
+ * the UI thread.
  */
 public class BoundaryManager {
     private static final String TAG = "BoundaryManager";
     
-    private List<GeoPoint> polygonVertices;
-    private boolean isPolygonComplete;
-    private boolean wasInside;
+    /** Id of the polygon in files written by {@link #saveBoundary} */
+    public static final String BOUNDARY_ID = "boundary";
+    
+    /** Track used by the single-entity methods that take no UID */
+    public static final String DEFAULT_TRACK_UID = "default";
+    
+    /**
+     * How crossings between consecutive fixes are detected
+     */
+    public enum CrossingMode {
+        /** Test only the fix itself (the original behaviour) */
+        SAMPLE,
+        /** Intersect the segment from the previous fix with the polygon edges */
+        SEGMENT
+    }
+    
+    /**
+     * How polygon edges are interpreted
+     */
+    public enum ContainmentMode {
+        /** Straight lines in lat/lon (the original behaviour) */
+        PLANAR,
+        /**
+         * Great circle arcs, via a projection cached when the polygon is
+         * completed. Correct for large zones, the antimeridian and the poles.
+         */
+        PROJECTED
+    }
+    
+    /**
+     * How the polygon is simplified when it is completed
+     */
+    public enum SimplificationMode {
+        /** Keep every vertex (the original behaviour) */
+        NONE,
+        /** Douglas-Peucker; the edge may move inwards or outwards */
+        DOUGLAS_PEUCKER,
+        /** Only ever grows the polygon, so nothing inside is lost */
+        CONSERVATIVE
+    }
+    
+    private final BoundaryModel model = new BoundaryModel();
+    // GeoPoints handed to us or already built for the map, index aligned
+    // with the snapshot vertices; entries are created lazily when missing.
+    // Guarded by this.
+    private GeoPoint[] geoPoints;
+    private volatile CrossingMode crossingMode = CrossingMode.SAMPLE;
     
     public BoundaryManager() {
-        this.polygonVertices = new ArrayList<>();
-        this.isPolygonComplete = false;
-        this.wasInside = false;
+        this.geoPoints = new GeoPoint[16];
     }
     
     /**
      * Add a vertex to the polygon
      */
-    public void addVertex(GeoPoint point) {
-        if (!isPolygonComplete) {
-            polygonVertices.add(point);
+    public synchronized void addVertex(GeoPoint point) {
+        int index = model.snapshot().getVertexCount();
+        if (model.addVertex(point.getLatitude(), point.getLongitude())) {
+            if (index == geoPoints.length) {
+                geoPoints = Arrays.copyOf(geoPoints, index * 2);
+            }
+            geoPoints[index] = point;
             Log.d(TAG, "Added vertex: " + point.getLatitude() + ", " + point.getLongitude());
         }
     }
@@ -35,23 +109,102 @@ public class BoundaryManager {
     /**
      * Complete the polygon (requires at least 3 vertices)
      */
-    public boolean completePolygon() {
-        if (polygonVertices.size() >= 3) {
-            isPolygonComplete = true;
-            Log.d(TAG, "Polygon completed with " + polygonVertices.size() + " vertices");
+    public synchronized boolean completePolygon() {
+        int drawn = model.snapshot().getVertexCount();
+        if (model.complete()) {
+            BoundarySnapshot snapshot = model.snapshot();
+            Log.d(TAG, "Polygon completed with " + snapshot.getVertexCount() + " vertices");
+            if (snapshot.getVertexCount() != drawn) {
+                // vertices changed; the cached GeoPoints no longer line up
+                geoPoints = new GeoPoint[Math.max(16, snapshot.getVertexCount())];
+                Log.d(TAG, "Simplified away " + (drawn - snapshot.getVertexCount()) + " of " + drawn + " vertices");
+            }
+            if (model.isProjected() && !(snapshot.getPolygon() instanceof ProjectedPolygon)) {
+                Log.w(TAG, "Polygon too large to project, using planar edges");
+            }
             return true;
         }
         Log.w(TAG, "Cannot complete polygon - need at least 3 vertices");
         return false;
     }
     
+    /**
+     * Write the completed polygon to a {@link GeofenceFile} so it survives
+     * a restart. The file is replaced atomically.
+     * @return false if there is no completed polygon to save
+     */
+    public boolean saveBoundary(File file) throws IOException {
+        BoundarySnapshot snapshot = model.snapshot();
+        if (!snapshot.isComplete()) {
+            return false;
+        }
+        int count = snapshot.getVertexCount();
+        double[] coords = new double[2 * count];
+        for (int i = 0; i < count; i++) {
+            coords[2 * i] = snapshot.getLatitude(i);
+            coords[2 * i + 1] = snapshot.getLongitude(i);
+        }
+        GeofenceFile.write(file, Collections.singletonList(new PolygonGeofence(BOUNDARY_ID, coords)));
+        Log.d(TAG, "Saved boundary with " + count + " vertices to " + file);
+        return true;
+    }
+    
+    /**
+     * Replace the polygon with the first polygon in a {@link GeofenceFile},
+     * already completed
+     * @return false if the file holds no polygon
+     */
+    public synchronized boolean restoreBoundary(File file) throws IOException {
+        GeofenceFile stored = GeofenceFile.open(file);
+        for (int i = 0; i < stored.size(); i++) {
+            if (stored.getShape(i) == GeofenceFile.SHAPE_POLYGON) {
+                double[] coords = stored.getCoordinates(i);
+                model.restore(coords, coords.length / 2);
+                geoPoints = new GeoPoint[Math.max(16, coords.length / 2)];
+                Log.d(TAG, "Restored boundary with " + coords.length / 2 + " vertices from " + file);
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Replace the polygon with the first polygon of a KML or GeoJSON
+     * overlay, completed and simplified like a drawn one. The overlay is
+     * streamed, so only that polygon is held in memory.
+     * @return false if the overlay holds no polygon
+     */
+    public synchronized boolean importBoundary(File file) throws IOException {
+        GeofenceImporter importer = new GeofenceImporter();
+        importer.setSimplification(model.getSimplifyMeters(), model.isSimplifyConservative());
+        final double[][] first = new double[1][];
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8")) {
+            importer.read(reader, GeofenceImporter.Format.forFile(file), new GeofenceImporter.Sink() {
+                @Override
+                public void polygon(String id, double[] coords, int vertexCount) {
+                    if (first[0] == null) {
+                        first[0] = Arrays.copyOf(coords, 2 * vertexCount);
+                    }
+                }
+            });
+        }
+        if (first[0] == null) {
+            Log.w(TAG, "No polygon in " + file);
+            return false;
+        }
+        model.restore(first[0], first[0].length / 2);
+        geoPoints = new GeoPoint[Math.max(16, first[0].length / 2)];
+        Log.d(TAG, "Imported boundary with " + first[0].length / 2 + " vertices from " + file
+                + " (" + importer.getImportedCount() + " polygons, " + importer.getHoleCount() + " holes dropped)");
+        return true;
+    }
+    
     /**
      * Clear the polygon
      */
-    public void clearPolygon() {
-        polygonVertices.clear();
-        isPolygonComplete = false;
-        wasInside = false;
+    public synchronized void clearPolygon() {
+        model.clear();
+        geoPoints = new GeoPoint[16];
         Log.d(TAG, "Polygon cleared");
     }
     
@@ -61,82 +214,275 @@ public class BoundaryManager {
      * @return true if inside, false if outside
      */
     public boolean isPointInside(GeoPoint point) {
-        if (!isPolygonComplete || polygonVertices.size() < 3) {
-            return false;
-        }
-        
-        double lat = point.getLatitude();
-        double lon = point.getLongitude();
-        
-        boolean inside = false;
-        int j = polygonVertices.size() - 1;
-        
-        for (int i = 0; i < polygonVertices.size(); i++) {
-            double lat_i = polygonVertices.get(i).getLatitude();
-            double lon_i = polygonVertices.get(i).getLongitude();
-            double lat_j = polygonVertices.get(j).getLatitude();
-            double lon_j = polygonVertices.get(j).getLongitude();
-            
-            if ((lon_i > lon) != (lon_j > lon) &&
-                (lat < (lat_j - lat_i) * (lon - lon_i) / (lon_j - lon_i) + lat_i)) {
-                inside = !inside;
-            }
-            j = i;
-        }
-        
-        return inside;
+        return model.contains(point.getLatitude(), point.getLongitude());
+    }
+    
+    /**
+     * Get the signed distance from a point to the nearest polygon edge,
+     * e.g. for "approaching zone, 50 m" warnings. The search only visits
+     * the grid cells around the point, so it is cheap enough to run for
+     * every track on every fix.
+     * @return meters (negative inside) and the edge index, or null if the
+     *         polygon is not complete
+     */
+    public EdgeDistance getDistanceToBoundary(GeoPoint point) {
+        return model.nearestEdge(point.getLatitude(), point.getLongitude());
     }
     
     /**
      * Check for boundary crossing and return event type
      * @param point Current position
-     * @return "ENTERED", "EXITED", or null if no crossing
+     * @return "ENTERED", "EXITED", or null if no crossing. In SEGMENT mode
+     *         this is the last of the crossings since the previous fix.
      */
     public String checkBoundaryCrossing(GeoPoint point) {
-        if (!isPolygonComplete) {
+        List<BoundaryCrossing> crossings = checkBoundaryCrossings(point, System.currentTimeMillis());
+        if (crossings.isEmpty()) {
             return null;
         }
-        
-        boolean isInside = isPointInside(point);
-        String event = null;
-        
-        if (isInside && !wasInside) {
-            event = "ENTERED";
-            Log.i(TAG, "Boundary ENTERED at: " + point.getLatitude() + ", " + point.getLongitude());
-        } else if (!isInside && wasInside) {
-            event = "EXITED";
-            Log.i(TAG, "Boundary EXITED at: " + point.getLatitude() + ", " + point.getLongitude());
+        return crossings.get(crossings.size() - 1).getEvent();
+    }
+    
+    /**
+     * Check for boundary crossings of the default track since its previous fix
+     * @param point Current position
+     * @param timeMillis Time of the fix
+     * @return crossings in track order, empty if none
+     */
+    public List<BoundaryCrossing> checkBoundaryCrossings(GeoPoint point, long timeMillis) {
+        return checkBoundaryCrossings(DEFAULT_TRACK_UID, point, timeMillis,
+                timeMillis + TrackStateTable.DEFAULT_STALE_MILLIS);
+    }
+    
+    /**
+     * Check for boundary crossings of one track since its previous fix
+     * @param uid Track UID
+     * @param point Current position
+     * @param timeMillis Time of the fix
+     * @param staleMillis Time after which the track is forgotten without
+     *                    further fixes, e.g. the CoT stale time
+     * @return crossings in track order, empty if none
+     */
+    public List<BoundaryCrossing> checkBoundaryCrossings(String uid, GeoPoint point,
+                                                         long timeMillis, long staleMillis) {
+        List<BoundaryCrossing> crossings = new ArrayList<>(2);
+        model.checkCrossings(uid, point.getLatitude(), point.getLongitude(), timeMillis, staleMillis,
+                crossingMode == CrossingMode.SEGMENT, crossings);
+        for (BoundaryCrossing crossing : crossings) {
+            Log.i(TAG, "Boundary " + crossing.getEvent() + " by " + uid + " at: " + crossing.lat + ", " + crossing.lon);
         }
-        
-        wasInside = isInside;
-        return event;
+        return crossings;
+    }
+    
+    /**
+     * Check many tracks at once, e.g. every CoT track received in a tick.
+     * Large batches are split across worker threads; state is kept per
+     * track UID so each track gets its own ENTERED/EXITED transitions,
+     * filtered by the hysteresis as single fixes are.
+     * @param uids track UIDs, parallel to the other arrays
+     * @param lats track latitudes
+     * @param lons track longitudes
+     * @param times time of each fix
+     * @param stales time after which each track is forgotten without
+     *               further fixes, e.g. the CoT stale time
+     * @param count number of tracks in the arrays
+     * @return inside flags by batch index plus the transitions
+     */
+    public BatchContainment.Result checkBatch(String[] uids, double[] lats, double[] lons,
+                                              long[] times, long[] stales, int count) {
+        BatchContainment.Result result = model.checkBatch(uids, lats, lons, times, stales, count);
+        for (TrackTransition transition : result.transitions) {
+            Log.i(TAG, "Track " + transition);
+        }
+        return result;
     }
     
     /**
-     * Get current polygon vertices
+     * Check fixes drained from a {@link FixQueue}, e.g. everything a
+     * CotReceiver heard since the last call, as one batch
+     * @param batch drained fixes, each with its own time and stale time
+     * @return inside flags by batch index plus the transitions
      */
-    public List<GeoPoint> getVertices() {
-        return new ArrayList<>(polygonVertices);
+    public BatchContainment.Result checkBatch(FixQueue.Batch batch) {
+        if (batch.count == 0) {
+            return BatchContainment.Result.empty();
+        }
+        return checkBatch(batch.uids, batch.lats, batch.lons, batch.times, batch.stales, batch.count);
+    }
+    
+    /**
+     * The current boundary, safe to read from any thread without locking
+     */
+    public BoundarySnapshot getSnapshot() {
+        return model.snapshot();
+    }
+    
+    /**
+     * Select how crossings between consecutive fixes are detected
+     */
+    public void setCrossingMode(CrossingMode mode) {
+        this.crossingMode = mode;
+    }
+    
+    public CrossingMode getCrossingMode() {
+        return crossingMode;
+    }
+    
+    /**
+     * Select how edges are interpreted; takes effect when the polygon is
+     * next completed
+     */
+    public void setContainmentMode(ContainmentMode mode) {
+        model.setProjected(mode == ContainmentMode.PROJECTED);
+    }
+    
+    public ContainmentMode getContainmentMode() {
+        return model.isProjected() ? ContainmentMode.PROJECTED : ContainmentMode.PLANAR;
+    }
+    
+    /**
+     * Select how the polygon is simplified; takes effect when it is next
+     * completed. Fewer vertices make containment, distance checks and the
+     * map outline cheaper.
+     * @param toleranceMeters largest change to the boundary
+     */
+    public void setSimplification(SimplificationMode mode, double toleranceMeters) {
+        model.setSimplification(mode == SimplificationMode.NONE ? 0 : toleranceMeters,
+                mode == SimplificationMode.CONSERVATIVE);
+    }
+    
+    public SimplificationMode getSimplificationMode() {
+        if (model.getSimplifyMeters() == 0) {
+            return SimplificationMode.NONE;
+        }
+        return model.isSimplifyConservative() ? SimplificationMode.CONSERVATIVE : SimplificationMode.DOUGLAS_PEUCKER;
+    }
+    
+    /**
+     * Filter out events from tracks hugging an edge. A track must be the
+     * given distance past the edge, and stay there for dwellMillis, before
+     * ENTERED or EXITED is reported. In SEGMENT mode this applies to each
+     * crossing found along the path, so a corner cut deep and long enough
+     * is still reported. Zero for all three turns it off.
+     * @param insideMeters how far inside a track must get to enter
+     * @param outsideMeters how far outside a track must get to exit
+     * @param dwellMillis how long the new state must hold
+     */
+    public void setHysteresis(double insideMeters, double outsideMeters, long dwellMillis) {
+        model.setHysteresis(new Hysteresis(insideMeters, outsideMeters, dwellMillis));
+    }
+    
+    public Hysteresis getHysteresis() {
+        return model.getHysteresis();
+    }
+    
+    /**
+     * Get current polygon vertices as a read-only view. Nothing is copied;
+     * the view covers the vertices present at the time of the call.
+     */
+    public synchronized List<GeoPoint> getVertices() {
+        BoundarySnapshot snapshot = model.snapshot();
+        return new VertexView(cachedGeoPoints(snapshot), snapshot.getVertexCount());
+    }
+    
+    /**
+     * Get the vertices as a GeoPoint array for drawing, optionally
+     * repeating the first vertex at the end to close the ring. This is a
+     * single array copy; the GeoPoints themselves are reused.
+     */
+    public synchronized GeoPoint[] toGeoPoints(boolean closeRing) {
+        BoundarySnapshot snapshot = model.snapshot();
+        int count = snapshot.getVertexCount();
+        boolean close = closeRing && count >= 3;
+        GeoPoint[] points = Arrays.copyOf(cachedGeoPoints(snapshot), close ? count + 1 : count);
+        if (close) {
+            points[count] = points[0];
+        }
+        return points;
+    }
+    
+    /**
+     * Fill in any GeoPoints missing from the cache
+     */
+    private GeoPoint[] cachedGeoPoints(BoundarySnapshot snapshot) {
+        int count = snapshot.getVertexCount();
+        if (geoPoints.length < count) {
+            geoPoints = Arrays.copyOf(geoPoints, count);
+        }
+        for (int i = 0; i < count; i++) {
+            if (geoPoints[i] == null) {
+                geoPoints[i] = new GeoPoint(snapshot.getLatitude(i), snapshot.getLongitude(i));
+            }
+        }
+        return geoPoints;
     }
     
     /**
      * Check if polygon is complete
      */
     public boolean isComplete() {
-        return isPolygonComplete;
+        return model.snapshot().isComplete();
     }
     
     /**
      * Get number of vertices
      */
     public int getVertexCount() {
-        return polygonVertices.size();
+        return model.snapshot().getVertexCount();
     }
     
     /**
-     * Check if currently inside boundary
+     * Check if the default track is currently inside the boundary
      */
     public boolean isCurrentlyInside() {
-        return wasInside;
+        return isInside(DEFAULT_TRACK_UID);
+    }
+    
+    /**
+     * Check if a track is currently inside the boundary
+     */
+    public boolean isInside(String uid) {
+        return model.isInside(uid);
+    }
+    
+    /**
+     * Get when a track last entered the boundary
+     * @return epoch milliseconds, or 0 if the track is unknown or outside
+     */
+    public long getEntryTime(String uid) {
+        return model.getEntryTime(uid);
+    }
+    
+    /**
+     * Get number of tracks currently followed
+     */
+    public int getTrackCount() {
+        return model.getTrackCount();
+    }
+    
+    /**
+     * Read-only list over the first size entries of a GeoPoint array
+     */
+    private static final class VertexView extends AbstractList<GeoPoint> implements RandomAccess {
+        private final GeoPoint[] points;
+        private final int size;
+        
+        VertexView(GeoPoint[] points, int size) {
+            this.points = points;
+            this.size = size;
+        }
+        
+        @Override
+        public GeoPoint get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+            }
+            return points[index];
+        }
+        
+        @Override
+        public int size() {
+            return size;
+        }
     }
 }
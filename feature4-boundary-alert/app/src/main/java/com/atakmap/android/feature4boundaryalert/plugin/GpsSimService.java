@@ -1,18 +1,40 @@
 package com.atakmap.android.feature4boundaryalert.plugin;
 import android.app.*;
+import android.content.BroadcastReceiver;
+import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
 import android.os.Build;
 import android.os.IBinder;
 import android.util.Log;
 
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
-import java.util.TimeZone;
+import com.atakmap.android.feature4boundaryalert.plugin.cot.CotEncoder;
+import com.atakmap.android.feature4boundaryalert.plugin.cot.CotOutput;
+import com.atakmap.android.feature4boundaryalert.plugin.cot.CotRecorder;
+import com.atakmap.android.feature4boundaryalert.plugin.cot.TcpStreamSender;
+import com.atakmap.android.feature4boundaryalert.plugin.cot.UdpSender;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.CircleMotion;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.MotionModel;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.MotionState;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.OutputPipeline;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.RateLimiter;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.ReplayEngine;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.ReplayFile;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.SimClock;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.SwarmSimulator;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.TrajectoryTable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Random;
 import java.util.concurrent.*;
+
+import javax.net.ssl.SSLContext;
 public class GpsSimService extends Service {
     private static final String TAG = "GpsSimService";
     private ScheduledExecutorService exec;
@@ -20,12 +42,41 @@ public class GpsSimService extends Service {
     private double lat0 = 37.4219999, lon0 = -122.0840575;
     private double radiusMeters = 120; // circle radius
     private int t = 0; // seconds
+    // 1 lap per 60s, sampled once per tick so each tick is a table lookup
+    private final MotionModel path = new TrajectoryTable(new CircleMotion(lat0, lon0, radiusMeters, 60, 0), 1.0);
+    private final MotionState position = new MotionState();
 
     private static final String CH_ID = "gps_sim_ch";
-    private static final String UID = "SIM-ROBOT-1";
+    // PluginTemplate checks the robot from its broadcasts, so leaves it out of the CoT feed
+    static final String UID = "SIM-ROBOT-1";
     private static final String CALLSIGN = "SIMBOT";
     private static final String MULTI_ADDR = "239.2.3.1";
     private static final int MULTI_PORT = 6969;
+    private static final long STALE_MILLIS = 20_000L;
+    private static final long SWARM_TICK_MILLIS = 10L;
+
+    private CotEncoder.Encoding encoding = CotEncoder.Encoding.XML;
+    // one socket for the life of the service
+    private final UdpSender udp = new UdpSender(MULTI_ADDR, MULTI_PORT);
+    // a TAK server stream, when one is given; the robot's track goes to multicast as well
+    private TcpStreamSender tcp;
+    private CotOutput output = udp;
+    // the robot's fixes fan out from here; every sink has its own thread
+    private OutputPipeline pipeline;
+    private int robot;
+    private UdpSender unicast;
+    private CotRecorder recorder;
+
+    // a new network means a new interface; reopen the socket on it
+    private final BroadcastReceiver networkReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Log.d(TAG, "Network changed, resetting UDP output");
+            udp.reset();
+            UdpSender u = unicast;
+            if (u != null) u.reset();
+        }
+    };
     
     // Broadcast action for position updates
     public static final String ACTION_POSITION_UPDATE = "com.atakmap.android.feature1gpssimulator.POSITION_UPDATE";
@@ -33,10 +84,54 @@ public class GpsSimService extends Service {
     public static final String EXTRA_LONGITUDE = "longitude";
     public static final String EXTRA_SPEED = "speed";
     public static final String EXTRA_HEADING = "heading";
+    // simulated time of the fix, epoch millis, so dwell times follow the simulation clock
+    public static final String EXTRA_TIME = "time";
+
+    // Swarm mode: simulate many entities instead of the single robot
+    public static final String EXTRA_SWARM_COUNT = "swarm_count";
+    public static final String EXTRA_SWARM_RATE_HZ = "swarm_rate_hz";
+    public static final String EXTRA_SWARM_MAX_RATE = "swarm_max_rate"; // events/s, 0 = unlimited
+
+    // Simulated time: 1 = real time, N = N times faster, 0 = as fast as possible
+    public static final String EXTRA_CLOCK_SPEED = "clock_speed";
+    public static final String EXTRA_START_TIME = "start_time"; // epoch millis, default now
+    public static final String EXTRA_SEED = "seed";
+
+    // Wire format of the UDP output: "xml" (default) or "protobuf" for TAK Protocol v1; TCP is always XML
+    public static final String EXTRA_ENCODING = "encoding";
+
+    // Replay mode: play a GPX, NMEA or CoT log instead of simulating
+    public static final String EXTRA_REPLAY_FILE = "replay_file"; // path
+    public static final String EXTRA_REPLAY_FROM = "replay_from"; // recorded epoch millis, default the start
+
+    // Stream to a TAK server over TCP, or TLS; the robot also goes to multicast, a swarm or replay only here
+    public static final String EXTRA_TCP_HOST = "tcp_host";
+    public static final String EXTRA_TCP_PORT = "tcp_port"; // default 8087, or 8089 with TLS
+    public static final String EXTRA_TCP_TLS = "tcp_tls";
+    // PKCS#12 files for TLS: the client certificate, and the CA to trust instead of the system's
+    public static final String EXTRA_TCP_KEYSTORE = "tcp_keystore"; // path
+    public static final String EXTRA_TCP_KEYSTORE_PASSWORD = "tcp_keystore_password";
+    public static final String EXTRA_TCP_TRUSTSTORE = "tcp_truststore"; // path
+    public static final String EXTRA_TCP_TRUSTSTORE_PASSWORD = "tcp_truststore_password";
+    private static final int TCP_QUEUE = 10_000;
+
+    // Extra copies of the robot's track: unicast UDP, e.g. to one device's SA port, and a CoT log
+    public static final String EXTRA_UNICAST_HOST = "unicast_host";
+    public static final String EXTRA_UNICAST_PORT = "unicast_port"; // default 4242
+    public static final String EXTRA_UNICAST_ENCODING = "unicast_encoding"; // default as EXTRA_ENCODING
+    public static final String EXTRA_RECORD_FILE = "record_file"; // path; XML, so it can be replayed
+    private static final int SINK_QUEUE = 100;
+    private static final double UI_MAX_RATE = 10; // fixes/s
+
+    private SwarmSimulator swarm;
+    private ReplayFile replayFile;
+    private ReplayEngine replay;
+    private SimClock clock = SimClock.realTime();
 
     @Override public void onCreate() {
         super.onCreate();
         Log.d(TAG, "GpsSimService onCreate()");
+        registerReceiver(networkReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
         try {
             if (Build.VERSION.SDK_INT >= 26) {
                 NotificationChannel ch = new NotificationChannel(CH_ID, "GPS Sim", NotificationManager.IMPORTANCE_LOW);
@@ -61,49 +156,142 @@ public class GpsSimService extends Service {
         Log.d(TAG, "GpsSimService onStartCommand()");
         try {
             if (exec == null || exec.isShutdown()) {
-                exec = Executors.newSingleThreadScheduledExecutor();
-                exec.scheduleAtFixedRate(this::tick, 0, 1, TimeUnit.SECONDS);
+                // a second thread for the stats logging, since run() holds the first
+                exec = Executors.newScheduledThreadPool(2);
+                clock = clockFor(intent);
+                encoding = CotEncoder.Encoding.forName(intent != null ? intent.getStringExtra(EXTRA_ENCODING) : null);
+                output = outputFor(intent);
+                if (tcp != null && encoding == CotEncoder.Encoding.PROTOBUF) {
+                    Log.w(TAG, "TAK Protocol is for UDP; streaming XML to the server");
+                }
+                int count = intent != null ? intent.getIntExtra(EXTRA_SWARM_COUNT, 0) : 0;
+                String replayPath = intent != null ? intent.getStringExtra(EXTRA_REPLAY_FILE) : null;
+                if (replayPath != null) {
+                    startReplay(new File(replayPath), intent.getLongExtra(EXTRA_REPLAY_FROM, 0));
+                } else if (count > 0) {
+                    startSwarm(count, intent.getDoubleExtra(EXTRA_SWARM_RATE_HZ, 1.0),
+                            intent.getDoubleExtra(EXTRA_SWARM_MAX_RATE, 0),
+                            intent.getLongExtra(EXTRA_SEED, count));
+                    exec.scheduleAtFixedRate(this::logSwarmStats, 10, 10, TimeUnit.SECONDS);
+                } else {
+                    startPipeline(intent);
+                    exec.execute(this::run);
+                    exec.scheduleAtFixedRate(this::logPipelineStats, 10, 10, TimeUnit.SECONDS);
+                }
                 Log.d(TAG, "GPS simulation task scheduled");
             }
         } catch (Exception e) {
             Log.e(TAG, "Error in onStartCommand: " + e.getMessage(), e);
+            // leave nothing half built, so the next start command sets up again
+            stopSimulation();
         }
         return START_STICKY;
     }
 
-    private void tick() {
+    private static SimClock clockFor(Intent intent) {
+        double speed = intent != null ? intent.getDoubleExtra(EXTRA_CLOCK_SPEED, 1.0) : 1.0;
+        long start = intent != null ? intent.getLongExtra(EXTRA_START_TIME, 0) : 0;
+        if (speed == 1.0 && start == 0) {
+            return SimClock.realTime();
+        }
+        if (start == 0) {
+            start = System.currentTimeMillis();
+        }
+        return speed > 0 ? SimClock.accelerated(start, speed) : SimClock.asFastAsPossible(start);
+    }
+
+    // one tick per simulated second until the executor is shut down
+    private void run() {
+        try {
+            for (long next = clock.now(); ; next += 1000) {
+                clock.sleepUntil(next);
+                tick(next);
+            }
+        } catch (InterruptedException e) {
+            Log.d(TAG, "GPS simulation stopped");
+        }
+    }
+
+    private void tick(long nowMillis) {
         try {
             Log.d(TAG, "Tick " + t);
             t++;
-            double omega = 2 * Math.PI / 60.0; // 1 lap per 60s
-            double bearing = t * omega;        // radians
-
-            // point on a circle around (lat0, lon0)
-            double dRad = radiusMeters / 6378137.0;
-            double latR = Math.toRadians(lat0);
-            double lonR = Math.toRadians(lon0);
-            double lat = Math.asin(Math.sin(latR) * Math.cos(dRad) +
-                    Math.cos(latR) * Math.sin(dRad) * Math.cos(bearing));
-            double lon = lonR + Math.atan2(Math.sin(bearing) * Math.sin(dRad) * Math.cos(latR),
-                    Math.cos(dRad) - Math.sin(latR) * Math.sin(lat));
-            double latDeg = Math.toDegrees(lat);
-            double lonDeg = Math.toDegrees(lon);
-
-            // constant speed (m/s)
-            double speed = (2 * Math.PI * radiusMeters) / 60.0;
-            double course = (bearing * 180.0 / Math.PI + 90) % 360; // approximate course
-
-            String cot = buildCot(latDeg, lonDeg, speed, course);
-            sendUdp(cot);
-            
-            // Broadcast position update to UI
-            broadcastPositionUpdate(latDeg, lonDeg, speed, course);
+            path.sample(t, position);
+            double latDeg = position.lat;
+            double lonDeg = position.lon;
+            double speed = position.speed;
+            double course = position.course;
+
+            // to every output and the UI, each on its own thread
+            pipeline.publish(robot, nowMillis, latDeg, lonDeg, speed, course);
         } catch (Throwable e) {
             Log.e(TAG, "Error in tick: " + e.getMessage(), e);
         }
     }
     
-    private void broadcastPositionUpdate(double lat, double lon, double speed, double heading) {
+    private void startSwarm(int count, double rateHz, double maxRate, long seed) {
+        swarm = new SwarmSimulator(
+                CotEncoder.create(encodingFor(output), "a-f-G-U-C", "m-g", STALE_MILLIS), output, count);
+        // seeded so the same seed gives the same swarm every run
+        Random random = new Random(seed);
+        for (int i = 0; i < count; i++) {
+            double radius = 50 + random.nextDouble() * 1950;
+            double lap = 30 + random.nextDouble() * 270;
+            MotionModel circle = new CircleMotion(lat0, lon0, radius,
+                    random.nextBoolean() ? lap : -lap, random.nextDouble() * 2 * Math.PI);
+            swarm.add("SIM-SWARM-" + (i + 1), "SWARM-" + (i + 1), circle, rateHz);
+        }
+        if (maxRate > 0) {
+            swarm.setMaxRate(maxRate);
+        }
+        swarm.start(clock, SWARM_TICK_MILLIS);
+        Log.d(TAG, "Swarm of " + count + " entities at " + rateHz + " Hz started");
+    }
+
+    private void startReplay(File file, long fromMillis) throws IOException {
+        replayFile = new ReplayFile(file);
+        replay = new ReplayEngine(replayFile, output, STALE_MILLIS);
+        replay.setIdentity(UID, CALLSIGN, "a-f-A-M-F");
+        replay.setEncoding(encodingFor(output));
+        if (replayFile.getFormat() != ReplayFile.Format.COT) {
+            // one track; a CoT log may hold any number, and the UI shows only the robot
+            final RateLimiter ui = new RateLimiter(UI_MAX_RATE, Math.max(1, UI_MAX_RATE / 10));
+            replay.setListener((fix, timeMillis) -> {
+                if (ui.tryAcquire(System.nanoTime() / 1_000_000)) {
+                    broadcastPositionUpdate(timeMillis, fix.lat, fix.lon, fix.speed, fix.course);
+                }
+            });
+        }
+        if (fromMillis != 0) {
+            replay.seek(fromMillis);
+        }
+        exec.execute(this::runReplay);
+        Log.d(TAG, "Replaying " + file + " as " + replayFile.getFormat());
+    }
+
+    private void runReplay() {
+        try {
+            long played = replay.play(clock);
+            Log.d(TAG, "Replay finished after " + played + " fixes: " + replay.getStats().snapshot());
+        } catch (InterruptedException e) {
+            Log.d(TAG, "Replay stopped");
+        } catch (IOException e) {
+            Log.e(TAG, "Replay failed: " + e.getMessage(), e);
+        }
+    }
+
+    private void logSwarmStats() {
+        SwarmSimulator s = swarm;
+        if (s != null) {
+            Log.d(TAG, "Swarm " + s.getStats().snapshot());
+            RuntimeException error = s.getLastError();
+            if (error != null) {
+                Log.e(TAG, "Swarm tick failed: " + error.getMessage(), error);
+            }
+        }
+    }
+
+    private void broadcastPositionUpdate(long timeMillis, double lat, double lon, double speed, double heading) {
         Intent intent = new Intent(ACTION_POSITION_UPDATE);
         // Set package to ATAK's package since plugin runs in ATAK's process
         intent.setPackage("com.atakmap.app.civ");
@@ -111,53 +299,152 @@ public class GpsSimService extends Service {
         intent.putExtra(EXTRA_LONGITUDE, lon);
         intent.putExtra(EXTRA_SPEED, speed);
         intent.putExtra(EXTRA_HEADING, heading);
+        intent.putExtra(EXTRA_TIME, timeMillis);
         
         sendBroadcast(intent);
         Log.d(TAG, "Broadcast sent to: com.atakmap.app.civ with action: " + ACTION_POSITION_UPDATE);
     }
 
-    private static String isoNowPlus(int seconds) {
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
-        sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
-        return sdf.format(new Date(System.currentTimeMillis() + seconds * 1000L));
+    // the mesh form has no framing for a stream; TAK servers take XML first anyway
+    private CotEncoder.Encoding encodingFor(CotOutput out) {
+        return out == tcp ? CotEncoder.Encoding.XML : encoding;
     }
 
-    private String buildCot(double lat, double lon, double speed, double course) {
-        // Minimal CoT “track” event; ATAK will render it as a moving icon
-        String time  = isoNowPlus(0);
-        String start = time;
-        String stale = isoNowPlus(20);
-        return ""
-                + "<event version=\"2.0\" uid=\"" + UID + "\" type=\"a-f-A-M-F\" how=\"m-g\" "
-                + "time=\"" + time + "\" start=\"" + start + "\" stale=\"" + stale + "\">"
-                + "<point lat=\"" + lat + "\" lon=\"" + lon + "\" hae=\"0\" ce=\"5\" le=\"5\"/>"
-                + "<detail>"
-                + "<contact callsign=\"" + CALLSIGN + "\"/>"
-                + "<track speed=\"" + String.format(Locale.US, "%.2f", speed) + "\" "
-                + "course=\"" + String.format(Locale.US, "%.1f", course) + "\"/>"
-                + "</detail>"
-                + "</event>";
+    private CotOutput outputFor(Intent intent) {
+        String host = intent != null ? intent.getStringExtra(EXTRA_TCP_HOST) : null;
+        if (host == null) {
+            return udp;
+        }
+        boolean tls = intent.getBooleanExtra(EXTRA_TCP_TLS, false);
+        int port = intent.getIntExtra(EXTRA_TCP_PORT, tls ? 8089 : 8087);
+        // a slow server costs the oldest positions, never the simulation's pace
+        tcp = new TcpStreamSender(host, port, TCP_QUEUE, TcpStreamSender.Overflow.DROP_OLDEST);
+        if (tls) {
+            try {
+                tcp.setTls(tlsFor(intent));
+            } catch (IOException | GeneralSecurityException e) {
+                throw new IllegalStateException("TLS not available: " + e.getMessage(), e);
+            }
+        }
+        Log.d(TAG, "Streaming CoT to " + host + ":" + port + (tls ? " over TLS" : ""));
+        return tcp;
     }
 
-    private void sendUdp(String payload) {
-        DatagramSocket socket = null;
-        try {
-            socket = new DatagramSocket();
-            byte[] data = payload.getBytes();
-            InetAddress addr = InetAddress.getByName(MULTI_ADDR);
-            DatagramPacket pkt = new DatagramPacket(data, data.length, addr, MULTI_PORT);
-            socket.send(pkt);
-            Log.d(TAG, "UDP packet sent successfully");
-        } catch (Exception e) {
-            Log.e(TAG, "Error sending UDP: " + e.getMessage(), e);
-        } finally {
-            if (socket != null) socket.close();
+    private static SSLContext tlsFor(Intent intent) throws IOException, GeneralSecurityException {
+        String keyPassword = intent.getStringExtra(EXTRA_TCP_KEYSTORE_PASSWORD);
+        KeyStore keys = load(intent.getStringExtra(EXTRA_TCP_KEYSTORE), keyPassword);
+        KeyStore trust = load(intent.getStringExtra(EXTRA_TCP_TRUSTSTORE),
+                intent.getStringExtra(EXTRA_TCP_TRUSTSTORE_PASSWORD));
+        if (keys == null && trust == null) {
+            return SSLContext.getDefault();
+        }
+        return TcpStreamSender.tlsContext(keys, keyPassword != null ? keyPassword.toCharArray() : null, trust);
+    }
+
+    private static KeyStore load(String path, String password) throws IOException, GeneralSecurityException {
+        if (path == null) {
+            return null;
+        }
+        KeyStore store = KeyStore.getInstance("PKCS12");
+        try (InputStream in = new FileInputStream(path)) {
+            store.load(in, password != null ? password.toCharArray() : null);
+        }
+        return store;
+    }
+
+    private void startPipeline(Intent intent) throws IOException {
+        pipeline = new OutputPipeline(STALE_MILLIS);
+        // Minimal CoT "track" event; ATAK will render it as a moving icon
+        robot = pipeline.register(UID, CALLSIGN, "a-f-A-M-F");
+        pipeline.addOutput("multicast", udp, encoding, SINK_QUEUE, 0);
+        if (tcp != null) {
+            // its own queue, so a slow server never holds up the mesh
+            pipeline.addOutput("tcp", tcp, encodingFor(tcp), SINK_QUEUE, 0);
+        }
+        String host = intent != null ? intent.getStringExtra(EXTRA_UNICAST_HOST) : null;
+        if (host != null) {
+            unicast = new UdpSender(host, intent.getIntExtra(EXTRA_UNICAST_PORT, 4242));
+            String name = intent.getStringExtra(EXTRA_UNICAST_ENCODING);
+            pipeline.addOutput("unicast", unicast,
+                    name != null ? CotEncoder.Encoding.forName(name) : encoding, SINK_QUEUE, 0);
+        }
+        String path = intent != null ? intent.getStringExtra(EXTRA_RECORD_FILE) : null;
+        if (path != null) {
+            recorder = new CotRecorder(new File(path), true);
+            pipeline.addOutput("record", recorder, CotEncoder.Encoding.XML, SINK_QUEUE, 0);
+        }
+        pipeline.addListener("ui", (uid, callsign, timeMillis, lat, lon, speed, course) ->
+                broadcastPositionUpdate(timeMillis, lat, lon, speed, course), SINK_QUEUE, UI_MAX_RATE);
+    }
+
+    private void logPipelineStats() {
+        OutputPipeline p = pipeline;
+        if (p == null) {
+            return;
+        }
+        for (OutputPipeline.Sink sink : p.getSinks()) {
+            Exception error = sink.getLastError();
+            if (sink.getFailureCount() > 0 && error != null) {
+                Log.e(TAG, "Output " + sink.getName() + " failed " + sink.getFailureCount() + " times: "
+                        + error.getMessage(), error);
+            }
+        }
+    }
+
+    /**
+     * Stops whatever the last start command set up and closes its outputs;
+     * the multicast sender stays open for the life of the service
+     */
+    private void stopSimulation() {
+        if (exec != null) {
+            exec.shutdownNow();
+            exec = null;
+        }
+        if (pipeline != null) {
+            logPipelineStats();
+            pipeline.close();
+            pipeline = null;
+        }
+        if (swarm != null) {
+            swarm.stop();
+            swarm = null;
+        }
+        if (replay != null) {
+            replay.stop();
+            replay = null;
+        }
+        if (replayFile != null) {
+            try {
+                replayFile.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Error closing replay file: " + e.getMessage(), e);
+            }
+            replayFile = null;
+        }
+        if (tcp != null) {
+            tcp.close();
+            tcp = null;
+        }
+        if (unicast != null) {
+            unicast.close();
+            unicast = null;
+        }
+        if (recorder != null) {
+            try {
+                recorder.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Error closing recording: " + e.getMessage(), e);
+            }
+            recorder = null;
         }
+        output = udp;
     }
 
     @Override public void onDestroy() {
         Log.d(TAG, "GpsSimService onDestroy()");
-        if (exec != null) exec.shutdownNow();
+        stopSimulation();
+        unregisterReceiver(networkReceiver);
+        udp.close();
         super.onDestroy();
     }
 
@@ -28,6 +28,12 @@ import com.atakmap.android.maps.PointMapItem;
 import com.atakmap.android.maps.Shape;
 import com.atakmap.android.maps.Polyline;
 import com.atakmap.coremap.maps.coords.GeoPoint;
+import com.atakmap.android.feature4boundaryalert.plugin.cot.CotReceiver;
+import com.atakmap.android.feature4boundaryalert.plugin.cot.FixQueue;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.BatchContainment;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.BoundaryCrossing;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.TrackTransition;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.EdgeDistance;
 import com.atakmap.coremap.maps.coords.GeoPointMetaData;
 import com.atakmap.android.editableShapes.EditablePolyline;
 import com.atakmap.android.maps.MapTouchController;
@@ -37,6 +43,22 @@ import android.view.MotionEvent;
 public class PluginTemplate implements IPlugin {
 
     private static final String TAG = "BoundaryAlertPlugin";
+    // jitter filter for boundary events: meters past the edge and time
+    // the new state must hold before ENTERED/EXITED is reported
+    private static final double EDGE_BUFFER_METERS = 5;
+    private static final long DWELL_MILLIS = 2000;
+    // vertices closer than this to the outline are dropped on completion
+    private static final double SIMPLIFY_METERS = 1;
+    // completed boundary, kept across plugin restarts
+    private static final String BOUNDARY_FILE = "boundary.geof";
+    // fixes held between the SA receiver and the boundary engine
+    private static final int FIX_QUEUE = 10_000;
+    private static final int FIX_BATCH = 1000;
+    // saving ends in an fsync, so the boundary file is written off the UI
+    // thread; one thread, so a clear's delete lands after the save before it
+    private final java.util.concurrent.ThreadPoolExecutor fileWriter = new java.util.concurrent.ThreadPoolExecutor(
+            1, 1, 10, java.util.concurrent.TimeUnit.SECONDS,
+            new java.util.concurrent.LinkedBlockingQueue<Runnable>());
     IServiceController serviceController;
     Context pluginContext;
     IHostUIService uiService;
@@ -60,6 +82,8 @@ public class PluginTemplate implements IPlugin {
     
     // BroadcastReceiver for position updates
     private BroadcastReceiver positionReceiver;
+    private CotReceiver cotReceiver;
+    private Thread boundaryThread;
     
     // Boundary management
     private BoundaryManager boundaryManager;
@@ -71,6 +95,8 @@ public class PluginTemplate implements IPlugin {
 
     public PluginTemplate(IServiceController serviceController) {
         this.serviceController = serviceController;
+        // no thread lingers between saves
+        fileWriter.allowCoreThreadTimeOut(true);
         final PluginContextProvider ctxProvider = serviceController
                 .getService(PluginContextProvider.class);
         if (ctxProvider != null) {
@@ -83,6 +109,10 @@ public class PluginTemplate implements IPlugin {
         
         // Initialize boundary manager
         boundaryManager = new BoundaryManager();
+        boundaryManager.setCrossingMode(BoundaryManager.CrossingMode.SEGMENT);
+        boundaryManager.setContainmentMode(BoundaryManager.ContainmentMode.PROJECTED);
+        boundaryManager.setHysteresis(EDGE_BUFFER_METERS, EDGE_BUFFER_METERS, DWELL_MILLIS);
+        boundaryManager.setSimplification(BoundaryManager.SimplificationMode.CONSERVATIVE, SIMPLIFY_METERS);
         
         // Get MapView instance
         try {
@@ -91,6 +121,7 @@ public class PluginTemplate implements IPlugin {
         } catch (Exception e) {
             Log.e(TAG, "Error getting MapView: " + e.getMessage(), e);
         }
+        restoreBoundary();
 
         // initialize the toolbar button for the plugin
 
@@ -117,6 +148,7 @@ public class PluginTemplate implements IPlugin {
             return;
 
         uiService.addToolbarItem(toolbarItem);
+        startNetworkFeed();
     }
 
     @Override
@@ -127,6 +159,80 @@ public class PluginTemplate implements IPlugin {
 
         uiService.removeToolbarItem(toolbarItem);
         unregisterPositionReceiver();
+        stopNetworkFeed();
+    }
+
+    /**
+     * Check every track on the SA multicast group against the boundary:
+     * the receiver queues their fixes and a thread drains them in batches
+     */
+    private void startNetworkFeed() {
+        if (cotReceiver != null) {
+            return;
+        }
+        final FixQueue queue = new FixQueue(FIX_QUEUE);
+        cotReceiver = new CotReceiver(CotReceiver.DEFAULT_GROUP, CotReceiver.DEFAULT_PORT, queue);
+        try {
+            cotReceiver.start();
+        } catch (java.io.IOException e) {
+            Log.e(TAG, "Cannot join " + CotReceiver.DEFAULT_GROUP + ":" + CotReceiver.DEFAULT_PORT
+                    + ": " + e.getMessage());
+            cotReceiver = null;
+            return;
+        }
+        boundaryThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                FixQueue.Batch batch = new FixQueue.Batch(FIX_BATCH);
+                try {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        if (queue.drain(batch, 1000) > 0 && boundaryManager.isComplete()) {
+                            // the simulator's robot multicasts too; its broadcasts are checked already
+                            batch.remove(GpsSimService.UID);
+                            reportTransitions(boundaryManager.checkBatch(batch));
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // stopping
+                }
+            }
+        }, "boundary-feed");
+        boundaryThread.setDaemon(true);
+        boundaryThread.start();
+        Log.d(TAG, "Listening for CoT on " + CotReceiver.DEFAULT_GROUP + ":" + CotReceiver.DEFAULT_PORT);
+    }
+
+    private void stopNetworkFeed() {
+        if (cotReceiver == null) {
+            return;
+        }
+        cotReceiver.close();
+        boundaryThread.interrupt();
+        Log.d(TAG, "CoT feed stopped: " + cotReceiver.getEventsReceived() + " events, "
+                + cotReceiver.getRejectedCount() + " rejected, "
+                + cotReceiver.getQueue().getDroppedCount() + " dropped");
+        cotReceiver = null;
+        boundaryThread = null;
+    }
+
+    private void reportTransitions(BatchContainment.Result result) {
+        // BoundaryManager has logged each one
+        if (result.transitions.isEmpty()) {
+            return;
+        }
+        final TrackTransition last = result.transitions.get(result.transitions.size() - 1);
+        final int count = result.transitions.size();
+        if (mapView != null) {
+            mapView.post(new Runnable() {
+                @Override
+                public void run() {
+                    String message = count > 1
+                            ? "⚠️ " + count + " tracks crossed the boundary, last " + last.uid + " " + last.getEvent()
+                            : "⚠️ " + last.uid + " " + last.getEvent() + " boundary zone!";
+                    android.widget.Toast.makeText(pluginContext, message, android.widget.Toast.LENGTH_LONG).show();
+                }
+            });
+        }
     }
 
     private void showPane() {
@@ -241,6 +347,8 @@ public class PluginTemplate implements IPlugin {
                     double lon = intent.getDoubleExtra(GpsSimService.EXTRA_LONGITUDE, 0.0);
                     double speed = intent.getDoubleExtra(GpsSimService.EXTRA_SPEED, 0.0);
                     double heading = intent.getDoubleExtra(GpsSimService.EXTRA_HEADING, 0.0);
+                    // the simulator's clock, which may run fast; now if the sender gave none
+                    long time = intent.getLongExtra(GpsSimService.EXTRA_TIME, System.currentTimeMillis());
                     
                     Log.d(TAG, String.format(java.util.Locale.US, "Position update: lat=%.6f, lon=%.6f, speed=%.2f, heading=%.1f", 
                             lat, lon, speed, heading));
@@ -248,7 +356,7 @@ public class PluginTemplate implements IPlugin {
                     
                     // Check boundary crossing
                     GeoPoint currentPos = new GeoPoint(lat, lon);
-                    checkBoundary(currentPos);
+                    checkBoundary(currentPos, time);
                     updateRobotMarker(currentPos);
                 }
             }
@@ -370,37 +478,31 @@ public class PluginTemplate implements IPlugin {
     private void updatePolygonOnMap() {
         if (mapView == null) return;
         
-        java.util.List<GeoPoint> vertices = boundaryManager.getVertices();
-        if (vertices.size() < 2) return;
+        int vertexCount = boundaryManager.getVertexCount();
+        if (vertexCount < 2) return;
         
-        // Remove old polygon if exists
-        if (boundaryPolygon != null) {
-            mapView.getRootGroup().removeItem(boundaryPolygon);
-        }
+        // Closed ring once complete; built straight from the packed vertex store
+        GeoPoint[] points = boundaryManager.toGeoPoints(boundaryManager.isComplete());
         
-        // Create closed polygon by adding first point at the end
-        java.util.List<GeoPoint> closedVertices = new java.util.ArrayList<>(vertices);
-        if (boundaryManager.isComplete() && vertices.size() >= 3) {
-            closedVertices.add(vertices.get(0)); // Close the polygon
+        // Reuse the existing polyline instead of recreating it on every tap
+        if (boundaryPolygon == null) {
+            boundaryPolygon = new Polyline(java.util.UUID.randomUUID().toString());
+            boundaryPolygon.setStrokeColor(Color.BLUE);
+            boundaryPolygon.setStrokeWeight(3.0);
+            boundaryPolygon.setTitle("Boundary Polygon");
+            boundaryPolygon.setMetaString("callsign", "Boundary");
+            boundaryPolygon.setPoints(points);
+            mapView.getRootGroup().addItem(boundaryPolygon);
+        } else {
+            boundaryPolygon.setPoints(points);
         }
         
-        // Create new polygon
-        GeoPoint[] points = closedVertices.toArray(new GeoPoint[0]);
-        boundaryPolygon = new Polyline(java.util.UUID.randomUUID().toString());
-        boundaryPolygon.setPoints(points);
-        boundaryPolygon.setStrokeColor(Color.BLUE);
-        boundaryPolygon.setStrokeWeight(3.0);
-        
         // Set fill color if polygon is complete
         if (boundaryManager.isComplete()) {
             boundaryPolygon.setFillColor(Color.argb(50, 0, 0, 255)); // Semi-transparent blue
         }
         
-        boundaryPolygon.setTitle("Boundary Polygon");
-        boundaryPolygon.setMetaString("callsign", "Boundary");
-        
-        mapView.getRootGroup().addItem(boundaryPolygon);
-        Log.d(TAG, "Polygon updated on map with " + vertices.size() + " vertices");
+        Log.d(TAG, "Polygon updated on map with " + vertexCount + " vertices");
     }
     
     private void completePolygon() {
@@ -421,6 +523,7 @@ public class PluginTemplate implements IPlugin {
             
             // Update polygon to be closed
             updatePolygonOnMap();
+            saveBoundary();
             
             android.widget.Toast.makeText(pluginContext, "Polygon completed! Boundary detection active.", android.widget.Toast.LENGTH_LONG).show();
             Log.d(TAG, "Polygon completed");
@@ -432,6 +535,17 @@ public class PluginTemplate implements IPlugin {
     private void clearPolygon() {
         boundaryManager.clearPolygon();
         isDrawingMode = false;
+        final java.io.File saved = boundaryFile();
+        if (saved != null) {
+            fileWriter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (saved.exists() && !saved.delete()) {
+                        Log.w(TAG, "Could not delete saved boundary " + saved);
+                    }
+                }
+            });
+        }
         
         // Remove polygon from map
         if (boundaryPolygon != null && mapView != null) {
@@ -455,37 +569,86 @@ public class PluginTemplate implements IPlugin {
         Log.d(TAG, "Polygon cleared");
     }
     
-    private void checkBoundary(GeoPoint position) {
+    private java.io.File boundaryFile() {
+        return pluginContext != null ? new java.io.File(pluginContext.getFilesDir(), BOUNDARY_FILE) : null;
+    }
+    
+    private void saveBoundary() {
+        final java.io.File file = boundaryFile();
+        if (file == null) return;
+        fileWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // the snapshot saved is the one current now; a cleared boundary saves nothing
+                    boundaryManager.saveBoundary(file);
+                } catch (java.io.IOException e) {
+                    Log.e(TAG, "Error saving boundary: " + e.getMessage(), e);
+                }
+            }
+        });
+    }
+    
+    /**
+     * Bring back the boundary completed in an earlier session
+     */
+    private void restoreBoundary() {
+        java.io.File file = boundaryFile();
+        if (file == null || !file.exists()) return;
+        try {
+            if (boundaryManager.restoreBoundary(file)) {
+                updatePolygonOnMap();
+            }
+        } catch (java.io.IOException e) {
+            Log.e(TAG, "Error restoring boundary: " + e.getMessage(), e);
+        }
+    }
+    
+    private void checkBoundary(GeoPoint position, long timeMillis) {
         if (!boundaryManager.isComplete()) {
             return;
         }
         
-        String event = boundaryManager.checkBoundaryCrossing(position);
+        // Segment mode reports corners cut between fixes, with the
+        // interpolated crossing time, once each crossing has gone past the
+        // edge buffer and held for the dwell time
+        java.util.List<BoundaryCrossing> crossings =
+                boundaryManager.checkBoundaryCrossings(position, timeMillis);
         boolean isInside = boundaryManager.isCurrentlyInside();
         
         // Update UI
         if (txtBoundaryStatus != null) {
             String status = isInside ? "Position: INSIDE boundary" : "Position: OUTSIDE boundary";
+            EdgeDistance distance = boundaryManager.getDistanceToBoundary(position);
+            if (distance != null) {
+                status += " (" + Math.round(distance.getMeters()) + " m from edge)";
+            }
             txtBoundaryStatus.setText(status);
             txtBoundaryStatus.setTextColor(isInside ? Color.GREEN : Color.rgb(255, 102, 0));
         }
         
         // Handle boundary crossing events
-        if (event != null) {
+        if (!crossings.isEmpty()) {
+            BoundaryCrossing last = crossings.get(crossings.size() - 1);
+            String event = last.getEvent();
             if (txtLastEvent != null) {
-                String timestamp = new java.text.SimpleDateFormat("HH:mm:ss", java.util.Locale.US).format(new java.util.Date());
+                String timestamp = new java.text.SimpleDateFormat("HH:mm:ss", java.util.Locale.US)
+                        .format(new java.util.Date(last.timeMillis));
                 txtLastEvent.setText("Last Event: " + event + " at " + timestamp);
             }
             
-            // Show alert
-            String message = event.equals("ENTERED") ? 
-                "⚠️ ENTERED boundary zone!" : "⚠️ EXITED boundary zone!";
+            // Show alert, one toast even if the track passed through a corner
+            String message;
+            if (crossings.size() > 1) {
+                message = "⚠️ Crossed boundary zone " + crossings.size() + " times, last " + event + "!";
+            } else {
+                message = event.equals("ENTERED") ? 
+                    "⚠️ ENTERED boundary zone!" : "⚠️ EXITED boundary zone!";
+            }
             android.widget.Toast.makeText(pluginContext, message, android.widget.Toast.LENGTH_LONG).show();
             
             // Change marker color based on event
             updateRobotMarkerColor(isInside);
-            
-            Log.i(TAG, "Boundary event: " + event);
         }
     }
     
@@ -518,4 +681,4 @@ public class PluginTemplate implements IPlugin {
     }
 
 }
-
+
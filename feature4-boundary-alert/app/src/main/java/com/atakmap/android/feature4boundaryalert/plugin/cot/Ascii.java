@@ -0,0 +1,292 @@
+package com.atakmap.android.feature4boundaryalert.plugin.cot;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Parsing of numbers, times and XML attributes straight from bytes in a
+ * buffer, mapped from a file or received off the network, using absolute
+ * indices so the buffer's position is never touched. Malformed input gives
+ * NaN or {@link #NO_TIME} rather than an exception, and the record is
+ * skipped.
+ */
+public final class Ascii {
+
+    public static final long NO_TIME = Long.MIN_VALUE;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final double[] POWERS = {1, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18};
+
+    private Ascii() {
+    }
+
+    public static byte[] bytes(String s) {
+        return s.getBytes(UTF_8);
+    }
+
+    /**
+     * @return index of the pattern in [from, to), or -1
+     */
+    public static int indexOf(ByteBuffer b, int from, int to, byte[] pattern) {
+        byte first = pattern[0];
+        int last = to - pattern.length;
+        for (int i = from; i <= last; i++) {
+            if (b.get(i) == first && matches(b, i, pattern)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public static int indexOf(ByteBuffer b, int from, int to, byte c) {
+        for (int i = from; i < to; i++) {
+            if (b.get(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public static boolean matches(ByteBuffer b, int at, byte[] pattern) {
+        if (at < 0 || at + pattern.length > b.limit()) {
+            return false;
+        }
+        for (int k = 0; k < pattern.length; k++) {
+            if (b.get(at + k) != pattern[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static boolean isSpace(byte c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    /**
+     * Start of the value of an attribute in a tag
+     * @param name the attribute name followed by '='
+     * @return index just past the opening quote, or -1
+     */
+    public static int attribute(ByteBuffer b, int from, int to, byte[] name) {
+        for (int i = indexOf(b, from, to, name); i >= 0; i = indexOf(b, i + 1, to, name)) {
+            // a whole name, not the end of a longer one
+            if (i > from && isSpace(b.get(i - 1))) {
+                int q = i + name.length;
+                if (q < to && (b.get(q) == '"' || b.get(q) == '\'')) {
+                    return q + 1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param start index returned by {@link #attribute}
+     * @return index of the closing quote, or -1
+     */
+    public static int attributeEnd(ByteBuffer b, int start, int to) {
+        return indexOf(b, start, to, b.get(start - 1));
+    }
+
+    public static double attributeDouble(ByteBuffer b, int from, int to, byte[] name) {
+        int start = attribute(b, from, to, name);
+        if (start < 0) {
+            return Double.NaN;
+        }
+        int end = attributeEnd(b, start, to);
+        return end < 0 ? Double.NaN : parseDouble(b, start, end);
+    }
+
+    /**
+     * Text of an attribute with the XML entities resolved, or null
+     */
+    public static String attributeString(ByteBuffer b, int from, int to, byte[] name) {
+        int start = attribute(b, from, to, name);
+        if (start < 0) {
+            return null;
+        }
+        int end = attributeEnd(b, start, to);
+        return end < 0 ? null : text(b, start, end);
+    }
+
+    /**
+     * Range of an element's text, packed as start << 32 | end, or -1
+     * @param open the start tag, e.g. {@code <time>}
+     */
+    public static long element(ByteBuffer b, int from, int to, byte[] open, byte[] close) {
+        int start = indexOf(b, from, to, open);
+        if (start < 0) {
+            return -1;
+        }
+        start += open.length;
+        int end = indexOf(b, start, to, close);
+        return end < 0 ? -1 : (long) start << 32 | end;
+    }
+
+    public static String text(ByteBuffer b, int from, int to) {
+        byte[] raw = new byte[to - from];
+        for (int i = 0; i < raw.length; i++) {
+            raw[i] = b.get(from + i);
+        }
+        String s = new String(raw, UTF_8);
+        if (s.indexOf('&') < 0) {
+            return s;
+        }
+        return s.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"")
+                .replace("&apos;", "'").replace("&amp;", "&");
+    }
+
+    /**
+     * Plain decimal such as -122.0840575 or 1e-3, surrounding blanks
+     * allowed
+     * @return NaN if malformed
+     */
+    public static double parseDouble(ByteBuffer b, int from, int to) {
+        while (from < to && isSpace(b.get(from))) {
+            from++;
+        }
+        while (to > from && isSpace(b.get(to - 1))) {
+            to--;
+        }
+        int i = from;
+        boolean negative = false;
+        if (i < to && (b.get(i) == '-' || b.get(i) == '+')) {
+            negative = b.get(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean point = false;
+        for (; i < to; i++) {
+            byte c = b.get(i);
+            if (c >= '0' && c <= '9') {
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    digits++;
+                    if (point) {
+                        scale++;
+                    }
+                } else if (!point) {
+                    // beyond long precision; keep the magnitude
+                    scale--;
+                }
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (digits == 0) {
+            return Double.NaN;
+        }
+        double value;
+        if (i < to) {
+            if (b.get(i) != 'e' && b.get(i) != 'E') {
+                return Double.NaN;
+            }
+            // rare enough to go the slow way
+            try {
+                return Double.parseDouble(text(b, from, to));
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+        if (scale >= 0 && scale < POWERS.length) {
+            value = mantissa / POWERS[scale];
+        } else {
+            value = mantissa * Math.pow(10, -scale);
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Unsigned decimal digits
+     * @return -1 if any is not a digit
+     */
+    public static int parseInt(ByteBuffer b, int from, int to) {
+        if (from >= to) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            int d = b.get(i) - '0';
+            if (d < 0 || d > 9) {
+                return -1;
+            }
+            value = value * 10 + d;
+        }
+        return value;
+    }
+
+    /**
+     * ISO 8601 date and time, e.g. 2024-05-01T12:00:00.5Z or with a
+     * +02:00 offset; no zone is taken as UTC
+     * @return epoch millis, or {@link #NO_TIME}
+     */
+    public static long parseIsoTime(ByteBuffer b, int from, int to) {
+        while (from < to && isSpace(b.get(from))) {
+            from++;
+        }
+        while (to > from && isSpace(b.get(to - 1))) {
+            to--;
+        }
+        if (to - from < 19 || b.get(from + 4) != '-' || b.get(from + 7) != '-'
+                || (b.get(from + 10) != 'T' && b.get(from + 10) != ' ')
+                || b.get(from + 13) != ':' || b.get(from + 16) != ':') {
+            return NO_TIME;
+        }
+        int year = parseInt(b, from, from + 4);
+        int month = parseInt(b, from + 5, from + 7);
+        int day = parseInt(b, from + 8, from + 10);
+        int hour = parseInt(b, from + 11, from + 13);
+        int minute = parseInt(b, from + 14, from + 16);
+        int second = parseInt(b, from + 17, from + 19);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 60) {
+            return NO_TIME;
+        }
+        int i = from + 19;
+        int millis = 0;
+        if (i < to && b.get(i) == '.') {
+            int scale = 100;
+            for (i++; i < to && b.get(i) >= '0' && b.get(i) <= '9'; i++) {
+                millis += (b.get(i) - '0') * scale;
+                scale /= 10;
+            }
+        }
+        long offsetMinutes = 0;
+        if (i < to) {
+            byte zone = b.get(i);
+            if (zone == 'Z' && i + 1 == to) {
+                offsetMinutes = 0;
+            } else if ((zone == '+' || zone == '-') && (to - i == 6 || to - i == 5 || to - i == 3)) {
+                int oh = parseInt(b, i + 1, i + 3);
+                int om = to - i == 3 ? 0 : parseInt(b, to - 2, to);
+                if (oh < 0 || om < 0 || (to - i == 6 && b.get(i + 3) != ':')) {
+                    return NO_TIME;
+                }
+                offsetMinutes = (zone == '+' ? 1 : -1) * (oh * 60L + om);
+            } else {
+                return NO_TIME;
+            }
+        }
+        long days = daysFromCivil(year, month, day);
+        return ((days * 24 + hour) * 60 + minute - offsetMinutes) * 60_000L + second * 1000L + millis;
+    }
+
+    /**
+     * Days from 1970-01-01 to a proleptic Gregorian date
+     * (H. Hinnant's days_from_civil)
+     */
+    public static long daysFromCivil(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yoe = y - era * 400;
+        int doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097L + doe - 719468;
+    }
+}
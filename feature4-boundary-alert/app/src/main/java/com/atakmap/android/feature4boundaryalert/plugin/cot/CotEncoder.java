@@ -0,0 +1,121 @@
+package com.atakmap.android.feature4boundaryalert.plugin.cot;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes CoT position events for one type and how, in the wire format
+ * an output expects.
+ *
+ * Writers serve many entities: each entity's uid and callsign are
+ * encoded once with {@link #name} and packed into a byte array, and every
+ * event copies them from there. Encoded names belong to the encoding that
+ * made them.
+ *
+ * Not thread safe; use one encoder per sending thread.
+ */
+public abstract class CotEncoder {
+
+    public enum Encoding {
+        /** CoT XML, as older clients and most tools read */
+        XML,
+        /** TAK Protocol version 1: a mesh header and a protobuf TakMessage */
+        PROTOBUF;
+
+        /**
+         * @param name xml or protobuf, any case; null gives XML
+         */
+        public static Encoding forName(String name) {
+            if (name == null || name.equalsIgnoreCase("xml")) {
+                return XML;
+            }
+            if (name.equalsIgnoreCase("protobuf") || name.equalsIgnoreCase("tak")) {
+                return PROTOBUF;
+            }
+            throw new IllegalArgumentException("unknown encoding " + name);
+        }
+    }
+
+    /**
+     * @param uid event uid
+     * @param type CoT type, e.g. a-f-G-U-C
+     * @param how how the position was obtained, e.g. m-g
+     * @param callsign contact callsign
+     * @param staleMillis how long after its time the event goes stale
+     */
+    public static CotEncoder create(Encoding encoding, String uid, String type, String how, String callsign,
+                                    long staleMillis) {
+        if (encoding == Encoding.PROTOBUF) {
+            return new TakProtocolWriter(uid, type, how, callsign, staleMillis);
+        }
+        return new CotWriter(uid, type, how, callsign, staleMillis);
+    }
+
+    /**
+     * An encoder for many entities of one type that writes only packed
+     * names; see {@link #write(ByteBuffer, byte[], int, int, int, long, double, double, double, double)}
+     * @param type CoT type, e.g. a-f-G-U-C
+     * @param how how the position was obtained, e.g. m-g
+     * @param staleMillis how long after its time the event goes stale
+     */
+    public static CotEncoder create(Encoding encoding, String type, String how, long staleMillis) {
+        if (encoding == Encoding.PROTOBUF) {
+            return new TakProtocolWriter(type, how, staleMillis);
+        }
+        return new CotWriter(type, how, staleMillis);
+    }
+
+    public abstract Encoding getEncoding();
+
+    /**
+     * Encode a uid or callsign once, for the packed form of
+     * {@link #write(ByteBuffer, byte[], int, int, int, long, double, double, double, double)}
+     */
+    public abstract byte[] name(String value);
+
+    /**
+     * @return the most bytes one event with the encoder's own uid and
+     *         callsign can take
+     * @throws IllegalStateException if the encoder has no uid of its own
+     */
+    public abstract int getMaxEventBytes();
+
+    /**
+     * @param identityBytes encoded length of uid and callsign together
+     * @return the most bytes one event can take
+     */
+    public abstract int getMaxEventBytes(int identityBytes);
+
+    /**
+     * Write one event into the encoder's own buffer, which is reused by
+     * the next call
+     * @return the buffer, flipped: the event is between position and limit
+     *         and backed by an array
+     * @throws IllegalStateException if the encoder has no uid of its own
+     */
+    public abstract ByteBuffer encode(long timeMillis, double lat, double lon, double speed, double course);
+
+    /**
+     * Write one event with the encoder's own uid and callsign at the
+     * buffer's position
+     * @param timeMillis event time, also used as start
+     * @param speed meters per second
+     * @param course degrees from true north
+     * @return number of bytes written
+     * @throws java.nio.BufferOverflowException if the event does not fit
+     * @throws IllegalArgumentException for a value that cannot be encoded
+     * @throws IllegalStateException if the encoder has no uid of its own
+     */
+    public abstract int write(ByteBuffer out, long timeMillis, double lat, double lon, double speed, double course);
+
+    /**
+     * Write one event for another entity of the same type, taking the uid
+     * and callsign from a packed array of {@link #name} bytes
+     * @param names packed uids and callsigns
+     * @param uidStart first byte of the uid
+     * @param callsignStart end of the uid and first byte of the callsign
+     * @param callsignEnd end of the callsign
+     * @return number of bytes written
+     */
+    public abstract int write(ByteBuffer out, byte[] names, int uidStart, int callsignStart, int callsignEnd,
+                              long timeMillis, double lat, double lon, double speed, double course);
+}
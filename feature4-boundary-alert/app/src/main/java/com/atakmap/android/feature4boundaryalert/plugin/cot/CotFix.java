@@ -0,0 +1,23 @@
+package com.atakmap.android.feature4boundaryalert.plugin.cot;
+
+/**
+ * One position report read from a CoT event. Reused between events; the
+ * uid and type strings are shared by every event of the same track.
+ */
+public final class CotFix {
+
+    public String uid;
+    public String type;
+    /** event time, epoch millis */
+    public long time;
+    /** when the report goes stale, epoch millis */
+    public long stale;
+    public double lat;
+    public double lon;
+    /** height above the ellipsoid in meters, NaN if not given */
+    public double hae;
+    /** meters per second, NaN if not given */
+    public double speed;
+    /** degrees from true north, NaN if not given */
+    public double course;
+}
@@ -0,0 +1,18 @@
+package com.atakmap.android.feature4boundaryalert.plugin.cot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Destination for encoded CoT events.
+ */
+public interface CotOutput {
+
+    /**
+     * Send events, one per buffer, each between position and limit
+     * @return number of events sent, from the first; less than count when
+     *         a later one could not be sent
+     * @throws IOException if not even the first event could be sent
+     */
+    int send(ByteBuffer[] events, int count) throws IOException;
+}
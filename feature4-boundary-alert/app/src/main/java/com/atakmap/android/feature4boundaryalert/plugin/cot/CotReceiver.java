@@ -0,0 +1,223 @@
+package com.atakmap.android.feature4boundaryalert.plugin.cot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.nio.ByteBuffer;
+
+/**
+ * Listens for CoT events on a multicast group, by default the SA group
+ * 239.2.3.1:6969, and queues the position reports for the boundary
+ * engine.
+ *
+ * One thread receives into a single reused packet buffer, a
+ * {@link CotScanner} reads the events in place and each fix is copied into
+ * a {@link FixQueue}; once the uids of the tracks in range are known,
+ * receiving allocates nothing. A datagram may hold several events. TAK
+ * Protocol datagrams are counted and skipped: the scanner reads XML only.
+ *
+ * On Android the process needs a Wi-Fi multicast lock to be sent group
+ * traffic; ATAK holds one while it listens on the same group.
+ */
+public final class CotReceiver implements Closeable {
+
+    public static final String DEFAULT_GROUP = "239.2.3.1";
+    public static final int DEFAULT_PORT = 6969;
+    private static final int MAX_DATAGRAM = 65536;
+    // first byte of every TAK Protocol datagram
+    private static final byte TAK_MAGIC = (byte) 0xBF;
+
+    private final String group;
+    private final int port;
+    private final FixQueue queue;
+    private final CotScanner scanner = new CotScanner();
+    private final CotFix fix = new CotFix();
+    private volatile String interfaceName;
+
+    private MulticastSocket socket;
+    private Thread thread;
+    private volatile boolean closed;
+    private volatile IOException lastError;
+    private long packetsReceived;
+    private long eventsReceived;
+    private long unsupported;
+
+    /**
+     * @param group multicast address to join
+     * @param queue receives the fixes
+     */
+    public CotReceiver(String group, int port, FixQueue queue) {
+        if (port < 1 || port > 65535) {
+            throw new IllegalArgumentException("bad port " + port);
+        }
+        if (queue == null) {
+            throw new IllegalArgumentException("no queue");
+        }
+        this.group = group;
+        this.port = port;
+        this.queue = queue;
+    }
+
+    /**
+     * Join the group on a named interface, e.g. wlan0; takes effect on
+     * {@link #start}
+     * @param name null for the system default
+     */
+    public void setInterface(String name) {
+        this.interfaceName = name;
+    }
+
+    public FixQueue getQueue() {
+        return queue;
+    }
+
+    /**
+     * Join the group and start receiving on a thread of its own
+     * @throws IOException if the socket cannot be opened or the group
+     *         joined
+     */
+    public synchronized void start() throws IOException {
+        if (closed) {
+            throw new IOException("receiver closed");
+        }
+        if (thread != null) {
+            return;
+        }
+        MulticastSocket s = new MulticastSocket(port);
+        try {
+            String name = interfaceName;
+            NetworkInterface ni = name == null ? null : NetworkInterface.getByName(name);
+            s.joinGroup(new InetSocketAddress(InetAddress.getByName(group), port), ni);
+        } catch (IOException e) {
+            s.close();
+            throw e;
+        }
+        socket = s;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runReceiver();
+            }
+        }, "cot-receiver");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return the local port, which is the one asked for unless that was 0
+     */
+    public synchronized int getLocalPort() {
+        return socket != null ? socket.getLocalPort() : port;
+    }
+
+    private void runReceiver() {
+        byte[] data = new byte[MAX_DATAGRAM];
+        DatagramPacket packet = new DatagramPacket(data, data.length);
+        ByteBuffer view = ByteBuffer.wrap(data);
+        MulticastSocket s;
+        synchronized (this) {
+            s = socket;
+        }
+        while (!closed) {
+            try {
+                packet.setLength(data.length);
+                s.receive(packet);
+                view.limit(packet.getLength());
+                view.position(0);
+                receive(view);
+            } catch (IOException e) {
+                if (closed) {
+                    break;
+                }
+                lastError = e;
+                try {
+                    // don't spin on a socket that keeps failing
+                    Thread.sleep(100);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the events in one datagram, between position and limit, and
+     * queue their fixes. Called by the receiving thread; also usable
+     * without starting it, to feed captured traffic.
+     * @return number of fixes queued
+     */
+    public synchronized int receive(ByteBuffer datagram) {
+        packetsReceived++;
+        int from = datagram.position();
+        int to = datagram.limit();
+        if (from < to && datagram.get(from) == TAK_MAGIC) {
+            unsupported++;
+            return 0;
+        }
+        int queued = 0;
+        for (int at = scanner.scan(datagram, from, to, fix); at >= 0; at = scanner.scan(datagram, at, to, fix)) {
+            queue.offer(fix);
+            queued++;
+        }
+        eventsReceived += queued;
+        return queued;
+    }
+
+    public synchronized long getPacketsReceived() {
+        return packetsReceived;
+    }
+
+    /**
+     * @return events read and queued
+     */
+    public synchronized long getEventsReceived() {
+        return eventsReceived;
+    }
+
+    /**
+     * @return events that were cut short or lacked a required field
+     */
+    public synchronized long getRejectedCount() {
+        return scanner.getRejectedCount();
+    }
+
+    /**
+     * @return TAK Protocol datagrams skipped
+     */
+    public synchronized long getUnsupportedCount() {
+        return unsupported;
+    }
+
+    /**
+     * @return the last receive error, or null
+     */
+    public IOException getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Leave the group and stop the thread; fixes already queued stay
+     */
+    @Override
+    public void close() {
+        Thread t;
+        synchronized (this) {
+            closed = true;
+            if (socket != null) {
+                socket.close();
+            }
+            t = thread;
+        }
+        if (t != null) {
+            try {
+                t.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
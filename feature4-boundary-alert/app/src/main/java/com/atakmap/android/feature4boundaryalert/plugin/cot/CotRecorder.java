@@ -0,0 +1,77 @@
+package com.atakmap.android.feature4boundaryalert.plugin.cot;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Output that appends events to a file, as they would go on the wire.
+ *
+ * A batch goes to the file in one gathered write. A file of XML events is
+ * a CoT log that {@link com.atakmap.android.feature4boundaryalert.plugin.sim.ReplayFile}
+ * can play back; TAK Protocol events are written as they are, without
+ * further framing.
+ */
+public final class CotRecorder implements CotOutput, Closeable {
+
+    private final File file;
+    private final FileChannel channel;
+    private long eventsWritten;
+    private long bytesWritten;
+    private boolean closed;
+
+    /**
+     * @param append add to the end of an existing file instead of
+     *               replacing it
+     */
+    public CotRecorder(File file, boolean append) throws IOException {
+        this.file = file;
+        this.channel = new FileOutputStream(file, append).getChannel();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public synchronized int send(ByteBuffer[] events, int count) throws IOException {
+        if (closed) {
+            throw new IOException("recorder closed");
+        }
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            total += events[i].remaining();
+        }
+        long written = 0;
+        while (written < total) {
+            written += channel.write(events, 0, count);
+        }
+        eventsWritten += count;
+        bytesWritten += total;
+        return count;
+    }
+
+    /**
+     * Push what has been written to the storage device
+     */
+    public synchronized void sync() throws IOException {
+        channel.force(false);
+    }
+
+    public synchronized long getEventsWritten() {
+        return eventsWritten;
+    }
+
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        channel.close();
+    }
+}
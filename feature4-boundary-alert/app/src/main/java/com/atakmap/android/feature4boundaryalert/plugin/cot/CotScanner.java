@@ -0,0 +1,259 @@
+package com.atakmap.android.feature4boundaryalert.plugin.cot;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads position reports from CoT XML straight out of a byte buffer.
+ *
+ * No document is built and nothing is copied: the event tag, its point
+ * and its track are found by byte search and their attributes parsed in
+ * place with {@link Ascii}. The only strings are uids and types, and those
+ * come from a table keyed by their bytes, so a track that reports again
+ * costs no allocation at all. The table is emptied when it fills up,
+ * which bounds its memory however many uids go by.
+ *
+ * An event is rejected, and the scan moves on to the next one, when it
+ * lacks a uid, type, time, stale time or a point with a valid latitude and
+ * longitude. Everything in the detail other than the track is skipped.
+ *
+ * Not thread safe; use one scanner per receiving thread.
+ */
+public final class CotScanner {
+
+    private static final byte[] EVENT = Ascii.bytes("<event");
+    private static final byte[] CLOSE = Ascii.bytes("</event>");
+    private static final byte[] UID = Ascii.bytes("uid=");
+    private static final byte[] TYPE = Ascii.bytes("type=");
+    private static final byte[] TIME = Ascii.bytes("time=");
+    private static final byte[] STALE = Ascii.bytes("stale=");
+    private static final byte[] POINT = Ascii.bytes("<point");
+    private static final byte[] LAT = Ascii.bytes("lat=");
+    private static final byte[] LON = Ascii.bytes("lon=");
+    private static final byte[] HAE = Ascii.bytes("hae=");
+    private static final byte[] TRACK = Ascii.bytes("<track");
+    private static final byte[] SPEED = Ascii.bytes("speed=");
+    private static final byte[] COURSE = Ascii.bytes("course=");
+
+    /** most distinct uids and types kept before the table starts over */
+    static final int MAX_NAMES = 1 << 16;
+
+    private final NameTable names = new NameTable(MAX_NAMES);
+    private long rejected;
+
+    /**
+     * Read the next good event in a range of the buffer, skipping bad ones
+     * @return index just past the event read, or -1 when there is no
+     *         complete event left
+     */
+    public int scan(ByteBuffer b, int from, int to, CotFix out) {
+        int start = Ascii.indexOf(b, from, to, EVENT);
+        while (start >= 0) {
+            int k = start + EVENT.length;
+            if (k < to && Ascii.isSpace(b.get(k))) {
+                int tagEnd = Ascii.indexOf(b, k, to, (byte) '>');
+                int end = -1;
+                if (tagEnd >= 0 && b.get(tagEnd - 1) == '/') {
+                    // an empty event, so no point
+                    end = tagEnd + 1;
+                } else if (tagEnd >= 0) {
+                    int close = Ascii.indexOf(b, tagEnd, to, CLOSE);
+                    end = close < 0 ? -1 : close + CLOSE.length;
+                }
+                if (end < 0) {
+                    // cut short
+                    rejected++;
+                    return -1;
+                }
+                if (tagEnd + 1 < end && read(b, start, tagEnd, end, out)) {
+                    return end;
+                }
+                rejected++;
+                start = Ascii.indexOf(b, end, to, EVENT);
+            } else {
+                start = Ascii.indexOf(b, k, to, EVENT);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return events that were cut short or lacked a required field
+     */
+    public long getRejectedCount() {
+        return rejected;
+    }
+
+    /**
+     * @return distinct uids and types held for reuse
+     */
+    public int getNameCount() {
+        return names.size();
+    }
+
+    private boolean read(ByteBuffer b, int start, int tagEnd, int end, CotFix out) {
+        long time = time(b, start, tagEnd, TIME);
+        long stale = time(b, start, tagEnd, STALE);
+        int uid = Ascii.attribute(b, start, tagEnd, UID);
+        int uidEnd = uid < 0 ? -1 : Ascii.attributeEnd(b, uid, tagEnd);
+        int type = Ascii.attribute(b, start, tagEnd, TYPE);
+        int typeEnd = type < 0 ? -1 : Ascii.attributeEnd(b, type, tagEnd);
+        int point = element(b, tagEnd, end, POINT);
+        if (time == Ascii.NO_TIME || stale == Ascii.NO_TIME || uidEnd <= uid || typeEnd < 0 || point < 0) {
+            return false;
+        }
+        int pointEnd = Ascii.indexOf(b, point, end, (byte) '>');
+        double lat = Ascii.attributeDouble(b, point, pointEnd, LAT);
+        double lon = Ascii.attributeDouble(b, point, pointEnd, LON);
+        // NaN fails both
+        if (!(lat >= -90 && lat <= 90) || !(lon >= -180 && lon <= 180)) {
+            return false;
+        }
+        out.uid = names.get(b, uid, uidEnd);
+        out.type = names.get(b, type, typeEnd);
+        out.time = time;
+        out.stale = stale;
+        out.lat = lat;
+        out.lon = lon;
+        out.hae = Ascii.attributeDouble(b, point, pointEnd, HAE);
+        int track = element(b, pointEnd, end, TRACK);
+        if (track >= 0) {
+            int trackEnd = Ascii.indexOf(b, track, end, (byte) '>');
+            out.speed = Ascii.attributeDouble(b, track, trackEnd, SPEED);
+            out.course = Ascii.attributeDouble(b, track, trackEnd, COURSE);
+        } else {
+            out.speed = Double.NaN;
+            out.course = Double.NaN;
+        }
+        return true;
+    }
+
+    private static long time(ByteBuffer b, int from, int to, byte[] name) {
+        int start = Ascii.attribute(b, from, to, name);
+        int end = start < 0 ? -1 : Ascii.attributeEnd(b, start, to);
+        return end < 0 ? Ascii.NO_TIME : Ascii.parseIsoTime(b, start, end);
+    }
+
+    /**
+     * Start of an element's tag, not one whose name merely begins the same
+     * @return index of the '<', or -1
+     */
+    private static int element(ByteBuffer b, int from, int to, byte[] open) {
+        for (int i = Ascii.indexOf(b, from, to, open); i >= 0; i = Ascii.indexOf(b, i + 1, to, open)) {
+            int k = i + open.length;
+            if (k < to) {
+                byte c = b.get(k);
+                if (Ascii.isSpace(c) || c == '/' || c == '>') {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Open addressing table from the raw bytes of a name to its string
+     */
+    static final class NameTable {
+        private final int maxSize;
+        private byte[][] keys;
+        private int[] hashes;
+        private String[] values;
+        private int size;
+
+        NameTable(int maxSize) {
+            this.maxSize = maxSize;
+            allocate(64);
+        }
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * @return the string for the bytes, with XML entities resolved
+         */
+        String get(ByteBuffer b, int from, int to) {
+            int hash = hash(b, from, to);
+            int mask = keys.length - 1;
+            for (int i = hash & mask; ; i = (i + 1) & mask) {
+                byte[] key = keys[i];
+                if (key == null) {
+                    return add(i, hash, b, from, to);
+                }
+                if (hashes[i] == hash && equal(key, b, from, to)) {
+                    return values[i];
+                }
+            }
+        }
+
+        private String add(int slot, int hash, ByteBuffer b, int from, int to) {
+            if (2 * (size + 1) > keys.length) {
+                if (size >= maxSize) {
+                    allocate(keys.length);
+                } else {
+                    grow();
+                }
+                return get(b, from, to);
+            }
+            byte[] key = new byte[to - from];
+            for (int k = 0; k < key.length; k++) {
+                key[k] = b.get(from + k);
+            }
+            String value = Ascii.text(b, from, to);
+            keys[slot] = key;
+            hashes[slot] = hash;
+            values[slot] = value;
+            size++;
+            return value;
+        }
+
+        private void grow() {
+            byte[][] oldKeys = keys;
+            int[] oldHashes = hashes;
+            String[] oldValues = values;
+            int oldSize = size;
+            allocate(2 * oldKeys.length);
+            int mask = keys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldKeys[j] != null) {
+                    int i = oldHashes[j] & mask;
+                    while (keys[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    keys[i] = oldKeys[j];
+                    hashes[i] = oldHashes[j];
+                    values[i] = oldValues[j];
+                }
+            }
+            size = oldSize;
+        }
+
+        private void allocate(int slots) {
+            keys = new byte[slots][];
+            hashes = new int[slots];
+            values = new String[slots];
+            size = 0;
+        }
+
+        private static int hash(ByteBuffer b, int from, int to) {
+            // FNV-1a, then spread so the low bits used as the index mix
+            int h = 0x811C9DC5;
+            for (int i = from; i < to; i++) {
+                h = (h ^ (b.get(i) & 0xFF)) * 0x01000193;
+            }
+            return h ^ (h >>> 16);
+        }
+
+        private static boolean equal(byte[] key, ByteBuffer b, int from, int to) {
+            if (key.length != to - from) {
+                return false;
+            }
+            for (int k = 0; k < key.length; k++) {
+                if (key[k] != b.get(from + k)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package com.atakmap.android.feature4boundaryalert.plugin.cot;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Allocation-free writer for CoT position events.
+ *
+ * Everything in the event that does not change between fixes (uid, type,
+ * how, callsign and the markup around the values) is encoded to bytes
+ * once. Writing an event copies those pieces into a buffer and prints the
+ * timestamps, point and track straight into it as ASCII digits, so no
+ * String, formatter or Date is created per event. One writer can also
+ * serve many entities that share type and how, taking each entity's uid
+ * and callsign from a packed byte array, see {@link #attribute}.
+ *
+ * Times are written as yyyy-MM-dd'T'HH:mm:ss'Z' in UTC; latitude and
+ * longitude get 7 decimals (about 1 cm), speed 2 and course 1.
+ *
+ * Not thread safe; use one writer per sending thread.
+ */
+public final class CotWriter extends CotEncoder {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+    private static final long[] POW10 = {1, 10, 100, 1_000, 10_000, 100_000, 1_000_000, 10_000_000};
+    // values must stay well inside a long once scaled
+    private static final double MAX_MAGNITUDE = 1e11;
+
+    private static final byte[] EVENT = utf8("<event version=\"2.0\" uid=\"");
+    private static final byte[] START = utf8("\" start=\"");
+    private static final byte[] STALE = utf8("\" stale=\"");
+    private static final byte[] LAT = utf8("\"><point lat=\"");
+    private static final byte[] LON = utf8("\" lon=\"");
+    private static final byte[] CONTACT = utf8("\" hae=\"0\" ce=\"5\" le=\"5\"/><detail><contact callsign=\"");
+    private static final byte[] TRACK = utf8("\"/><track speed=\"");
+    private static final byte[] COURSE = utf8("\" course=\"");
+    private static final byte[] TAIL = utf8("\"/></detail></event>");
+
+    /** length of a written timestamp */
+    static final int TIME_BYTES = 20;
+    // sign, 11 integer digits, point and decimals
+    private static final int MAX_NUMBER_BYTES = 20;
+
+    private final byte[] identity;
+    private final int callsignStart;
+    private final byte[] typeAndHow;
+    private final long staleMillis;
+    private final byte[] digits = new byte[MAX_NUMBER_BYTES];
+    private final ByteBuffer buffer;
+
+    /**
+     * @param uid event uid
+     * @param type CoT type, e.g. a-f-G-U-C
+     * @param how how the position was obtained, e.g. m-g
+     * @param callsign contact callsign
+     * @param staleMillis how long after its time the event goes stale
+     */
+    public CotWriter(String uid, String type, String how, String callsign, long staleMillis) {
+        this(attribute(uid), attribute(callsign), type, how, staleMillis);
+    }
+
+    /**
+     * A writer for many entities of one type, with no uid or callsign of
+     * its own: every event takes them from packed names, and the
+     * single-entity forms throw IllegalStateException
+     * @param type CoT type, e.g. a-f-G-U-C
+     * @param how how the position was obtained, e.g. m-g
+     * @param staleMillis how long after its time the event goes stale
+     */
+    public CotWriter(String type, String how, long staleMillis) {
+        this((byte[]) null, null, type, how, staleMillis);
+    }
+
+    private CotWriter(byte[] uidBytes, byte[] callsignBytes, String type, String how, long staleMillis) {
+        if (staleMillis < 0) {
+            throw new IllegalArgumentException("stale time must be >= 0");
+        }
+        if (uidBytes != null) {
+            this.identity = new byte[uidBytes.length + callsignBytes.length];
+            System.arraycopy(uidBytes, 0, identity, 0, uidBytes.length);
+            System.arraycopy(callsignBytes, 0, identity, uidBytes.length, callsignBytes.length);
+            this.callsignStart = uidBytes.length;
+        } else {
+            this.identity = null;
+            this.callsignStart = 0;
+        }
+        this.typeAndHow = utf8("\" type=\"" + escape(type) + "\" how=\"" + escape(how) + "\" time=\"");
+        this.staleMillis = staleMillis;
+        this.buffer = identity != null ? ByteBuffer.allocate(getMaxEventBytes()) : null;
+    }
+
+    /**
+     * Encode a uid or callsign once, escaped, for the packed form of
+     * {@link #write(ByteBuffer, byte[], int, int, int, long, double, double, double, double)}
+     */
+    public static byte[] attribute(String value) {
+        return utf8(escape(value));
+    }
+
+    @Override
+    public Encoding getEncoding() {
+        return Encoding.XML;
+    }
+
+    @Override
+    public byte[] name(String value) {
+        return attribute(value);
+    }
+
+    /**
+     * @return the most bytes one event with the writer's own uid and
+     *         callsign can take
+     */
+    @Override
+    public int getMaxEventBytes() {
+        return getMaxEventBytes(identity().length);
+    }
+
+    /**
+     * @param identityBytes encoded length of uid and callsign together
+     * @return the most bytes one event can take
+     */
+    @Override
+    public int getMaxEventBytes(int identityBytes) {
+        return EVENT.length + identityBytes + typeAndHow.length + START.length + STALE.length + LAT.length
+                + LON.length + CONTACT.length + TRACK.length + COURSE.length + TAIL.length
+                + 3 * TIME_BYTES + 4 * MAX_NUMBER_BYTES;
+    }
+
+    /**
+     * Write one event into the writer's own buffer, which is reused by the
+     * next call
+     * @return the buffer, flipped: the event is between position and limit
+     *         and backed by an array
+     */
+    @Override
+    public ByteBuffer encode(long timeMillis, double lat, double lon, double speed, double course) {
+        identity();
+        buffer.clear();
+        write(buffer, timeMillis, lat, lon, speed, course);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Write one event at the buffer's position
+     * @param timeMillis event time, also used as start
+     * @param speed meters per second
+     * @param course degrees from true north
+     * @return number of bytes written
+     * @throws java.nio.BufferOverflowException if the event does not fit
+     * @throws IllegalArgumentException for a value that is not finite or
+     *         a time outside years 0 to 9999
+     */
+    @Override
+    public int write(ByteBuffer out, long timeMillis, double lat, double lon, double speed, double course) {
+        byte[] own = identity();
+        return write(out, own, 0, callsignStart, own.length, timeMillis, lat, lon, speed, course);
+    }
+
+    private byte[] identity() {
+        if (identity == null) {
+            throw new IllegalStateException("no uid of its own; write packed names");
+        }
+        return identity;
+    }
+
+    /**
+     * Write one event for another entity of the same type. The uid and the
+     * callsign are taken from a packed array of {@link #attribute} bytes.
+     * @param names packed uids and callsigns
+     * @param uidStart first byte of the uid
+     * @param callsignStart end of the uid and first byte of the callsign
+     * @param callsignEnd end of the callsign
+     * @return number of bytes written
+     */
+    @Override
+    public int write(ByteBuffer out, byte[] names, int uidStart, int callsignStart, int callsignEnd,
+                     long timeMillis, double lat, double lon, double speed, double course) {
+        int start = out.position();
+        out.put(EVENT);
+        out.put(names, uidStart, callsignStart - uidStart);
+        out.put(typeAndHow);
+        putTime(out, timeMillis);
+        out.put(START);
+        putTime(out, timeMillis);
+        out.put(STALE);
+        putTime(out, timeMillis + staleMillis);
+        out.put(LAT);
+        putFixed(out, lat, 7);
+        out.put(LON);
+        putFixed(out, lon, 7);
+        out.put(CONTACT);
+        out.put(names, callsignStart, callsignEnd - callsignStart);
+        out.put(TRACK);
+        putFixed(out, speed, 2);
+        out.put(COURSE);
+        putFixed(out, course, 1);
+        out.put(TAIL);
+        return out.position() - start;
+    }
+
+    /**
+     * Print a UTC time as yyyy-MM-dd'T'HH:mm:ss'Z'
+     */
+    static void putTime(ByteBuffer out, long millis) {
+        long days = millis / MILLIS_PER_DAY;
+        long rest = millis % MILLIS_PER_DAY;
+        if (rest < 0) {
+            days--;
+            rest += MILLIS_PER_DAY;
+        }
+        int secondOfDay = (int) (rest / 1000);
+
+        // civil date from days since 1970-01-01, proleptic Gregorian
+        long z = days + 719_468;
+        long era = (z >= 0 ? z : z - 146_096) / 146_097;
+        int dayOfEra = (int) (z - era * 146_097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        if (year < 0 || year > 9999) {
+            throw new IllegalArgumentException("time out of range: " + millis);
+        }
+
+        putPadded(out, (int) year, 4);
+        out.put((byte) '-');
+        putPadded(out, month, 2);
+        out.put((byte) '-');
+        putPadded(out, day, 2);
+        out.put((byte) 'T');
+        putPadded(out, secondOfDay / 3600, 2);
+        out.put((byte) ':');
+        putPadded(out, secondOfDay / 60 % 60, 2);
+        out.put((byte) ':');
+        putPadded(out, secondOfDay % 60, 2);
+        out.put((byte) 'Z');
+    }
+
+    private static void putPadded(ByteBuffer out, int value, int width) {
+        for (long div = POW10[width - 1]; div > 0; div /= 10) {
+            out.put((byte) ('0' + value / div % 10));
+        }
+    }
+
+    /**
+     * Print a value rounded to a fixed number of decimals, without a
+     * minus sign when it rounds to zero
+     */
+    void putFixed(ByteBuffer out, double value, int decimals) {
+        double magnitude = Math.abs(value);
+        if (!(magnitude < MAX_MAGNITUDE)) {
+            throw new IllegalArgumentException("cannot write " + value);
+        }
+        long scale = POW10[decimals];
+        long scaled = Math.round(magnitude * scale);
+        if (value < 0 && scaled != 0) {
+            out.put((byte) '-');
+        }
+        long whole = scaled / scale;
+        long fraction = scaled % scale;
+        int n = 0;
+        do {
+            digits[n++] = (byte) ('0' + whole % 10);
+            whole /= 10;
+        } while (whole > 0);
+        while (n > 0) {
+            out.put(digits[--n]);
+        }
+        if (decimals > 0) {
+            out.put((byte) '.');
+            for (long div = scale / 10; div > 0; div /= 10) {
+                out.put((byte) ('0' + fraction / div % 10));
+            }
+        }
+    }
+
+    /**
+     * Escape the characters that cannot appear in an XML attribute
+     */
+    static String escape(String s) {
+        StringBuilder out = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '&':
+                    out.append("&amp;");
+                    break;
+                case '<':
+                    out.append("&lt;");
+                    break;
+                case '>':
+                    out.append("&gt;");
+                    break;
+                case '"':
+                    out.append("&quot;");
+                    break;
+                case '\'':
+                    out.append("&apos;");
+                    break;
+                default:
+                    out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(UTF_8);
+    }
+}
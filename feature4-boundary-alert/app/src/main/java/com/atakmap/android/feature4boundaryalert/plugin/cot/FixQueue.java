@@ -0,0 +1,185 @@
+package com.atakmap.android.feature4boundaryalert.plugin.cot;
+
+/**
+ * Bounded queue of received fixes, between the thread that receives them
+ * and the boundary engine that drains them.
+ *
+ * Fixes are copied into parallel arrays on the way in and out, so neither
+ * side allocates. When the queue is full the oldest fix goes: the engine
+ * cares where tracks are now, not where they were.
+ */
+public final class FixQueue {
+
+    /**
+     * Fixes drained at once, in arrival order; reused between drains
+     */
+    public static final class Batch {
+        public final String[] uids;
+        public final String[] types;
+        public final long[] times;
+        public final long[] stales;
+        public final double[] lats;
+        public final double[] lons;
+        public final double[] haes;
+        public final double[] speeds;
+        public final double[] courses;
+        /** fixes in the arrays */
+        public int count;
+
+        public Batch(int capacity) {
+            if (capacity < 1) {
+                throw new IllegalArgumentException("capacity must be at least 1");
+            }
+            uids = new String[capacity];
+            types = new String[capacity];
+            times = new long[capacity];
+            stales = new long[capacity];
+            lats = new double[capacity];
+            lons = new double[capacity];
+            haes = new double[capacity];
+            speeds = new double[capacity];
+            courses = new double[capacity];
+        }
+
+        public int capacity() {
+            return uids.length;
+        }
+
+        /**
+         * Drop every fix of one track, keeping the rest in order
+         * @return fixes dropped
+         */
+        public int remove(String uid) {
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                if (uid.equals(uids[i])) {
+                    continue;
+                }
+                if (kept != i) {
+                    uids[kept] = uids[i];
+                    types[kept] = types[i];
+                    times[kept] = times[i];
+                    stales[kept] = stales[i];
+                    lats[kept] = lats[i];
+                    lons[kept] = lons[i];
+                    haes[kept] = haes[i];
+                    speeds[kept] = speeds[i];
+                    courses[kept] = courses[i];
+                }
+                kept++;
+            }
+            int dropped = count - kept;
+            count = kept;
+            return dropped;
+        }
+
+        /**
+         * @return the latest fix time in the batch, 0 if it is empty
+         */
+        public long getNewestTime() {
+            long newest = 0;
+            for (int i = 0; i < count; i++) {
+                newest = Math.max(newest, times[i]);
+            }
+            return newest;
+        }
+    }
+
+    private final Batch ring;
+    private final int capacity;
+    private int head;
+    private int size;
+    private long offered;
+    private long dropped;
+
+    public FixQueue(int capacity) {
+        this.ring = new Batch(capacity);
+        this.capacity = capacity;
+    }
+
+    /**
+     * Copy a fix in, dropping the oldest if the queue is full
+     * @return false if a fix was dropped to make room
+     */
+    public synchronized boolean offer(CotFix fix) {
+        offered++;
+        boolean room = size < capacity;
+        int tail;
+        if (room) {
+            tail = head + size < capacity ? head + size : head + size - capacity;
+            size++;
+        } else {
+            tail = head;
+            head = head + 1 == capacity ? 0 : head + 1;
+            dropped++;
+        }
+        ring.uids[tail] = fix.uid;
+        ring.types[tail] = fix.type;
+        ring.times[tail] = fix.time;
+        ring.stales[tail] = fix.stale;
+        ring.lats[tail] = fix.lat;
+        ring.lons[tail] = fix.lon;
+        ring.haes[tail] = fix.hae;
+        ring.speeds[tail] = fix.speed;
+        ring.courses[tail] = fix.course;
+        if (size == 1) {
+            notifyAll();
+        }
+        return room;
+    }
+
+    /**
+     * Move as many fixes as fit into a batch, oldest first; never waits
+     * @return number moved, also left in the batch's count
+     */
+    public synchronized int drain(Batch out) {
+        int n = Math.min(size, out.capacity());
+        for (int k = 0; k < n; k++) {
+            out.uids[k] = ring.uids[head];
+            out.types[k] = ring.types[head];
+            out.times[k] = ring.times[head];
+            out.stales[k] = ring.stales[head];
+            out.lats[k] = ring.lats[head];
+            out.lons[k] = ring.lons[head];
+            out.haes[k] = ring.haes[head];
+            out.speeds[k] = ring.speeds[head];
+            out.courses[k] = ring.courses[head];
+            head = head + 1 == capacity ? 0 : head + 1;
+        }
+        size -= n;
+        out.count = n;
+        return n;
+    }
+
+    /**
+     * Wait for at least one fix, then drain
+     * @return number moved, 0 if the time ran out
+     */
+    public synchronized int drain(Batch out, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (size == 0) {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0) {
+                out.count = 0;
+                return 0;
+            }
+            wait(left);
+        }
+        return drain(out);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized long getOfferedCount() {
+        return offered;
+    }
+
+    /**
+     * @return fixes dropped from a full queue
+     */
+    public synchronized long getDroppedCount() {
+        return dropped;
+    }
+}
@@ -0,0 +1,263 @@
+package com.atakmap.android.feature4boundaryalert.plugin.cot;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * Allocation-free writer for TAK Protocol version 1 position events, as
+ * sent on the SA mesh: the header bytes 0xBF 0x01 0xBF and a protobuf
+ * TakMessage holding a CotEvent.
+ *
+ * The message is written field by field without a protobuf library. The
+ * type and how fields are encoded once; lengths of the nested messages
+ * are worked out before writing, so nothing is written twice and no
+ * object is created per event. The fields written are those of the XML
+ * event: type, uid, the three times, how, point (hae 0 is the default and
+ * left out), and in the detail the contact callsign and the track.
+ *
+ * Not thread safe; use one writer per sending thread.
+ */
+public final class TakProtocolWriter extends CotEncoder {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** magic, version 1 and magic again */
+    static final byte[] MESH_HEADER = {(byte) 0xBF, 0x01, (byte) 0xBF};
+
+    // field numbers and wire types, from takmessage.proto, cotevent.proto,
+    // detail.proto, contact.proto and track.proto
+    private static final int VARINT = 0;
+    private static final int FIXED64 = 1;
+    private static final int LENGTH = 2;
+    private static final byte TAK_COT_EVENT = tag(2, LENGTH);
+    private static final byte EVENT_TYPE = tag(1, LENGTH);
+    private static final byte EVENT_UID = tag(5, LENGTH);
+    private static final byte EVENT_SEND_TIME = tag(6, VARINT);
+    private static final byte EVENT_START_TIME = tag(7, VARINT);
+    private static final byte EVENT_STALE_TIME = tag(8, VARINT);
+    private static final byte EVENT_HOW = tag(9, LENGTH);
+    private static final byte EVENT_LAT = tag(10, FIXED64);
+    private static final byte EVENT_LON = tag(11, FIXED64);
+    private static final byte EVENT_CE = tag(13, FIXED64);
+    private static final byte EVENT_LE = tag(14, FIXED64);
+    private static final byte EVENT_DETAIL = tag(15, LENGTH);
+    private static final byte DETAIL_CONTACT = tag(2, LENGTH);
+    private static final byte DETAIL_TRACK = tag(7, LENGTH);
+    private static final byte CONTACT_CALLSIGN = tag(2, LENGTH);
+    private static final byte TRACK_SPEED = tag(1, FIXED64);
+    private static final byte TRACK_COURSE = tag(2, FIXED64);
+
+    // circular errors as in the XML event
+    private static final double CE = 5;
+    private static final double LE = 5;
+    private static final int DOUBLE_FIELD = 9;
+    private static final int TRACK_BYTES = 2 * DOUBLE_FIELD;
+    private static final int MAX_VARINT = 10;
+
+    private final byte[] identity;
+    private final int callsignStart;
+    private final byte[] typeField;
+    private final byte[] howField;
+    private final long staleMillis;
+    private final ByteBuffer buffer;
+
+    /**
+     * @param uid event uid
+     * @param type CoT type, e.g. a-f-G-U-C
+     * @param how how the position was obtained, e.g. m-g
+     * @param callsign contact callsign
+     * @param staleMillis how long after its time the event goes stale
+     */
+    public TakProtocolWriter(String uid, String type, String how, String callsign, long staleMillis) {
+        this(utf8(uid), utf8(callsign), type, how, staleMillis);
+    }
+
+    /**
+     * A writer for many entities of one type, with no uid or callsign of
+     * its own: every event takes them from packed names, and the
+     * single-entity forms throw IllegalStateException
+     * @param type CoT type, e.g. a-f-G-U-C
+     * @param how how the position was obtained, e.g. m-g
+     * @param staleMillis how long after its time the event goes stale
+     */
+    public TakProtocolWriter(String type, String how, long staleMillis) {
+        this((byte[]) null, null, type, how, staleMillis);
+    }
+
+    private TakProtocolWriter(byte[] uidBytes, byte[] callsignBytes, String type, String how, long staleMillis) {
+        if (staleMillis < 0) {
+            throw new IllegalArgumentException("stale time must be >= 0");
+        }
+        if (uidBytes != null) {
+            this.identity = new byte[uidBytes.length + callsignBytes.length];
+            System.arraycopy(uidBytes, 0, identity, 0, uidBytes.length);
+            System.arraycopy(callsignBytes, 0, identity, uidBytes.length, callsignBytes.length);
+            this.callsignStart = uidBytes.length;
+        } else {
+            this.identity = null;
+            this.callsignStart = 0;
+        }
+        this.typeField = field(EVENT_TYPE, utf8(type));
+        this.howField = field(EVENT_HOW, utf8(how));
+        this.staleMillis = staleMillis;
+        this.buffer = identity != null ? ByteBuffer.allocate(getMaxEventBytes()) : null;
+    }
+
+    @Override
+    public Encoding getEncoding() {
+        return Encoding.PROTOBUF;
+    }
+
+    /**
+     * @return the value as plain UTF-8; protobuf strings need no escaping
+     */
+    @Override
+    public byte[] name(String value) {
+        return utf8(value);
+    }
+
+    @Override
+    public int getMaxEventBytes() {
+        return getMaxEventBytes(identity().length);
+    }
+
+    @Override
+    public int getMaxEventBytes(int identityBytes) {
+        // header, event, uid, times, point and three levels of detail
+        return MESH_HEADER.length + 1 + MAX_VARINT + typeField.length + 1 + MAX_VARINT + identityBytes
+                + 3 * (1 + MAX_VARINT) + howField.length + 4 * DOUBLE_FIELD
+                + 3 * (1 + MAX_VARINT) + 2 + TRACK_BYTES;
+    }
+
+    @Override
+    public ByteBuffer encode(long timeMillis, double lat, double lon, double speed, double course) {
+        identity();
+        buffer.clear();
+        write(buffer, timeMillis, lat, lon, speed, course);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * @throws IllegalArgumentException for a value that is not finite or
+     *         a negative time
+     */
+    @Override
+    public int write(ByteBuffer out, long timeMillis, double lat, double lon, double speed, double course) {
+        byte[] own = identity();
+        return write(out, own, 0, callsignStart, own.length, timeMillis, lat, lon, speed, course);
+    }
+
+    private byte[] identity() {
+        if (identity == null) {
+            throw new IllegalStateException("no uid of its own; write packed names");
+        }
+        return identity;
+    }
+
+    @Override
+    public int write(ByteBuffer out, byte[] names, int uidStart, int callsignStart, int callsignEnd,
+                     long timeMillis, double lat, double lon, double speed, double course) {
+        if (timeMillis < 0) {
+            throw new IllegalArgumentException("cannot write time " + timeMillis);
+        }
+        checkFinite(lat);
+        checkFinite(lon);
+        checkFinite(speed);
+        checkFinite(course);
+        long staleTime = timeMillis + staleMillis;
+        int uidLength = callsignStart - uidStart;
+        int callsignLength = callsignEnd - callsignStart;
+        int contactLength = 1 + varintSize(callsignLength) + callsignLength;
+        int detailLength = 1 + varintSize(contactLength) + contactLength + 1 + 1 + TRACK_BYTES;
+        int eventLength = typeField.length + 1 + varintSize(uidLength) + uidLength
+                + 3 + 2 * varintSize(timeMillis) + varintSize(staleTime) + howField.length
+                + 4 * DOUBLE_FIELD + 1 + varintSize(detailLength) + detailLength;
+
+        int start = out.position();
+        out.put(MESH_HEADER);
+        out.put(TAK_COT_EVENT);
+        putVarint(out, eventLength);
+        out.put(typeField);
+        out.put(EVENT_UID);
+        putVarint(out, uidLength);
+        out.put(names, uidStart, uidLength);
+        out.put(EVENT_SEND_TIME);
+        putVarint(out, timeMillis);
+        out.put(EVENT_START_TIME);
+        putVarint(out, timeMillis);
+        out.put(EVENT_STALE_TIME);
+        putVarint(out, staleTime);
+        out.put(howField);
+        putDouble(out, EVENT_LAT, lat);
+        putDouble(out, EVENT_LON, lon);
+        putDouble(out, EVENT_CE, CE);
+        putDouble(out, EVENT_LE, LE);
+        out.put(EVENT_DETAIL);
+        putVarint(out, detailLength);
+        out.put(DETAIL_CONTACT);
+        putVarint(out, contactLength);
+        out.put(CONTACT_CALLSIGN);
+        putVarint(out, callsignLength);
+        out.put(names, callsignStart, callsignLength);
+        out.put(DETAIL_TRACK);
+        out.put((byte) TRACK_BYTES);
+        putDouble(out, TRACK_SPEED, speed);
+        putDouble(out, TRACK_COURSE, course);
+        return out.position() - start;
+    }
+
+    static int varintSize(long value) {
+        int n = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            n++;
+        }
+        return n;
+    }
+
+    static void putVarint(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    /**
+     * A tag and a little-endian double, whatever the buffer's byte order
+     */
+    private static void putDouble(ByteBuffer out, byte tag, double value) {
+        out.put(tag);
+        long bits = Double.doubleToRawLongBits(value);
+        out.putLong(out.order() == ByteOrder.LITTLE_ENDIAN ? bits : Long.reverseBytes(bits));
+    }
+
+    private static void checkFinite(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("cannot write " + value);
+        }
+    }
+
+    private static byte tag(int field, int wireType) {
+        return (byte) (field << 3 | wireType);
+    }
+
+    /**
+     * Tag, length and bytes of a string field
+     */
+    private static byte[] field(byte tag, byte[] value) {
+        ByteBuffer b = ByteBuffer.allocate(1 + MAX_VARINT + value.length);
+        b.put(tag);
+        putVarint(b, value.length);
+        b.put(value);
+        byte[] out = new byte[b.position()];
+        System.arraycopy(b.array(), 0, out, 0, out.length);
+        return out;
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(UTF_8);
+    }
+}
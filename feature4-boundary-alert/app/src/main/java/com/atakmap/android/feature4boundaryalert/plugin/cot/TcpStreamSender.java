@@ -0,0 +1,809 @@
+package com.atakmap.android.feature4boundaryalert.plugin.cot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * Streaming TCP output for CoT events, e.g. to a TAK server's streaming
+ * port, in the clear or over TLS.
+ *
+ * {@link #send} copies events into a bounded queue of reused direct
+ * buffers and returns; a thread of the sender's own writes them out over
+ * a non-blocking channel. It takes every queued event at once, up to 256
+ * events or 256 KB, by swapping the queue's buffers for empty ones, and
+ * writes the lot with one gathered write, or wraps it into as few TLS
+ * records as fit. The selector also watches for input, which is read and
+ * thrown away, and for the server hanging up. Over TLS the server's
+ * certificate must name the host the sender was given, as for HTTPS.
+ *
+ * When the queue is full, {@link Overflow#DROP_OLDEST} makes room by
+ * dropping the oldest queued event, so a tick never waits on the network;
+ * {@link Overflow#BLOCK} makes the sender wait for room instead.
+ *
+ * A lost connection is opened again, after a delay that doubles with each
+ * failure up to a limit; events keep queueing meanwhile. The batch being
+ * written when the connection failed is written again in full on the new
+ * one, so an event at the break may arrive twice but none is cut short.
+ * Events still queued when the sender is closed are dropped; call
+ * {@link #flush} first to wait for them.
+ *
+ * Events are written back to back as they come, which suits XML; TAK
+ * servers start every stream in XML. TAK Protocol mesh packets carry no
+ * length, so they are refused rather than run together on the stream.
+ */
+public final class TcpStreamSender implements CotOutput, Closeable {
+
+    /** What {@link #send} does when the queue is full */
+    public enum Overflow {
+        /** drop the oldest queued event to make room */
+        DROP_OLDEST,
+        /** wait for room */
+        BLOCK
+    }
+
+    public static final int MAX_BATCH = 256;
+    private static final long MAX_BATCH_BYTES = 256 << 10;
+    private static final long CONNECT_TIMEOUT_MILLIS = 10_000;
+    // a write that makes no progress for this long is taken as a dead connection
+    private static final long STALL_MILLIS = 30_000;
+    private static final int MIN_SLOT_BYTES = 512;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final String host;
+    private final int port;
+    private final int capacity;
+    private final Overflow overflow;
+    private volatile SSLContext tls;
+    private volatile long minDelayMillis = 500;
+    private volatile long maxDelayMillis = 30_000;
+
+    // queue of events, guarded by lock
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition drained = lock.newCondition();
+    private final ByteBuffer[] ring;
+    private int head;
+    private int size;
+    // events taken by the writer and not yet written
+    private int inFlight;
+    private boolean closed;
+    private Thread thread;
+    private long dropped;
+    private long sent;
+    private long bytesSent;
+    private long writes;
+    private long connects;
+    private long failures;
+
+    private volatile boolean connected;
+    private volatile boolean idle;
+    private volatile Selector selector;
+    private volatile IOException lastError;
+
+    // owned by the writer thread
+    private final ByteBuffer[] batch = new ByteBuffer[MAX_BATCH];
+    private int batchCount;
+    private long batchBytes;
+    private SocketChannel channel;
+    private SelectionKey key;
+    private SSLEngine engine;
+    private ByteBuffer netIn;
+    private ByteBuffer netOut;
+    private ByteBuffer appIn;
+    private int packetSize;
+    private boolean pendingWrap;
+    private final ByteBuffer discard = ByteBuffer.allocateDirect(8192);
+
+    /**
+     * @param capacity events the queue holds
+     */
+    public TcpStreamSender(String host, int port, int capacity, Overflow overflow) {
+        if (port < 1 || port > 65535) {
+            throw new IllegalArgumentException("bad port " + port);
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        this.host = host;
+        this.port = port;
+        this.capacity = capacity;
+        this.overflow = overflow;
+        this.ring = new ByteBuffer[capacity];
+    }
+
+    /**
+     * Talk TLS from the next connection on
+     * @param context e.g. one holding the client certificate a TAK server
+     *                asks for, see {@link #tlsContext}; null for plain TCP
+     */
+    public void setTls(SSLContext context) {
+        this.tls = context;
+    }
+
+    /**
+     * A TLS context for {@link #setTls}
+     * @param keys the client's key and certificate, e.g. from the .p12 a
+     *             TAK server issues; null for none
+     * @param password of the keys
+     * @param trust certificates the server's may be signed by, e.g. the
+     *              server's own CA; null for the system's
+     */
+    public static SSLContext tlsContext(KeyStore keys, char[] password, KeyStore trust)
+            throws GeneralSecurityException {
+        KeyManagerFactory kmf = null;
+        if (keys != null) {
+            kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            kmf.init(keys, password);
+        }
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(trust);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(kmf != null ? kmf.getKeyManagers() : null, tmf.getTrustManagers(), null);
+        return context;
+    }
+
+    /**
+     * Wait before opening a lost connection again; the wait doubles with
+     * each failure in a row, from the first value up to the second
+     */
+    public void setReconnectDelay(long minMillis, long maxMillis) {
+        if (minMillis < 1 || maxMillis < minMillis) {
+            throw new IllegalArgumentException("bad reconnect delay " + minMillis + " to " + maxMillis);
+        }
+        this.minDelayMillis = minMillis;
+        this.maxDelayMillis = maxMillis;
+    }
+
+    /**
+     * Queue events for the stream, one per buffer, each between position
+     * and limit; the positions are moved to the limits
+     * @return count, unless the sender was closed or the thread interrupted
+     *         while waiting for room
+     * @throws IOException if the sender is closed, or if interrupted before
+     *         the first event was queued
+     * @throws IllegalArgumentException for a TAK Protocol mesh packet; none
+     *         of the events is queued
+     */
+    @Override
+    public int send(ByteBuffer[] events, int count) throws IOException {
+        for (int k = 0; k < count; k++) {
+            ByteBuffer event = events[k];
+            if (event.hasRemaining() && event.get(event.position()) == TakProtocolWriter.MESH_HEADER[0]) {
+                throw new IllegalArgumentException("TAK Protocol mesh packets cannot go on a stream; send XML");
+            }
+        }
+        int n = 0;
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IOException("sender is closed");
+            }
+            if (thread == null) {
+                startThread();
+            }
+            for (; n < count; n++) {
+                if (size == capacity) {
+                    if (overflow == Overflow.DROP_OLDEST) {
+                        head = next(head);
+                        size--;
+                        dropped++;
+                    } else {
+                        while (size == capacity && !closed) {
+                            notFull.await();
+                        }
+                        if (closed) {
+                            break;
+                        }
+                    }
+                }
+                put(events[n]);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (n == 0) {
+                throw new InterruptedIOException("interrupted waiting for room");
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (n == 0 && count > 0) {
+            throw new IOException("sender is closed");
+        }
+        // the writer may be waiting for input alone
+        Selector s = selector;
+        if (idle && s != null) {
+            s.wakeup();
+        }
+        return n;
+    }
+
+    /**
+     * Wait until every queued event has been written to the connection
+     * @return false on timeout or if the sender is closed first
+     */
+    public boolean flush(long timeoutMillis) throws InterruptedException {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        lock.lock();
+        try {
+            while ((size > 0 || inFlight > 0) && !closed) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = drained.awaitNanos(nanos);
+            }
+            return !closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * @return why the last connection failed, or null
+     */
+    public IOException getLastError() {
+        return lastError;
+    }
+
+    /**
+     * @return events written to a connection
+     */
+    public long getEventsSent() {
+        lock.lock();
+        try {
+            return sent;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getBytesSent() {
+        lock.lock();
+        try {
+            return bytesSent;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return events dropped to make room in a full queue
+     */
+    public long getDroppedCount() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return batches written; events sent over this is the average batch
+     */
+    public long getWriteCount() {
+        lock.lock();
+        try {
+            return writes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return connections made; more than one means the sender reconnected
+     */
+    public long getConnectCount() {
+        lock.lock();
+        try {
+            return connects;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return connection attempts and connections that failed
+     */
+    public long getFailureCount() {
+        lock.lock();
+        try {
+            return failures;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueueSize() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop the writer and close the connection; queued events are dropped
+     */
+    @Override
+    public void close() {
+        Thread t;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notFull.signalAll();
+            drained.signalAll();
+            t = thread;
+        } finally {
+            lock.unlock();
+        }
+        if (t != null) {
+            t.interrupt();
+            try {
+                t.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void startThread() {
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runWriter();
+            }
+        }, "TcpStreamSender " + host + ":" + port);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Copy an event into the slot after the last one; the lock is held
+     */
+    private void put(ByteBuffer event) {
+        int tail = (head + size) % capacity;
+        ByteBuffer slot = ring[tail];
+        int length = event.remaining();
+        if (slot == null || slot.capacity() < length) {
+            // direct, so the channel writes it without another copy
+            slot = ByteBuffer.allocateDirect(Math.max(length, MIN_SLOT_BYTES));
+            ring[tail] = slot;
+        }
+        slot.clear();
+        slot.put(event);
+        slot.flip();
+        size++;
+    }
+
+    private int next(int i) {
+        return i + 1 == capacity ? 0 : i + 1;
+    }
+
+    private boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void runWriter() {
+        long delay = minDelayMillis;
+        try {
+            selector = Selector.open();
+            while (!isClosed()) {
+                try {
+                    open();
+                    delay = minDelayMillis;
+                    pump();
+                } catch (IOException e) {
+                    if (isClosed()) {
+                        break;
+                    }
+                    lastError = e;
+                    lock.lock();
+                    try {
+                        failures++;
+                    } finally {
+                        lock.unlock();
+                    }
+                } finally {
+                    disconnect();
+                }
+                if (isClosed()) {
+                    break;
+                }
+                Thread.sleep(delay);
+                delay = Math.min(maxDelayMillis, delay * 2);
+            }
+        } catch (InterruptedException e) {
+            // closed
+        } catch (IOException e) {
+            lastError = e;
+        } finally {
+            disconnect();
+            try {
+                if (selector != null) {
+                    selector.close();
+                }
+            } catch (IOException e) {
+                // nothing more to do
+            }
+        }
+    }
+
+    private void open() throws IOException {
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        if (address.isUnresolved()) {
+            throw new IOException("cannot resolve " + host);
+        }
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        // events are already coalesced here
+        channel.socket().setTcpNoDelay(true);
+        channel.socket().setKeepAlive(true);
+        key = channel.register(selector, 0);
+        if (!channel.connect(address)) {
+            if ((await(SelectionKey.OP_CONNECT, CONNECT_TIMEOUT_MILLIS) & SelectionKey.OP_CONNECT) == 0
+                    || !channel.finishConnect()) {
+                throw new IOException("connect to " + host + ":" + port + " timed out");
+            }
+        }
+        SSLContext context = tls;
+        if (context != null) {
+            handshake(context);
+        }
+        // a batch cut off by the last connection goes again in full
+        for (int k = 0; k < batchCount; k++) {
+            batch[k].position(0);
+        }
+        connected = true;
+        lock.lock();
+        try {
+            connects++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void disconnect() {
+        connected = false;
+        if (key != null) {
+            key.cancel();
+            key = null;
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // already gone
+            }
+            channel = null;
+        }
+        engine = null;
+    }
+
+    /**
+     * Write batches as events come until the connection fails or the
+     * sender is closed
+     */
+    private void pump() throws IOException {
+        while (!isClosed()) {
+            if (pendingWrap) {
+                wrapControl();
+            }
+            if (batchCount == 0 && !take()) {
+                idle = true;
+                try {
+                    if (isEmpty()) {
+                        int ready = await(SelectionKey.OP_READ, 1000);
+                        if ((ready & SelectionKey.OP_READ) != 0) {
+                            readInput();
+                        }
+                    }
+                } finally {
+                    idle = false;
+                }
+                continue;
+            }
+            if (engine != null) {
+                writeTls();
+            } else {
+                writePlain();
+            }
+            lock.lock();
+            try {
+                sent += batchCount;
+                bytesSent += batchBytes;
+                writes++;
+                inFlight = 0;
+                if (size == 0) {
+                    drained.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+            batchCount = 0;
+        }
+    }
+
+    private boolean isEmpty() {
+        lock.lock();
+        try {
+            return size == 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Swap queued events into the batch, leaving the batch's old buffers in
+     * their slots for reuse
+     * @return false if the queue is empty
+     */
+    private boolean take() {
+        lock.lock();
+        try {
+            int n = 0;
+            long bytes = 0;
+            while (n < MAX_BATCH && size > 0 && bytes < MAX_BATCH_BYTES) {
+                ByteBuffer event = ring[head];
+                ring[head] = batch[n];
+                batch[n] = event;
+                bytes += event.remaining();
+                head = next(head);
+                size--;
+                n++;
+            }
+            if (n > 0) {
+                notFull.signalAll();
+            }
+            batchCount = n;
+            batchBytes = bytes;
+            inFlight = n;
+            return n > 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writePlain() throws IOException {
+        long left = batchBytes;
+        int first = 0;
+        long lastProgress = System.nanoTime();
+        while (left > 0) {
+            long n = channel.write(batch, first, batchCount - first);
+            if (n > 0) {
+                left -= n;
+                lastProgress = System.nanoTime();
+                while (first < batchCount && !batch[first].hasRemaining()) {
+                    first++;
+                }
+            } else {
+                waitWritable(lastProgress);
+            }
+        }
+    }
+
+    private void writeTls() throws IOException {
+        long left = batchBytes;
+        int first = 0;
+        while (left > 0) {
+            netOut.clear();
+            // as many records as fit, then one write
+            while (left > 0 && netOut.remaining() >= packetSize) {
+                SSLEngineResult r = engine.wrap(batch, first, batchCount - first, netOut);
+                if (r.getStatus() != SSLEngineResult.Status.OK) {
+                    throw new IOException("TLS wrap " + r.getStatus());
+                }
+                runTasks(r);
+                left -= r.bytesConsumed();
+                while (first < batchCount && !batch[first].hasRemaining()) {
+                    first++;
+                }
+            }
+            netOut.flip();
+            writeFully(netOut);
+        }
+    }
+
+    private void writeFully(ByteBuffer b) throws IOException {
+        long lastProgress = System.nanoTime();
+        while (b.hasRemaining()) {
+            if (channel.write(b) > 0) {
+                lastProgress = System.nanoTime();
+            } else {
+                waitWritable(lastProgress);
+            }
+        }
+    }
+
+    /**
+     * Wait for room to write, reading what comes in meanwhile so neither
+     * side waits on the other
+     */
+    private void waitWritable(long lastProgress) throws IOException {
+        if (System.nanoTime() - lastProgress > TimeUnit.MILLISECONDS.toNanos(STALL_MILLIS)) {
+            throw new IOException("write stalled for " + STALL_MILLIS + " ms");
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException();
+        }
+        int ready = await(SelectionKey.OP_WRITE | SelectionKey.OP_READ, 1000);
+        if ((ready & SelectionKey.OP_READ) != 0) {
+            readInput();
+        }
+    }
+
+    /**
+     * Select on the connection
+     * @return the ready operations out of those asked for, 0 on timeout or
+     *         wakeup
+     */
+    private int await(int ops, long timeoutMillis) throws IOException {
+        key.interestOps(ops);
+        selector.selectedKeys().clear();
+        if (selector.select(timeoutMillis) == 0 || !selector.selectedKeys().contains(key)) {
+            return 0;
+        }
+        return key.readyOps() & ops;
+    }
+
+    /**
+     * Read and drop whatever the server sent
+     * @throws IOException once the server has hung up
+     */
+    private void readInput() throws IOException {
+        if (engine == null) {
+            int n;
+            do {
+                discard.clear();
+                n = channel.read(discard);
+            } while (n > 0);
+            if (n < 0) {
+                throw new IOException("connection closed by server");
+            }
+            return;
+        }
+        int n;
+        do {
+            n = channel.read(netIn);
+            netIn.flip();
+            SSLEngineResult r;
+            do {
+                appIn.clear();
+                r = engine.unwrap(netIn, appIn);
+                if (r.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    throw new IOException("TLS session closed by server");
+                }
+                runTasks(r);
+                if (r.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                    // answered between batches, never inside a record
+                    pendingWrap = true;
+                }
+            } while (r.getStatus() == SSLEngineResult.Status.OK && netIn.hasRemaining());
+            netIn.compact();
+        } while (n > 0);
+        if (n < 0) {
+            throw new IOException("connection closed by server");
+        }
+    }
+
+    private void handshake(SSLContext context) throws IOException {
+        engine = context.createSSLEngine(host, port);
+        engine.setUseClientMode(true);
+        // a trusted certificate is not enough; it must be the host's
+        SSLParameters parameters = engine.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        engine.setSSLParameters(parameters);
+        SSLSession session = engine.getSession();
+        packetSize = session.getPacketBufferSize();
+        netIn = ByteBuffer.allocateDirect(packetSize);
+        netOut = ByteBuffer.allocateDirect(4 * packetSize);
+        appIn = ByteBuffer.allocate(session.getApplicationBufferSize());
+        pendingWrap = false;
+        engine.beginHandshake();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CONNECT_TIMEOUT_MILLIS);
+        SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+        while (status != SSLEngineResult.HandshakeStatus.FINISHED
+                && status != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+            long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (left <= 0) {
+                throw new IOException("TLS handshake with " + host + ":" + port + " timed out");
+            }
+            SSLEngineResult r;
+            switch (status) {
+                case NEED_WRAP:
+                    netOut.clear();
+                    r = engine.wrap(EMPTY, netOut);
+                    netOut.flip();
+                    writeFully(netOut);
+                    if (r.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        throw new IOException("TLS handshake refused");
+                    }
+                    status = r.getHandshakeStatus();
+                    break;
+                case NEED_TASK:
+                    runTasks();
+                    status = engine.getHandshakeStatus();
+                    break;
+                default:
+                    netIn.flip();
+                    appIn.clear();
+                    r = engine.unwrap(netIn, appIn);
+                    netIn.compact();
+                    if (r.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                        int n = channel.read(netIn);
+                        if (n < 0) {
+                            throw new IOException("connection closed during TLS handshake");
+                        }
+                        if (n == 0) {
+                            await(SelectionKey.OP_READ, Math.min(left, 1000));
+                        }
+                    } else if (r.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        throw new IOException("TLS handshake refused");
+                    }
+                    status = r.getHandshakeStatus();
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Answer the server, e.g. a key update, between batches
+     */
+    private void wrapControl() throws IOException {
+        pendingWrap = false;
+        while (engine != null && engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+            netOut.clear();
+            SSLEngineResult r = engine.wrap(EMPTY, netOut);
+            netOut.flip();
+            writeFully(netOut);
+            if (r.getStatus() == SSLEngineResult.Status.CLOSED) {
+                throw new IOException("TLS session closed");
+            }
+            runTasks(r);
+        }
+    }
+
+    private void runTasks(SSLEngineResult r) {
+        if (r.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+            runTasks();
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+}
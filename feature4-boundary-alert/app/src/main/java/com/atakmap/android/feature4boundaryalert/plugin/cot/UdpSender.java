@@ -0,0 +1,223 @@
+package com.atakmap.android.feature4boundaryalert.plugin.cot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.nio.ByteBuffer;
+
+/**
+ * Long-lived UDP output for CoT events.
+ *
+ * One socket is opened on first use and kept, and the destination is
+ * resolved once. Multicast destinations get the configured TTL and
+ * outgoing interface. A send that fails is retried once on a fresh socket,
+ * which covers the interface the old one was bound to going away;
+ * {@link #reset} forces the same, including a new lookup of the
+ * destination, when the network is known to have changed.
+ *
+ * Sends are serialized and reuse one packet, so a send allocates nothing.
+ * {@link #reset} may be called from any thread.
+ */
+public final class UdpSender implements CotOutput, Closeable {
+
+    private final String host;
+    private final int port;
+    private final DatagramPacket packet = new DatagramPacket(new byte[0], 0);
+    private byte[] scratch = new byte[0];
+
+    private volatile int timeToLive = 1;
+    private volatile String interfaceName;
+    // the socket and address must be rebuilt before the next send
+    private volatile boolean stale;
+
+    private MulticastSocket socket;
+    private InetAddress address;
+    private boolean closed;
+    private long packetsSent;
+    private long bytesSent;
+    private long opens;
+    private long failures;
+
+    /**
+     * @param host destination name or address, unicast or multicast
+     */
+    public UdpSender(String host, int port) {
+        if (port < 1 || port > 65535) {
+            throw new IllegalArgumentException("bad port " + port);
+        }
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Hop limit for multicast packets, 1 (the default) keeps them on the
+     * local network
+     */
+    public void setTimeToLive(int ttl) {
+        if (ttl < 0 || ttl > 255) {
+            throw new IllegalArgumentException("ttl must be 0 to 255");
+        }
+        this.timeToLive = ttl;
+        stale = true;
+    }
+
+    public int getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * Send multicast through a named interface, e.g. wlan0
+     * @param name null for the system default; a name that does not exist
+     *             when the socket opens also falls back to the default
+     */
+    public void setInterface(String name) {
+        this.interfaceName = name;
+        stale = true;
+    }
+
+    public String getInterface() {
+        return interfaceName;
+    }
+
+    /**
+     * Drop the socket and the resolved address; the next send opens a new
+     * socket. Call after a network change.
+     */
+    public void reset() {
+        stale = true;
+    }
+
+    /**
+     * Send the bytes between position and limit as one datagram, and
+     * advance the position to the limit
+     * @throws IOException if the send fails on a fresh socket as well
+     */
+    public synchronized void send(ByteBuffer payload) throws IOException {
+        sendOne(payload);
+    }
+
+    /**
+     * Send several datagrams in one call, one per buffer, through the same
+     * socket and packet
+     * @return number of datagrams sent, less than count when a later one
+     *         failed (see {@link #getFailureCount})
+     * @throws IOException if the first one fails
+     */
+    @Override
+    public synchronized int send(ByteBuffer[] payloads, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            try {
+                sendOne(payloads[i]);
+            } catch (IOException e) {
+                if (i == 0) {
+                    throw e;
+                }
+                return i;
+            }
+        }
+        return count;
+    }
+
+    private void sendOne(ByteBuffer payload) throws IOException {
+        int length = payload.remaining();
+        if (payload.hasArray()) {
+            packet.setData(payload.array(), payload.arrayOffset() + payload.position(), length);
+        } else {
+            if (scratch.length < length) {
+                scratch = new byte[length];
+            }
+            payload.duplicate().get(scratch, 0, length);
+            packet.setData(scratch, 0, length);
+        }
+        try {
+            socket().send(packet);
+        } catch (IOException first) {
+            closeSocket();
+            stale = true;
+            try {
+                socket().send(packet);
+            } catch (IOException e) {
+                failures++;
+                closeSocket();
+                throw e;
+            }
+        }
+        payload.position(payload.limit());
+        packetsSent++;
+        bytesSent += length;
+    }
+
+    private MulticastSocket socket() throws IOException {
+        if (closed) {
+            throw new IOException("sender is closed");
+        }
+        if (stale) {
+            stale = false;
+            closeSocket();
+            address = null;
+        }
+        if (socket == null) {
+            if (address == null) {
+                address = InetAddress.getByName(host);
+            }
+            MulticastSocket s = new MulticastSocket();
+            try {
+                if (address.isMulticastAddress()) {
+                    s.setTimeToLive(timeToLive);
+                    String name = interfaceName;
+                    NetworkInterface nif = name != null ? NetworkInterface.getByName(name) : null;
+                    if (nif != null) {
+                        s.setNetworkInterface(nif);
+                    }
+                }
+            } catch (IOException e) {
+                s.close();
+                throw e;
+            }
+            packet.setAddress(address);
+            packet.setPort(port);
+            socket = s;
+            opens++;
+        }
+        return socket;
+    }
+
+    private void closeSocket() {
+        if (socket != null) {
+            socket.close();
+            socket = null;
+        }
+    }
+
+    public synchronized long getPacketsSent() {
+        return packetsSent;
+    }
+
+    public synchronized long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * @return how many times a socket was opened; more than one means the
+     *         sender reconnected
+     */
+    public synchronized long getOpenCount() {
+        return opens;
+    }
+
+    /**
+     * @return sends that failed even on a fresh socket
+     */
+    public synchronized long getFailureCount() {
+        return failures;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        closeSocket();
+    }
+}
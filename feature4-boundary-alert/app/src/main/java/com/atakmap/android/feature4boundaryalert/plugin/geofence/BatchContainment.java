@@ -0,0 +1,162 @@
+package com.atakmap.android.feature4boundaryalert.plugin.geofence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Evaluates many tracks against one prepared polygon per tick.
+ *
+ * Containment is computed into a packed bit array; large batches are
+ * split across a fork-join pool in chunks aligned to 64 tracks so no two
+ * workers ever write the same word. Transitions are then derived on the
+ * calling thread against the per-track state in a {@link TrackStateTable}.
+ */
+public final class BatchContainment {
+
+    /** batches at or below this size are evaluated on the calling thread */
+    static final int SPLIT_THRESHOLD = 4096;
+
+    private static ForkJoinPool pool;
+
+    private BatchContainment() {
+    }
+
+    /**
+     * Result of one batch evaluation
+     */
+    public static final class Result {
+        /** bit i is set when track i is inside */
+        public final BitSet inside;
+        /** tracks whose state changed, in batch order */
+        public final List<TrackTransition> transitions;
+
+        Result(BitSet inside, List<TrackTransition> transitions) {
+            this.inside = inside;
+            this.transitions = transitions;
+        }
+
+        /**
+         * @return a result with no track inside and no transitions
+         */
+        public static Result empty() {
+            return new Result(new BitSet(), new ArrayList<TrackTransition>());
+        }
+    }
+
+    /**
+     * Evaluate a batch of track positions
+     * @param polygon the prepared boundary
+     * @param states per-track state, updated in place
+     * @param uids track UIDs, parallel to lats and lons
+     * @param count number of tracks to evaluate
+     * @param timeMillis time of every fix
+     */
+    public static Result evaluate(Region polygon, TrackStateTable states,
+                                  String[] uids, double[] lats, double[] lons,
+                                  int count, long timeMillis) {
+        long[] words = containsAll(polygon, lats, lons, count);
+        long[] times = new long[count];
+        Arrays.fill(times, timeMillis);
+        return applyTransitions(states, words, uids, lats, lons, times, null, count);
+    }
+
+    /**
+     * Containment only; touches no track state, so it is safe to run
+     * concurrently with other batches against the same polygon
+     * @return packed bits, bit i set when track i is inside
+     */
+    public static long[] containsAll(Region polygon, double[] lats, double[] lons, int count) {
+        long[] words = new long[(count + 63) >>> 6];
+        if (count > SPLIT_THRESHOLD) {
+            pool().invoke(new ContainsTask(polygon, lats, lons, words, 0, count));
+        } else {
+            containsRange(polygon, lats, lons, words, 0, count);
+        }
+        return words;
+    }
+
+    /**
+     * Derive transitions from containment bits computed by
+     * {@link #containsAll} and update the track state
+     * @param times time of each fix, stamped on its transition
+     * @param stales stale time of each fix, e.g. the CoT stale attribute;
+     *               null for the table's default interval
+     */
+    public static Result applyTransitions(TrackStateTable states, long[] words,
+                                          String[] uids, double[] lats, double[] lons,
+                                          long[] times, long[] stales, int count) {
+        List<TrackTransition> transitions = new ArrayList<>();
+        long newest = Long.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            boolean now = (words[i >>> 6] & (1L << i)) != 0;
+            int slot = states.getOrCreateSlot(uids[i]);
+            if (states.isInside(slot) != now) {
+                states.setInside(slot, now, times[i]);
+                transitions.add(new TrackTransition(uids[i], i, now, lats[i], lons[i], times[i]));
+            }
+            if (stales != null) {
+                states.recordFix(slot, lats[i], lons[i], times[i], stales[i]);
+            } else {
+                states.recordFix(slot, lats[i], lons[i], times[i]);
+            }
+            newest = Math.max(newest, times[i]);
+        }
+        if (count > 0) {
+            states.evictStaleIfDue(newest);
+        }
+        return new Result(BitSet.valueOf(words), transitions);
+    }
+
+    private static void containsRange(Region polygon, double[] lats, double[] lons,
+                                      long[] words, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (polygon.contains(lats[i], lons[i])) {
+                words[i >>> 6] |= 1L << i;
+            }
+        }
+    }
+
+    private static synchronized ForkJoinPool pool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors()));
+        }
+        return pool;
+    }
+
+    private static final class ContainsTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Region polygon;
+        private final double[] lats;
+        private final double[] lons;
+        private final long[] words;
+        private final int from;
+        private final int to;
+
+        ContainsTask(Region polygon, double[] lats, double[] lons,
+                     long[] words, int from, int to) {
+            this.polygon = polygon;
+            this.lats = lats;
+            this.lons = lons;
+            this.words = words;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SPLIT_THRESHOLD) {
+                containsRange(polygon, lats, lons, words, from, to);
+                return;
+            }
+            // split on a word boundary so the halves never share a long
+            int mid = ((from + to) >>> 1) & ~63;
+            invokeAll(new ContainsTask(polygon, lats, lons, words, from, mid),
+                    new ContainsTask(polygon, lats, lons, words, mid, to));
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.atakmap.android.feature4boundaryalert.plugin.geofence;
+
+/**
+ * A single entry into or exit from a polygon, located on the boundary.
+ */
+public final class BoundaryCrossing {
+
+    public static final String ENTERED = "ENTERED";
+    public static final String EXITED = "EXITED";
+
+    /** true for an entry, false for an exit */
+    public final boolean entered;
+
+    /** crossing point, interpolated along the track segment */
+    public final double lat;
+    public final double lon;
+
+    /** crossing time in epoch milliseconds, interpolated between the fixes */
+    public final long timeMillis;
+
+    /** index of the crossed edge (vertex i to vertex i + 1), -1 if unknown */
+    public final int edgeIndex;
+
+    public BoundaryCrossing(boolean entered, double lat, double lon, long timeMillis, int edgeIndex) {
+        this.entered = entered;
+        this.lat = lat;
+        this.lon = lon;
+        this.timeMillis = timeMillis;
+        this.edgeIndex = edgeIndex;
+    }
+
+    /**
+     * @return "ENTERED" or "EXITED"
+     */
+    public String getEvent() {
+        return entered ? ENTERED : EXITED;
+    }
+
+    @Override
+    public String toString() {
+        return getEvent() + " at " + lat + ", " + lon + " (" + timeMillis + ", edge " + edgeIndex + ")";
+    }
+}
@@ -0,0 +1,554 @@
+package com.atakmap.android.feature4boundaryalert.plugin.geofence;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Thread safe boundary: the polygon being drawn plus the per-track state
+ * checked against it.
+ *
+ * Edits are serialized on a private lock and each one publishes a new
+ * immutable {@link BoundarySnapshot} through an atomic reference.
+ * Containment checks read the current snapshot and never lock, so worker
+ * threads evaluating fixes are not held up by a user redrawing the
+ * polygon, and never see a polygon that is only partly prepared.
+ *
+ * Track state is only touched in short sections guarded by the state
+ * table itself, after containment has been computed. When the polygon
+ * changes the table is reset before the next update, so a result computed
+ * against an older snapshot cannot leak into the state of a newer one.
+ */
+public final class BoundaryModel {
+
+    // points checked against the buffer along each stretch of a path
+    private static final int BUFFER_SAMPLES = 8;
+
+    private final Object editLock = new Object();
+    // vertices of the polygon being drawn, guarded by editLock
+    private final VertexStore vertices = new VertexStore();
+    private long generation;
+
+    private final AtomicReference<BoundarySnapshot> current =
+            new AtomicReference<>(BoundarySnapshot.EMPTY);
+
+    // guarded by itself; trackGeneration is the snapshot the state belongs to
+    private final TrackStateTable tracks = new TrackStateTable();
+    private long trackGeneration;
+
+    private volatile Hysteresis hysteresis = Hysteresis.NONE;
+    private volatile boolean projected;
+    private volatile double simplifyMeters;
+    private volatile boolean simplifyConservative;
+
+    /**
+     * @return the current snapshot; never null
+     */
+    public BoundarySnapshot snapshot() {
+        return current.get();
+    }
+
+    /**
+     * Append a vertex to the polygon being drawn
+     * @return false if the polygon is already complete
+     */
+    public boolean addVertex(double lat, double lon) {
+        synchronized (editLock) {
+            if (current.get().isComplete()) {
+                return false;
+            }
+            vertices.add(lat, lon);
+            // the store never rewrites published entries, so no copy is needed
+            current.set(new BoundarySnapshot(vertices.array(), vertices.size(), null, generation));
+            return true;
+        }
+    }
+
+    /**
+     * Prepare and publish the polygon (requires at least 3 vertices)
+     * @return false if there are too few vertices
+     */
+    public boolean complete() {
+        synchronized (editLock) {
+            BoundarySnapshot snapshot = current.get();
+            if (snapshot.isComplete()) {
+                return true;
+            }
+            if (vertices.size() < 3) {
+                return false;
+            }
+            double[] coords = vertices.array();
+            int count = vertices.size();
+            double tolerance = simplifyMeters;
+            if (tolerance > 0) {
+                PolygonSimplifier.Result simplified = simplifyConservative
+                        ? PolygonSimplifier.conservative(coords, count, tolerance)
+                        : PolygonSimplifier.douglasPeucker(coords, count, tolerance);
+                coords = simplified.coords;
+                count = simplified.vertexCount;
+            }
+            Region polygon = prepare(coords, count);
+            current.set(new BoundarySnapshot(coords, count, polygon, ++generation));
+            return true;
+        }
+    }
+
+    /**
+     * Replace the polygon with a completed one, e.g. read back from a
+     * {@link GeofenceFile}. The vertices are used as they are, without
+     * simplification, and every track's state is dropped.
+     * @param coords packed {lat, lon} coordinates
+     * @param count number of vertices, at least 3
+     */
+    public void restore(double[] coords, int count) {
+        if (count < 3 || coords.length < 2 * count) {
+            throw new IllegalArgumentException("polygon needs at least 3 vertices");
+        }
+        BoundarySnapshot restored;
+        synchronized (editLock) {
+            vertices.clear();
+            for (int i = 0; i < count; i++) {
+                vertices.add(coords[2 * i], coords[2 * i + 1]);
+            }
+            Region polygon = prepare(vertices.array(), vertices.size());
+            restored = new BoundarySnapshot(vertices.array(), vertices.size(), polygon, ++generation);
+            current.set(restored);
+        }
+        synchronized (tracks) {
+            syncGeneration(restored);
+        }
+    }
+
+    /**
+     * Choose between straight lat/lon edges ({@link PreparedPolygon}) and
+     * great circle edges ({@link ProjectedPolygon}) for polygons completed
+     * from now on
+     */
+    public void setProjected(boolean projected) {
+        this.projected = projected;
+    }
+
+    public boolean isProjected() {
+        return projected;
+    }
+
+    /**
+     * Simplify polygons completed from now on; the published snapshot
+     * then holds the simplified vertices
+     * @param toleranceMeters largest change to the boundary, zero to keep
+     *                        every vertex
+     * @param conservative true to only ever grow the polygon (see
+     *                     {@link PolygonSimplifier#conservative})
+     */
+    public void setSimplification(double toleranceMeters, boolean conservative) {
+        if (!(toleranceMeters >= 0)) {
+            throw new IllegalArgumentException("tolerance must not be negative");
+        }
+        this.simplifyConservative = conservative;
+        this.simplifyMeters = toleranceMeters;
+    }
+
+    public double getSimplifyMeters() {
+        return simplifyMeters;
+    }
+
+    public boolean isSimplifyConservative() {
+        return simplifyConservative;
+    }
+
+    /**
+     * A polygon too large to project falls back to planar edges
+     */
+    private Region prepare(double[] coords, int count) {
+        if (projected) {
+            try {
+                return ProjectedPolygon.prepare(coords, count);
+            } catch (IllegalArgumentException e) {
+                // spans most of a hemisphere; planar is the best we can do
+            }
+        }
+        return PreparedPolygon.prepare(coords, count);
+    }
+
+    /**
+     * Drop the polygon and, with it, every track's state
+     */
+    public void clear() {
+        BoundarySnapshot cleared;
+        synchronized (editLock) {
+            vertices.clear();
+            cleared = new BoundarySnapshot(vertices.array(), 0, null, ++generation);
+            current.set(cleared);
+        }
+        synchronized (tracks) {
+            syncGeneration(cleared);
+        }
+    }
+
+    /**
+     * Set the buffer distances and dwell time applied by
+     * {@link #checkCrossings}. In segment mode each edge crossing along the
+     * path is confirmed against the buffer and then the dwell time;
+     * otherwise each fix is classified by its containment and distance to
+     * the nearest edge.
+     */
+    public void setHysteresis(Hysteresis hysteresis) {
+        this.hysteresis = hysteresis;
+    }
+
+    public Hysteresis getHysteresis() {
+        return hysteresis;
+    }
+
+    /**
+     * @return true if the polygon is complete and contains the point
+     */
+    public boolean contains(double lat, double lon) {
+        return current.get().contains(lat, lon);
+    }
+
+    /**
+     * Signed distance to the nearest edge; see {@link Region#nearestEdge}
+     * @return null while the polygon is not complete
+     */
+    public EdgeDistance nearestEdge(double lat, double lon) {
+        Region polygon = current.get().getPolygon();
+        return polygon != null ? polygon.nearestEdge(lat, lon) : null;
+    }
+
+    /**
+     * Check one track's new fix against the boundary
+     * @param segment true to intersect the path from the previous fix with
+     *                the edges, false to compare containment only
+     * @param staleMillis time after which the track is forgotten
+     * @param out receives the crossings in track order
+     * @return number of crossings added
+     */
+    public int checkCrossings(String uid, double lat, double lon, long timeMillis,
+                              long staleMillis, boolean segment, List<BoundaryCrossing> out) {
+        BoundarySnapshot snapshot = current.get();
+        Region polygon = snapshot.getPolygon();
+        if (polygon == null) {
+            return 0;
+        }
+        Hysteresis filter = hysteresis;
+        if (filter.isEnabled() && !segment) {
+            return checkFiltered(snapshot, filter, uid, lat, lon, timeMillis, staleMillis, out);
+        }
+
+        boolean hasFix = false;
+        double lastLat = 0;
+        double lastLon = 0;
+        long lastTime = 0;
+        if (segment) {
+            synchronized (tracks) {
+                if (!syncGeneration(snapshot)) {
+                    return 0;
+                }
+                int slot = tracks.slotOf(uid);
+                if (slot >= 0 && tracks.hasFix(slot)) {
+                    hasFix = true;
+                    lastLat = tracks.getLastLatitude(slot);
+                    lastLon = tracks.getLastLongitude(slot);
+                    lastTime = tracks.getLastFixTime(slot);
+                }
+            }
+        }
+        if (filter.isEnabled()) {
+            return hasFix
+                    ? checkPathFiltered(snapshot, filter, uid, lastLat, lastLon, lastTime,
+                            lat, lon, timeMillis, staleMillis, out)
+                    : checkFiltered(snapshot, filter, uid, lat, lon, timeMillis, staleMillis, out);
+        }
+
+        // geometry runs outside any lock
+        int start = out.size();
+        boolean isInside = false;
+        if (hasFix) {
+            polygon.findCrossings(lastLat, lastLon, lastTime, lat, lon, timeMillis, out);
+        } else {
+            isInside = polygon.contains(lat, lon);
+        }
+
+        synchronized (tracks) {
+            if (!syncGeneration(snapshot)) {
+                // the polygon changed underneath us; drop the stale result
+                out.subList(start, out.size()).clear();
+                return 0;
+            }
+            int slot = tracks.getOrCreateSlot(uid);
+            if (!hasFix && isInside != tracks.isInside(slot)) {
+                out.add(new BoundaryCrossing(isInside, lat, lon, timeMillis, -1));
+            }
+            // no crossings means the state is unchanged since the previous fix
+            for (int i = start; i < out.size(); i++) {
+                BoundaryCrossing crossing = out.get(i);
+                tracks.setInside(slot, crossing.entered, crossing.timeMillis);
+            }
+            tracks.recordFix(slot, lat, lon, timeMillis, staleMillis);
+            tracks.evictStaleIfDue(timeMillis);
+        }
+        return out.size() - start;
+    }
+
+    /**
+     * Hysteresis path: the fix must be far enough past the edge, and stay
+     * that way for the dwell time, before the state changes
+     */
+    private int checkFiltered(BoundarySnapshot snapshot, Hysteresis filter, String uid,
+                              double lat, double lon, long timeMillis, long staleMillis,
+                              List<BoundaryCrossing> out) {
+        Region polygon = snapshot.getPolygon();
+        boolean contained = polygon.contains(lat, lon);
+        double reach = filter.reachMeters();
+        double edgeMeters = reach > 0 ? polygon.distanceToEdge(lat, lon, reach) : 0;
+
+        synchronized (tracks) {
+            if (!syncGeneration(snapshot)) {
+                return 0;
+            }
+            int slot = tracks.getOrCreateSlot(uid);
+            int added = 0;
+            if (applyFiltered(filter, slot, contained, edgeMeters, lat, lon, timeMillis)) {
+                out.add(new BoundaryCrossing(tracks.isInside(slot), lat, lon, timeMillis, -1));
+                added = 1;
+            }
+            tracks.recordFix(slot, lat, lon, timeMillis, staleMillis);
+            tracks.evictStaleIfDue(timeMillis);
+            return added;
+        }
+    }
+
+    /**
+     * Move one track's filter state on by a fix; caller holds the tracks
+     * lock
+     * @return true if the fix confirmed a change of state
+     */
+    private boolean applyFiltered(Hysteresis filter, int slot, boolean contained, double edgeMeters,
+                                  double lat, double lon, long timeMillis) {
+        boolean inside = tracks.isInside(slot);
+        if (!filter.favoursChange(inside, contained, edgeMeters)) {
+            // back inside the buffer or on the confirmed side: start over
+            tracks.clearPending(slot);
+            return false;
+        }
+        tracks.setPending(slot, timeMillis, lat, lon);
+        tracks.setPastBuffer(slot, timeMillis);
+        if (timeMillis - tracks.getPendingSince(slot) < filter.dwellMillis) {
+            return false;
+        }
+        tracks.clearPending(slot);
+        tracks.setInside(slot, !inside, timeMillis);
+        return true;
+    }
+
+    /**
+     * Hysteresis along the path from the previous fix. The path is split at
+     * its edge crossings into stretches, each on one side. A crossing to
+     * the side opposite the track's state becomes pending; it is confirmed
+     * once the track is the buffer distance past the edge, checked at
+     * points along each stretch, and has stayed on that side for the dwell
+     * time. A fast track cutting a corner between two fixes is reported if
+     * the cut went deep and lasted long enough. Confirmed crossings keep
+     * the interpolated position and time of the edge crossing.
+     */
+    private int checkPathFiltered(BoundarySnapshot snapshot, Hysteresis filter, String uid,
+                                  double lat0, double lon0, long time0,
+                                  double lat, double lon, long timeMillis, long staleMillis,
+                                  List<BoundaryCrossing> out) {
+        Region polygon = snapshot.getPolygon();
+        List<BoundaryCrossing> hits = new ArrayList<>(2);
+        polygon.findCrossings(lat0, lon0, time0, lat, lon, timeMillis, hits);
+        int stretches = hits.size() + 1;
+        boolean[] sides = new boolean[stretches];
+        boolean[] deep = new boolean[stretches];
+        long[] deepTimes = new long[stretches];
+        sides[0] = hits.isEmpty() ? polygon.contains(lat, lon) : !hits.get(0).entered;
+        for (int k = 0; k < stretches; k++) {
+            BoundaryCrossing from = k > 0 ? hits.get(k - 1) : null;
+            BoundaryCrossing to = k < hits.size() ? hits.get(k) : null;
+            if (from != null) {
+                sides[k] = from.entered;
+            }
+            double buffer = sides[k] ? filter.insideMeters : filter.outsideMeters;
+            long deepTime = pastBuffer(polygon, buffer,
+                    from != null ? from.lat : lat0, from != null ? from.lon : lon0,
+                    from != null ? from.timeMillis : time0,
+                    to != null ? to.lat : lat, to != null ? to.lon : lon,
+                    to != null ? to.timeMillis : timeMillis);
+            deep[k] = deepTime != Long.MIN_VALUE;
+            deepTimes[k] = deepTime;
+        }
+
+        synchronized (tracks) {
+            if (!syncGeneration(snapshot)) {
+                return 0;
+            }
+            int slot = tracks.getOrCreateSlot(uid);
+            int added = 0;
+            for (int k = 0; k < stretches; k++) {
+                if (sides[k] == tracks.isInside(slot)) {
+                    tracks.clearPending(slot);
+                    continue;
+                }
+                // the stretch before a crossing is on the state's side, so
+                // nothing is pending yet; one carried over from the
+                // previous fix began there
+                BoundaryCrossing from = k > 0 ? hits.get(k - 1) : null;
+                if (from != null) {
+                    tracks.setPending(slot, from.timeMillis, from.lat, from.lon);
+                } else {
+                    tracks.setPending(slot, time0, lat0, lon0);
+                }
+                if (deep[k]) {
+                    tracks.setPastBuffer(slot, deepTimes[k]);
+                }
+                long end = k < hits.size() ? hits.get(k).timeMillis : timeMillis;
+                if (!tracks.isPastBuffer(slot) || end - tracks.getPendingSince(slot) < filter.dwellMillis) {
+                    continue;
+                }
+                BoundaryCrossing confirmed = from != null ? from
+                        : new BoundaryCrossing(sides[k], tracks.getPendingLatitude(slot),
+                                tracks.getPendingLongitude(slot), tracks.getPendingCrossingTime(slot), -1);
+                tracks.clearPending(slot);
+                tracks.setInside(slot, confirmed.entered, confirmed.timeMillis);
+                out.add(confirmed);
+                added++;
+            }
+            tracks.recordFix(slot, lat, lon, timeMillis, staleMillis);
+            tracks.evictStaleIfDue(timeMillis);
+            return added;
+        }
+    }
+
+    /**
+     * First of a few evenly spaced points along a stretch that is the
+     * buffer distance from the edge. Points between them are not checked,
+     * so a stretch that only just reaches the buffer may be missed; that
+     * errs towards no event.
+     * @return the interpolated time there, Long.MIN_VALUE if none is
+     */
+    private static long pastBuffer(Region polygon, double buffer,
+                                   double lat0, double lon0, long time0,
+                                   double lat1, double lon1, long time1) {
+        if (buffer <= 0) {
+            return time0;
+        }
+        double dLon = lon1 - lon0;
+        if (dLon > 180) {
+            dLon -= 360;
+        } else if (dLon < -180) {
+            dLon += 360;
+        }
+        for (int j = 1; j <= BUFFER_SAMPLES; j++) {
+            double f = j / (double) BUFFER_SAMPLES;
+            double sampleLat = lat0 + f * (lat1 - lat0);
+            double sampleLon = lon0 + f * dLon;
+            if (sampleLon > 180) {
+                sampleLon -= 360;
+            } else if (sampleLon < -180) {
+                sampleLon += 360;
+            }
+            if (polygon.distanceToEdge(sampleLat, sampleLon, buffer) >= buffer) {
+                return time0 + Math.round(f * (time1 - time0));
+            }
+        }
+        return Long.MIN_VALUE;
+    }
+
+    /**
+     * Check many tracks at once; see {@link BatchContainment}. Hysteresis
+     * applies to each fix as in {@link #checkCrossings} without segment
+     * mode. A track's fixes in one batch are applied in batch order.
+     * @param times time of each fix
+     * @param stales time after which each track is forgotten without
+     *               further fixes, e.g. the CoT stale time
+     */
+    public BatchContainment.Result checkBatch(String[] uids, double[] lats, double[] lons,
+                                              long[] times, long[] stales, int count) {
+        BoundarySnapshot snapshot = current.get();
+        Region polygon = snapshot.getPolygon();
+        if (polygon == null) {
+            return BatchContainment.Result.empty();
+        }
+        long[] words = BatchContainment.containsAll(polygon, lats, lons, count);
+        Hysteresis filter = hysteresis;
+        double[] edgeMeters = null;
+        if (filter.isEnabled()) {
+            // geometry runs outside any lock
+            edgeMeters = new double[count];
+            double reach = filter.reachMeters();
+            if (reach > 0) {
+                for (int i = 0; i < count; i++) {
+                    edgeMeters[i] = polygon.distanceToEdge(lats[i], lons[i], reach);
+                }
+            }
+        }
+        synchronized (tracks) {
+            if (!syncGeneration(snapshot)) {
+                return BatchContainment.Result.empty();
+            }
+            if (edgeMeters == null) {
+                return BatchContainment.applyTransitions(tracks, words, uids, lats, lons, times, stales, count);
+            }
+            List<TrackTransition> transitions = new ArrayList<>();
+            long newest = Long.MIN_VALUE;
+            for (int i = 0; i < count; i++) {
+                boolean contained = (words[i >>> 6] & (1L << i)) != 0;
+                int slot = tracks.getOrCreateSlot(uids[i]);
+                if (applyFiltered(filter, slot, contained, edgeMeters[i], lats[i], lons[i], times[i])) {
+                    transitions.add(new TrackTransition(uids[i], i, tracks.isInside(slot), lats[i], lons[i],
+                            times[i]));
+                }
+                tracks.recordFix(slot, lats[i], lons[i], times[i], stales[i]);
+                newest = Math.max(newest, times[i]);
+            }
+            if (count > 0) {
+                tracks.evictStaleIfDue(newest);
+            }
+            return new BatchContainment.Result(BitSet.valueOf(words), transitions);
+        }
+    }
+
+    public boolean isInside(String uid) {
+        synchronized (tracks) {
+            int slot = tracks.slotOf(uid);
+            return slot >= 0 && tracks.isInside(slot);
+        }
+    }
+
+    /**
+     * @return when the track last entered, 0 if it is unknown or outside
+     */
+    public long getEntryTime(String uid) {
+        synchronized (tracks) {
+            int slot = tracks.slotOf(uid);
+            return slot >= 0 && tracks.isInside(slot) ? tracks.getEntryTime(slot) : 0;
+        }
+    }
+
+    public int getTrackCount() {
+        synchronized (tracks) {
+            return tracks.size();
+        }
+    }
+
+    /**
+     * Reset track state left over from an older polygon. Caller holds the
+     * tracks lock.
+     * @return false if the snapshot is older than the state, in which case
+     *         its results must not be applied
+     */
+    private boolean syncGeneration(BoundarySnapshot snapshot) {
+        long snapshotGeneration = snapshot.getGeneration();
+        if (snapshotGeneration < trackGeneration) {
+            return false;
+        }
+        if (snapshotGeneration > trackGeneration) {
+            tracks.clear();
+            trackGeneration = snapshotGeneration;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,65 @@
+package com.atakmap.android.feature4boundaryalert.plugin.geofence;
+
+/**
+ * Immutable view of a boundary at one point in time: the vertices drawn
+ * so far and, once complete, the prepared polygon.
+ *
+ * Snapshots are published by {@link BoundaryModel} after every edit, so a
+ * reader holding one never sees a half-built polygon.
+ */
+public final class BoundarySnapshot {
+
+    static final BoundarySnapshot EMPTY = new BoundarySnapshot(new double[0], 0, null, 0);
+
+    private final double[] coords;
+    private final int vertexCount;
+    private final Region polygon;
+    private final long generation;
+
+    BoundarySnapshot(double[] coords, int vertexCount, Region polygon, long generation) {
+        this.coords = coords;
+        this.vertexCount = vertexCount;
+        this.polygon = polygon;
+        this.generation = generation;
+    }
+
+    /**
+     * @return true once the polygon has been completed
+     */
+    public boolean isComplete() {
+        return polygon != null;
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    public double getLatitude(int i) {
+        return coords[2 * i];
+    }
+
+    public double getLongitude(int i) {
+        return coords[2 * i + 1];
+    }
+
+    /**
+     * @return the prepared polygon, or null while still drawing
+     */
+    public Region getPolygon() {
+        return polygon;
+    }
+
+    /**
+     * Identifies the polygon; changes whenever it is completed or cleared
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return true if the polygon is complete and contains the point
+     */
+    public boolean contains(double lat, double lon) {
+        return polygon != null && polygon.contains(lat, lon);
+    }
+}
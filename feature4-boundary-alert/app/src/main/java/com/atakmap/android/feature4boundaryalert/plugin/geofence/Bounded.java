@@ -0,0 +1,13 @@
+package com.atakmap.android.feature4boundaryalert.plugin.geofence;
+
+/**
+ * Anything {@link GeofenceIndex} can bulk load: only the envelope is used
+ * to build the tree.
+ */
+interface Bounded {
+
+    /**
+     * @return bounds used by the index; must contain the whole item
+     */
+    Envelope getEnvelope();
+}
@@ -0,0 +1,181 @@
+package com.atakmap.android.feature4boundaryalert.plugin.geofence;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Buffered character source for the streaming importers, with a number
+ * parser that does not build a String for ordinary coordinates.
+ */
+final class CharInput {
+
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    // longest number accepted, in characters
+    private static final int MAX_NUMBER = 64;
+
+    private final Reader reader;
+    private final char[] buffer = new char[8192];
+    private final char[] number = new char[MAX_NUMBER];
+    private int pos;
+    private int limit;
+    private long consumed;
+
+    CharInput(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * @return the next character without consuming it, or -1 at the end
+     */
+    int peek() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buffer[pos];
+    }
+
+    /**
+     * @return the next character, or -1 at the end
+     */
+    int read() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buffer[pos++];
+    }
+
+    /**
+     * Skip whitespace
+     * @return the next character, not consumed, or -1 at the end
+     */
+    int skipWhitespace() throws IOException {
+        int c;
+        while ((c = peek()) == ' ' || c == '\n' || c == '\r' || c == '\t') {
+            pos++;
+        }
+        return c;
+    }
+
+    /**
+     * Consume characters up to and including a marker
+     * @return false if the input ended first
+     */
+    boolean skipPast(String marker) throws IOException {
+        int n = marker.length();
+        // the last n characters read, oldest first
+        char[] window = new char[n];
+        int seen = 0;
+        int c;
+        while ((c = read()) >= 0) {
+            System.arraycopy(window, 1, window, 0, n - 1);
+            window[n - 1] = (char) c;
+            if (++seen >= n && endsWith(window, marker)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean endsWith(char[] window, String marker) {
+        for (int i = 0; i < window.length; i++) {
+            if (window[i] != marker.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return number of characters consumed so far, for error messages
+     */
+    long position() {
+        return consumed - (limit - pos);
+    }
+
+    /**
+     * Parse a decimal number at the current position. Up to 15 significant
+     * digits with a small exponent (every coordinate in practice) are
+     * converted exactly without allocating; anything else goes through
+     * {@link Double#parseDouble}.
+     * @throws IOException if there is no number here
+     */
+    double readNumber() throws IOException {
+        int length = 0;
+        int c;
+        while ((c = peek()) >= 0 && (c >= '0' && c <= '9' || c == '-' || c == '+'
+                || c == '.' || c == 'e' || c == 'E')) {
+            if (length == MAX_NUMBER) {
+                throw new IOException("number too long at " + position());
+            }
+            number[length++] = (char) c;
+            pos++;
+        }
+        if (length == 0) {
+            throw new IOException("expected a number at " + position());
+        }
+
+        int i = 0;
+        boolean negative = number[0] == '-';
+        if (negative || number[0] == '+') {
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean point = false;
+        boolean any = false;
+        for (; i < length; i++) {
+            char d = number[i];
+            if (d >= '0' && d <= '9') {
+                any = true;
+                if (mantissa == 0 && d == '0') {
+                    // leading zeros are not significant
+                    if (point) exponent--;
+                    continue;
+                }
+                if (digits == 15) {
+                    return slowParse(length);
+                }
+                mantissa = mantissa * 10 + (d - '0');
+                digits++;
+                if (point) exponent--;
+            } else if (d == '.' && !point) {
+                point = true;
+            } else if ((d == 'e' || d == 'E') && any) {
+                return slowParse(length);
+            } else {
+                throw new IOException("malformed number at " + position());
+            }
+        }
+        if (!any) {
+            throw new IOException("malformed number at " + position());
+        }
+        if (exponent < -22) {
+            return slowParse(length);
+        }
+        double value = exponent < 0 ? mantissa / POW10[-exponent] : mantissa;
+        return negative ? -value : value;
+    }
+
+    private double slowParse(int length) throws IOException {
+        try {
+            return Double.parseDouble(new String(number, 0, length));
+        } catch (NumberFormatException e) {
+            throw new IOException("malformed number at " + position());
+        }
+    }
+
+    private boolean fill() throws IOException {
+        int n = reader.read(buffer, 0, buffer.length);
+        if (n <= 0) {
+            return false;
+        }
+        pos = 0;
+        limit = n;
+        consumed += n;
+        return true;
+    }
+}
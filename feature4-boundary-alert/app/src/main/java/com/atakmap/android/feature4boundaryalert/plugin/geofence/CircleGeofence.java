@@ -0,0 +1,98 @@
+package com.atakmap.android.feature4boundaryalert.plugin.geofence;
+
+/**
+ * A named circular geofence: every point within a great circle distance
+ * of a centre.
+ *
+ * Containment compares the haversine term against the one for the radius,
+ * so a query costs three trig calls and no square root or arcsine.
+ */
+public class CircleGeofence implements Geofence {
+
+    private final String id;
+    private final double centerLat;
+    private final double centerLon;
+    private final double radiusMeters;
+    private final double cosCenterLat;
+    // haversine of the angular radius
+    private final double radiusHaversine;
+    private final Envelope envelope;
+
+    /**
+     * @param id unique geofence identifier
+     * @param radiusMeters radius along the surface, greater than zero
+     */
+    public CircleGeofence(String id, double centerLat, double centerLon, double radiusMeters) {
+        if (id == null) {
+            throw new IllegalArgumentException("id must not be null");
+        }
+        if (!(radiusMeters > 0)) {
+            throw new IllegalArgumentException("radius must be positive");
+        }
+        this.id = id;
+        this.centerLat = centerLat;
+        this.centerLon = centerLon;
+        this.radiusMeters = radiusMeters;
+        this.cosCenterLat = Math.cos(Math.toRadians(centerLat));
+        double s = Math.sin(Math.min(radiusMeters / GeoMath.EARTH_RADIUS_METERS, Math.PI) / 2);
+        this.radiusHaversine = s * s;
+        this.envelope = computeEnvelope();
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public Envelope getEnvelope() {
+        return envelope;
+    }
+
+    public double getCenterLatitude() {
+        return centerLat;
+    }
+
+    public double getCenterLongitude() {
+        return centerLon;
+    }
+
+    public double getRadiusMeters() {
+        return radiusMeters;
+    }
+
+    @Override
+    public boolean contains(double lat, double lon) {
+        if (!envelope.contains(lat, lon)) {
+            return false;
+        }
+        double sinLat = Math.sin(Math.toRadians(lat - centerLat) / 2);
+        double sinLon = Math.sin(Math.toRadians(lon - centerLon) / 2);
+        double h = sinLat * sinLat + cosCenterLat * Math.cos(Math.toRadians(lat)) * sinLon * sinLon;
+        return h <= radiusHaversine;
+    }
+
+    @Override
+    public double signedDistance(double lat, double lon) {
+        return GeoMath.distanceMeters(centerLat, centerLon, lat, lon) - radiusMeters;
+    }
+
+    /**
+     * Exact bounds of the circle; a circle around a pole or across the
+     * antimeridian gets the full longitude range
+     */
+    private Envelope computeEnvelope() {
+        double angle = radiusMeters / GeoMath.EARTH_RADIUS_METERS;
+        double minLat = centerLat - Math.toDegrees(angle);
+        double maxLat = centerLat + Math.toDegrees(angle);
+        if (minLat <= -90 || maxLat >= 90) {
+            return new Envelope(Math.max(minLat, -90), -180, Math.min(maxLat, 90), 180);
+        }
+        // longitude where the meridian touches the circle
+        double dLon = Math.toDegrees(Math.asin(Math.min(1, Math.sin(angle) / cosCenterLat)));
+        if (centerLon - dLon < -180 || centerLon + dLon > 180) {
+            return new Envelope(minLat, -180, maxLat, 180);
+        }
+        return new Envelope(minLat, centerLon - dLon, maxLat, centerLon + dLon);
+    }
+}
@@ -0,0 +1,141 @@
+package com.atakmap.android.feature4boundaryalert.plugin.geofence;
+
+/**
+ * A named corridor geofence: every point within a half width of a
+ * polyline, e.g. a route or a pipeline right of way.
+ *
+ * Each segment keeps its bounds widened by the half width, so a query
+ * only measures the segments whose bounds contain the point. Distances
+ * are measured in a local plane around the query point, like the polygon
+ * edge distances.
+ */
+public class CorridorGeofence implements Geofence {
+
+    private final String id;
+    private final double[] path;
+    private final int pointCount;
+    private final double halfWidthMeters;
+    // per segment: minLat, minLon, maxLat, maxLon widened by the half width
+    private final double[] segmentBounds;
+    private final Envelope envelope;
+
+    /**
+     * @param id unique geofence identifier
+     * @param path packed {lat, lon} coordinates of the centre line, at least
+     *             two points. The array is owned by the geofence after this
+     *             call.
+     * @param halfWidthMeters distance either side of the centre line,
+     *                        greater than zero
+     */
+    public CorridorGeofence(String id, double[] path, double halfWidthMeters) {
+        if (id == null) {
+            throw new IllegalArgumentException("id must not be null");
+        }
+        if (path == null || path.length < 4 || (path.length & 1) != 0) {
+            throw new IllegalArgumentException("corridor needs at least 2 lat/lon pairs");
+        }
+        if (!(halfWidthMeters > 0)) {
+            throw new IllegalArgumentException("half width must be positive");
+        }
+        this.id = id;
+        this.path = path;
+        this.pointCount = path.length / 2;
+        this.halfWidthMeters = halfWidthMeters;
+        this.segmentBounds = new double[4 * (pointCount - 1)];
+
+        double padLat = halfWidthMeters / GeoMath.METERS_PER_DEGREE;
+        double minLat = Double.POSITIVE_INFINITY, minLon = Double.POSITIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+        for (int s = 0; s < pointCount - 1; s++) {
+            double lo = Math.min(path[2 * s], path[2 * s + 2]) - padLat;
+            double hi = Math.max(path[2 * s], path[2 * s + 2]) + padLat;
+            // widest longitude pad where the segment is closest to a pole
+            double padLon = halfWidthMeters / GeoMath.metersPerDegreeLon(Math.max(Math.abs(lo), Math.abs(hi)));
+            segmentBounds[4 * s] = lo;
+            segmentBounds[4 * s + 1] = Math.min(path[2 * s + 1], path[2 * s + 3]) - padLon;
+            segmentBounds[4 * s + 2] = hi;
+            segmentBounds[4 * s + 3] = Math.max(path[2 * s + 1], path[2 * s + 3]) + padLon;
+            minLat = Math.min(minLat, segmentBounds[4 * s]);
+            minLon = Math.min(minLon, segmentBounds[4 * s + 1]);
+            maxLat = Math.max(maxLat, segmentBounds[4 * s + 2]);
+            maxLon = Math.max(maxLon, segmentBounds[4 * s + 3]);
+        }
+        this.envelope = new Envelope(minLat, minLon, maxLat, maxLon);
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public Envelope getEnvelope() {
+        return envelope;
+    }
+
+    double[] path() {
+        return path;
+    }
+
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    public double getHalfWidthMeters() {
+        return halfWidthMeters;
+    }
+
+    @Override
+    public boolean contains(double lat, double lon) {
+        if (!envelope.contains(lat, lon)) {
+            return false;
+        }
+        final double kLat = GeoMath.METERS_PER_DEGREE;
+        final double kLon = GeoMath.metersPerDegreeLon(lat);
+        final double limit = halfWidthMeters * halfWidthMeters;
+        for (int s = 0; s < pointCount - 1; s++) {
+            if (lat < segmentBounds[4 * s] || lon < segmentBounds[4 * s + 1]
+                    || lat > segmentBounds[4 * s + 2] || lon > segmentBounds[4 * s + 3]) {
+                continue;
+            }
+            if (segmentDistanceSq(s, lat, lon, kLat, kLon) <= limit) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The nearest segment is found in the local plane; the distance to the
+     * closest point on it is then taken along the great circle
+     */
+    @Override
+    public double signedDistance(double lat, double lon) {
+        final double kLat = GeoMath.METERS_PER_DEGREE;
+        final double kLon = GeoMath.metersPerDegreeLon(lat);
+        double best = Double.MAX_VALUE;
+        int bestSegment = 0;
+        for (int s = 0; s < pointCount - 1; s++) {
+            double d2 = segmentDistanceSq(s, lat, lon, kLat, kLon);
+            if (d2 < best) {
+                best = d2;
+                bestSegment = s;
+            }
+        }
+
+        int s = bestSegment;
+        double ax = (path[2 * s + 1] - lon) * kLon, ay = (path[2 * s] - lat) * kLat;
+        double dx = (path[2 * s + 3] - lon) * kLon - ax, dy = (path[2 * s + 2] - lat) * kLat - ay;
+        double len2 = dx * dx + dy * dy;
+        double t = len2 > 0 ? Math.max(0, Math.min(1, -(ax * dx + ay * dy) / len2)) : 0;
+        double nearLat = path[2 * s] + t * (path[2 * s + 2] - path[2 * s]);
+        double nearLon = path[2 * s + 1] + t * (path[2 * s + 3] - path[2 * s + 1]);
+        return GeoMath.distanceMeters(lat, lon, nearLat, nearLon) - halfWidthMeters;
+    }
+
+    private double segmentDistanceSq(int s, double lat, double lon, double kLat, double kLon) {
+        return GeoMath.segmentDistanceSq(
+                (path[2 * s + 1] - lon) * kLon, (path[2 * s] - lat) * kLat,
+                (path[2 * s + 3] - lon) * kLon, (path[2 * s + 2] - lat) * kLat);
+    }
+}
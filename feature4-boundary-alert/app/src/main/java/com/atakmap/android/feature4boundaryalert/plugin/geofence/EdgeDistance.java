@@ -0,0 +1,40 @@
+package com.atakmap.android.feature4boundaryalert.plugin.geofence;
+
+/**
+ * Distance from a point to the nearest edge of a boundary.
+ */
+public final class EdgeDistance {
+
+    /** meters to the edge; negative inside the boundary, positive outside */
+    public final double signedMeters;
+
+    /** the nearest edge, which runs from vertex edgeIndex to the next one */
+    public final int edgeIndex;
+
+    /** closest point on that edge */
+    public final double lat;
+    public final double lon;
+
+    public EdgeDistance(double signedMeters, int edgeIndex, double lat, double lon) {
+        this.signedMeters = signedMeters;
+        this.edgeIndex = edgeIndex;
+        this.lat = lat;
+        this.lon = lon;
+    }
+
+    public boolean isInside() {
+        return signedMeters < 0;
+    }
+
+    /**
+     * @return unsigned distance in meters
+     */
+    public double getMeters() {
+        return Math.abs(signedMeters);
+    }
+
+    @Override
+    public String toString() {
+        return (isInside() ? "inside, " : "outside, ") + Math.round(getMeters()) + " m from edge " + edgeIndex;
+    }
+}
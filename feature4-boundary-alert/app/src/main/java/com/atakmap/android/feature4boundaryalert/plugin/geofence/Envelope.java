@@ -0,0 +1,60 @@
+package com.atakmap.android.feature4boundaryalert.plugin.geofence;
+
+/**
+ * Immutable latitude/longitude bounding box.
+ */
+public final class Envelope {
+
+    public final double minLat;
+    public final double minLon;
+    public final double maxLat;
+    public final double maxLon;
+
+    public Envelope(double minLat, double minLon, double maxLat, double maxLon) {
+        this.minLat = minLat;
+        this.minLon = minLon;
+        this.maxLat = maxLat;
+        this.maxLon = maxLon;
+    }
+
+    /**
+     * Compute the envelope of packed {lat, lon} coordinates
+     * @param coords packed coordinates, lat at even and lon at odd indices
+     * @param count number of vertices to include
+     */
+    public static Envelope of(double[] coords, int count) {
+        double minLat = Double.POSITIVE_INFINITY;
+        double minLon = Double.POSITIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        double maxLon = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            double lat = coords[2 * i];
+            double lon = coords[2 * i + 1];
+            if (lat < minLat) minLat = lat;
+            if (lat > maxLat) maxLat = lat;
+            if (lon < minLon) minLon = lon;
+            if (lon > maxLon) maxLon = lon;
+        }
+        return new Envelope(minLat, minLon, maxLat, maxLon);
+    }
+
+    /**
+     * Check if a point lies inside or on the edge of the envelope
+     */
+    public boolean contains(double lat, double lon) {
+        return lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon;
+    }
+
+    /**
+     * Check if two envelopes overlap
+     */
+    public boolean intersects(Envelope other) {
+        return other.minLat <= maxLat && other.maxLat >= minLat
+                && other.minLon <= maxLon && other.maxLon >= minLon;
+    }
+
+    @Override
+    public String toString() {
+        return "Envelope[" + minLat + ", " + minLon + " -> " + maxLat + ", " + maxLon + "]";
+    }
+}
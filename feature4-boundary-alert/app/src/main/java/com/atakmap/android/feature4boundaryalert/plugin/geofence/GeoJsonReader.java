@@ -0,0 +1,366 @@
+package com.atakmap.android.feature4boundaryalert.plugin.geofence;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pull scanner for the polygons in a GeoJSON document.
+ *
+ * Features are reported as soon as their closing brace is read, so a
+ * FeatureCollection of any size only ever holds one feature's rings.
+ * Members may come in any order; a feature's geometry is buffered until
+ * its type and name are known. Polygon and MultiPolygon geometries are
+ * reported, also inside a GeometryCollection; other types are skipped.
+ */
+final class GeoJsonReader {
+
+    // names and ids longer than this are cut
+    private static final int MAX_TEXT = 256;
+
+    // what an array of coordinates turned out to hold
+    private static final int EMPTY = 0;
+    private static final int NUMBERS = 1;
+    private static final int POSITIONS = 2;
+    private static final int NESTED = 3;
+
+    private final CharInput in;
+    private final StringBuilder text = new StringBuilder();
+
+    GeoJsonReader(Reader reader) {
+        this.in = new CharInput(reader);
+    }
+
+    /**
+     * Report every polygon ring in the document, in document order
+     */
+    void read(GeofenceImporter.RingHandler handler) throws IOException {
+        if (peekToken() != '{') {
+            throw new IOException("GeoJSON must start with an object");
+        }
+        readObject(handler, false);
+    }
+
+    /**
+     * One object: a FeatureCollection, a Feature or a geometry
+     * @param nested true inside a Feature or GeometryCollection, whose
+     *               owner reports the rings
+     */
+    private Member readObject(GeofenceImporter.RingHandler handler, boolean nested) throws IOException {
+        expect('{');
+        Member m = new Member();
+        while (peekToken() != '}') {
+            String key = readString();
+            if (key.equals("type")) {
+                m.type = readScalar();
+            } else if (key.equals("id")) {
+                m.id = readScalar();
+            } else if (key.equals("properties")) {
+                readProperties(m);
+            } else if (key.equals("geometry")) {
+                if (peekToken() == '{') {
+                    m.absorb(readObject(handler, true));
+                } else {
+                    skipValue();
+                }
+            } else if (key.equals("geometries")) {
+                expect('[');
+                while (peekToken() != ']') {
+                    if (peekToken() == '{') {
+                        m.absorb(readObject(handler, true));
+                    } else {
+                        skipValue();
+                    }
+                }
+                expect(']');
+            } else if (key.equals("features")) {
+                expect('[');
+                while (peekToken() != ']') {
+                    if (peekToken() == '{') {
+                        readObject(handler, false);
+                    } else {
+                        skipValue();
+                    }
+                }
+                expect(']');
+            } else if (key.equals("coordinates")) {
+                expect('[');
+                readCoordinates(m, 0);
+            } else {
+                skipValue();
+            }
+        }
+        expect('}');
+
+        if ("Feature".equals(m.type) || (!nested && m.isPolygonal())) {
+            String name = m.name != null ? m.name : m.id;
+            for (VertexStore ring : m.outerRings()) {
+                handler.outerRing(name, ring);
+            }
+            for (int i = 0; i < m.holes; i++) {
+                handler.innerRing();
+            }
+            return new Member();
+        }
+        return m;
+    }
+
+    private void readProperties(Member m) throws IOException {
+        if (peekToken() != '{') {
+            skipValue();
+            return;
+        }
+        expect('{');
+        while (peekToken() != '}') {
+            String key = readString();
+            if (key.equals("name") && peekToken() == '"') {
+                m.name = readString();
+            } else {
+                skipValue();
+            }
+        }
+        expect('}');
+    }
+
+    /**
+     * Rest of a coordinate array whose '[' has been read. An array of
+     * positions is a ring; it is kept when it is the first ring of its
+     * polygon and counted as a hole otherwise.
+     * @param index position of this array within its parent
+     */
+    private int readCoordinates(Member m, int index) throws IOException {
+        int kind = EMPTY;
+        VertexStore ring = null;
+        int child = 0;
+        int c;
+        while ((c = peekToken()) != ']') {
+            if (c < 0) {
+                throw new IOException("unterminated coordinates at " + in.position());
+            }
+            if (c == '[') {
+                in.read();
+                if (isNumberStart(peekToken())) {
+                    double lon = in.readNumber();
+                    double lat = readNumberToken();
+                    // altitude and anything after it
+                    while (peekToken() != ']') {
+                        skipValue();
+                    }
+                    in.read();
+                    if (index == 0) {
+                        if (ring == null) {
+                            ring = new VertexStore();
+                        }
+                        ring.add(lat, lon);
+                    }
+                    kind = POSITIONS;
+                } else {
+                    readCoordinates(m, child);
+                    kind = NESTED;
+                }
+            } else {
+                skipValue();
+                kind = NUMBERS;
+            }
+            child++;
+        }
+        in.read();
+        if (kind == POSITIONS) {
+            if (index == 0) {
+                m.add(ring);
+            } else {
+                m.holes++;
+            }
+        }
+        return kind;
+    }
+
+    /**
+     * @return the next significant character, skipping whitespace and the
+     *         separators, which carry no information for this reader
+     */
+    private int peekToken() throws IOException {
+        while (true) {
+            int c = in.skipWhitespace();
+            if (c != ',' && c != ':') {
+                return c;
+            }
+            in.read();
+        }
+    }
+
+    private void expect(char token) throws IOException {
+        if (peekToken() != token) {
+            throw new IOException("expected '" + token + "' at " + in.position());
+        }
+        in.read();
+    }
+
+    private double readNumberToken() throws IOException {
+        if (!isNumberStart(peekToken())) {
+            throw new IOException("expected a number at " + in.position());
+        }
+        return in.readNumber();
+    }
+
+    private static boolean isNumberStart(int c) {
+        return c == '-' || (c >= '0' && c <= '9');
+    }
+
+    /**
+     * A string, or the text of a number or literal
+     */
+    private String readScalar() throws IOException {
+        int c = peekToken();
+        if (c == '"') {
+            return readString();
+        }
+        text.setLength(0);
+        while ((c = in.peek()) >= 0 && c != ',' && c != '}' && c != ']'
+                && c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+            in.read();
+            if (text.length() < MAX_TEXT) {
+                text.append((char) c);
+            }
+        }
+        return text.toString();
+    }
+
+    private String readString() throws IOException {
+        expect('"');
+        text.setLength(0);
+        int c;
+        while ((c = in.read()) != '"') {
+            if (c < 0) {
+                throw new IOException("unterminated string");
+            }
+            if (c == '\\') {
+                c = readEscape();
+            }
+            if (text.length() < MAX_TEXT) {
+                text.append((char) c);
+            }
+        }
+        return text.toString();
+    }
+
+    private int readEscape() throws IOException {
+        int c = in.read();
+        switch (c) {
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int code = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(in.read(), 16);
+                    if (digit < 0) {
+                        throw new IOException("bad unicode escape at " + in.position());
+                    }
+                    code = code * 16 + digit;
+                }
+                return code;
+            default:
+                if (c < 0) {
+                    throw new IOException("unterminated string");
+                }
+                return c;
+        }
+    }
+
+    /**
+     * Skip one value of any kind, however large, without keeping it
+     */
+    private void skipValue() throws IOException {
+        int c = peekToken();
+        if (c == '"') {
+            skipString();
+        } else if (c == '{' || c == '[') {
+            int depth = 0;
+            while ((c = in.read()) >= 0) {
+                if (c == '"') {
+                    skipStringBody();
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if ((c == '}' || c == ']') && --depth == 0) {
+                    return;
+                }
+            }
+            throw new IOException("unterminated value");
+        } else if (c < 0 || c == '}' || c == ']') {
+            throw new IOException("expected a value at " + in.position());
+        } else {
+            // number or literal
+            while ((c = in.peek()) >= 0 && c != ',' && c != '}' && c != ']'
+                    && c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                in.read();
+            }
+        }
+    }
+
+    private void skipString() throws IOException {
+        in.read();
+        skipStringBody();
+    }
+
+    private void skipStringBody() throws IOException {
+        int c;
+        while ((c = in.read()) != '"') {
+            if (c < 0) {
+                throw new IOException("unterminated string");
+            }
+            if (c == '\\') {
+                in.read();
+            }
+        }
+    }
+
+    /**
+     * What an object has collected so far
+     */
+    private static final class Member {
+        String type;
+        String id;
+        String name;
+        List<VertexStore> rings;
+        int holes;
+
+        void add(VertexStore ring) {
+            if (ring == null) {
+                return;
+            }
+            if (rings == null) {
+                rings = new ArrayList<>(1);
+            }
+            rings.add(ring);
+        }
+
+        boolean isPolygonal() {
+            return "Polygon".equals(type) || "MultiPolygon".equals(type) || "GeometryCollection".equals(type);
+        }
+
+        /**
+         * Take over a geometry's rings if it is a polygonal one
+         */
+        void absorb(Member geometry) {
+            if (geometry.isPolygonal() && geometry.rings != null) {
+                for (VertexStore ring : geometry.rings) {
+                    add(ring);
+                }
+                holes += geometry.holes;
+            }
+        }
+
+        List<VertexStore> outerRings() {
+            return rings != null ? rings : new ArrayList<VertexStore>(0);
+        }
+    }
+}
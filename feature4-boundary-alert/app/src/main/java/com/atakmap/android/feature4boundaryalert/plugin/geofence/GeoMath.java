@@ -0,0 +1,106 @@
+package com.atakmap.android.feature4boundaryalert.plugin.geofence;
+
+/**
+ * Small geodesy helpers shared by the geofence shapes.
+ *
+ * Distances to nearby edges are measured in a local equirectangular plane
+ * centred on the query point: degrees are scaled to meters once per query
+ * and every edge is then handled with plain multiplications. Over the few
+ * kilometres that matter for boundary alerts the error is far below GPS
+ * accuracy.
+ */
+public final class GeoMath {
+
+    /** mean Earth radius */
+    public static final double EARTH_RADIUS_METERS = 6_371_008.8;
+
+    /** length of one degree of latitude, or of longitude at the equator */
+    public static final double METERS_PER_DEGREE = EARTH_RADIUS_METERS * Math.PI / 180;
+
+    // keeps the longitude scale finite at the poles
+    private static final double MIN_COS_LAT = 1e-9;
+
+    private GeoMath() {
+    }
+
+    /**
+     * @return meters per degree of longitude at a latitude
+     */
+    public static double metersPerDegreeLon(double lat) {
+        return METERS_PER_DEGREE * Math.max(Math.cos(Math.toRadians(lat)), MIN_COS_LAT);
+    }
+
+    /**
+     * Great circle distance between two points (haversine)
+     */
+    public static double distanceMeters(double lat0, double lon0, double lat1, double lon1) {
+        double sinLat = Math.sin(Math.toRadians(lat1 - lat0) / 2);
+        double sinLon = Math.sin(Math.toRadians(lon1 - lon0) / 2);
+        double h = sinLat * sinLat
+                + Math.cos(Math.toRadians(lat0)) * Math.cos(Math.toRadians(lat1)) * sinLon * sinLon;
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(h)));
+    }
+
+    /**
+     * Initial great circle course from the first point to the second
+     * @return degrees from true north, 0 to 360
+     */
+    public static double bearingDegrees(double lat0, double lon0, double lat1, double lon1) {
+        double latR0 = Math.toRadians(lat0);
+        double latR1 = Math.toRadians(lat1);
+        double dLon = Math.toRadians(lon1 - lon0);
+        double y = Math.sin(dLon) * Math.cos(latR1);
+        double x = Math.cos(latR0) * Math.sin(latR1) - Math.sin(latR0) * Math.cos(latR1) * Math.cos(dLon);
+        return normalizeDegrees(Math.toDegrees(Math.atan2(y, x)));
+    }
+
+    /**
+     * Point reached by following a great circle from a start point
+     * @param bearingDegrees initial course from true north
+     * @param out receives {lat, lon}, lon in -180 to 180
+     */
+    public static void destination(double lat, double lon, double bearingDegrees, double meters, double[] out) {
+        double d = meters / EARTH_RADIUS_METERS;
+        double bearing = Math.toRadians(bearingDegrees);
+        double latR = Math.toRadians(lat);
+        double sinLat = Math.sin(latR) * Math.cos(d) + Math.cos(latR) * Math.sin(d) * Math.cos(bearing);
+        double lat1 = Math.asin(sinLat);
+        double dLon = Math.atan2(Math.sin(bearing) * Math.sin(d) * Math.cos(latR),
+                Math.cos(d) - Math.sin(latR) * sinLat);
+        out[0] = Math.toDegrees(lat1);
+        out[1] = normalizeDegrees(lon + Math.toDegrees(dLon) + 180) - 180;
+    }
+
+    /**
+     * @return the angle in 0 to 360
+     */
+    public static double normalizeDegrees(double degrees) {
+        double d = degrees % 360;
+        if (d < 0) {
+            d += 360;
+            // a tiny negative angle rounds up to 360
+            if (d == 360) {
+                d = 0;
+            }
+        }
+        return d;
+    }
+
+    /**
+     * Squared distance from the origin to the segment a-b, all in meters
+     */
+    static double segmentDistanceSq(double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double len2 = dx * dx + dy * dy;
+        double t = len2 > 0 ? -(ax * dx + ay * dy) / len2 : 0;
+        if (t < 0) {
+            t = 0;
+        } else if (t > 1) {
+            t = 1;
+        }
+        double px = ax + t * dx;
+        double py = ay + t * dy;
+        return px * px + py * py;
+    }
+}
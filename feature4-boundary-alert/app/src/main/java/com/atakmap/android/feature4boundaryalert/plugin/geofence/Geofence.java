@@ -0,0 +1,22 @@
+package com.atakmap.android.feature4boundaryalert.plugin.geofence;
+
+/**
+ * A named zone held by {@link GeofenceManager}.
+ */
+public interface Geofence extends Bounded {
+
+    String getId();
+
+    /**
+     * @return bounds used by the index; must contain the whole zone
+     */
+    @Override
+    Envelope getEnvelope();
+
+    boolean contains(double lat, double lon);
+
+    /**
+     * Meters from a point to the zone's boundary, negative inside
+     */
+    double signedDistance(double lat, double lon);
+}
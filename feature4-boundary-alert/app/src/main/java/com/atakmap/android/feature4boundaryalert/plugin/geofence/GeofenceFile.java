@@ -0,0 +1,618 @@
+package com.atakmap.android.feature4boundaryalert.plugin.geofence;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Versioned binary store for geofences, loaded by memory mapping.
+ *
+ * Opening a file reads the header, the zone table and the prebuilt
+ * R-tree levels; nothing is parsed and no polygon is prepared. Each zone
+ * is handed out as a lightweight geofence whose envelope comes from the
+ * index and whose coordinates stay in the mapped file until the first
+ * query that actually reaches it. Thousands of zones are queryable a few
+ * milliseconds after start up.
+ *
+ * Layout, little endian, every section 8 byte aligned:
+ * <pre>
+ * header     magic, version, zone count, index level count,
+ *            envelope of all zones, coordinate and id offsets
+ * zones      per zone: shape, point count, first coordinate,
+ *            radius or half width, id offset and length
+ * index      per level: entry count, bounds, child ranges above level 0
+ * coords     packed {lat, lon} doubles
+ * ids        UTF-8
+ * </pre>
+ * Zones are stored in index leaf order, so level 0 of the index holds
+ * their envelopes.
+ *
+ * Writes go to a temporary file in the same directory which is synced and
+ * then renamed over the target, so a reader sees the old file or the new
+ * one, never a partial write.
+ */
+public final class GeofenceFile {
+
+    /** "GEOF" */
+    static final int MAGIC = 0x47454F46;
+    static final int VERSION = 1;
+
+    /** zone shapes, see {@link #getShape} */
+    public static final int SHAPE_POLYGON = 0;
+    public static final int SHAPE_CIRCLE = 1;
+    public static final int SHAPE_CORRIDOR = 2;
+
+    private static final int HEADER_BYTES = 64;
+    private static final int ZONE_BYTES = 32;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer data;
+    private final Envelope envelope;
+    private final List<Geofence> geofences;
+    private final GeofenceIndex index;
+
+    private GeofenceFile(ByteBuffer data, Envelope envelope, Geofence[] geofences, GeofenceIndex index) {
+        this.data = data;
+        this.envelope = envelope;
+        this.geofences = Collections.unmodifiableList(Arrays.asList(geofences));
+        this.index = index;
+    }
+
+    /**
+     * Map a geofence file
+     * @throws IOException if the file cannot be read, is not a geofence
+     *         file, or was written by a newer version
+     */
+    public static GeofenceFile open(File file) throws IOException {
+        ByteBuffer data;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+                throw new IOException("not a geofence file: " + file);
+            }
+            // the mapping stays valid after the channel is closed
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return read(data, file);
+    }
+
+    private static GeofenceFile read(ByteBuffer data, File file) throws IOException {
+        if (data.getInt(0) != MAGIC) {
+            throw new IOException("not a geofence file: " + file);
+        }
+        int version = data.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("unsupported geofence file version " + version + ": " + file);
+        }
+        int zoneCount = data.getInt(8);
+        int levelCount = data.getInt(12);
+        Envelope envelope = new Envelope(data.getDouble(16), data.getDouble(24),
+                data.getDouble(32), data.getDouble(40));
+        long coordsOffset = data.getLong(48);
+        long idsOffset = data.getLong(56);
+        long zonesEnd = HEADER_BYTES + (long) zoneCount * ZONE_BYTES;
+        if (zoneCount < 0 || levelCount < 0 || zonesEnd > coordsOffset
+                || coordsOffset > idsOffset || idsOffset > data.limit()) {
+            throw new IOException("corrupt geofence file: " + file);
+        }
+
+        double[][] levelBounds = new double[levelCount][];
+        int[][] childStart = new int[levelCount][];
+        int[][] childEnd = new int[levelCount][];
+        int pos = (int) zonesEnd;
+        try {
+            for (int level = 0; level < levelCount; level++) {
+                int count = data.getInt(pos);
+                pos += 8;
+                levelBounds[level] = new double[4 * count];
+                readDoubles(data, pos, levelBounds[level]);
+                pos += 32 * count;
+                if (level > 0) {
+                    childStart[level] = new int[count];
+                    childEnd[level] = new int[count];
+                    readInts(data, pos, childStart[level]);
+                    pos += 4 * count;
+                    readInts(data, pos, childEnd[level]);
+                    pos = (int) align(pos + 4 * count);
+                    checkChildren(childStart[level], childEnd[level], levelBounds[level - 1].length / 4, file);
+                }
+            }
+        } catch (IndexOutOfBoundsException | BufferUnderflowException | IllegalArgumentException
+                | NegativeArraySizeException e) {
+            throw new IOException("corrupt geofence index: " + file, e);
+        }
+        if (pos > coordsOffset || (levelCount > 0 ? levelBounds[0].length / 4 : 0) != zoneCount) {
+            throw new IOException("corrupt geofence index: " + file);
+        }
+
+        Geofence[] zones = new Geofence[zoneCount];
+        double[] leaves = levelCount > 0 ? levelBounds[0] : new double[0];
+        ByteBuffer ids = data.duplicate();
+        for (int i = 0; i < zoneCount; i++) {
+            int z = HEADER_BYTES + i * ZONE_BYTES;
+            int shape = data.getInt(z);
+            int points = data.getInt(z + 4);
+            long first = data.getLong(z + 8);
+            double param = data.getDouble(z + 16);
+            int idOffset = data.getInt(z + 24);
+            int idLength = data.getInt(z + 28);
+            long coordEnd = coordsOffset + 16 * (first + points);
+            if (points < 1 || first < 0 || coordEnd > idsOffset
+                    || idOffset < 0 || idLength < 0 || idsOffset + idOffset + idLength > data.limit()) {
+                throw new IOException("corrupt geofence zone " + i + ": " + file);
+            }
+            byte[] id = new byte[idLength];
+            ids.position((int) (idsOffset + idOffset));
+            ids.get(id);
+            Envelope bounds = new Envelope(leaves[4 * i], leaves[4 * i + 1], leaves[4 * i + 2], leaves[4 * i + 3]);
+            zones[i] = new StoredGeofence(data, new String(id, UTF_8), bounds, shape, points,
+                    (int) (coordsOffset + 16 * first), param);
+        }
+        GeofenceIndex index = levelCount > 0
+                ? GeofenceIndex.restore(zones, levelBounds, childStart, childEnd)
+                : GeofenceIndex.build(Collections.<Geofence>emptyList());
+        return new GeofenceFile(data, envelope, zones, index);
+    }
+
+    /**
+     * Write geofences to a file, replacing it atomically
+     * @throws IllegalArgumentException for a geofence type the format does
+     *         not know
+     */
+    public static void write(File file, Collection<? extends Geofence> geofences) throws IOException {
+        try (Writer writer = new Writer(file)) {
+            for (Geofence g : geofences) {
+                writer.add(g);
+            }
+            writer.commit();
+        }
+    }
+
+    /**
+     * @return the geofences in index order; they read their coordinates
+     *         from the mapped file on first use
+     */
+    public List<Geofence> getGeofences() {
+        return geofences;
+    }
+
+    /**
+     * @return the index stored with the file, over {@link #getGeofences}
+     */
+    public GeofenceIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return bounds of every zone in the file
+     */
+    public Envelope getEnvelope() {
+        return envelope;
+    }
+
+    public int size() {
+        return geofences.size();
+    }
+
+    /**
+     * @return one of the SHAPE constants for the zone at an index
+     */
+    public int getShape(int i) {
+        return ((StoredGeofence) geofences.get(i)).shapeType;
+    }
+
+    /**
+     * Copy a zone's points out of the file: the vertices of a polygon, the
+     * centre of a circle or the centre line of a corridor
+     * @return packed {lat, lon} coordinates
+     */
+    public double[] getCoordinates(int i) {
+        return ((StoredGeofence) geofences.get(i)).readCoordinates();
+    }
+
+    /**
+     * Size of the mapping, in bytes
+     */
+    public int getByteCount() {
+        return data.limit();
+    }
+
+    /**
+     * Child ranges must stay inside the level below, or a query would run
+     * off its arrays
+     */
+    private static void checkChildren(int[] start, int[] end, int below, File file) throws IOException {
+        for (int i = 0; i < start.length; i++) {
+            if (start[i] < 0 || start[i] > end[i] || end[i] > below) {
+                throw new IOException("corrupt geofence index: " + file);
+            }
+        }
+    }
+
+    private static void readDoubles(ByteBuffer data, int pos, double[] out) {
+        ByteBuffer view = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        view.position(pos);
+        view.asDoubleBuffer().get(out);
+    }
+
+    private static void readInts(ByteBuffer data, int pos, int[] out) {
+        ByteBuffer view = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        view.position(pos);
+        view.asIntBuffer().get(out);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    /**
+     * A zone in a mapped file. The concrete shape is built from the file
+     * the first time the zone is queried.
+     */
+    static final class StoredGeofence implements Geofence {
+        private final ByteBuffer data;
+        private final String id;
+        private final Envelope envelope;
+        private final int shapeType;
+        private final int points;
+        private final int coordPos;
+        private final double param;
+        private volatile Geofence shape;
+
+        StoredGeofence(ByteBuffer data, String id, Envelope envelope, int shapeType,
+                       int points, int coordPos, double param) {
+            this.data = data;
+            this.id = id;
+            this.envelope = envelope;
+            this.shapeType = shapeType;
+            this.points = points;
+            this.coordPos = coordPos;
+            this.param = param;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public Envelope getEnvelope() {
+            return envelope;
+        }
+
+        @Override
+        public boolean contains(double lat, double lon) {
+            return shape().contains(lat, lon);
+        }
+
+        @Override
+        public double signedDistance(double lat, double lon) {
+            return shape().signedDistance(lat, lon);
+        }
+
+        double[] readCoordinates() {
+            double[] coords = new double[2 * points];
+            readDoubles(data, coordPos, coords);
+            return coords;
+        }
+
+        /**
+         * Build the shape on first use; racing threads may both build it,
+         * which is harmless
+         */
+        Geofence shape() {
+            Geofence s = shape;
+            if (s == null) {
+                double[] coords = readCoordinates();
+                switch (shapeType) {
+                    case SHAPE_POLYGON:
+                        s = new PolygonGeofence(id, coords);
+                        break;
+                    case SHAPE_CIRCLE:
+                        s = new CircleGeofence(id, coords[0], coords[1], param);
+                        break;
+                    case SHAPE_CORRIDOR:
+                        s = new CorridorGeofence(id, coords, param);
+                        break;
+                    default:
+                        throw new IllegalStateException("unknown shape " + shapeType + " for " + id);
+                }
+                shape = s;
+            }
+            return s;
+        }
+    }
+
+    /**
+     * Streaming writer. Coordinates go to a spill file as zones are added,
+     * so only the per-zone metadata stays in memory and a file far larger
+     * than the heap can be built one polygon at a time. {@link #commit}
+     * builds the index and assembles the final file; closing an uncommitted
+     * writer discards everything.
+     */
+    public static final class Writer implements Closeable {
+        private final File file;
+        private final File spill;
+        private final RandomAccessFile spillFile;
+        private final Output coords;
+        private final List<PendingZone> zones = new ArrayList<>();
+        private long pointTotal;
+        private long idTotal;
+        private boolean committed;
+
+        public Writer(File file) throws IOException {
+            this.file = file;
+            this.spill = new File(file.getPath() + ".coords.tmp");
+            this.spillFile = new RandomAccessFile(spill, "rw");
+            this.coords = new Output(spillFile.getChannel());
+        }
+
+        /**
+         * Add a polygon from packed {lat, lon} coordinates
+         * @param count number of vertices to take from coords
+         */
+        public void addPolygon(String id, double[] coords, int count) throws IOException {
+            if (count < 3) {
+                throw new IllegalArgumentException("polygon " + id + " needs at least 3 vertices");
+            }
+            addZone(id, SHAPE_POLYGON, coords, count, 0, Envelope.of(coords, count));
+        }
+
+        /**
+         * Add any geofence the format can store
+         * @throws IllegalArgumentException for any other type
+         */
+        public void add(Geofence g) throws IOException {
+            if (g instanceof StoredGeofence) {
+                StoredGeofence stored = (StoredGeofence) g;
+                double[] c = stored.readCoordinates();
+                addZone(stored.id, stored.shapeType, c, c.length / 2, stored.param, stored.envelope);
+            } else if (g instanceof PolygonGeofence) {
+                PreparedPolygon polygon = ((PolygonGeofence) g).polygon();
+                addZone(g.getId(), SHAPE_POLYGON, polygon.coords(), polygon.getVertexCount(), 0, g.getEnvelope());
+            } else if (g instanceof CircleGeofence) {
+                CircleGeofence circle = (CircleGeofence) g;
+                double[] center = {circle.getCenterLatitude(), circle.getCenterLongitude()};
+                addZone(g.getId(), SHAPE_CIRCLE, center, 1, circle.getRadiusMeters(), g.getEnvelope());
+            } else if (g instanceof CorridorGeofence) {
+                CorridorGeofence corridor = (CorridorGeofence) g;
+                addZone(g.getId(), SHAPE_CORRIDOR, corridor.path(), corridor.getPointCount(),
+                        corridor.getHalfWidthMeters(), g.getEnvelope());
+            } else {
+                throw new IllegalArgumentException("cannot store " + g.getClass().getName());
+            }
+        }
+
+        /**
+         * @return number of zones added so far
+         */
+        public int size() {
+            return zones.size();
+        }
+
+        private void addZone(String id, int shape, double[] c, int points, double param,
+                             Envelope envelope) throws IOException {
+            if (committed) {
+                throw new IllegalStateException("already committed");
+            }
+            byte[] idBytes = id.getBytes(UTF_8);
+            for (int i = 0; i < 2 * points; i++) {
+                coords.putDouble(c[i]);
+            }
+            zones.add(new PendingZone(idBytes, shape, points, pointTotal, param, envelope));
+            pointTotal += points;
+            idTotal += idBytes.length;
+        }
+
+        /**
+         * Build the index and replace the target file atomically
+         */
+        public void commit() throws IOException {
+            if (committed) {
+                throw new IllegalStateException("already committed");
+            }
+            coords.flush();
+            GeofenceIndex.Levels index = GeofenceIndex.buildLevels(zones);
+            int zoneCount = index.size();
+            int levelCount = index.count();
+
+            long indexBytes = 0;
+            for (int level = 0; level < levelCount; level++) {
+                int count = index.bounds[level].length / 4;
+                indexBytes += 8 + 32L * count + (level > 0 ? align(8 * count) : 0);
+            }
+            long coordsOffset = HEADER_BYTES + (long) zoneCount * ZONE_BYTES + indexBytes;
+            long idsOffset = coordsOffset + 16 * pointTotal;
+            if (idsOffset + idTotal > Integer.MAX_VALUE) {
+                throw new IOException("too many geofences for one file");
+            }
+
+            File tmp = new File(file.getPath() + ".tmp");
+            boolean done = false;
+            try (FileOutputStream stream = new FileOutputStream(tmp)) {
+                FileChannel channel = stream.getChannel();
+                Output out = new Output(channel);
+                out.putInt(MAGIC);
+                out.putInt(VERSION);
+                out.putInt(zoneCount);
+                out.putInt(levelCount);
+                double[] root = levelCount > 0 ? index.bounds[levelCount - 1] : new double[4];
+                for (int k = 0; k < 4; k++) {
+                    out.putDouble(root[k]);
+                }
+                out.putLong(coordsOffset);
+                out.putLong(idsOffset);
+
+                // leaf order; coordinates stay where they were spilled
+                int idOffset = 0;
+                for (int i = 0; i < zoneCount; i++) {
+                    PendingZone z = zones.get(index.order[i]);
+                    out.putInt(z.shape);
+                    out.putInt(z.points);
+                    out.putLong(z.first);
+                    out.putDouble(z.param);
+                    out.putInt(idOffset);
+                    out.putInt(z.idBytes.length);
+                    idOffset += z.idBytes.length;
+                }
+
+                for (int level = 0; level < levelCount; level++) {
+                    double[] bounds = index.bounds[level];
+                    out.putInt(bounds.length / 4);
+                    out.putInt(0);
+                    for (double b : bounds) {
+                        out.putDouble(b);
+                    }
+                    if (level > 0) {
+                        for (int s : index.childStart[level]) {
+                            out.putInt(s);
+                        }
+                        for (int e : index.childEnd[level]) {
+                            out.putInt(e);
+                        }
+                        out.pad();
+                    }
+                }
+                out.flush();
+
+                FileChannel source = spillFile.getChannel();
+                long coordBytes = 16 * pointTotal;
+                for (long copied = 0; copied < coordBytes; ) {
+                    long n = source.transferTo(copied, coordBytes - copied, channel);
+                    if (n <= 0) {
+                        throw new IOException("coordinate spill file is short: " + spill);
+                    }
+                    copied += n;
+                }
+                for (int i = 0; i < zoneCount; i++) {
+                    out.putBytes(zones.get(index.order[i]).idBytes);
+                }
+                out.flush();
+                channel.force(true);
+                done = true;
+            } finally {
+                if (!done) {
+                    tmp.delete();
+                }
+            }
+            committed = true;
+            close();
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                throw new IOException("cannot replace " + file);
+            }
+        }
+
+        /**
+         * Release the spill file; the target is untouched unless
+         * {@link #commit} succeeded
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                spillFile.close();
+            } finally {
+                spill.delete();
+            }
+        }
+    }
+
+    /**
+     * What the writer keeps per zone until the index is built
+     */
+    private static final class PendingZone implements Bounded {
+        final byte[] idBytes;
+        final int shape;
+        final int points;
+        final long first;
+        final double param;
+        final Envelope envelope;
+
+        PendingZone(byte[] idBytes, int shape, int points, long first, double param,
+                    Envelope envelope) {
+            this.idBytes = idBytes;
+            this.shape = shape;
+            this.points = points;
+            this.first = first;
+            this.param = param;
+            this.envelope = envelope;
+        }
+
+        @Override
+        public Envelope getEnvelope() {
+            return envelope;
+        }
+    }
+
+    /**
+     * Little endian writer with a fixed staging buffer
+     */
+    private static final class Output {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        private long written;
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void putInt(int v) throws IOException {
+            ensure(4);
+            buffer.putInt(v);
+        }
+
+        void putLong(long v) throws IOException {
+            ensure(8);
+            buffer.putLong(v);
+        }
+
+        void putDouble(double v) throws IOException {
+            ensure(8);
+            buffer.putDouble(v);
+        }
+
+        void putBytes(byte[] bytes) throws IOException {
+            for (int off = 0; off < bytes.length; ) {
+                ensure(1);
+                int n = Math.min(buffer.remaining(), bytes.length - off);
+                buffer.put(bytes, off, n);
+                off += n;
+            }
+        }
+
+        /** zero fill up to the next multiple of 8 */
+        void pad() throws IOException {
+            while (((written + buffer.position()) & 7) != 0) {
+                ensure(1);
+                buffer.put((byte) 0);
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.atakmap.android.feature4boundaryalert.plugin.geofence;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Streaming import of polygon overlays from KML or GeoJSON.
+ *
+ * The document is scanned once with a pull parser and each polygon is
+ * handed on as soon as its outer ring has been read, so memory is bounded
+ * by the largest polygon rather than the size of the file. Imported
+ * polygons can go straight into a {@link GeofenceFile}, whose writer
+ * spills coordinates to disk, or into a {@link GeofenceManager}.
+ *
+ * Holes are not supported by the geofences and are dropped; the count is
+ * reported so the caller can warn about it.
+ */
+public final class GeofenceImporter {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public enum Format {
+        KML,
+        GEOJSON;
+
+        /**
+         * Guess the format from a file name
+         * @throws IllegalArgumentException for an unknown extension
+         */
+        public static Format forFile(File file) {
+            String name = file.getName().toLowerCase(Locale.US);
+            if (name.endsWith(".kml")) {
+                return KML;
+            }
+            if (name.endsWith(".geojson") || name.endsWith(".json")) {
+                return GEOJSON;
+            }
+            throw new IllegalArgumentException("unknown overlay format: " + file.getName());
+        }
+    }
+
+    /**
+     * Receives the rings found by a reader, in document order
+     */
+    interface RingHandler {
+        /**
+         * @param name placemark or feature name, or its id, or null
+         * @param ring outer ring as read, closing vertex included
+         */
+        void outerRing(String name, VertexStore ring) throws IOException;
+
+        void innerRing();
+    }
+
+    /**
+     * Receives each imported polygon
+     */
+    public interface Sink {
+        /**
+         * @param id unique within one import
+         * @param coords packed {lat, lon} coordinates, ring not closed;
+         *               only valid for the duration of the call
+         */
+        void polygon(String id, double[] coords, int vertexCount) throws IOException;
+    }
+
+    private double simplifyMeters;
+    private boolean simplifyConservative;
+    private int imported;
+    private int skipped;
+    private int holes;
+
+    /**
+     * Simplify each polygon as it is imported
+     * @param toleranceMeters 0 to keep every vertex
+     * @param conservative only ever grow the polygon, see
+     *                     {@link PolygonSimplifier#conservative}
+     */
+    public void setSimplification(double toleranceMeters, boolean conservative) {
+        if (toleranceMeters < 0 || Double.isNaN(toleranceMeters)) {
+            throw new IllegalArgumentException("tolerance must be >= 0");
+        }
+        this.simplifyMeters = toleranceMeters;
+        this.simplifyConservative = conservative;
+    }
+
+    /**
+     * @return polygons imported by the last call
+     */
+    public int getImportedCount() {
+        return imported;
+    }
+
+    /**
+     * @return rings of the last call with fewer than 3 distinct vertices
+     */
+    public int getSkippedCount() {
+        return skipped;
+    }
+
+    /**
+     * @return holes dropped by the last call
+     */
+    public int getHoleCount() {
+        return holes;
+    }
+
+    /**
+     * Import an overlay into a geofence file, replacing it atomically
+     * @return number of polygons imported
+     */
+    public int importToFile(File source, File target) throws IOException {
+        try (Reader reader = open(source);
+             final GeofenceFile.Writer writer = new GeofenceFile.Writer(target)) {
+            read(reader, Format.forFile(source), new Sink() {
+                @Override
+                public void polygon(String id, double[] coords, int vertexCount) throws IOException {
+                    writer.addPolygon(id, coords, vertexCount);
+                }
+            });
+            writer.commit();
+        }
+        return imported;
+    }
+
+    /**
+     * Import an overlay into a manager, next to the geofences it already
+     * has; zones with the same id are replaced
+     * @return number of polygons imported
+     */
+    public int importTo(File source, GeofenceManager manager) throws IOException {
+        final List<Geofence> polygons = new ArrayList<>();
+        try (Reader reader = open(source)) {
+            read(reader, Format.forFile(source), new Sink() {
+                @Override
+                public void polygon(String id, double[] coords, int vertexCount) {
+                    double[] copy = new double[2 * vertexCount];
+                    System.arraycopy(coords, 0, copy, 0, copy.length);
+                    polygons.add(new PolygonGeofence(id, copy));
+                }
+            });
+        }
+        manager.addAll(polygons);
+        return imported;
+    }
+
+    /**
+     * Scan a document and hand every polygon to a sink
+     * @throws IOException on a read error or malformed input
+     */
+    public void read(Reader reader, Format format, Sink sink) throws IOException {
+        imported = 0;
+        skipped = 0;
+        holes = 0;
+        Handler handler = new Handler(sink);
+        if (format == Format.KML) {
+            new KmlReader(reader).read(handler);
+        } else {
+            new GeoJsonReader(reader).read(handler);
+        }
+    }
+
+    private static Reader open(File file) throws IOException {
+        return new InputStreamReader(new FileInputStream(file), UTF_8);
+    }
+
+    /**
+     * Cleans up rings, gives them unique ids and passes them on
+     */
+    private final class Handler implements RingHandler {
+        private final Sink sink;
+        private final Set<String> ids = new HashSet<>();
+
+        Handler(Sink sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void outerRing(String name, VertexStore ring) throws IOException {
+            double[] coords = ring.array();
+            int count = ring.size();
+            if (count > 1 && coords[0] == coords[2 * count - 2] && coords[1] == coords[2 * count - 1]) {
+                count--;
+            }
+            if (count < 3) {
+                skipped++;
+                return;
+            }
+            if (simplifyMeters > 0) {
+                PolygonSimplifier.Result simplified = simplifyConservative
+                        ? PolygonSimplifier.conservative(coords, count, simplifyMeters)
+                        : PolygonSimplifier.douglasPeucker(coords, count, simplifyMeters);
+                coords = simplified.coords;
+                count = simplified.vertexCount;
+            }
+            sink.polygon(uniqueId(name), coords, count);
+            imported++;
+        }
+
+        @Override
+        public void innerRing() {
+            holes++;
+        }
+
+        /**
+         * Name or id of the placemark or feature, numbered when it was
+         * seen before (several polygons in one placemark, or repeated names)
+         */
+        private String uniqueId(String name) {
+            String base = name != null && !name.isEmpty() ? name : "polygon-" + (imported + 1);
+            String id = base;
+            for (int n = 2; !ids.add(id); n++) {
+                id = base + "-" + n;
+            }
+            return id;
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.atakmap.android.feature4boundaryalert.plugin.geofence;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable R-tree over geofence envelopes, bulk loaded with the
+ * Sort-Tile-Recursive (STR) algorithm.
+ *
+ * Node bounds are kept in flat double arrays per tree level so a query
+ * walks contiguous primitives and only calls
+ * {@link Geofence#contains(double, double)} on geofences whose
+ * envelope contains the point.
+ */
+public final class GeofenceIndex {
+
+    private static final int NODE_CAPACITY = 16;
+
+    // geofences in leaf order
+    private final Geofence[] items;
+
+    // levels[0] holds the item envelopes, the last level holds the root.
+    // Each entry uses four doubles: minLat, minLon, maxLat, maxLon
+    private final double[][] levelBounds;
+
+    // for levels above 0: child range [childStart, childEnd) in the level below
+    private final int[][] childStart;
+    private final int[][] childEnd;
+
+    private GeofenceIndex(Geofence[] items, double[][] levelBounds,
+                          int[][] childStart, int[][] childEnd) {
+        this.items = items;
+        this.levelBounds = levelBounds;
+        this.childStart = childStart;
+        this.childEnd = childEnd;
+    }
+
+    /**
+     * Tree levels bulk loaded over envelopes alone, e.g. for a
+     * {@link GeofenceFile.Writer} that has no geofences to query yet
+     */
+    static final class Levels {
+        /** leaf i holds the item at order[i] of the input */
+        final int[] order;
+        /** per level, four doubles per node; level 0 is the leaves */
+        final double[][] bounds;
+        /** for levels above 0: child range [childStart, childEnd) in the level below */
+        final int[][] childStart;
+        final int[][] childEnd;
+
+        Levels(int[] order, double[][] bounds, int[][] childStart, int[][] childEnd) {
+            this.order = order;
+            this.bounds = bounds;
+            this.childStart = childStart;
+            this.childEnd = childEnd;
+        }
+
+        int size() {
+            return order.length;
+        }
+
+        int count() {
+            return bounds.length;
+        }
+    }
+
+    /**
+     * Bulk load an index from a list of geofences
+     */
+    public static GeofenceIndex build(List<? extends Geofence> geofences) {
+        Levels levels = buildLevels(geofences);
+        Geofence[] items = new Geofence[levels.size()];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = geofences.get(levels.order[i]);
+        }
+        return new GeofenceIndex(items, levels.bounds, levels.childStart, levels.childEnd);
+    }
+
+    /**
+     * Sort-Tile-Recursive bulk load of the tree levels
+     */
+    static Levels buildLevels(List<? extends Bounded> boxes) {
+        int n = boxes.size();
+        if (n == 0) {
+            return new Levels(new int[0], new double[0][], new int[0][], new int[0][]);
+        }
+
+        double[] bounds = new double[4 * n];
+        for (int i = 0; i < n; i++) {
+            Envelope e = boxes.get(i).getEnvelope();
+            bounds[4 * i] = e.minLat;
+            bounds[4 * i + 1] = e.minLon;
+            bounds[4 * i + 2] = e.maxLat;
+            bounds[4 * i + 3] = e.maxLon;
+        }
+
+        // order the leaf entries so neighbouring geofences share a node
+        int[] order = strOrder(bounds, n);
+        double[] leafBounds = new double[4 * n];
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(bounds, 4 * order[i], leafBounds, 4 * i, 4);
+        }
+
+        int levels = 1;
+        for (int count = n; count > 1; count = ceilDiv(count, NODE_CAPACITY)) {
+            levels++;
+        }
+        if (levels == 1) {
+            levels = 2; // always keep a root node above the leaves
+        }
+
+        double[][] levelBounds = new double[levels][];
+        int[][] childStart = new int[levels][];
+        int[][] childEnd = new int[levels][];
+        levelBounds[0] = leafBounds;
+
+        for (int level = 1; level < levels; level++) {
+            double[] below = levelBounds[level - 1];
+            int belowCount = below.length / 4;
+            int nodeCount = ceilDiv(belowCount, NODE_CAPACITY);
+
+            double[] nodeBounds = new double[4 * nodeCount];
+            int[] start = new int[nodeCount];
+            int[] end = new int[nodeCount];
+            for (int node = 0; node < nodeCount; node++) {
+                start[node] = node * NODE_CAPACITY;
+                end[node] = Math.min(belowCount, start[node] + NODE_CAPACITY);
+                unionInto(below, start[node], end[node], nodeBounds, node);
+            }
+
+            // tile the parent level too, carrying the child ranges along
+            if (level < levels - 1) {
+                int[] nodeOrder = strOrder(nodeBounds, nodeCount);
+                double[] sortedBounds = new double[4 * nodeCount];
+                int[] sortedStart = new int[nodeCount];
+                int[] sortedEnd = new int[nodeCount];
+                for (int i = 0; i < nodeCount; i++) {
+                    System.arraycopy(nodeBounds, 4 * nodeOrder[i], sortedBounds, 4 * i, 4);
+                    sortedStart[i] = start[nodeOrder[i]];
+                    sortedEnd[i] = end[nodeOrder[i]];
+                }
+                nodeBounds = sortedBounds;
+                start = sortedStart;
+                end = sortedEnd;
+            }
+
+            levelBounds[level] = nodeBounds;
+            childStart[level] = start;
+            childEnd[level] = end;
+        }
+
+        return new Levels(order, levelBounds, childStart, childEnd);
+    }
+
+    /**
+     * Wrap tree levels read back from a {@link GeofenceFile}; the arrays
+     * are used as they are
+     */
+    static GeofenceIndex restore(Geofence[] items, double[][] levelBounds,
+                                 int[][] childStart, int[][] childEnd) {
+        return new GeofenceIndex(items, levelBounds, childStart, childEnd);
+    }
+
+    /**
+     * @return number of geofences in the index
+     */
+    public int size() {
+        return items.length;
+    }
+
+    /**
+     * Collect the ids of all geofences containing the point
+     * @param out receives the matching ids
+     * @return number of ids added
+     */
+    public int query(double lat, double lon, Collection<String> out) {
+        if (items.length == 0) {
+            return 0;
+        }
+
+        int rootLevel = levelBounds.length - 1;
+        return queryNode(rootLevel, 0, lat, lon, out);
+    }
+
+    private int queryNode(int level, int node, double lat, double lon, Collection<String> out) {
+        if (!contains(levelBounds[level], node, lat, lon)) {
+            return 0;
+        }
+        if (level == 0) {
+            Geofence g = items[node];
+            if (g.contains(lat, lon)) {
+                out.add(g.getId());
+                return 1;
+            }
+            return 0;
+        }
+        int found = 0;
+        int end = childEnd[level][node];
+        for (int child = childStart[level][node]; child < end; child++) {
+            found += queryNode(level - 1, child, lat, lon, out);
+        }
+        return found;
+    }
+
+    private static boolean contains(double[] bounds, int i, double lat, double lon) {
+        return lat >= bounds[4 * i] && lon >= bounds[4 * i + 1]
+                && lat <= bounds[4 * i + 2] && lon <= bounds[4 * i + 3];
+    }
+
+    private static void unionInto(double[] src, int from, int to, double[] dst, int node) {
+        double minLat = Double.POSITIVE_INFINITY;
+        double minLon = Double.POSITIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        double maxLon = Double.NEGATIVE_INFINITY;
+        for (int i = from; i < to; i++) {
+            minLat = Math.min(minLat, src[4 * i]);
+            minLon = Math.min(minLon, src[4 * i + 1]);
+            maxLat = Math.max(maxLat, src[4 * i + 2]);
+            maxLon = Math.max(maxLon, src[4 * i + 3]);
+        }
+        dst[4 * node] = minLat;
+        dst[4 * node + 1] = minLon;
+        dst[4 * node + 2] = maxLat;
+        dst[4 * node + 3] = maxLon;
+    }
+
+    /**
+     * Sort-Tile-Recursive ordering: sort by center longitude into vertical
+     * slices, then sort each slice by center latitude.
+     */
+    private static int[] strOrder(final double[] bounds, int count) {
+        Integer[] idx = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            idx[i] = i;
+        }
+
+        Arrays.sort(idx, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(bounds[4 * a + 1] + bounds[4 * a + 3],
+                        bounds[4 * b + 1] + bounds[4 * b + 3]);
+            }
+        });
+
+        int leafCount = ceilDiv(count, NODE_CAPACITY);
+        int sliceCount = (int) Math.ceil(Math.sqrt(leafCount));
+        int sliceSize = NODE_CAPACITY * sliceCount;
+        Comparator<Integer> byLat = new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(bounds[4 * a] + bounds[4 * a + 2],
+                        bounds[4 * b] + bounds[4 * b + 2]);
+            }
+        };
+        for (int from = 0; from < count; from += sliceSize) {
+            Arrays.sort(idx, from, Math.min(count, from + sliceSize), byLat);
+        }
+
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = idx[i];
+        }
+        return order;
+    }
+
+    private static int ceilDiv(int a, int b) {
+        return (a + b - 1) / b;
+    }
+}
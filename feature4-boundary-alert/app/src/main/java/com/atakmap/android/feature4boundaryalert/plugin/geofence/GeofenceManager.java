@@ -0,0 +1,122 @@
+package com.atakmap.android.feature4boundaryalert.plugin.geofence;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Holds any number of named geofences (polygons, circles, corridors) and
+ * answers which of them contain a position. Lookups go through a
+ * {@link GeofenceIndex} so only the geofences whose envelopes contain the
+ * point are tested.
+ *
+ * The index is rebuilt lazily on the first query after an edit, so bulk
+ * loading thousands of zones costs a single build.
+ */
+public class GeofenceManager {
+
+    private final Map<String, Geofence> geofences = new LinkedHashMap<>();
+    private GeofenceIndex index;
+
+    /**
+     * Add a geofence, replacing any existing geofence with the same id
+     */
+    public synchronized void add(Geofence geofence) {
+        geofences.put(geofence.getId(), geofence);
+        index = null;
+    }
+
+    /**
+     * Add several geofences with a single index rebuild
+     */
+    public synchronized void addAll(Collection<? extends Geofence> list) {
+        for (Geofence g : list) {
+            geofences.put(g.getId(), g);
+        }
+        index = null;
+    }
+
+    /**
+     * Remove a geofence by id
+     * @return true if a geofence was removed
+     */
+    public synchronized boolean remove(String id) {
+        if (geofences.remove(id) != null) {
+            index = null;
+            return true;
+        }
+        return false;
+    }
+
+    public synchronized void clear() {
+        geofences.clear();
+        index = null;
+    }
+
+    public synchronized Geofence get(String id) {
+        return geofences.get(id);
+    }
+
+    public synchronized int size() {
+        return geofences.size();
+    }
+
+    /**
+     * Write every geofence, with a freshly built index, to a
+     * {@link GeofenceFile}; the file is replaced atomically
+     */
+    public void save(File file) throws IOException {
+        List<Geofence> list;
+        synchronized (this) {
+            list = new ArrayList<>(geofences.values());
+        }
+        GeofenceFile.write(file, list);
+    }
+
+    /**
+     * Replace the geofences with those in a {@link GeofenceFile}. The index
+     * stored in the file is used as is and zones are only prepared when a
+     * query first reaches them, so this costs little more than the mapping.
+     */
+    public void load(File file) throws IOException {
+        GeofenceFile stored = GeofenceFile.open(file);
+        synchronized (this) {
+            geofences.clear();
+            for (Geofence g : stored.getGeofences()) {
+                geofences.put(g.getId(), g);
+            }
+            index = geofences.size() == stored.size() ? stored.getIndex() : null;
+        }
+    }
+
+    /**
+     * Get the ids of all geofences containing the point
+     */
+    public Set<String> getContainingIds(double lat, double lon) {
+        Set<String> ids = new HashSet<>();
+        getContainingIds(lat, lon, ids);
+        return ids;
+    }
+
+    /**
+     * Collect the ids of all geofences containing the point into a caller
+     * supplied collection, so per-fix queries can reuse one container
+     * @return number of ids added
+     */
+    public int getContainingIds(double lat, double lon, Collection<String> out) {
+        return currentIndex().query(lat, lon, out);
+    }
+
+    private synchronized GeofenceIndex currentIndex() {
+        if (index == null) {
+            index = GeofenceIndex.build(new ArrayList<>(geofences.values()));
+        }
+        return index;
+    }
+}
@@ -0,0 +1,115 @@
+package com.atakmap.android.feature4boundaryalert.plugin.geofence;
+
+/**
+ * Gnomonic projection onto the plane touching the sphere at a centre
+ * point, in meters.
+ *
+ * Great circles project to straight lines, so a polygon whose edges are
+ * great circle arcs becomes an ordinary planar polygon and the planar
+ * ray cast gives the spherical answer. Working on unit vectors means the
+ * antimeridian and the poles need no special handling. Only points within
+ * {@link #MAX_ANGLE_DEGREES} of the centre are projected.
+ *
+ * Points are handed over as unit vector components so the hot path can
+ * project without allocating.
+ */
+final class GnomonicProjection {
+
+    /** distortion grows without bound towards 90 degrees from the centre */
+    static final double MAX_ANGLE_DEGREES = 80;
+
+    private static final double MIN_DEPTH = Math.cos(Math.toRadians(MAX_ANGLE_DEGREES));
+
+    // centre, and the east and north axes of the tangent plane
+    private final double cx, cy, cz;
+    private final double ex, ey, ez;
+    private final double nx, ny, nz;
+
+    private GnomonicProjection(double cx, double cy, double cz) {
+        this.cx = cx;
+        this.cy = cy;
+        this.cz = cz;
+        // east = z x c, any horizontal axis will do at the poles
+        double x = -cy, y = cx;
+        double len = Math.sqrt(x * x + y * y);
+        if (len < 1e-12) {
+            x = 0;
+            y = 1;
+            len = 1;
+        }
+        this.ex = x / len;
+        this.ey = y / len;
+        this.ez = 0;
+        // north = c x east
+        this.nx = cy * ez - cz * ey;
+        this.ny = cz * ex - cx * ez;
+        this.nz = cx * ey - cy * ex;
+    }
+
+    /**
+     * Centre the projection on the mean direction of the vertices
+     * @throws IllegalArgumentException if the vertices have no mean
+     *         direction, e.g. they are spread evenly around a great circle
+     */
+    static GnomonicProjection centeredOn(double[] coords, int count) {
+        double sx = 0, sy = 0, sz = 0;
+        for (int i = 0; i < count; i++) {
+            double lat = Math.toRadians(coords[2 * i]);
+            double lon = Math.toRadians(coords[2 * i + 1]);
+            double cosLat = Math.cos(lat);
+            sx += cosLat * Math.cos(lon);
+            sy += cosLat * Math.sin(lon);
+            sz += Math.sin(lat);
+        }
+        double len = Math.sqrt(sx * sx + sy * sy + sz * sz);
+        if (len < 1e-9 * count) {
+            throw new IllegalArgumentException("polygon has no centre on the sphere");
+        }
+        return new GnomonicProjection(sx / len, sy / len, sz / len);
+    }
+
+    /**
+     * Cosine of the angle between the centre and a unit vector; see
+     * {@link #isProjectable}
+     */
+    double depth(double px, double py, double pz) {
+        return px * cx + py * cy + pz * cz;
+    }
+
+    boolean isProjectable(double depth) {
+        return depth > MIN_DEPTH;
+    }
+
+    /**
+     * Plane east coordinate in meters
+     */
+    double x(double px, double py, double pz, double depth) {
+        return GeoMath.EARTH_RADIUS_METERS * (px * ex + py * ey + pz * ez) / depth;
+    }
+
+    /**
+     * Plane north coordinate in meters
+     */
+    double y(double px, double py, double pz, double depth) {
+        return GeoMath.EARTH_RADIUS_METERS * (px * nx + py * ny + pz * nz) / depth;
+    }
+
+    /**
+     * Latitude of a plane point
+     */
+    double latitude(double y, double x) {
+        double u = x / GeoMath.EARTH_RADIUS_METERS;
+        double v = y / GeoMath.EARTH_RADIUS_METERS;
+        double pz = cz + u * ez + v * nz;
+        return Math.toDegrees(Math.asin(Math.max(-1, Math.min(1, pz / Math.sqrt(1 + u * u + v * v)))));
+    }
+
+    /**
+     * Longitude of a plane point
+     */
+    double longitude(double y, double x) {
+        double u = x / GeoMath.EARTH_RADIUS_METERS;
+        double v = y / GeoMath.EARTH_RADIUS_METERS;
+        return Math.toDegrees(Math.atan2(cy + u * ey + v * ny, cx + u * ex + v * nx));
+    }
+}
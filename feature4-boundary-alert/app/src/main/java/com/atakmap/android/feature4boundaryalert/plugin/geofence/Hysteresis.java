@@ -0,0 +1,56 @@
+package com.atakmap.android.feature4boundaryalert.plugin.geofence;
+
+/**
+ * Filter settings that stop tracks hugging an edge from flipping between
+ * ENTERED and EXITED on GPS jitter.
+ *
+ * A track outside must get insideMeters past the edge to count as
+ * entering, and one inside must get outsideMeters beyond it to count as
+ * exiting. The new state must then hold for dwellMillis before the event
+ * is confirmed.
+ */
+public final class Hysteresis {
+
+    /** no buffer and no dwell: every change of containment is an event */
+    public static final Hysteresis NONE = new Hysteresis(0, 0, 0);
+
+    public final double insideMeters;
+    public final double outsideMeters;
+    public final long dwellMillis;
+
+    public Hysteresis(double insideMeters, double outsideMeters, long dwellMillis) {
+        if (insideMeters < 0 || outsideMeters < 0 || dwellMillis < 0) {
+            throw new IllegalArgumentException("hysteresis values must not be negative");
+        }
+        this.insideMeters = insideMeters;
+        this.outsideMeters = outsideMeters;
+        this.dwellMillis = dwellMillis;
+    }
+
+    /**
+     * @return true if this filters anything at all
+     */
+    public boolean isEnabled() {
+        return insideMeters > 0 || outsideMeters > 0 || dwellMillis > 0;
+    }
+
+    /**
+     * Whether a fix counts toward the state opposite to the current one
+     * @param inside the confirmed state
+     * @param contained raw containment of the fix
+     * @param edgeMeters distance from the fix to the nearest edge
+     */
+    boolean favoursChange(boolean inside, boolean contained, double edgeMeters) {
+        if (inside) {
+            return !contained && edgeMeters >= outsideMeters;
+        }
+        return contained && edgeMeters >= insideMeters;
+    }
+
+    /**
+     * Distance beyond which the edge no longer matters to the filter
+     */
+    double reachMeters() {
+        return Math.max(insideMeters, outsideMeters);
+    }
+}
@@ -0,0 +1,317 @@
+package com.atakmap.android.feature4boundaryalert.plugin.geofence;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Pull scanner for the polygons in a KML document.
+ *
+ * Only the tags that matter are looked at: Placemark (for the name or
+ * id), outerBoundaryIs, innerBoundaryIs and coordinates. Everything else,
+ * including styles and descriptions, is skipped character by character,
+ * so memory does not depend on the size of the document. Coordinates are
+ * parsed straight into a {@link VertexStore} without building strings.
+ */
+final class KmlReader {
+
+    private static final int START_TAG = 1;
+    private static final int END_TAG = 2;
+    private static final int END_DOCUMENT = 3;
+
+    // names and ids longer than this are cut
+    private static final int MAX_TEXT = 256;
+
+    private final CharInput in;
+    private final StringBuilder text = new StringBuilder();
+
+    // the tag last returned by nextTag
+    private String tagName;
+    private String tagId;
+    private boolean emptyTag;
+    // a '<' has been consumed by readText
+    private boolean afterLt;
+
+    KmlReader(Reader reader) {
+        this.in = new CharInput(reader);
+    }
+
+    /**
+     * Report every polygon ring in the document, in document order
+     */
+    void read(GeofenceImporter.RingHandler handler) throws IOException {
+        boolean inPlacemark = false;
+        String placemarkName = null;
+        String placemarkId = null;
+        boolean outer = false;
+        boolean inner = false;
+        int event;
+        while ((event = nextTag()) != END_DOCUMENT) {
+            String name = tagName;
+            if (event == START_TAG) {
+                if ("Placemark".equals(name)) {
+                    inPlacemark = !emptyTag;
+                    placemarkName = null;
+                    placemarkId = tagId;
+                } else if ("name".equals(name) && inPlacemark && placemarkName == null && !emptyTag) {
+                    placemarkName = readText();
+                } else if ("outerBoundaryIs".equals(name)) {
+                    outer = !emptyTag;
+                } else if ("innerBoundaryIs".equals(name)) {
+                    inner = !emptyTag;
+                } else if ("coordinates".equals(name) && !emptyTag) {
+                    if (outer) {
+                        VertexStore ring = new VertexStore();
+                        readCoordinates(ring);
+                        handler.outerRing(placemarkName != null ? placemarkName : placemarkId, ring);
+                    } else if (inner) {
+                        // holes are not supported; the text is skipped with the rest
+                        handler.innerRing();
+                    }
+                }
+            } else if ("Placemark".equals(name)) {
+                inPlacemark = false;
+            } else if ("outerBoundaryIs".equals(name)) {
+                outer = false;
+            } else if ("innerBoundaryIs".equals(name)) {
+                inner = false;
+            }
+        }
+    }
+
+    /**
+     * Advance to the next start or end tag, skipping text, comments,
+     * CDATA, processing instructions and declarations
+     */
+    private int nextTag() throws IOException {
+        while (true) {
+            if (!afterLt) {
+                int c;
+                while ((c = in.read()) != '<') {
+                    if (c < 0) {
+                        return END_DOCUMENT;
+                    }
+                }
+            }
+            afterLt = false;
+            int c = in.read();
+            if (c < 0) {
+                return END_DOCUMENT;
+            }
+            if (c == '?') {
+                in.skipPast("?>");
+            } else if (c == '!') {
+                skipMarkup();
+            } else if (c == '/') {
+                tagName = readName(in.read());
+                in.skipPast(">");
+                return END_TAG;
+            } else {
+                readStartTag(c);
+                return START_TAG;
+            }
+        }
+    }
+
+    /**
+     * After "&lt;!": a comment, a CDATA section or a declaration
+     */
+    private void skipMarkup() throws IOException {
+        int c = in.peek();
+        if (c == '-') {
+            in.skipPast("-->");
+        } else if (c == '[') {
+            in.skipPast("]]>");
+        } else {
+            // DOCTYPE, possibly with an internal subset in brackets
+            int depth = 0;
+            while ((c = in.read()) >= 0) {
+                if (c == '[') {
+                    depth++;
+                } else if (c == ']') {
+                    depth--;
+                } else if (c == '>' && depth <= 0) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void readStartTag(int first) throws IOException {
+        tagName = readName(first);
+        tagId = null;
+        emptyTag = false;
+        while (true) {
+            int c = in.skipWhitespace();
+            if (c < 0) {
+                throw new IOException("unterminated tag " + tagName + " at " + in.position());
+            }
+            if (c == '>') {
+                in.read();
+                return;
+            }
+            if (c == '/') {
+                in.read();
+                emptyTag = true;
+                in.skipPast(">");
+                return;
+            }
+            String attribute = readName(in.read());
+            if (in.skipWhitespace() != '=') {
+                continue;
+            }
+            in.read();
+            in.skipWhitespace();
+            int quote = in.read();
+            if (quote != '"' && quote != '\'') {
+                throw new IOException("unquoted attribute in " + tagName + " at " + in.position());
+            }
+            text.setLength(0);
+            while ((c = in.read()) != quote) {
+                if (c < 0) {
+                    throw new IOException("unterminated attribute in " + tagName);
+                }
+                if (text.length() < MAX_TEXT) {
+                    text.append((char) c);
+                }
+            }
+            if ("id".equals(attribute)) {
+                tagId = decodeEntities(text.toString());
+            }
+        }
+    }
+
+    /**
+     * Tag or attribute name without any namespace prefix
+     */
+    private String readName(int first) throws IOException {
+        text.setLength(0);
+        int c = first;
+        while (c >= 0 && c != ' ' && c != '\t' && c != '\n' && c != '\r'
+                && c != '>' && c != '/' && c != '=') {
+            if (c == ':') {
+                text.setLength(0);
+            } else {
+                text.append((char) c);
+            }
+            c = in.peek();
+            if (c == '>' || c == '/' || c == '=') {
+                break;
+            }
+            c = in.read();
+        }
+        return text.toString();
+    }
+
+    /**
+     * Text content up to the next tag, with CDATA sections and entities
+     * resolved, trimmed
+     */
+    private String readText() throws IOException {
+        text.setLength(0);
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '<') {
+                if (in.peek() != '!') {
+                    afterLt = true;
+                    break;
+                }
+                in.read();
+                if (in.peek() == '[') {
+                    appendCdata();
+                } else {
+                    skipMarkup();
+                }
+            } else if (text.length() < MAX_TEXT) {
+                text.append((char) c);
+            }
+        }
+        return decodeEntities(text.toString().trim());
+    }
+
+    private void appendCdata() throws IOException {
+        // "[CDATA["
+        for (int i = 0; i < 7; i++) {
+            in.read();
+        }
+        int c;
+        int brackets = 0;
+        while ((c = in.read()) >= 0) {
+            if (c == '>' && brackets >= 2) {
+                text.setLength(Math.max(0, text.length() - 2));
+                return;
+            }
+            brackets = c == ']' ? brackets + 1 : 0;
+            if (text.length() < MAX_TEXT + 2) {
+                text.append((char) c);
+            }
+        }
+    }
+
+    /**
+     * Parse "lon,lat[,alt]" tuples up to the end of the element
+     */
+    private void readCoordinates(VertexStore ring) throws IOException {
+        while (true) {
+            int c = in.skipWhitespace();
+            if (c < 0 || c == '<') {
+                return;
+            }
+            double lon = in.readNumber();
+            expectComma();
+            double lat = in.readNumber();
+            if (in.skipWhitespace() == ',') {
+                in.read();
+                in.skipWhitespace();
+                in.readNumber();
+            }
+            ring.add(lat, lon);
+        }
+    }
+
+    private void expectComma() throws IOException {
+        if (in.skipWhitespace() != ',') {
+            throw new IOException("expected lon,lat at " + in.position());
+        }
+        in.read();
+        in.skipWhitespace();
+    }
+
+    private static String decodeEntities(String s) {
+        if (s.indexOf('&') < 0) {
+            return s;
+        }
+        StringBuilder out = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            int end = c == '&' ? s.indexOf(';', i) : -1;
+            if (end < 0 || end - i > 10) {
+                out.append(c);
+                continue;
+            }
+            String entity = s.substring(i + 1, end);
+            if (entity.equals("amp")) {
+                out.append('&');
+            } else if (entity.equals("lt")) {
+                out.append('<');
+            } else if (entity.equals("gt")) {
+                out.append('>');
+            } else if (entity.equals("quot")) {
+                out.append('"');
+            } else if (entity.equals("apos")) {
+                out.append('\'');
+            } else if (entity.startsWith("#")) {
+                try {
+                    out.append((char) (entity.startsWith("#x")
+                            ? Integer.parseInt(entity.substring(2), 16)
+                            : Integer.parseInt(entity.substring(1))));
+                } catch (NumberFormatException e) {
+                    out.append(s, i, end + 1);
+                }
+            } else {
+                out.append(s, i, end + 1);
+            }
+            i = end;
+        }
+        return out.toString();
+    }
+}
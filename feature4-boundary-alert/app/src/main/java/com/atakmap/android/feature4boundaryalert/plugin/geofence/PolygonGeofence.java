@@ -0,0 +1,57 @@
+package com.atakmap.android.feature4boundaryalert.plugin.geofence;
+
+/**
+ * A named polygon geofence stored as packed {lat, lon} coordinates.
+ */
+public class PolygonGeofence implements Geofence {
+
+    private final String id;
+    private final PreparedPolygon polygon;
+
+    /**
+     * @param id unique geofence identifier
+     * @param coords packed coordinates, lat at even and lon at odd indices.
+     *               The array is owned by the geofence after this call.
+     */
+    public PolygonGeofence(String id, double[] coords) {
+        if (id == null) {
+            throw new IllegalArgumentException("id must not be null");
+        }
+        if (coords == null || coords.length < 6 || (coords.length & 1) != 0) {
+            throw new IllegalArgumentException("polygon needs at least 3 lat/lon pairs");
+        }
+        this.id = id;
+        this.polygon = PreparedPolygon.prepare(coords, coords.length / 2);
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public Envelope getEnvelope() {
+        return polygon.getEnvelope();
+    }
+
+    PreparedPolygon polygon() {
+        return polygon;
+    }
+
+    public int getVertexCount() {
+        return polygon.getVertexCount();
+    }
+
+    /**
+     * Check if a point is inside the polygon
+     */
+    @Override
+    public boolean contains(double lat, double lon) {
+        return polygon.contains(lat, lon);
+    }
+
+    @Override
+    public double signedDistance(double lat, double lon) {
+        return polygon.nearestEdge(lat, lon).signedMeters;
+    }
+}
@@ -0,0 +1,342 @@
+package com.atakmap.android.feature4boundaryalert.plugin.geofence;
+
+/**
+ * Reduces the vertex count of imported or surveyed boundaries before they
+ * are prepared, with a tolerance in meters.
+ *
+ * {@link #douglasPeucker} keeps a subset of the vertices and moves the
+ * boundary by at most the tolerance in either direction. {@link #conservative}
+ * only ever grows the polygon, so every point inside the original stays
+ * inside: concave vertices are dropped and pairs of convex vertices are
+ * replaced by the point where their outer edges meet.
+ *
+ * Both work in a local equirectangular plane centred on the polygon, so
+ * the tolerance is exact for zones up to a few hundred kilometres across.
+ */
+public final class PolygonSimplifier {
+
+    // below this a point counts as lying on an edge of the result
+    private static final double ON_EDGE_METERS = 1e-3;
+
+    private PolygonSimplifier() {
+    }
+
+    /**
+     * A simplified ring
+     */
+    public static final class Result {
+        /** packed {lat, lon} coordinates, exactly vertexCount pairs */
+        public final double[] coords;
+        public final int vertexCount;
+        /** vertices in the input minus vertices in the result */
+        public final int removed;
+
+        Result(double[] coords, int vertexCount, int removed) {
+            this.coords = coords;
+            this.vertexCount = vertexCount;
+            this.removed = removed;
+        }
+    }
+
+    /**
+     * Douglas-Peucker on the closed ring: the ring is split at vertex 0 and
+     * the vertex farthest from it, and each half keeps the vertices needed
+     * to stay within the tolerance
+     * @param toleranceMeters largest distance of a dropped vertex from the
+     *                        result; zero keeps every vertex
+     */
+    public static Result douglasPeucker(double[] coords, int vertexCount, double toleranceMeters) {
+        Plane plane = new Plane(coords, vertexCount, toleranceMeters);
+        int n = vertexCount;
+        boolean[] keep = new boolean[n];
+        int far = 0;
+        double farDist = -1;
+        for (int i = 1; i < n; i++) {
+            double dx = plane.x[i] - plane.x[0], dy = plane.y[i] - plane.y[0];
+            if (dx * dx + dy * dy > farDist) {
+                farDist = dx * dx + dy * dy;
+                far = i;
+            }
+        }
+        keep[0] = true;
+        keep[far] = true;
+        int[] stack = new int[2 * n + 4];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = far;
+        stack[top++] = far;
+        stack[top++] = n;
+        double limit = toleranceMeters * toleranceMeters;
+        while (top > 0) {
+            int j = stack[--top];
+            int i = stack[--top];
+            double maxDist = -1;
+            int worst = -1;
+            for (int k = i + 1; k < j; k++) {
+                double d = plane.segmentDistanceSq(k, i, j % n);
+                if (d > maxDist) {
+                    maxDist = d;
+                    worst = k;
+                }
+            }
+            if (worst >= 0 && maxDist > limit) {
+                keep[worst] = true;
+                stack[top++] = i;
+                stack[top++] = worst;
+                stack[top++] = worst;
+                stack[top++] = j;
+            }
+        }
+
+        int kept = 0;
+        for (boolean k : keep) {
+            if (k) kept++;
+        }
+        if (kept < 3) {
+            // collapsed to a line; keep the vertex farthest from it
+            int worst = -1;
+            double maxDist = -1;
+            for (int k = 1; k < n; k++) {
+                double d = plane.segmentDistanceSq(k, 0, far);
+                if (k != far && d > maxDist) {
+                    maxDist = d;
+                    worst = k;
+                }
+            }
+            keep[worst] = true;
+            kept = 3;
+        }
+        double[] out = new double[2 * kept];
+        int o = 0;
+        for (int i = 0; i < n; i++) {
+            if (keep[i]) {
+                out[o++] = coords[2 * i];
+                out[o++] = coords[2 * i + 1];
+            }
+        }
+        return new Result(out, kept, n - kept);
+    }
+
+    /**
+     * Outer-hull preserving simplification: the result contains the whole
+     * original polygon and no point of its boundary is farther than the
+     * tolerance from the original vertices.
+     *
+     * Vertices are visited in repeated passes. A concave vertex is dropped
+     * when the chord replacing it stays within the tolerance of the
+     * original vertices it skips; two neighbouring convex vertices are
+     * merged into the intersection of their outer edges when that point is
+     * within the tolerance of the original boundary. Either step only adds
+     * a sliver outside the current ring. A ring that would end up
+     * overlapping itself, which can happen across inlets narrower than the
+     * tolerance, is retried with a smaller tolerance.
+     */
+    public static Result conservative(double[] coords, int vertexCount, double toleranceMeters) {
+        PreparedPolygon original = null;
+        double tolerance = toleranceMeters;
+        for (int attempt = 0; attempt < 4 && tolerance > 0; attempt++, tolerance /= 2) {
+            Result result = new Plane(coords, vertexCount, tolerance).growRing();
+            if (result.removed == 0) {
+                return result;
+            }
+            if (original == null) {
+                original = PreparedPolygon.prepare(coords, vertexCount);
+            }
+            if (containsAll(result, original, coords, vertexCount)) {
+                return result;
+            }
+        }
+        double[] copy = new double[2 * vertexCount];
+        System.arraycopy(coords, 0, copy, 0, copy.length);
+        return new Result(copy, vertexCount, 0);
+    }
+
+    /**
+     * Every original vertex inside or on the result, and every result
+     * vertex outside or on the original
+     */
+    private static boolean containsAll(Result result, PreparedPolygon original,
+                                       double[] coords, int vertexCount) {
+        PreparedPolygon grown = PreparedPolygon.prepare(result.coords, result.vertexCount);
+        for (int i = 0; i < vertexCount; i++) {
+            double lat = coords[2 * i], lon = coords[2 * i + 1];
+            if (!grown.contains(lat, lon) && grown.distanceToEdge(lat, lon, ON_EDGE_METERS) >= ON_EDGE_METERS) {
+                return false;
+            }
+        }
+        for (int i = 0; i < result.vertexCount; i++) {
+            double lat = result.coords[2 * i], lon = result.coords[2 * i + 1];
+            if (original.contains(lat, lon) && original.distanceToEdge(lat, lon, ON_EDGE_METERS) >= ON_EDGE_METERS) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The ring in local meters, plus the working state of the
+     * conservative pass
+     */
+    private static final class Plane {
+        final double[] coords;
+        final int n;
+        final double tolerance;
+        final double lat0, lon0, kLat, kLon;
+        final double[] x;
+        final double[] y;
+
+        Plane(double[] coords, int vertexCount, double toleranceMeters) {
+            if (vertexCount < 3 || coords.length < 2 * vertexCount) {
+                throw new IllegalArgumentException("polygon needs at least 3 vertices");
+            }
+            if (!(toleranceMeters >= 0)) {
+                throw new IllegalArgumentException("tolerance must not be negative");
+            }
+            this.coords = coords;
+            this.n = vertexCount;
+            this.tolerance = toleranceMeters;
+            Envelope e = Envelope.of(coords, vertexCount);
+            lat0 = (e.minLat + e.maxLat) / 2;
+            lon0 = (e.minLon + e.maxLon) / 2;
+            kLat = GeoMath.METERS_PER_DEGREE;
+            kLon = GeoMath.metersPerDegreeLon(lat0);
+            x = new double[n];
+            y = new double[n];
+            for (int i = 0; i < n; i++) {
+                x[i] = (coords[2 * i + 1] - lon0) * kLon;
+                y[i] = (coords[2 * i] - lat0) * kLat;
+            }
+        }
+
+        /**
+         * Squared distance from original vertex k to the segment between
+         * original vertices i and j
+         */
+        double segmentDistanceSq(int k, int i, int j) {
+            return GeoMath.segmentDistanceSq(x[i] - x[k], y[i] - y[k], x[j] - x[k], y[j] - y[k]);
+        }
+
+        Result growRing() {
+            // doubly linked ring over working vertices; origin is the
+            // original vertex each one started from
+            int[] prev = new int[n];
+            int[] next = new int[n];
+            double[] wx = x.clone();
+            double[] wy = y.clone();
+            for (int i = 0; i < n; i++) {
+                prev[i] = i == 0 ? n - 1 : i - 1;
+                next[i] = i == n - 1 ? 0 : i + 1;
+            }
+            double area = 0;
+            for (int i = 0; i < n; i++) {
+                area += wx[i] * wy[next[i]] - wx[next[i]] * wy[i];
+            }
+            double orientation = area >= 0 ? 1 : -1;
+            double limit = tolerance * tolerance;
+
+            int count = n;
+            int head = 0;
+            boolean changed = true;
+            while (changed && count > 3) {
+                changed = false;
+                int v = head;
+                for (int step = 0; step < count && count > 3; step++) {
+                    int p = prev[v];
+                    int q = next[v];
+                    double turn = orientation * ((wx[v] - wx[p]) * (wy[q] - wy[v])
+                            - (wy[v] - wy[p]) * (wx[q] - wx[v]));
+                    if (turn <= 0) {
+                        // concave or straight: the chord p-q only adds area
+                        if (chordWithin(p, q, wx, wy, limit)) {
+                            next[p] = q;
+                            prev[q] = p;
+                            if (v == head) head = q;
+                            count--;
+                            changed = true;
+                        }
+                        v = q;
+                        continue;
+                    }
+                    int r = next[q];
+                    if (r != p && mergeOutward(p, v, q, r, wx, wy, orientation, limit)) {
+                        next[v] = r;
+                        prev[r] = v;
+                        if (q == head) head = v;
+                        count--;
+                        changed = true;
+                    }
+                    v = next[v];
+                }
+            }
+
+            double[] out = new double[2 * count];
+            int v = head;
+            for (int i = 0; i < count; i++) {
+                out[2 * i] = lat0 + wy[v] / kLat;
+                out[2 * i + 1] = lon0 + wx[v] / kLon;
+                v = next[v];
+            }
+            return new Result(out, count, n - count);
+        }
+
+        /**
+         * Original vertices strictly between p and q all within the
+         * tolerance of the chord p-q
+         */
+        private boolean chordWithin(int p, int q, double[] wx, double[] wy, double limit) {
+            for (int k = p + 1 == n ? 0 : p + 1; k != q; k = k + 1 == n ? 0 : k + 1) {
+                if (GeoMath.segmentDistanceSq(wx[p] - x[k], wy[p] - y[k], wx[q] - x[k], wy[q] - y[k]) > limit) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Replace v and q with the meeting point of edges p-v and r-q,
+         * stored in v
+         * @return false if the edges do not meet beyond v and q, or the
+         *         meeting point is farther than the tolerance from the
+         *         original boundary
+         */
+        private boolean mergeOutward(int p, int v, int q, int r, double[] wx, double[] wy,
+                                     double orientation, double limit) {
+            double ax = wx[v] - wx[p], ay = wy[v] - wy[p];
+            double bx = wx[q] - wx[r], by = wy[q] - wy[r];
+            double denom = ax * by - ay * bx;
+            if (denom == 0) {
+                return false;
+            }
+            // p + t * a == r + s * b
+            double cx = wx[r] - wx[p], cy = wy[r] - wy[p];
+            double t = (cx * by - cy * bx) / denom;
+            double s = (cx * ay - cy * ax) / denom;
+            if (t < 1 || s < 1) {
+                return false;
+            }
+            double mx = wx[p] + t * ax;
+            double my = wy[p] + t * ay;
+            // q must also be convex, or the merged corner would cut it off
+            double turn = orientation * ((wx[q] - wx[v]) * (wy[r] - wy[q]) - (wy[q] - wy[v]) * (wx[r] - wx[q]));
+            if (turn <= 0) {
+                return false;
+            }
+            // the new corner stays close to the original edges it replaces
+            double nearest = Double.MAX_VALUE;
+            for (int k = p; ; k = k + 1 == n ? 0 : k + 1) {
+                int j = k + 1 == n ? 0 : k + 1;
+                nearest = Math.min(nearest,
+                        GeoMath.segmentDistanceSq(x[k] - mx, y[k] - my, x[j] - mx, y[j] - my));
+                if (j == r) {
+                    break;
+                }
+            }
+            if (nearest > limit) {
+                return false;
+            }
+            wx[v] = mx;
+            wy[v] = my;
+            return true;
+        }
+    }
+}
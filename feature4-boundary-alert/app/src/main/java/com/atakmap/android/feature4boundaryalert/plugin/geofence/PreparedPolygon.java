@@ -0,0 +1,633 @@
+package com.atakmap.android.feature4boundaryalert.plugin.geofence;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Polygon prepared once for fast repeated containment queries.
+ *
+ * The polygon envelope is split into a uniform grid. Every cell that no
+ * edge passes through is classified as inside or outside up front, so a
+ * query landing in such a cell is answered with a single array lookup.
+ * Cells cut by an edge fall back to the ray cast, but only over the edges
+ * bucketed into the query's longitude band (the grid column) instead of
+ * every edge of the polygon.
+ *
+ * Results match a plain ray cast over every edge exactly; the
+ * grid only decides which edges have to be looked at. The same grid,
+ * with the edges also bucketed per cell, bounds the distance queries.
+ */
+public final class PreparedPolygon implements Region {
+
+    private static final byte CELL_BOUNDARY = 0;
+    private static final byte CELL_INSIDE = 1;
+    private static final byte CELL_OUTSIDE = 2;
+
+    private static final int MIN_GRID = 4;
+    private static final int MAX_GRID = 256;
+
+    private final double[] coords;
+    private final int vertexCount;
+    private final Envelope envelope;
+    // coordinates are plane meters {y, x} rather than degrees {lat, lon}
+    private final boolean planar;
+
+    private final int rows;
+    private final int cols;
+    private final double cellHeight;
+    private final double cellWidth;
+
+    // per cell classification, row major
+    private final byte[] cellState;
+
+    // edges whose longitude range overlaps each column, CSR layout.
+    // Edge i runs from vertex i to vertex i + 1 (wrapping)
+    private final int[] bandStart;
+    private final int[] bandEdges;
+
+    // edges passing through each cell, CSR layout; used to search outward
+    // from a point for the nearest edge
+    private final int[] cellStart;
+    private final int[] cellEdges;
+    // rings of cells around each cell that hold no edge at all, so the
+    // nearest edge search can skip straight past them
+    private final short[] emptyRings;
+
+    private PreparedPolygon(double[] coords, int vertexCount, boolean planar) {
+        this.coords = coords;
+        this.vertexCount = vertexCount;
+        this.planar = planar;
+        this.envelope = Envelope.of(coords, vertexCount);
+
+        int side = (int) Math.ceil(Math.sqrt(vertexCount));
+        side = Math.max(MIN_GRID, Math.min(MAX_GRID, side));
+        this.rows = side;
+        this.cols = side;
+        this.cellHeight = nonZero((envelope.maxLat - envelope.minLat) / rows);
+        this.cellWidth = nonZero((envelope.maxLon - envelope.minLon) / cols);
+
+        this.bandStart = new int[cols + 1];
+        this.bandEdges = buildBands();
+        this.cellStart = new int[rows * cols + 1];
+        this.cellEdges = bucketCellEdges();
+        this.cellState = classifyCells();
+        this.emptyRings = ringDistances();
+    }
+
+    /**
+     * Prepare a polygon from packed {lat, lon} coordinates
+     * @param coords packed coordinates, lat at even and lon at odd indices.
+     *               The array must not be modified afterwards.
+     * @param vertexCount number of vertices, at least 3
+     */
+    public static PreparedPolygon prepare(double[] coords, int vertexCount) {
+        checkVertices(coords, vertexCount);
+        return new PreparedPolygon(coords, vertexCount, false);
+    }
+
+    /**
+     * Prepare a polygon already projected to a plane, packed {y, x} in
+     * meters. Every "lat" and "lon" argument then means y and x, and
+     * distances are measured straight in the plane.
+     */
+    public static PreparedPolygon preparePlanar(double[] coords, int vertexCount) {
+        checkVertices(coords, vertexCount);
+        return new PreparedPolygon(coords, vertexCount, true);
+    }
+
+    private static void checkVertices(double[] coords, int vertexCount) {
+        if (vertexCount < 3 || coords.length < 2 * vertexCount) {
+            throw new IllegalArgumentException("polygon needs at least 3 vertices");
+        }
+    }
+
+    @Override
+    public Envelope getEnvelope() {
+        return envelope;
+    }
+
+    /**
+     * Packed vertices; only the first vertexCount pairs are meaningful
+     */
+    double[] coords() {
+        return coords;
+    }
+
+    @Override
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    /**
+     * Check if a point is inside the polygon
+     */
+    @Override
+    public boolean contains(double lat, double lon) {
+        if (!envelope.contains(lat, lon)) {
+            return false;
+        }
+        int col = col(lon);
+        byte state = cellState[row(lat) * cols + col];
+        if (state != CELL_BOUNDARY) {
+            return state == CELL_INSIDE;
+        }
+        return rayCast(lat, lon, col);
+    }
+
+    /**
+     * Distance from a point to the nearest edge, looking no further than
+     * maxMeters. Only the edges in the longitude bands within reach are
+     * measured, so the cost depends on the search radius rather than on
+     * the size of the polygon.
+     * @return distance in meters, or maxMeters if no edge is closer
+     */
+    @Override
+    public double distanceToEdge(double lat, double lon, double maxMeters) {
+        final double kLat = latScale();
+        final double kLon = lonScale(lat);
+        double reachLat = maxMeters / kLat;
+        double reachLon = maxMeters / kLon;
+        if (lat + reachLat < envelope.minLat || lat - reachLat > envelope.maxLat
+                || lon + reachLon < envelope.minLon || lon - reachLon > envelope.maxLon) {
+            return maxMeters;
+        }
+
+        double best = maxMeters * maxMeters;
+        int c0 = col(lon - reachLon);
+        int c1 = col(lon + reachLon);
+        for (int c = c0; c <= c1; c++) {
+            for (int k = bandStart[c]; k < bandStart[c + 1]; k++) {
+                int i = bandEdges[k];
+                int j = next(i);
+                double lat_i = lat(i), lon_i = lon(i);
+                double lat_j = lat(j), lon_j = lon(j);
+                // an edge spanning several bands is measured once
+                if (Math.max(col(Math.min(lon_i, lon_j)), c0) != c) {
+                    continue;
+                }
+                if (Math.min(lat_i, lat_j) > lat + reachLat || Math.max(lat_i, lat_j) < lat - reachLat) {
+                    continue;
+                }
+                double d2 = GeoMath.segmentDistanceSq(
+                        (lon_i - lon) * kLon, (lat_i - lat) * kLat,
+                        (lon_j - lon) * kLon, (lat_j - lat) * kLat);
+                if (d2 < best) {
+                    best = d2;
+                }
+            }
+        }
+        return Math.sqrt(best);
+    }
+
+    /**
+     * Find the nearest edge and the signed distance to it, with no limit
+     * on how far away the edge may be.
+     *
+     * The search starts in the grid cell of the point and visits rings of
+     * cells around it, measuring the edges bucketed in each. It stops once
+     * the nearest edge found is closer than anything beyond the rings
+     * visited, so the cost depends on how far the nearest edge is rather
+     * than on the size of the polygon. The winning edge is found in a local
+     * plane; the returned distance is the great circle distance to the
+     * closest point on it.
+     */
+    @Override
+    public EdgeDistance nearestEdge(double lat, double lon) {
+        final double kLat = latScale();
+        final double kLon = lonScale(lat);
+        final int r = row(lat);
+        final int c = col(lon);
+        final double cellLatMeters = cellHeight * kLat;
+        final double cellLonMeters = cellWidth * kLon;
+
+        double best = Double.MAX_VALUE;
+        int bestEdge = -1;
+        for (int ring = emptyRings[r * cols + c]; ; ring++) {
+            int r0 = r - ring, r1 = r + ring;
+            int c0 = c - ring, c1 = c + ring;
+            for (int rr = Math.max(r0, 0); rr <= Math.min(r1, rows - 1); rr++) {
+                // inner rows only need the two end columns of the ring
+                int step = rr == r0 || rr == r1 ? 1 : Math.max(1, c1 - c0);
+                for (int cc = c0; cc <= c1; cc += step) {
+                    if (cc < 0 || cc >= cols) {
+                        continue;
+                    }
+                    int cell = rr * cols + cc;
+                    if (cellStart[cell] == cellStart[cell + 1]
+                            || cellDistanceSq(rr, cc, lat, lon, kLat, kLon) >= best) {
+                        continue;
+                    }
+                    for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                        int i = cellEdges[k];
+                        int j = next(i);
+                        double d2 = GeoMath.segmentDistanceSq(
+                                (lon(i) - lon) * kLon, (lat(i) - lat) * kLat,
+                                (lon(j) - lon) * kLon, (lat(j) - lat) * kLat);
+                        if (d2 < best) {
+                            best = d2;
+                            bestEdge = i;
+                        }
+                    }
+                }
+            }
+
+            // nothing left outside the rings, or nothing there can be closer
+            boolean more = false;
+            double gap = Double.MAX_VALUE;
+            if (r0 > 0) {
+                more = true;
+                gap = Math.min(gap, (lat - envelope.minLat) * kLat - r0 * cellLatMeters);
+            }
+            if (r1 < rows - 1) {
+                more = true;
+                gap = Math.min(gap, (r1 + 1) * cellLatMeters - (lat - envelope.minLat) * kLat);
+            }
+            if (c0 > 0) {
+                more = true;
+                gap = Math.min(gap, (lon - envelope.minLon) * kLon - c0 * cellLonMeters);
+            }
+            if (c1 < cols - 1) {
+                more = true;
+                gap = Math.min(gap, (c1 + 1) * cellLonMeters - (lon - envelope.minLon) * kLon);
+            }
+            if (!more || (bestEdge >= 0 && best <= gap * gap)) {
+                break;
+            }
+        }
+
+        // closest point on the winning edge, then its true distance
+        int j = next(bestEdge);
+        double ax = (lon(bestEdge) - lon) * kLon, ay = (lat(bestEdge) - lat) * kLat;
+        double dx = (lon(j) - lon) * kLon - ax, dy = (lat(j) - lat) * kLat - ay;
+        double len2 = dx * dx + dy * dy;
+        double t = len2 > 0 ? Math.max(0, Math.min(1, -(ax * dx + ay * dy) / len2)) : 0;
+        double nearLat = lat(bestEdge) + t * (lat(j) - lat(bestEdge));
+        double nearLon = lon(bestEdge) + t * (lon(j) - lon(bestEdge));
+        double meters = planar ? Math.sqrt(best) : GeoMath.distanceMeters(lat, lon, nearLat, nearLon);
+        return new EdgeDistance(contains(lat, lon) ? -meters : meters, bestEdge, nearLat, nearLon);
+    }
+
+    /**
+     * Find every entry and exit along the straight track segment between
+     * two fixes, so a fast track that cuts through a corner between fixes
+     * still produces its events. Only edges bucketed into the longitude
+     * bands spanned by the segment are intersected.
+     *
+     * Each candidate crossing is confirmed by testing the polygon between
+     * consecutive hits, so grazing a vertex or running along an edge does
+     * not produce spurious event pairs.
+     *
+     * @param out receives the crossings in track order
+     * @return number of crossings added
+     */
+    @Override
+    public int findCrossings(double lat0, double lon0, long time0,
+                             double lat1, double lon1, long time1,
+                             List<BoundaryCrossing> out) {
+        double segMinLat = Math.min(lat0, lat1);
+        double segMaxLat = Math.max(lat0, lat1);
+        double segMinLon = Math.min(lon0, lon1);
+        double segMaxLon = Math.max(lon0, lon1);
+        if (segMaxLat < envelope.minLat || segMinLat > envelope.maxLat
+                || segMaxLon < envelope.minLon || segMinLon > envelope.maxLon) {
+            return 0;
+        }
+
+        final double dLat = lat1 - lat0;
+        final double dLon = lon1 - lon0;
+        double[] hitT = null;
+        int[] hitEdge = null;
+        int hits = 0;
+
+        int c0 = col(segMinLon);
+        int c1 = col(segMaxLon);
+        for (int c = c0; c <= c1; c++) {
+            for (int k = bandStart[c]; k < bandStart[c + 1]; k++) {
+                int i = bandEdges[k];
+                int j = next(i);
+                double lat_i = lat(i), lon_i = lon(i);
+                double lat_j = lat(j), lon_j = lon(j);
+
+                // an edge spanning several bands is handled in the first one
+                // it shares with the segment
+                if (Math.max(col(Math.min(lon_i, lon_j)), c0) != c) {
+                    continue;
+                }
+                if (Math.max(lat_i, lat_j) < segMinLat || Math.min(lat_i, lat_j) > segMaxLat) {
+                    continue;
+                }
+
+                double eLat = lat_j - lat_i;
+                double eLon = lon_j - lon_i;
+                double denom = dLon * eLat - dLat * eLon;
+                if (denom == 0) {
+                    continue; // parallel or collinear, neighbouring edges decide
+                }
+                double wLat = lat_i - lat0;
+                double wLon = lon_i - lon0;
+                double t = (wLon * eLat - wLat * eLon) / denom;
+                double u = (wLon * dLat - wLat * dLon) / denom;
+                if (t < 0 || t > 1 || u < 0 || u > 1) {
+                    continue;
+                }
+
+                if (hitT == null) {
+                    hitT = new double[4];
+                    hitEdge = new int[4];
+                } else if (hits == hitT.length) {
+                    hitT = Arrays.copyOf(hitT, hits * 2);
+                    hitEdge = Arrays.copyOf(hitEdge, hits * 2);
+                }
+                // insertion keeps the hits ordered along the track
+                int pos = hits++;
+                while (pos > 0 && hitT[pos - 1] > t) {
+                    hitT[pos] = hitT[pos - 1];
+                    hitEdge[pos] = hitEdge[pos - 1];
+                    pos--;
+                }
+                hitT[pos] = t;
+                hitEdge[pos] = i;
+            }
+        }
+
+        boolean before = contains(lat0, lon0);
+        boolean atEnd = contains(lat1, lon1);
+        if (hits == 0) {
+            if (before != atEnd) {
+                out.add(new BoundaryCrossing(atEnd, lat1, lon1, time1, -1));
+                return 1;
+            }
+            return 0;
+        }
+
+        int added = 0;
+        int h = 0;
+        while (h < hits) {
+            double t = hitT[h];
+            int edge = hitEdge[h];
+            // hits at the same spot (a vertex) count once
+            while (h + 1 < hits && hitT[h + 1] - t < 1e-12) {
+                h++;
+            }
+            h++;
+
+            boolean after;
+            if (h < hits) {
+                double mid = (t + hitT[h]) / 2;
+                after = contains(lat0 + mid * dLat, lon0 + mid * dLon);
+            } else {
+                after = atEnd;
+            }
+            if (after != before) {
+                long time = time0 + Math.round(t * (time1 - time0));
+                out.add(new BoundaryCrossing(after, lat0 + t * dLat, lon0 + t * dLon, time, edge));
+                added++;
+            }
+            before = after;
+        }
+        return added;
+    }
+
+    /**
+     * Ray cast restricted to the edges of one longitude band
+     */
+    private boolean rayCast(double lat, double lon, int col) {
+        final double[] c = coords;
+        boolean inside = false;
+        int end = bandStart[col + 1];
+        for (int k = bandStart[col]; k < end; k++) {
+            int i = bandEdges[k];
+            int j = i + 1 == vertexCount ? 0 : i + 1;
+            double lat_i = c[2 * i];
+            double lon_i = c[2 * i + 1];
+            double lat_j = c[2 * j];
+            double lon_j = c[2 * j + 1];
+
+            if ((lon_i > lon) != (lon_j > lon) &&
+                (lat < (lat_j - lat_i) * (lon - lon_i) / (lon_j - lon_i) + lat_i)) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    private int[] buildBands() {
+        // first pass counts, second pass fills
+        for (int i = 0; i < vertexCount; i++) {
+            int c0 = col(Math.min(lon(i), lon(next(i))));
+            int c1 = col(Math.max(lon(i), lon(next(i))));
+            for (int c = c0; c <= c1; c++) {
+                bandStart[c + 1]++;
+            }
+        }
+        for (int c = 0; c < cols; c++) {
+            bandStart[c + 1] += bandStart[c];
+        }
+        int[] edges = new int[bandStart[cols]];
+        int[] fill = new int[cols];
+        System.arraycopy(bandStart, 0, fill, 0, cols);
+        for (int i = 0; i < vertexCount; i++) {
+            int c0 = col(Math.min(lon(i), lon(next(i))));
+            int c1 = col(Math.max(lon(i), lon(next(i))));
+            for (int c = c0; c <= c1; c++) {
+                edges[fill[c]++] = i;
+            }
+        }
+        return edges;
+    }
+
+    /**
+     * Bucket the edges by every cell they pass through, CSR layout. Each
+     * edge is clipped to the latitude span of each row it crosses so long
+     * diagonal edges only land in the cells they really touch. The first
+     * pass counts, the second fills.
+     */
+    private int[] bucketCellEdges() {
+        int[] cursor = new int[rows * cols];
+        forEachEdgeCell(null, cursor);
+        for (int cell = 0; cell < rows * cols; cell++) {
+            cellStart[cell + 1] = cellStart[cell] + cursor[cell];
+        }
+        int[] edges = new int[cellStart[rows * cols]];
+        System.arraycopy(cellStart, 0, cursor, 0, rows * cols);
+        forEachEdgeCell(edges, cursor);
+        return edges;
+    }
+
+    /**
+     * Walk the cells of every edge; counts into cursor when edges is null,
+     * otherwise stores the edge at cursor[cell]++
+     */
+    private void forEachEdgeCell(int[] edges, int[] cursor) {
+        // widen slightly so rounding never leaves a touched cell unmarked
+        final double pad = cellWidth * 1e-9;
+        final double latPad = cellHeight * 1e-9;
+        for (int i = 0; i < vertexCount; i++) {
+            double latA = lat(i), lonA = lon(i);
+            double latB = lat(next(i)), lonB = lon(next(i));
+            double loLat = Math.min(latA, latB);
+            double hiLat = Math.max(latA, latB);
+            int r0 = row(loLat);
+            int r1 = row(hiLat);
+            for (int r = r0; r <= r1; r++) {
+                double minLon, maxLon;
+                if (latA == latB || r0 == r1) {
+                    minLon = Math.min(lonA, lonB);
+                    maxLon = Math.max(lonA, lonB);
+                } else {
+                    double rowLo = Math.max(loLat, envelope.minLat + r * cellHeight - latPad);
+                    double rowHi = Math.min(hiLat, envelope.minLat + (r + 1) * cellHeight + latPad);
+                    double lon0 = lonA + (lonB - lonA) * (rowLo - latA) / (latB - latA);
+                    double lon1 = lonA + (lonB - lonA) * (rowHi - latA) / (latB - latA);
+                    minLon = Math.min(lon0, lon1);
+                    maxLon = Math.max(lon0, lon1);
+                }
+                int c0 = col(minLon - pad);
+                int c1 = col(maxLon + pad);
+                for (int c = c0; c <= c1; c++) {
+                    int cell = r * cols + c;
+                    if (edges == null) {
+                        cursor[cell]++;
+                    } else {
+                        edges[cursor[cell]++] = i;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Classify every cell that no edge touches by its center. Nothing
+     * crosses such a cell, so the center speaks for all of it. Each column
+     * is swept once: the band edges are intersected with the vertical line
+     * through the cell centers and the sorted crossings give the ray cast
+     * parity for every row.
+     */
+    private byte[] classifyCells() {
+        byte[] state = new byte[rows * cols];
+        double[] crossings = new double[16];
+        for (int c = 0; c < cols; c++) {
+            double centerLon = envelope.minLon + (c + 0.5) * cellWidth;
+            int count = 0;
+            for (int k = bandStart[c]; k < bandStart[c + 1]; k++) {
+                int i = bandEdges[k];
+                int j = next(i);
+                double lat_i = lat(i), lon_i = lon(i);
+                double lat_j = lat(j), lon_j = lon(j);
+                if ((lon_i > centerLon) != (lon_j > centerLon)) {
+                    if (count == crossings.length) {
+                        crossings = Arrays.copyOf(crossings, count * 2);
+                    }
+                    crossings[count++] = (lat_j - lat_i) * (centerLon - lon_i) / (lon_j - lon_i) + lat_i;
+                }
+            }
+            Arrays.sort(crossings, 0, count);
+
+            // crossings above the center flip the parity
+            int below = 0;
+            for (int r = 0; r < rows; r++) {
+                int cell = r * cols + c;
+                double centerLat = envelope.minLat + (r + 0.5) * cellHeight;
+                while (below < count && crossings[below] <= centerLat) {
+                    below++;
+                }
+                if (cellStart[cell + 1] > cellStart[cell]) {
+                    state[cell] = CELL_BOUNDARY;
+                } else {
+                    state[cell] = ((count - below) & 1) == 1 ? CELL_INSIDE : CELL_OUTSIDE;
+                }
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Squared meters from a point to the nearest spot of a cell
+     */
+    private double cellDistanceSq(int r, int c, double lat, double lon, double kLat, double kLon) {
+        double cellLat = envelope.minLat + r * cellHeight;
+        double cellLon = envelope.minLon + c * cellWidth;
+        double dy = lat < cellLat ? cellLat - lat : Math.max(0, lat - cellLat - cellHeight);
+        double dx = lon < cellLon ? cellLon - lon : Math.max(0, lon - cellLon - cellWidth);
+        dy *= kLat;
+        dx *= kLon;
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Chessboard distance, in cells, from every cell to the nearest cell
+     * an edge passes through. Two sweeps over the grid, forward and
+     * backward, each looking at the already visited neighbours.
+     */
+    private short[] ringDistances() {
+        short[] dist = new short[rows * cols];
+        for (int cell = 0; cell < rows * cols; cell++) {
+            dist[cell] = cellStart[cell + 1] > cellStart[cell] ? 0 : Short.MAX_VALUE;
+        }
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                int d = dist[r * cols + c];
+                if (c > 0) d = Math.min(d, dist[r * cols + c - 1] + 1);
+                if (r > 0) {
+                    for (int cc = Math.max(c - 1, 0); cc <= Math.min(c + 1, cols - 1); cc++) {
+                        d = Math.min(d, dist[(r - 1) * cols + cc] + 1);
+                    }
+                }
+                dist[r * cols + c] = (short) d;
+            }
+        }
+        for (int r = rows - 1; r >= 0; r--) {
+            for (int c = cols - 1; c >= 0; c--) {
+                int d = dist[r * cols + c];
+                if (c < cols - 1) d = Math.min(d, dist[r * cols + c + 1] + 1);
+                if (r < rows - 1) {
+                    for (int cc = Math.max(c - 1, 0); cc <= Math.min(c + 1, cols - 1); cc++) {
+                        d = Math.min(d, dist[(r + 1) * cols + cc] + 1);
+                    }
+                }
+                dist[r * cols + c] = (short) d;
+            }
+        }
+        return dist;
+    }
+
+    /**
+     * Meters per unit of latitude, or of y in a plane
+     */
+    private double latScale() {
+        return planar ? 1 : GeoMath.METERS_PER_DEGREE;
+    }
+
+    /**
+     * Meters per unit of longitude at a latitude, or of x in a plane
+     */
+    private double lonScale(double lat) {
+        return planar ? 1 : GeoMath.metersPerDegreeLon(lat);
+    }
+
+    private int row(double lat) {
+        int r = (int) ((lat - envelope.minLat) / cellHeight);
+        return r < 0 ? 0 : (r >= rows ? rows - 1 : r);
+    }
+
+    private int col(double lon) {
+        int c = (int) ((lon - envelope.minLon) / cellWidth);
+        return c < 0 ? 0 : (c >= cols ? cols - 1 : c);
+    }
+
+    private int next(int i) {
+        return i + 1 == vertexCount ? 0 : i + 1;
+    }
+
+    private double lat(int i) {
+        return coords[2 * i];
+    }
+
+    private double lon(int i) {
+        return coords[2 * i + 1];
+    }
+
+    private static double nonZero(double size) {
+        return size > 0 ? size : 1e-12;
+    }
+}
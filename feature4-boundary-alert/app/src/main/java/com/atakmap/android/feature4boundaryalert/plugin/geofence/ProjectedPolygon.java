@@ -0,0 +1,293 @@
+package com.atakmap.android.feature4boundaryalert.plugin.geofence;
+
+import java.util.List;
+
+/**
+ * Polygon whose edges are great circle arcs, for zones that are large,
+ * span the antimeridian or surround a pole.
+ *
+ * The vertices are projected once, at preparation, with a gnomonic
+ * projection centred on the polygon. Edges become straight lines in that
+ * plane, so the planar {@link PreparedPolygon} grid gives the spherical
+ * answer. A query costs one projection of the point (a handful of trig
+ * calls) and then the same grid lookup as the planar mode; nothing is
+ * computed per edge.
+ *
+ * Distances come from the plane as well. The projection stretches them by
+ * up to 1 / cos^2 of the angle from the centre, a fraction of a percent
+ * for zones a few hundred kilometres across, so the bounded
+ * {@link #distanceToEdge} errs on the far side. {@link #nearestEdge}
+ * measures the final distance on the sphere.
+ */
+public final class ProjectedPolygon implements Region {
+
+    private final double[] coords;
+    private final int vertexCount;
+    private final GnomonicProjection projection;
+    private final PreparedPolygon plane;
+    private final Envelope envelope;
+
+    private ProjectedPolygon(double[] coords, int vertexCount, GnomonicProjection projection,
+                             PreparedPolygon plane) {
+        this.coords = coords;
+        this.vertexCount = vertexCount;
+        this.projection = projection;
+        this.plane = plane;
+        this.envelope = geographicEnvelope();
+    }
+
+    /**
+     * Prepare a polygon from packed {lat, lon} coordinates
+     * @param coords packed coordinates, lat at even and lon at odd indices.
+     *               The array must not be modified afterwards.
+     * @param vertexCount number of vertices, at least 3
+     * @throws IllegalArgumentException if a vertex lies more than
+     *         {@value GnomonicProjection#MAX_ANGLE_DEGREES} degrees from
+     *         the centre of the polygon
+     */
+    public static ProjectedPolygon prepare(double[] coords, int vertexCount) {
+        if (vertexCount < 3 || coords.length < 2 * vertexCount) {
+            throw new IllegalArgumentException("polygon needs at least 3 vertices");
+        }
+        GnomonicProjection projection = GnomonicProjection.centeredOn(coords, vertexCount);
+        double[] projected = new double[2 * vertexCount];
+        double[] point = new double[2];
+        for (int i = 0; i < vertexCount; i++) {
+            if (!project(projection, coords[2 * i], coords[2 * i + 1], point)) {
+                throw new IllegalArgumentException("polygon is too large for a projected boundary");
+            }
+            projected[2 * i] = point[0];
+            projected[2 * i + 1] = point[1];
+        }
+        return new ProjectedPolygon(coords, vertexCount, projection,
+                PreparedPolygon.preparePlanar(projected, vertexCount));
+    }
+
+    @Override
+    public Envelope getEnvelope() {
+        return envelope;
+    }
+
+    @Override
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    @Override
+    public boolean contains(double lat, double lon) {
+        double latR = Math.toRadians(lat);
+        double lonR = Math.toRadians(lon);
+        double cosLat = Math.cos(latR);
+        double px = cosLat * Math.cos(lonR);
+        double py = cosLat * Math.sin(lonR);
+        double pz = Math.sin(latR);
+        double depth = projection.depth(px, py, pz);
+        if (!projection.isProjectable(depth)) {
+            return false;
+        }
+        return plane.contains(projection.y(px, py, pz, depth), projection.x(px, py, pz, depth));
+    }
+
+    @Override
+    public double distanceToEdge(double lat, double lon, double maxMeters) {
+        // projected in place, as in contains: this runs for every filtered fix
+        double latR = Math.toRadians(lat);
+        double lonR = Math.toRadians(lon);
+        double cosLat = Math.cos(latR);
+        double px = cosLat * Math.cos(lonR);
+        double py = cosLat * Math.sin(lonR);
+        double pz = Math.sin(latR);
+        double depth = projection.depth(px, py, pz);
+        if (!projection.isProjectable(depth)) {
+            return maxMeters;
+        }
+        return plane.distanceToEdge(projection.y(px, py, pz, depth), projection.x(px, py, pz, depth), maxMeters);
+    }
+
+    @Override
+    public EdgeDistance nearestEdge(double lat, double lon) {
+        double latR = Math.toRadians(lat);
+        double lonR = Math.toRadians(lon);
+        double cosLat = Math.cos(latR);
+        double px = cosLat * Math.cos(lonR);
+        double py = cosLat * Math.sin(lonR);
+        double pz = Math.sin(latR);
+        double depth = projection.depth(px, py, pz);
+        if (!projection.isProjectable(depth)) {
+            return nearestVertex(lat, lon);
+        }
+        EdgeDistance planar = plane.nearestEdge(projection.y(px, py, pz, depth), projection.x(px, py, pz, depth));
+        double nearLat = projection.latitude(planar.lat, planar.lon);
+        double nearLon = projection.longitude(planar.lat, planar.lon);
+        double meters = GeoMath.distanceMeters(lat, lon, nearLat, nearLon);
+        return new EdgeDistance(planar.isInside() ? -meters : meters, planar.edgeIndex, nearLat, nearLon);
+    }
+
+    /**
+     * Crossings along the great circle between the fixes
+     */
+    @Override
+    public int findCrossings(double lat0, double lon0, long time0,
+                             double lat1, double lon1, long time1,
+                             List<BoundaryCrossing> out) {
+        double latR = Math.toRadians(lat0);
+        double lonR = Math.toRadians(lon0);
+        double cosLat = Math.cos(latR);
+        double px0 = cosLat * Math.cos(lonR);
+        double py0 = cosLat * Math.sin(lonR);
+        double pz0 = Math.sin(latR);
+        double depth0 = projection.depth(px0, py0, pz0);
+        latR = Math.toRadians(lat1);
+        lonR = Math.toRadians(lon1);
+        cosLat = Math.cos(latR);
+        double px1 = cosLat * Math.cos(lonR);
+        double py1 = cosLat * Math.sin(lonR);
+        double pz1 = Math.sin(latR);
+        double depth1 = projection.depth(px1, py1, pz1);
+        if (!projection.isProjectable(depth0) || !projection.isProjectable(depth1)) {
+            // too far away to be near the polygon in between; compare the ends
+            boolean before = contains(lat0, lon0);
+            boolean after = contains(lat1, lon1);
+            if (before != after) {
+                out.add(new BoundaryCrossing(after, lat1, lon1, time1, -1));
+                return 1;
+            }
+            return 0;
+        }
+        int start = out.size();
+        int added = plane.findCrossings(
+                projection.y(px0, py0, pz0, depth0), projection.x(px0, py0, pz0, depth0), time0,
+                projection.y(px1, py1, pz1, depth1), projection.x(px1, py1, pz1, depth1), time1, out);
+        for (int i = start; i < out.size(); i++) {
+            BoundaryCrossing c = out.get(i);
+            if (c.edgeIndex < 0) {
+                // reported at the end fix, which is already geographic
+                out.set(i, new BoundaryCrossing(c.entered, lat1, lon1, c.timeMillis, -1));
+            } else {
+                out.set(i, new BoundaryCrossing(c.entered, projection.latitude(c.lat, c.lon),
+                        projection.longitude(c.lat, c.lon), c.timeMillis, c.edgeIndex));
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Project a point into {y, x}; for preparation, queries project in
+     * place
+     * @return false if it is too far from the centre
+     */
+    private static boolean project(GnomonicProjection projection, double lat, double lon, double[] out) {
+        double latR = Math.toRadians(lat);
+        double lonR = Math.toRadians(lon);
+        double cosLat = Math.cos(latR);
+        double px = cosLat * Math.cos(lonR);
+        double py = cosLat * Math.sin(lonR);
+        double pz = Math.sin(latR);
+        double depth = projection.depth(px, py, pz);
+        if (!projection.isProjectable(depth)) {
+            return false;
+        }
+        out[0] = projection.y(px, py, pz, depth);
+        out[1] = projection.x(px, py, pz, depth);
+        return true;
+    }
+
+    /**
+     * Fallback for points on the far side of the globe
+     */
+    private EdgeDistance nearestVertex(double lat, double lon) {
+        int best = 0;
+        double bestMeters = Double.MAX_VALUE;
+        for (int i = 0; i < vertexCount; i++) {
+            double meters = GeoMath.distanceMeters(lat, lon, coords[2 * i], coords[2 * i + 1]);
+            if (meters < bestMeters) {
+                bestMeters = meters;
+                best = i;
+            }
+        }
+        return new EdgeDistance(bestMeters, best, coords[2 * best], coords[2 * best + 1]);
+    }
+
+    /**
+     * Vertex bounds widened where an arc bulges past its end points. A
+     * polygon crossing the antimeridian gets the full longitude range and
+     * one around a pole also extends to it.
+     */
+    private Envelope geographicEnvelope() {
+        Envelope vertices = Envelope.of(coords, vertexCount);
+        double minLat = vertices.minLat;
+        double maxLat = vertices.maxLat;
+        boolean wraps = false;
+        for (int i = 0; i < vertexCount; i++) {
+            int j = i + 1 == vertexCount ? 0 : i + 1;
+            double lat0 = coords[2 * i], lon0 = coords[2 * i + 1];
+            double lat1 = coords[2 * j], lon1 = coords[2 * j + 1];
+            if (Math.abs(lon1 - lon0) > 180) {
+                wraps = true;
+            }
+            double[] extremes = arcLatitudeExtremes(lat0, lon0, lat1, lon1);
+            minLat = Math.min(minLat, extremes[0]);
+            maxLat = Math.max(maxLat, extremes[1]);
+        }
+        if (contains(90, 0)) {
+            return new Envelope(minLat, -180, 90, 180);
+        }
+        if (contains(-90, 0)) {
+            return new Envelope(-90, -180, maxLat, 180);
+        }
+        if (wraps) {
+            return new Envelope(minLat, -180, maxLat, 180);
+        }
+        return new Envelope(minLat, vertices.minLon, maxLat, vertices.maxLon);
+    }
+
+    /**
+     * Lowest and highest latitude reached along the great circle arc
+     * between two points
+     */
+    private static double[] arcLatitudeExtremes(double lat0, double lon0, double lat1, double lon1) {
+        double[] result = {Math.min(lat0, lat1), Math.max(lat0, lat1)};
+        double ax = unitX(lat0, lon0), ay = unitY(lat0, lon0), az = Math.sin(Math.toRadians(lat0));
+        double bx = unitX(lat1, lon1), by = unitY(lat1, lon1), bz = Math.sin(Math.toRadians(lat1));
+        // normal of the great circle plane
+        double nx = ay * bz - az * by;
+        double ny = az * bx - ax * bz;
+        double nz = ax * by - ay * bx;
+        double len = Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if (len < 1e-15) {
+            return result;
+        }
+        nx /= len;
+        ny /= len;
+        nz /= len;
+        // the circle's highest point: the pole direction with the normal removed
+        double hx = -nz * nx, hy = -nz * ny, hz = 1 - nz * nz;
+        double hLen = Math.sqrt(hx * hx + hy * hy + hz * hz);
+        if (hLen < 1e-15) {
+            return result;
+        }
+        hx /= hLen;
+        hy /= hLen;
+        hz /= hLen;
+        for (int sign = 1; sign >= -1; sign -= 2) {
+            double px = sign * hx, py = sign * hy, pz = sign * hz;
+            // on the arc if it lies between a and b going around the normal
+            double s0 = nx * (ay * pz - az * py) + ny * (az * px - ax * pz) + nz * (ax * py - ay * px);
+            double s1 = nx * (py * bz - pz * by) + ny * (pz * bx - px * bz) + nz * (px * by - py * bx);
+            if (s0 >= 0 && s1 >= 0) {
+                double lat = Math.toDegrees(Math.asin(Math.max(-1, Math.min(1, pz))));
+                result[0] = Math.min(result[0], lat);
+                result[1] = Math.max(result[1], lat);
+            }
+        }
+        return result;
+    }
+
+    private static double unitX(double lat, double lon) {
+        return Math.cos(Math.toRadians(lat)) * Math.cos(Math.toRadians(lon));
+    }
+
+    private static double unitY(double lat, double lon) {
+        return Math.cos(Math.toRadians(lat)) * Math.sin(Math.toRadians(lon));
+    }
+}
@@ -0,0 +1,40 @@
+package com.atakmap.android.feature4boundaryalert.plugin.geofence;
+
+import java.util.List;
+
+/**
+ * A prepared area that boundary checks run against. Positions are always
+ * geographic degrees; how the edges are interpreted (straight in lat/lon,
+ * or great circle arcs) is up to the implementation.
+ */
+public interface Region {
+
+    /**
+     * @return geographic bounds, conservative where the area wraps
+     */
+    Envelope getEnvelope();
+
+    int getVertexCount();
+
+    boolean contains(double lat, double lon);
+
+    /**
+     * Distance to the nearest edge, looking no further than maxMeters
+     * @return meters, or maxMeters if no edge is closer
+     */
+    double distanceToEdge(double lat, double lon, double maxMeters);
+
+    /**
+     * Signed distance to the nearest edge, negative inside
+     */
+    EdgeDistance nearestEdge(double lat, double lon);
+
+    /**
+     * Every entry and exit along the track between two fixes
+     * @param out receives the crossings in track order
+     * @return number of crossings added
+     */
+    int findCrossings(double lat0, double lon0, long time0,
+                      double lat1, double lon1, long time1,
+                      List<BoundaryCrossing> out);
+}
@@ -0,0 +1,407 @@
+package com.atakmap.android.feature4boundaryalert.plugin.geofence;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Per-track boundary state keyed by track UID: inside/outside, entry time,
+ * last fix position and time, a stale deadline and, while an opposite
+ * state is waiting to be confirmed, where it began and when its dwell
+ * time started.
+ *
+ * UIDs map to dense integer slots through an open addressing hash table
+ * with linear probing; the state itself lives in primitive per-slot
+ * arrays, so tracking thousands of tracks costs no boxing and no
+ * per-track objects beyond the UID strings. Tracks that pass their stale
+ * time are evicted and their slots reused, so memory is bounded by the
+ * number of live tracks rather than every UID ever seen.
+ *
+ * Not thread safe; {@link BoundaryModel} guards it with its own lock.
+ */
+public final class TrackStateTable {
+
+    /** matches the 20 s stale time of the CoT events the simulator emits */
+    public static final long DEFAULT_STALE_MILLIS = 20_000;
+
+    private static final long EVICTION_INTERVAL_MILLIS = 1_000;
+    private static final int INITIAL_CAPACITY = 64;
+
+    // hash table: UID and its slot, length is a power of two
+    private String[] keys;
+    private int[] keySlots;
+    private int size;
+
+    // per slot state; a slot is live while slotUids[slot] != null
+    private String[] slotUids;
+    private long[] entryTime;
+    private long[] lastFixTime;
+    private long[] staleTime;
+    private long[] pendingSince;
+    private long[] pendingCrossTime;
+    private double[] lastLat;
+    private double[] lastLon;
+    private double[] pendingLat;
+    private double[] pendingLon;
+    private final BitSet inside = new BitSet();
+    private final BitSet hasFix = new BitSet();
+    private final BitSet pending = new BitSet();
+    private final BitSet pastBuffer = new BitSet();
+    private int slotCount;
+
+    // slots released by eviction, reused before growing
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+
+    private long staleMillis = DEFAULT_STALE_MILLIS;
+    private long lastEviction;
+
+    public TrackStateTable() {
+        keys = new String[INITIAL_CAPACITY];
+        keySlots = new int[INITIAL_CAPACITY];
+        allocateSlots(INITIAL_CAPACITY / 2);
+    }
+
+    /**
+     * @return number of tracks in the table
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Set how long a track without fixes is kept when no explicit stale
+     * time is given
+     */
+    public void setStaleMillis(long staleMillis) {
+        this.staleMillis = staleMillis;
+    }
+
+    /**
+     * @return the slot of a track, or -1 if it is unknown
+     */
+    public int slotOf(String uid) {
+        int mask = keys.length - 1;
+        for (int pos = mix(uid.hashCode()) & mask; ; pos = (pos + 1) & mask) {
+            String key = keys[pos];
+            if (key == null) {
+                return -1;
+            }
+            if (key.equals(uid)) {
+                return keySlots[pos];
+            }
+        }
+    }
+
+    /**
+     * @return the slot of a track, adding it in the outside state if new
+     */
+    public int getOrCreateSlot(String uid) {
+        int mask = keys.length - 1;
+        int pos = mix(uid.hashCode()) & mask;
+        for (; keys[pos] != null; pos = (pos + 1) & mask) {
+            if (keys[pos].equals(uid)) {
+                return keySlots[pos];
+            }
+        }
+
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            slot = slotCount++;
+            if (slot == slotUids.length) {
+                allocateSlots(slot * 2);
+            }
+        }
+        slotUids[slot] = uid;
+        entryTime[slot] = 0;
+        lastFixTime[slot] = 0;
+        staleTime[slot] = Long.MAX_VALUE;
+        inside.clear(slot);
+        hasFix.clear(slot);
+        pending.clear(slot);
+        pastBuffer.clear(slot);
+
+        keys[pos] = uid;
+        keySlots[pos] = slot;
+        if (++size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return slot;
+    }
+
+    public String uidOf(int slot) {
+        return slotUids[slot];
+    }
+
+    public boolean isInside(int slot) {
+        return inside.get(slot);
+    }
+
+    /**
+     * Set the inside state; entering also records the entry time
+     */
+    public void setInside(int slot, boolean value, long timeMillis) {
+        if (value && !inside.get(slot)) {
+            entryTime[slot] = timeMillis;
+        }
+        inside.set(slot, value);
+    }
+
+    /**
+     * @return when the track last entered, 0 if it never did
+     */
+    public long getEntryTime(int slot) {
+        return entryTime[slot];
+    }
+
+    public boolean hasFix(int slot) {
+        return hasFix.get(slot);
+    }
+
+    public long getLastFixTime(int slot) {
+        return lastFixTime[slot];
+    }
+
+    public double getLastLatitude(int slot) {
+        return lastLat[slot];
+    }
+
+    public double getLastLongitude(int slot) {
+        return lastLon[slot];
+    }
+
+    /**
+     * @return true while the opposite state is waiting to be confirmed
+     */
+    public boolean isPending(int slot) {
+        return pending.get(slot);
+    }
+
+    /**
+     * @return when the dwell time started, i.e. when the pending state was
+     *         first seen past the buffer
+     */
+    public long getPendingSince(int slot) {
+        return pendingSince[slot];
+    }
+
+    /**
+     * @return when the track got onto the pending side
+     */
+    public long getPendingCrossingTime(int slot) {
+        return pendingCrossTime[slot];
+    }
+
+    public double getPendingLatitude(int slot) {
+        return pendingLat[slot];
+    }
+
+    public double getPendingLongitude(int slot) {
+        return pendingLon[slot];
+    }
+
+    /**
+     * Note that the track is on the side opposite its state, unless it
+     * already was
+     * @param timeMillis when and where it got there, e.g. an edge crossing
+     */
+    public void setPending(int slot, long timeMillis, double lat, double lon) {
+        if (!pending.get(slot)) {
+            pending.set(slot);
+            pastBuffer.clear(slot);
+            pendingCrossTime[slot] = timeMillis;
+            pendingLat[slot] = lat;
+            pendingLon[slot] = lon;
+        }
+    }
+
+    /**
+     * @return true once the pending state has been seen past the buffer
+     */
+    public boolean isPastBuffer(int slot) {
+        return pastBuffer.get(slot);
+    }
+
+    /**
+     * Start the dwell time of the pending state, unless already started
+     */
+    public void setPastBuffer(int slot, long timeMillis) {
+        if (pending.get(slot) && !pastBuffer.get(slot)) {
+            pastBuffer.set(slot);
+            pendingSince[slot] = timeMillis;
+        }
+    }
+
+    public void clearPending(int slot) {
+        pending.clear(slot);
+        pastBuffer.clear(slot);
+    }
+
+    /**
+     * Record a fix using the default stale interval
+     */
+    public void recordFix(int slot, double lat, double lon, long timeMillis) {
+        recordFix(slot, lat, lon, timeMillis, timeMillis + staleMillis);
+    }
+
+    /**
+     * Record a fix with an explicit stale time, e.g. the CoT stale attribute
+     */
+    public void recordFix(int slot, double lat, double lon, long timeMillis, long staleAtMillis) {
+        lastLat[slot] = lat;
+        lastLon[slot] = lon;
+        lastFixTime[slot] = timeMillis;
+        staleTime[slot] = staleAtMillis;
+        hasFix.set(slot);
+    }
+
+    /**
+     * Remove a track
+     * @return true if it was present
+     */
+    public boolean remove(String uid) {
+        int mask = keys.length - 1;
+        for (int pos = mix(uid.hashCode()) & mask; keys[pos] != null; pos = (pos + 1) & mask) {
+            if (keys[pos].equals(uid)) {
+                releaseSlot(keySlots[pos]);
+                removeAt(pos);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Evict stale tracks, at most once per second of fix time
+     * @return number of tracks evicted
+     */
+    public int evictStaleIfDue(long nowMillis) {
+        if (nowMillis - lastEviction < EVICTION_INTERVAL_MILLIS) {
+            return 0;
+        }
+        return evictStale(nowMillis);
+    }
+
+    /**
+     * Evict every track whose stale time has passed
+     * @return number of tracks evicted
+     */
+    public int evictStale(long nowMillis) {
+        lastEviction = nowMillis;
+        int evicted = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (slotUids[slot] != null && staleTime[slot] < nowMillis) {
+                remove(slotUids[slot]);
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Drop every track
+     */
+    public void clear() {
+        Arrays.fill(keys, null);
+        Arrays.fill(slotUids, null);
+        inside.clear();
+        hasFix.clear();
+        pending.clear();
+        pastBuffer.clear();
+        size = 0;
+        slotCount = 0;
+        freeCount = 0;
+        lastEviction = 0;
+    }
+
+    private void releaseSlot(int slot) {
+        slotUids[slot] = null;
+        inside.clear(slot);
+        hasFix.clear(slot);
+        pending.clear(slot);
+        pastBuffer.clear(slot);
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    /**
+     * Backward shift deletion keeps probe sequences intact without
+     * tombstones
+     */
+    private void removeAt(int pos) {
+        int mask = keys.length - 1;
+        int hole = pos;
+        keys[hole] = null;
+        size--;
+        for (int i = (hole + 1) & mask; keys[i] != null; i = (i + 1) & mask) {
+            int home = mix(keys[i].hashCode()) & mask;
+            boolean movable = i > hole
+                    ? (home <= hole || home > i)
+                    : (home <= hole && home > i);
+            if (movable) {
+                keys[hole] = keys[i];
+                keySlots[hole] = keySlots[i];
+                keys[i] = null;
+                hole = i;
+            }
+        }
+    }
+
+    private void allocateSlots(int capacity) {
+        if (slotUids == null) {
+            slotUids = new String[capacity];
+            entryTime = new long[capacity];
+            lastFixTime = new long[capacity];
+            staleTime = new long[capacity];
+            pendingSince = new long[capacity];
+            pendingCrossTime = new long[capacity];
+            lastLat = new double[capacity];
+            lastLon = new double[capacity];
+            pendingLat = new double[capacity];
+            pendingLon = new double[capacity];
+            return;
+        }
+        slotUids = Arrays.copyOf(slotUids, capacity);
+        entryTime = Arrays.copyOf(entryTime, capacity);
+        lastFixTime = Arrays.copyOf(lastFixTime, capacity);
+        staleTime = Arrays.copyOf(staleTime, capacity);
+        pendingSince = Arrays.copyOf(pendingSince, capacity);
+        pendingCrossTime = Arrays.copyOf(pendingCrossTime, capacity);
+        lastLat = Arrays.copyOf(lastLat, capacity);
+        lastLon = Arrays.copyOf(lastLon, capacity);
+        pendingLat = Arrays.copyOf(pendingLat, capacity);
+        pendingLon = Arrays.copyOf(pendingLon, capacity);
+    }
+
+    private void rehash(int capacity) {
+        String[] oldKeys = keys;
+        int[] oldSlots = keySlots;
+        keys = new String[capacity];
+        keySlots = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            String key = oldKeys[i];
+            if (key == null) {
+                continue;
+            }
+            int pos = mix(key.hashCode()) & mask;
+            while (keys[pos] != null) {
+                pos = (pos + 1) & mask;
+            }
+            keys[pos] = key;
+            keySlots[pos] = oldSlots[i];
+        }
+    }
+
+    /**
+     * Spread the hash bits; UIDs such as "SIM-ROBOT-12" differ only in the
+     * last characters
+     */
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
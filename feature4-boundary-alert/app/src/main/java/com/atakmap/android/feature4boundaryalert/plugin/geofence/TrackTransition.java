@@ -0,0 +1,41 @@
+package com.atakmap.android.feature4boundaryalert.plugin.geofence;
+
+/**
+ * A track that changed from outside to inside a boundary or back.
+ */
+public final class TrackTransition {
+
+    public final String uid;
+
+    /** position of the track in the evaluated batch */
+    public final int index;
+
+    /** true for an entry, false for an exit */
+    public final boolean entered;
+
+    public final double lat;
+    public final double lon;
+    public final long timeMillis;
+
+    public TrackTransition(String uid, int index, boolean entered,
+                           double lat, double lon, long timeMillis) {
+        this.uid = uid;
+        this.index = index;
+        this.entered = entered;
+        this.lat = lat;
+        this.lon = lon;
+        this.timeMillis = timeMillis;
+    }
+
+    /**
+     * @return "ENTERED" or "EXITED"
+     */
+    public String getEvent() {
+        return entered ? BoundaryCrossing.ENTERED : BoundaryCrossing.EXITED;
+    }
+
+    @Override
+    public String toString() {
+        return uid + " " + getEvent() + " at " + lat + ", " + lon;
+    }
+}
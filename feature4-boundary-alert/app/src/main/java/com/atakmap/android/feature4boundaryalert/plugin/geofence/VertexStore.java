@@ -0,0 +1,75 @@
+package com.atakmap.android.feature4boundaryalert.plugin.geofence;
+
+import java.util.Arrays;
+
+/**
+ * Growable vertex list packed into a single {lat, lon, lat, lon, ...}
+ * double array.
+ *
+ * Entries below {@link #size()} are never overwritten: growing copies into
+ * a new array and {@link #clear()} starts a fresh one. A backing array
+ * obtained from {@link #array()} together with the size at that moment is
+ * therefore a stable read-only view that can be handed out without copying.
+ */
+public final class VertexStore {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private double[] coords;
+    private int size;
+
+    public VertexStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public VertexStore(int capacity) {
+        this.coords = new double[2 * Math.max(capacity, 1)];
+    }
+
+    /**
+     * Append a vertex
+     */
+    public void add(double lat, double lon) {
+        if (2 * size + 2 > coords.length) {
+            coords = Arrays.copyOf(coords, coords.length * 2);
+        }
+        coords[2 * size] = lat;
+        coords[2 * size + 1] = lon;
+        size++;
+    }
+
+    /**
+     * Drop all vertices. Views handed out earlier keep their contents.
+     */
+    public void clear() {
+        coords = new double[DEFAULT_CAPACITY * 2];
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double getLatitude(int i) {
+        return coords[2 * i];
+    }
+
+    public double getLongitude(int i) {
+        return coords[2 * i + 1];
+    }
+
+    /**
+     * Backing array without copying. Only the first {@code 2 * size()}
+     * entries are meaningful and they must not be modified.
+     */
+    public double[] array() {
+        return coords;
+    }
+
+    /**
+     * Trimmed copy of the packed coordinates
+     */
+    public double[] toArray() {
+        return Arrays.copyOf(coords, 2 * size);
+    }
+}
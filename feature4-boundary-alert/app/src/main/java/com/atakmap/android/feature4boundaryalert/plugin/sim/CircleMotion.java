@@ -0,0 +1,44 @@
+package com.atakmap.android.feature4boundaryalert.plugin.sim;
+
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.GeoMath;
+
+/**
+ * Constant speed round a circle
+ */
+public final class CircleMotion implements MotionModel {
+
+    private final double centerLat;
+    private final double centerLon;
+    private final double radius;
+    private final double lapSeconds;
+    private final double phaseDegrees;
+
+    /**
+     * @param lapSeconds time for one lap, negative to go anticlockwise
+     * @param phaseRadians bearing from the center at time 0
+     */
+    public CircleMotion(double centerLat, double centerLon, double radiusMeters,
+                        double lapSeconds, double phaseRadians) {
+        if (!(radiusMeters > 0) || lapSeconds == 0 || Double.isNaN(lapSeconds) || Double.isInfinite(lapSeconds)) {
+            throw new IllegalArgumentException("radius must be > 0 and lap time non zero");
+        }
+        this.centerLat = centerLat;
+        this.centerLon = centerLon;
+        this.radius = radiusMeters;
+        this.lapSeconds = lapSeconds;
+        this.phaseDegrees = Math.toDegrees(phaseRadians);
+    }
+
+    @Override
+    public void sample(double seconds, MotionState out) {
+        double bearing = phaseDegrees + 360 * (seconds % lapSeconds) / lapSeconds;
+        out.moveTo(centerLat, centerLon, bearing, radius);
+        out.course = GeoMath.normalizeDegrees(lapSeconds > 0 ? bearing + 90 : bearing - 90);
+        out.speed = 2 * Math.PI * radius / Math.abs(lapSeconds);
+    }
+
+    @Override
+    public double getPeriodSeconds() {
+        return Math.abs(lapSeconds);
+    }
+}
@@ -0,0 +1,68 @@
+package com.atakmap.android.feature4boundaryalert.plugin.sim;
+
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.GeoMath;
+
+/**
+ * Lawnmower (boustrophedon) search of a rectangle: parallel lanes flown
+ * in alternate directions, each one a lane spacing to the right of the
+ * last, then straight back to the start to search again.
+ *
+ * The turn points are laid out on a local flat plane round the start,
+ * which is fine for search areas of a few kilometres.
+ */
+public final class LawnmowerMotion implements MotionModel {
+
+    private final RouteMotion route;
+
+    /**
+     * @param headingDegrees direction of the first lane
+     * @param laneLengthMeters length of each lane
+     * @param laneSpacingMeters distance between neighbouring lanes
+     * @param lanes number of lanes, at least one
+     * @param speedMps meters per second
+     */
+    public LawnmowerMotion(double startLat, double startLon, double headingDegrees, double laneLengthMeters,
+                           double laneSpacingMeters, int lanes, double speedMps) {
+        if (!(laneLengthMeters > 0) || !(laneSpacingMeters >= 0) || lanes < 1) {
+            throw new IllegalArgumentException("lane length must be > 0, spacing >= 0 and lanes >= 1");
+        }
+        double h = Math.toRadians(headingDegrees);
+        // unit vectors along the lanes and across them to the right, {north, east}
+        double alongN = Math.cos(h);
+        double alongE = Math.sin(h);
+        double acrossN = -alongE;
+        double acrossE = alongN;
+        double lonScale = GeoMath.metersPerDegreeLon(startLat);
+
+        double[] waypoints = new double[4 * lanes];
+        for (int lane = 0; lane < lanes; lane++) {
+            double across = lane * laneSpacingMeters;
+            // even lanes run out from the baseline, odd lanes back to it
+            double first = lane % 2 == 0 ? 0 : laneLengthMeters;
+            double second = laneLengthMeters - first;
+            int k = 4 * lane;
+            waypoints[k] = startLat + (first * alongN + across * acrossN) / GeoMath.METERS_PER_DEGREE;
+            waypoints[k + 1] = startLon + (first * alongE + across * acrossE) / lonScale;
+            waypoints[k + 2] = startLat + (second * alongN + across * acrossN) / GeoMath.METERS_PER_DEGREE;
+            waypoints[k + 3] = startLon + (second * alongE + across * acrossE) / lonScale;
+        }
+        route = new RouteMotion(waypoints, speedMps, true);
+    }
+
+    /**
+     * @return meters flown in one full search, including the way back
+     */
+    public double getLengthMeters() {
+        return route.getLengthMeters();
+    }
+
+    @Override
+    public void sample(double seconds, MotionState out) {
+        route.sample(seconds, out);
+    }
+
+    @Override
+    public double getPeriodSeconds() {
+        return route.getPeriodSeconds();
+    }
+}
@@ -0,0 +1,23 @@
+package com.atakmap.android.feature4boundaryalert.plugin.sim;
+
+/**
+ * Path of a simulated entity as a function of time.
+ *
+ * Time is seconds since the entity started. Models without per-call state
+ * (all but {@link RandomWalkMotion}) may be shared by any number of
+ * entities; offset each entity's time to spread them along the path.
+ */
+public interface MotionModel {
+
+    /**
+     * Position, speed and course at a time
+     * @param out receives the state
+     */
+    void sample(double seconds, MotionState out);
+
+    /**
+     * @return seconds after which the motion repeats exactly, or 0 if it
+     *         does not repeat
+     */
+    double getPeriodSeconds();
+}
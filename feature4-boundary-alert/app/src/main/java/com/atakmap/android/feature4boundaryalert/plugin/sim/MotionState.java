@@ -0,0 +1,28 @@
+package com.atakmap.android.feature4boundaryalert.plugin.sim;
+
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.GeoMath;
+
+/**
+ * Where a {@link MotionModel} puts an entity. Reused between samples, so
+ * sampling allocates nothing.
+ */
+public final class MotionState {
+
+    public double lat;
+    public double lon;
+    /** meters per second */
+    public double speed;
+    /** degrees from true north, 0 to 360 */
+    public double course;
+
+    private final double[] point = new double[2];
+
+    /**
+     * Set the position to the point at a distance and course from a start
+     */
+    public void moveTo(double lat0, double lon0, double bearingDegrees, double meters) {
+        GeoMath.destination(lat0, lon0, bearingDegrees, meters, point);
+        lat = point[0];
+        lon = point[1];
+    }
+}
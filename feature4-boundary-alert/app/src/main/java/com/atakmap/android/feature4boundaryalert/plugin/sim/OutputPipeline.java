@@ -0,0 +1,567 @@
+package com.atakmap.android.feature4boundaryalert.plugin.sim;
+
+import com.atakmap.android.feature4boundaryalert.plugin.cot.CotEncoder;
+import com.atakmap.android.feature4boundaryalert.plugin.cot.CotOutput;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fans simulated fixes out to any number of sinks: network outputs,
+ * in-process listeners and recorders.
+ *
+ * The simulating thread publishes each fix once. Every sink has a bounded
+ * queue of its own, a thread of its own, its own rate limit and, for
+ * outputs, its own encoding, so the same fix can go out as XML on one and
+ * TAK Protocol on another. Publishing copies the fix into each queue and
+ * never waits: a sink that falls behind loses its oldest queued fixes, and
+ * neither the publisher nor the other sinks notice. Queues hold
+ * primitives, so publishing allocates nothing.
+ *
+ * Entities are registered once with their uid, callsign and CoT type;
+ * each sink learns the ones it has not seen the first time they come
+ * through.
+ */
+public final class OutputPipeline implements Closeable {
+
+    /** fixes a sink takes from its queue at a time */
+    static final int BATCH = SwarmSimulator.BATCH;
+    private static final String HOW = "m-g";
+
+    /**
+     * Receives fixes in process, on its sink's thread
+     */
+    public interface Listener {
+        void onFix(String uid, String callsign, long timeMillis, double lat, double lon, double speed,
+                   double course);
+    }
+
+    private final long staleMillis;
+    private String[] uids = new String[16];
+    private String[] callsigns = new String[16];
+    private String[] types = new String[16];
+    private volatile int count;
+    // replaced, never changed, so publish reads it without a lock
+    private volatile Sink[] sinks = new Sink[0];
+    private boolean closed;
+
+    /**
+     * @param staleMillis how long after its time an encoded event goes stale
+     */
+    public OutputPipeline(long staleMillis) {
+        if (staleMillis < 0) {
+            throw new IllegalArgumentException("stale time must be >= 0");
+        }
+        this.staleMillis = staleMillis;
+    }
+
+    /**
+     * @param type CoT type, e.g. a-f-G-U-C
+     * @return the entity's index, for {@link #publish}
+     */
+    public synchronized int register(String uid, String callsign, String type) {
+        if (uid == null || callsign == null || type == null) {
+            throw new IllegalArgumentException("uid, callsign and type are required");
+        }
+        int i = count;
+        if (i == uids.length) {
+            uids = Arrays.copyOf(uids, 2 * i);
+            callsigns = Arrays.copyOf(callsigns, 2 * i);
+            types = Arrays.copyOf(types, 2 * i);
+        }
+        uids[i] = uid;
+        callsigns[i] = callsign;
+        types[i] = type;
+        count = i + 1;
+        return i;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Add a sink that encodes fixes and sends them to an output, in
+     * batches
+     * @param capacity most fixes queued before the oldest are dropped
+     * @param maxRate events per second, 0 for no limit
+     */
+    public Sink addOutput(String name, CotOutput output, CotEncoder.Encoding encoding, int capacity,
+                          double maxRate) {
+        if (output == null || encoding == null) {
+            throw new IllegalArgumentException("no output or encoding");
+        }
+        return add(new OutputSink(name, output, encoding, capacity, maxRate));
+    }
+
+    /**
+     * Add a sink that hands fixes to a listener, unencoded
+     * @param capacity most fixes queued before the oldest are dropped
+     * @param maxRate fixes per second, 0 for no limit
+     */
+    public Sink addListener(String name, Listener listener, int capacity, double maxRate) {
+        if (listener == null) {
+            throw new IllegalArgumentException("no listener");
+        }
+        return add(new ListenerSink(name, listener, capacity, maxRate));
+    }
+
+    private synchronized Sink add(Sink sink) {
+        if (closed) {
+            throw new IllegalStateException("pipeline closed");
+        }
+        Sink[] grown = Arrays.copyOf(sinks, sinks.length + 1);
+        grown[sinks.length] = sink;
+        sinks = grown;
+        sink.start();
+        return sink;
+    }
+
+    public Sink[] getSinks() {
+        return sinks.clone();
+    }
+
+    /**
+     * Queue a fix on every sink; never waits
+     * @param entity index from {@link #register}
+     * @param speed meters per second
+     * @param course degrees from true north
+     * @return number of sinks that dropped an older fix to make room
+     */
+    public int publish(int entity, long timeMillis, double lat, double lon, double speed, double course) {
+        if (entity < 0 || entity >= count) {
+            throw new IndexOutOfBoundsException("entity " + entity + " of " + count);
+        }
+        int dropped = 0;
+        for (Sink sink : sinks) {
+            if (!sink.offer(entity, timeMillis, lat, lon, speed, course)) {
+                dropped++;
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * Wait until every sink has handed on everything published so far
+     * @return false if the time ran out first
+     */
+    public boolean flush(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (Sink sink : sinks) {
+            if (!sink.flush(Math.max(0, deadline - System.currentTimeMillis()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stop every sink's thread; what is still queued is dropped. Outputs
+     * are left open for their owner to close.
+     */
+    @Override
+    public void close() {
+        Sink[] all;
+        synchronized (this) {
+            closed = true;
+            all = sinks;
+        }
+        for (Sink sink : all) {
+            sink.stop();
+        }
+    }
+
+    private synchronized void identity(int from, int to, String[] uid, String[] callsign, String[] type) {
+        System.arraycopy(uids, from, uid, from, to - from);
+        System.arraycopy(callsigns, from, callsign, from, to - from);
+        System.arraycopy(types, from, type, from, to - from);
+    }
+
+    /**
+     * One destination with its queue and thread
+     */
+    public abstract class Sink {
+        private final String name;
+        private final int capacity;
+        private final RateLimiter limiter;
+        private final long pauseMillis;
+
+        // queued fixes, oldest at head
+        private final int[] entity;
+        private final long[] time;
+        private final double[] lat;
+        private final double[] lon;
+        private final double[] speed;
+        private final double[] course;
+        private int head;
+        private int size;
+        // a batch has been taken and is not yet handed on
+        private boolean busy;
+        private boolean stopped;
+        private Thread thread;
+
+        private long published;
+        private long delivered;
+        private long dropped;
+        private long failures;
+        private volatile Exception lastError;
+
+        // the batch being handed on, owned by the sink's thread
+        final int[] batchEntity = new int[BATCH];
+        final long[] batchTime = new long[BATCH];
+        final double[] batchLat = new double[BATCH];
+        final double[] batchLon = new double[BATCH];
+        final double[] batchSpeed = new double[BATCH];
+        final double[] batchCourse = new double[BATCH];
+
+        // identities seen so far, owned by the sink's thread
+        String[] uid = new String[0];
+        String[] callsign = new String[0];
+        String[] type = new String[0];
+        int known;
+
+        Sink(String name, int capacity, double maxRate) {
+            if (capacity < 1) {
+                throw new IllegalArgumentException("capacity must be at least 1");
+            }
+            if (maxRate < 0 || Double.isNaN(maxRate)) {
+                throw new IllegalArgumentException("rate must be >= 0");
+            }
+            this.name = name;
+            this.capacity = capacity;
+            // a tenth of a second's worth at once, as the swarm allows
+            this.limiter = maxRate == 0 ? RateLimiter.unlimited()
+                    : new RateLimiter(maxRate, Math.max(1, maxRate / 10));
+            this.pauseMillis = maxRate == 0 ? 0 : Math.max(1, (long) Math.ceil(1000 / maxRate));
+            entity = new int[capacity];
+            time = new long[capacity];
+            lat = new double[capacity];
+            lon = new double[capacity];
+            speed = new double[capacity];
+            course = new double[capacity];
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return fixes published to this sink
+         */
+        public synchronized long getPublishedCount() {
+            return published;
+        }
+
+        /**
+         * @return fixes handed on to the output or listener
+         */
+        public synchronized long getDeliveredCount() {
+            return delivered;
+        }
+
+        /**
+         * @return fixes dropped from a full queue
+         */
+        public synchronized long getDroppedCount() {
+            return dropped;
+        }
+
+        /**
+         * @return fixes that could not be encoded or sent
+         */
+        public synchronized long getFailureCount() {
+            return failures;
+        }
+
+        public synchronized int getQueueSize() {
+            return size;
+        }
+
+        /**
+         * @return the last error from encoding or sending, or null
+         */
+        public Exception getLastError() {
+            return lastError;
+        }
+
+        /**
+         * Wait until everything queued has been handed on
+         * @return false if the time ran out first
+         */
+        public synchronized boolean flush(long timeoutMillis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while ((size > 0 || busy) && !stopped) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) {
+                    return false;
+                }
+                wait(left);
+            }
+            return size == 0 && !busy;
+        }
+
+        /**
+         * Hand on fixes {@code 0} to {@code count} of the batch
+         * @return number handed on
+         */
+        abstract int deliver(int count) throws IOException;
+
+        void failed(Exception e) {
+            lastError = e;
+        }
+
+        synchronized boolean offer(int i, long t, double la, double lo, double sp, double co) {
+            published++;
+            boolean room = size < capacity;
+            int tail;
+            if (room) {
+                tail = head + size < capacity ? head + size : head + size - capacity;
+                size++;
+            } else {
+                // the oldest goes, and the newest takes its place at the back
+                tail = head;
+                head = head + 1 == capacity ? 0 : head + 1;
+                dropped++;
+            }
+            entity[tail] = i;
+            time[tail] = t;
+            lat[tail] = la;
+            lon[tail] = lo;
+            speed[tail] = sp;
+            course[tail] = co;
+            if (size == 1) {
+                notifyAll();
+            }
+            return room;
+        }
+
+        void start() {
+            thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runSink();
+                }
+            }, "cot-sink-" + name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void stop() {
+            synchronized (this) {
+                stopped = true;
+                notifyAll();
+            }
+            thread.interrupt();
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void runSink() {
+            try {
+                while (true) {
+                    int n = take();
+                    learn();
+                    int from = 0;
+                    while (from < n) {
+                        int to = from;
+                        long now = System.nanoTime() / 1_000_000;
+                        while (to < n && limiter.tryAcquire(now)) {
+                            to++;
+                        }
+                        if (to > from) {
+                            hand(from, to);
+                            from = to;
+                        } else {
+                            Thread.sleep(pauseMillis);
+                        }
+                    }
+                    synchronized (this) {
+                        busy = false;
+                        notifyAll();
+                    }
+                }
+            } catch (InterruptedException e) {
+                // stopped
+            }
+        }
+
+        /**
+         * Hand on part of the batch, moving it to the front first
+         */
+        private void hand(int from, int to) {
+            int n = to - from;
+            if (from > 0) {
+                System.arraycopy(batchEntity, from, batchEntity, 0, n);
+                System.arraycopy(batchTime, from, batchTime, 0, n);
+                System.arraycopy(batchLat, from, batchLat, 0, n);
+                System.arraycopy(batchLon, from, batchLon, 0, n);
+                System.arraycopy(batchSpeed, from, batchSpeed, 0, n);
+                System.arraycopy(batchCourse, from, batchCourse, 0, n);
+            }
+            int sent;
+            try {
+                sent = deliver(n);
+            } catch (IOException | RuntimeException e) {
+                failed(e);
+                sent = 0;
+            }
+            synchronized (this) {
+                delivered += sent;
+                failures += n - sent;
+            }
+        }
+
+        /**
+         * Move up to a batch of fixes from the queue, waiting for one
+         * @return number taken
+         */
+        private synchronized int take() throws InterruptedException {
+            while (size == 0) {
+                if (stopped) {
+                    throw new InterruptedException();
+                }
+                wait();
+            }
+            int n = Math.min(size, BATCH);
+            for (int k = 0; k < n; k++) {
+                batchEntity[k] = entity[head];
+                batchTime[k] = time[head];
+                batchLat[k] = lat[head];
+                batchLon[k] = lon[head];
+                batchSpeed[k] = speed[head];
+                batchCourse[k] = course[head];
+                head = head + 1 == capacity ? 0 : head + 1;
+            }
+            size -= n;
+            busy = true;
+            return n;
+        }
+
+        /**
+         * Fetch identities of entities registered since the last look
+         */
+        private void learn() {
+            int n = count;
+            if (n <= known) {
+                return;
+            }
+            if (n > uid.length) {
+                int grown = Math.max(n, 2 * uid.length);
+                uid = Arrays.copyOf(uid, grown);
+                callsign = Arrays.copyOf(callsign, grown);
+                type = Arrays.copyOf(type, grown);
+            }
+            identity(known, n, uid, callsign, type);
+            learned(known, n);
+            known = n;
+        }
+
+        /**
+         * Entities from one index to another have just become known
+         */
+        void learned(int from, int to) {
+        }
+    }
+
+    private final class OutputSink extends Sink {
+        private final CotOutput output;
+        private final CotEncoder.Encoding encoding;
+        // one encoder per CoT type
+        private final Map<String, CotEncoder> encoders = new HashMap<>();
+        private CotEncoder[] encoder = new CotEncoder[0];
+        private byte[][] names = new byte[0][];
+        private int[] callsignStart = new int[0];
+        private int maxEventBytes;
+        private ByteBuffer[] slots = new ByteBuffer[0];
+
+        OutputSink(String name, CotOutput output, CotEncoder.Encoding encoding, int capacity, double maxRate) {
+            super(name, capacity, maxRate);
+            this.output = output;
+            this.encoding = encoding;
+        }
+
+        @Override
+        void learned(int from, int to) {
+            if (to > encoder.length) {
+                encoder = Arrays.copyOf(encoder, uid.length);
+                names = Arrays.copyOf(names, uid.length);
+                callsignStart = Arrays.copyOf(callsignStart, uid.length);
+            }
+            for (int i = from; i < to; i++) {
+                CotEncoder e = encoders.get(type[i]);
+                if (e == null) {
+                    e = CotEncoder.create(encoding, type[i], HOW, staleMillis);
+                    encoders.put(type[i], e);
+                }
+                byte[] u = e.name(uid[i]);
+                byte[] c = e.name(callsign[i]);
+                byte[] packed = Arrays.copyOf(u, u.length + c.length);
+                System.arraycopy(c, 0, packed, u.length, c.length);
+                encoder[i] = e;
+                names[i] = packed;
+                callsignStart[i] = u.length;
+                maxEventBytes = Math.max(maxEventBytes, e.getMaxEventBytes(packed.length));
+            }
+            if (slots.length == 0 || slots[0].capacity() < maxEventBytes) {
+                slots = new ByteBuffer[BATCH];
+                for (int k = 0; k < BATCH; k++) {
+                    slots[k] = ByteBuffer.allocate(maxEventBytes);
+                }
+            }
+        }
+
+        @Override
+        int deliver(int count) throws IOException {
+            int encoded = 0;
+            for (int k = 0; k < count; k++) {
+                int i = batchEntity[k];
+                ByteBuffer slot = slots[encoded];
+                slot.clear();
+                try {
+                    encoder[i].write(slot, names[i], 0, callsignStart[i], names[i].length, batchTime[k],
+                            batchLat[k], batchLon[k], batchSpeed[k], batchCourse[k]);
+                } catch (RuntimeException e) {
+                    // one bad fix does not cost the rest of the batch
+                    failed(e);
+                    continue;
+                }
+                slot.flip();
+                encoded++;
+            }
+            return encoded == 0 ? 0 : output.send(slots, encoded);
+        }
+    }
+
+    private final class ListenerSink extends Sink {
+        private final Listener listener;
+
+        ListenerSink(String name, Listener listener, int capacity, double maxRate) {
+            super(name, capacity, maxRate);
+            this.listener = listener;
+        }
+
+        @Override
+        int deliver(int count) {
+            int delivered = 0;
+            for (int k = 0; k < count; k++) {
+                int i = batchEntity[k];
+                try {
+                    listener.onFix(uid[i], callsign[i], batchTime[k], batchLat[k], batchLon[k], batchSpeed[k],
+                            batchCourse[k]);
+                    delivered++;
+                } catch (RuntimeException e) {
+                    // one bad fix does not cost the rest of the batch
+                    failed(e);
+                }
+            }
+            return delivered;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.atakmap.android.feature4boundaryalert.plugin.sim;
+
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.GeoMath;
+
+import java.util.Random;
+
+/**
+ * Constant speed in straight legs of fixed duration, turning by a random
+ * amount between legs. An entity that strays beyond the bound turns back
+ * towards its start.
+ *
+ * The walk is a function of the seed alone: the legs are generated in
+ * order and the current one is remembered, so moving forward in time is
+ * cheap and going back replays from the start. Because of that state an
+ * instance must not be shared between entities.
+ */
+public final class RandomWalkMotion implements MotionModel {
+
+    private final double startLat;
+    private final double startLon;
+    private final double speed;
+    private final double legSeconds;
+    private final double maxTurn;
+    private final double bound;
+    private final long seed;
+
+    private final Random random = new Random();
+    private final double[] point = new double[2];
+    private long leg;
+    private double legLat;
+    private double legLon;
+    private double legCourse;
+
+    /**
+     * @param speedMps meters per second
+     * @param legSeconds time between turns, > 0
+     * @param maxTurnDegrees largest turn either way between legs
+     * @param boundMeters how far from the start before turning back, 0 for
+     *                    no bound
+     * @param seed the same seed gives the same walk
+     */
+    public RandomWalkMotion(double startLat, double startLon, double speedMps, double legSeconds,
+                            double maxTurnDegrees, double boundMeters, long seed) {
+        if (!(speedMps >= 0) || !(legSeconds > 0) || !(maxTurnDegrees >= 0) || !(boundMeters >= 0)) {
+            throw new IllegalArgumentException("speed, turn and bound must be >= 0 and leg time > 0");
+        }
+        this.startLat = startLat;
+        this.startLon = startLon;
+        this.speed = speedMps;
+        this.legSeconds = legSeconds;
+        this.maxTurn = maxTurnDegrees;
+        this.bound = boundMeters;
+        this.seed = seed;
+        restart();
+    }
+
+    @Override
+    public void sample(double seconds, MotionState out) {
+        double t = Math.max(seconds, 0);
+        long k = (long) (t / legSeconds);
+        if (k < leg) {
+            restart();
+        }
+        while (leg < k) {
+            nextLeg();
+        }
+        out.moveTo(legLat, legLon, legCourse, speed * (t - leg * legSeconds));
+        out.course = legCourse;
+        out.speed = speed;
+    }
+
+    @Override
+    public double getPeriodSeconds() {
+        return 0;
+    }
+
+    private void restart() {
+        random.setSeed(seed);
+        leg = 0;
+        legLat = startLat;
+        legLon = startLon;
+        legCourse = random.nextDouble() * 360;
+    }
+
+    private void nextLeg() {
+        GeoMath.destination(legLat, legLon, legCourse, speed * legSeconds, point);
+        legLat = point[0];
+        legLon = point[1];
+        double turn = (2 * random.nextDouble() - 1) * maxTurn;
+        if (bound > 0 && GeoMath.distanceMeters(startLat, startLon, legLat, legLon) > bound) {
+            legCourse = GeoMath.bearingDegrees(legLat, legLon, startLat, startLon);
+        }
+        legCourse = GeoMath.normalizeDegrees(legCourse + turn);
+        leg++;
+    }
+}
@@ -0,0 +1,68 @@
+package com.atakmap.android.feature4boundaryalert.plugin.sim;
+
+/**
+ * Token bucket limiting events per second.
+ *
+ * Tokens are refilled from the time passed in on each call, so there is
+ * no timer thread and the limiter follows whatever clock the caller uses.
+ * Not thread safe; it belongs to the thread that sends.
+ */
+public final class RateLimiter {
+
+    private final double perMilli;
+    private final double burst;
+    private double tokens;
+    private long lastMillis;
+    private boolean started;
+
+    /**
+     * @param perSecond sustained events per second
+     * @param burst most events allowed at once after an idle period, at
+     *              least 1
+     */
+    public RateLimiter(double perSecond, double burst) {
+        if (!(perSecond > 0) || !(burst >= 1)) {
+            throw new IllegalArgumentException("rate must be > 0 and burst >= 1");
+        }
+        this.perMilli = perSecond / 1000;
+        this.burst = burst;
+        this.tokens = burst;
+    }
+
+    /**
+     * @return a limiter that never refuses
+     */
+    public static RateLimiter unlimited() {
+        return new RateLimiter(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+    }
+
+    public boolean isUnlimited() {
+        return Double.isInfinite(perMilli);
+    }
+
+    /**
+     * Take one token if there is one
+     * @return false if the event must wait
+     */
+    public boolean tryAcquire(long nowMillis) {
+        if (isUnlimited()) {
+            return true;
+        }
+        refill(nowMillis);
+        if (tokens >= 1) {
+            tokens -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    private void refill(long nowMillis) {
+        if (started && nowMillis > lastMillis) {
+            tokens = Math.min(burst, tokens + (nowMillis - lastMillis) * perMilli);
+        }
+        if (!started || nowMillis > lastMillis) {
+            lastMillis = nowMillis;
+            started = true;
+        }
+    }
+}
@@ -0,0 +1,392 @@
+package com.atakmap.android.feature4boundaryalert.plugin.sim;
+
+import com.atakmap.android.feature4boundaryalert.plugin.cot.Ascii;
+
+import java.nio.ByteBuffer;
+
+/**
+ * How records are found and read in one kind of replay file. Every record
+ * starts with a fixed byte pattern, so a scan can start anywhere in the
+ * file and find the next record; that is what makes seeking by bisection
+ * possible. All indices are absolute positions in a mapped buffer.
+ */
+abstract class RecordFormat {
+
+    /**
+     * Bytes every record starts with
+     */
+    abstract byte[] start();
+
+    /**
+     * Whether a match of {@link #start} at i really begins a record
+     */
+    abstract boolean isStart(ByteBuffer b, int i, int limit);
+
+    /**
+     * @return index just past the record that starts at start, or -1 if it
+     *         does not end before limit
+     */
+    abstract int end(ByteBuffer b, int start, int limit);
+
+    /**
+     * Whether a record cut off by the end of the file still counts, as the
+     * last line of a text log does
+     */
+    abstract boolean endsAtEndOfFile();
+
+    /**
+     * @return the record's time, or {@link Ascii#NO_TIME} if it has none
+     */
+    abstract long time(ByteBuffer b, int start, int end);
+
+    /**
+     * @return false if the record is not a usable fix
+     */
+    abstract boolean parse(ByteBuffer b, int start, int end, TrackRecord out);
+
+    static RecordFormat forFormat(ReplayFile.Format format) {
+        switch (format) {
+            case GPX:
+                return new Gpx();
+            case NMEA:
+                return new Nmea();
+            default:
+                return new Cot();
+        }
+    }
+
+    /**
+     * NMEA 0183 logs. Only RMC sentences carry a date as well as a time,
+     * so they are the records; other sentences are skipped, as are RMC
+     * sentences with a void status or a bad checksum.
+     */
+    static final class Nmea extends RecordFormat {
+        private static final byte[] DOLLAR = {'$'};
+        private static final double KNOTS = 1852.0 / 3600;
+        // field starts, reused
+        private final int[] fields = new int[14];
+
+        @Override
+        byte[] start() {
+            return DOLLAR;
+        }
+
+        @Override
+        boolean isStart(ByteBuffer b, int i, int limit) {
+            return i + 7 <= limit && b.get(i + 3) == 'R' && b.get(i + 4) == 'M' && b.get(i + 5) == 'C'
+                    && b.get(i + 6) == ',';
+        }
+
+        @Override
+        int end(ByteBuffer b, int start, int limit) {
+            int nl = Ascii.indexOf(b, start, limit, (byte) '\n');
+            return nl < 0 ? -1 : nl + 1;
+        }
+
+        @Override
+        boolean endsAtEndOfFile() {
+            return true;
+        }
+
+        @Override
+        long time(ByteBuffer b, int start, int end) {
+            int n = split(b, start, end);
+            if (n < 10) {
+                return Ascii.NO_TIME;
+            }
+            int t = fields[1];
+            int d = fields[9];
+            if (fields[2] - t < 7 || fields[10] - d < 7) {
+                return Ascii.NO_TIME;
+            }
+            int hour = Ascii.parseInt(b, t, t + 2);
+            int minute = Ascii.parseInt(b, t + 2, t + 4);
+            int second = Ascii.parseInt(b, t + 4, t + 6);
+            int day = Ascii.parseInt(b, d, d + 2);
+            int month = Ascii.parseInt(b, d + 2, d + 4);
+            int year = Ascii.parseInt(b, d + 4, d + 6);
+            if (hour < 0 || minute < 0 || second < 0 || day < 1 || month < 1 || month > 12 || year < 0) {
+                return Ascii.NO_TIME;
+            }
+            // two digit years: 80 to 99 are last century
+            year += year < 80 ? 2000 : 1900;
+            long millis = 0;
+            if (b.get(t + 6) == '.') {
+                double fraction = Ascii.parseDouble(b, t + 6, fields[2] - 1);
+                if (!Double.isNaN(fraction)) {
+                    millis = Math.round(fraction * 1000);
+                }
+            }
+            long days = Ascii.daysFromCivil(year, month, day);
+            return ((days * 24 + hour) * 60 + minute) * 60_000L + second * 1000L + millis;
+        }
+
+        @Override
+        boolean parse(ByteBuffer b, int start, int end, TrackRecord out) {
+            if (!checksumOk(b, start, end)) {
+                return false;
+            }
+            long time = time(b, start, end);
+            if (time == Ascii.NO_TIME || b.get(fields[2]) != 'A') {
+                return false;
+            }
+            double lat = coordinate(b, fields[3], fields[4] - 1, b.get(fields[4]), 'S');
+            double lon = coordinate(b, fields[5], fields[6] - 1, b.get(fields[6]), 'W');
+            if (Double.isNaN(lat) || Double.isNaN(lon)) {
+                return false;
+            }
+            out.time = time;
+            out.lat = lat;
+            out.lon = lon;
+            double knots = Ascii.parseDouble(b, fields[7], fields[8] - 1);
+            out.speed = knots * KNOTS;
+            out.course = Ascii.parseDouble(b, fields[8], fields[9] - 1);
+            return true;
+        }
+
+        /**
+         * Note where each comma separated field starts; fields[k + 1] - 1
+         * is where field k ends
+         * @return number of fields
+         */
+        private int split(ByteBuffer b, int start, int end) {
+            int n = 0;
+            fields[n++] = start;
+            for (int i = start; i < end && n < fields.length; i++) {
+                byte c = b.get(i);
+                if (c == ',') {
+                    fields[n++] = i + 1;
+                } else if (c == '*' || c == '\r' || c == '\n') {
+                    break;
+                }
+            }
+            // where the last field ends, as if a comma followed it
+            int last = fields[n - 1];
+            while (last < end && b.get(last) != '*' && b.get(last) != '\r' && b.get(last) != '\n') {
+                last++;
+            }
+            if (n < fields.length) {
+                fields[n] = last + 1;
+            }
+            return n;
+        }
+
+        /**
+         * ddmm.mmmm or dddmm.mmmm and a hemisphere
+         */
+        private static double coordinate(ByteBuffer b, int from, int to, byte hemisphere, char negative) {
+            double v = Ascii.parseDouble(b, from, to);
+            if (Double.isNaN(v)) {
+                return Double.NaN;
+            }
+            double degrees = Math.floor(v / 100);
+            double value = degrees + (v - degrees * 100) / 60;
+            return hemisphere == negative ? -value : value;
+        }
+
+        /**
+         * XOR of the bytes between $ and *, when a checksum is present
+         */
+        private static boolean checksumOk(ByteBuffer b, int start, int end) {
+            int sum = 0;
+            for (int i = start + 1; i < end; i++) {
+                byte c = b.get(i);
+                if (c == '*') {
+                    if (i + 3 > end) {
+                        return false;
+                    }
+                    return sum == hex(b.get(i + 1)) * 16 + hex(b.get(i + 2));
+                }
+                if (c == '\r' || c == '\n') {
+                    break;
+                }
+                sum ^= c;
+            }
+            return true;
+        }
+
+        private static int hex(byte c) {
+            if (c >= '0' && c <= '9') {
+                return c - '0';
+            }
+            if (c >= 'A' && c <= 'F') {
+                return c - 'A' + 10;
+            }
+            if (c >= 'a' && c <= 'f') {
+                return c - 'a' + 10;
+            }
+            return -1000;
+        }
+    }
+
+    /**
+     * GPX track points. Points without a time are skipped.
+     */
+    static final class Gpx extends RecordFormat {
+        private static final byte[] TRKPT = Ascii.bytes("<trkpt");
+        private static final byte[] CLOSE = Ascii.bytes("</trkpt>");
+        private static final byte[] LAT = Ascii.bytes("lat=");
+        private static final byte[] LON = Ascii.bytes("lon=");
+        private static final byte[] TIME = Ascii.bytes("<time>");
+        private static final byte[] TIME_END = Ascii.bytes("</time>");
+        private static final byte[] ELE = Ascii.bytes("<ele>");
+        private static final byte[] ELE_END = Ascii.bytes("</ele>");
+        // GPX 1.0 only
+        private static final byte[] SPEED = Ascii.bytes("<speed>");
+        private static final byte[] SPEED_END = Ascii.bytes("</speed>");
+        private static final byte[] COURSE = Ascii.bytes("<course>");
+        private static final byte[] COURSE_END = Ascii.bytes("</course>");
+
+        @Override
+        byte[] start() {
+            return TRKPT;
+        }
+
+        @Override
+        boolean isStart(ByteBuffer b, int i, int limit) {
+            int k = i + TRKPT.length;
+            return k < limit && (Ascii.isSpace(b.get(k)) || b.get(k) == '>');
+        }
+
+        @Override
+        int end(ByteBuffer b, int start, int limit) {
+            return xmlEnd(b, start, limit, CLOSE);
+        }
+
+        @Override
+        boolean endsAtEndOfFile() {
+            return false;
+        }
+
+        @Override
+        long time(ByteBuffer b, int start, int end) {
+            long range = Ascii.element(b, start, end, TIME, TIME_END);
+            return range < 0 ? Ascii.NO_TIME : Ascii.parseIsoTime(b, (int) (range >>> 32), (int) range);
+        }
+
+        @Override
+        boolean parse(ByteBuffer b, int start, int end, TrackRecord out) {
+            long time = time(b, start, end);
+            int tagEnd = Ascii.indexOf(b, start, end, (byte) '>');
+            double lat = Ascii.attributeDouble(b, start, tagEnd, LAT);
+            double lon = Ascii.attributeDouble(b, start, tagEnd, LON);
+            if (time == Ascii.NO_TIME || Double.isNaN(lat) || Double.isNaN(lon)) {
+                return false;
+            }
+            out.time = time;
+            out.lat = lat;
+            out.lon = lon;
+            out.hae = element(b, tagEnd, end, ELE, ELE_END);
+            out.speed = element(b, tagEnd, end, SPEED, SPEED_END);
+            out.course = element(b, tagEnd, end, COURSE, COURSE_END);
+            return true;
+        }
+
+        private static double element(ByteBuffer b, int from, int to, byte[] open, byte[] close) {
+            long range = Ascii.element(b, from, to, open, close);
+            return range < 0 ? Double.NaN : Ascii.parseDouble(b, (int) (range >>> 32), (int) range);
+        }
+    }
+
+    /**
+     * Captured CoT XML: events one after another, with or without XML
+     * declarations or line breaks between them
+     */
+    static final class Cot extends RecordFormat {
+        private static final byte[] EVENT = Ascii.bytes("<event");
+        private static final byte[] CLOSE = Ascii.bytes("</event>");
+        private static final byte[] TIME = Ascii.bytes("time=");
+        private static final byte[] UID = Ascii.bytes("uid=");
+        private static final byte[] TYPE = Ascii.bytes("type=");
+        private static final byte[] POINT = Ascii.bytes("<point");
+        private static final byte[] LAT = Ascii.bytes("lat=");
+        private static final byte[] LON = Ascii.bytes("lon=");
+        private static final byte[] HAE = Ascii.bytes("hae=");
+        private static final byte[] CONTACT = Ascii.bytes("<contact");
+        private static final byte[] CALLSIGN = Ascii.bytes("callsign=");
+        private static final byte[] TRACK = Ascii.bytes("<track");
+        private static final byte[] SPEED = Ascii.bytes("speed=");
+        private static final byte[] COURSE = Ascii.bytes("course=");
+
+        @Override
+        byte[] start() {
+            return EVENT;
+        }
+
+        @Override
+        boolean isStart(ByteBuffer b, int i, int limit) {
+            int k = i + EVENT.length;
+            return k < limit && Ascii.isSpace(b.get(k));
+        }
+
+        @Override
+        int end(ByteBuffer b, int start, int limit) {
+            return xmlEnd(b, start, limit, CLOSE);
+        }
+
+        @Override
+        boolean endsAtEndOfFile() {
+            return false;
+        }
+
+        @Override
+        long time(ByteBuffer b, int start, int end) {
+            int tagEnd = Ascii.indexOf(b, start, end, (byte) '>');
+            int t = Ascii.attribute(b, start, tagEnd, TIME);
+            if (t < 0) {
+                return Ascii.NO_TIME;
+            }
+            int tEnd = Ascii.attributeEnd(b, t, tagEnd);
+            return tEnd < 0 ? Ascii.NO_TIME : Ascii.parseIsoTime(b, t, tEnd);
+        }
+
+        @Override
+        boolean parse(ByteBuffer b, int start, int end, TrackRecord out) {
+            long time = time(b, start, end);
+            int tagEnd = Ascii.indexOf(b, start, end, (byte) '>');
+            int point = Ascii.indexOf(b, tagEnd, end, POINT);
+            if (time == Ascii.NO_TIME || point < 0) {
+                return false;
+            }
+            int pointEnd = Ascii.indexOf(b, point, end, (byte) '>');
+            double lat = Ascii.attributeDouble(b, point, pointEnd, LAT);
+            double lon = Ascii.attributeDouble(b, point, pointEnd, LON);
+            String uid = Ascii.attributeString(b, start, tagEnd, UID);
+            if (Double.isNaN(lat) || Double.isNaN(lon) || uid == null) {
+                return false;
+            }
+            out.time = time;
+            out.lat = lat;
+            out.lon = lon;
+            out.hae = Ascii.attributeDouble(b, point, pointEnd, HAE);
+            out.uid = uid;
+            out.type = Ascii.attributeString(b, start, tagEnd, TYPE);
+            int contact = Ascii.indexOf(b, tagEnd, end, CONTACT);
+            if (contact >= 0) {
+                out.callsign = Ascii.attributeString(b, contact, Ascii.indexOf(b, contact, end, (byte) '>'), CALLSIGN);
+            }
+            int track = Ascii.indexOf(b, tagEnd, end, TRACK);
+            if (track >= 0) {
+                int trackEnd = Ascii.indexOf(b, track, end, (byte) '>');
+                out.speed = Ascii.attributeDouble(b, track, trackEnd, SPEED);
+                out.course = Ascii.attributeDouble(b, track, trackEnd, COURSE);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * End of an element that may close itself
+     */
+    static int xmlEnd(ByteBuffer b, int start, int limit, byte[] close) {
+        int tagEnd = Ascii.indexOf(b, start, limit, (byte) '>');
+        if (tagEnd < 0) {
+            return -1;
+        }
+        if (b.get(tagEnd - 1) == '/') {
+            return tagEnd + 1;
+        }
+        int c = Ascii.indexOf(b, tagEnd, limit, close);
+        return c < 0 ? -1 : c + close.length;
+    }
+}
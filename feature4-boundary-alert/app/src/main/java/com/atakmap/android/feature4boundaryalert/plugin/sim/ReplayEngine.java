@@ -0,0 +1,303 @@
+package com.atakmap.android.feature4boundaryalert.plugin.sim;
+
+import com.atakmap.android.feature4boundaryalert.plugin.cot.CotEncoder;
+import com.atakmap.android.feature4boundaryalert.plugin.cot.CotOutput;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.GeoMath;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Plays a {@link ReplayFile} back as CoT events through any
+ * {@link CotOutput}.
+ *
+ * Each fix goes out when the clock reaches its recorded time plus a shift,
+ * by default the one that puts the first fix at the moment play starts.
+ * The clock sets the speed: {@link SimClock#realTime} keeps the original
+ * pace, {@link SimClock#accelerated} scales it and
+ * {@link SimClock#asFastAsPossible} sends as fast as the output takes the
+ * events. Events that fall due together are encoded into reused buffers
+ * and sent in batches, as CoT XML or TAK Protocol, see
+ * {@link #setEncoding}.
+ *
+ * GPX and NMEA logs hold one track, sent under the identity set with
+ * {@link #setIdentity}. CoT logs keep the uid, type and callsign of every
+ * event; of the rest only the point and track are replayed. Speed and
+ * course missing from the log are worked out from the track's previous
+ * fix.
+ */
+public final class ReplayEngine {
+
+    public static final String DEFAULT_UID = "SIM-REPLAY-1";
+    public static final String DEFAULT_CALLSIGN = "REPLAY";
+    public static final String DEFAULT_TYPE = "a-f-G-U-C";
+    private static final String HOW = "m-g";
+
+    /**
+     * Told about each fix on the playing thread as it is played
+     */
+    public interface Listener {
+        /**
+         * @param fix the record, with speed and course filled in; reused
+         *            for the next fix
+         * @param timeMillis time of the event sent for it
+         */
+        void onFix(TrackRecord fix, long timeMillis);
+    }
+
+    /**
+     * Identity and last fix of one replayed entity
+     */
+    private static final class Track {
+        final byte[] names;
+        final int callsignStart;
+        final CotEncoder writer;
+        long time = Long.MIN_VALUE;
+        double lat;
+        double lon;
+        double speed;
+        double course;
+
+        Track(String uid, String callsign, CotEncoder writer) {
+            byte[] uidBytes = writer.name(uid);
+            byte[] callsignBytes = writer.name(callsign);
+            names = new byte[uidBytes.length + callsignBytes.length];
+            System.arraycopy(uidBytes, 0, names, 0, uidBytes.length);
+            System.arraycopy(callsignBytes, 0, names, uidBytes.length, callsignBytes.length);
+            callsignStart = uidBytes.length;
+            this.writer = writer;
+        }
+    }
+
+    private final ReplayFile file;
+    private final CotOutput output;
+    private final long staleMillis;
+    private final SendStats stats = new SendStats();
+    private final SendStats.Tally tally = new SendStats.Tally();
+    private final TrackRecord record = new TrackRecord();
+    private final Map<String, CotEncoder> writers = new HashMap<>();
+    private final Map<String, Track> tracks = new HashMap<>();
+
+    private String uid = DEFAULT_UID;
+    private String callsign = DEFAULT_CALLSIGN;
+    private String type = DEFAULT_TYPE;
+    private CotEncoder.Encoding encoding = CotEncoder.Encoding.XML;
+    private Track single;
+    private Listener listener;
+    private boolean shiftSet;
+    private long shiftMillis;
+    private volatile boolean stopped;
+
+    private final ByteBuffer[] slots = new ByteBuffer[SwarmSimulator.BATCH];
+    private final int[] slotBytes = new int[SwarmSimulator.BATCH];
+
+    /**
+     * @param staleMillis how long after its time each event goes stale
+     */
+    public ReplayEngine(ReplayFile file, CotOutput output, long staleMillis) {
+        if (staleMillis < 0) {
+            throw new IllegalArgumentException("stale time must be >= 0");
+        }
+        this.file = file;
+        this.output = output;
+        this.staleMillis = staleMillis;
+    }
+
+    /**
+     * Identity of the track in a GPX or NMEA log; CoT logs carry their own
+     */
+    public synchronized void setIdentity(String uid, String callsign, String type) {
+        this.uid = uid;
+        this.callsign = callsign;
+        this.type = type;
+        single = null;
+    }
+
+    /**
+     * Wire format of the events, XML unless set
+     */
+    public synchronized void setEncoding(CotEncoder.Encoding encoding) {
+        this.encoding = encoding;
+        writers.clear();
+        forgetTracks();
+    }
+
+    public synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Send each fix at its recorded time plus a shift, instead of starting
+     * at the clock's time; 0 replays at the recorded times
+     */
+    public synchronized void setTimeShift(long millis) {
+        shiftSet = true;
+        shiftMillis = millis;
+    }
+
+    /**
+     * Play on from the first fix at or after a recorded time
+     */
+    public synchronized void seek(long recordedMillis) throws IOException {
+        file.seek(recordedMillis);
+        forgetTracks();
+    }
+
+    public synchronized void rewind() {
+        file.rewind();
+        forgetTracks();
+    }
+
+    public SendStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Make {@link #play} return after the fix it is on; may be called from
+     * any thread
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Send fixes from the current position until the end of the file or
+     * {@link #stop}, following a clock
+     * @return number of fixes played
+     * @throws IOException if the file cannot be read
+     * @throws InterruptedException if the thread is interrupted
+     */
+    public synchronized long play(SimClock clock) throws IOException, InterruptedException {
+        stopped = false;
+        long played = 0;
+        int batched = 0;
+        long shift = shiftMillis;
+        boolean first = true;
+        tally.clear();
+        try {
+            while (!stopped && file.next(record)) {
+                if (first && !shiftSet) {
+                    shift = clock.now() - record.time;
+                }
+                first = false;
+                long due = record.time + shift;
+                if (due > clock.now()) {
+                    // send what is ready before waiting for the next one
+                    if (batched > 0) {
+                        flush(batched, clock.now());
+                        batched = 0;
+                    }
+                    clock.sleepUntil(due);
+                }
+                Track track = trackFor(record);
+                fill(track, record);
+                ByteBuffer slot = slot(batched, track);
+                slot.clear();
+                slotBytes[batched] = track.writer.write(slot, track.names, 0, track.callsignStart,
+                        track.names.length, due, record.lat, record.lon, record.speed, record.course);
+                slot.flip();
+                tally.lag(Math.max(0, clock.now() - due));
+                if (++batched == SwarmSimulator.BATCH) {
+                    flush(batched, clock.now());
+                    batched = 0;
+                }
+                played++;
+                if (listener != null) {
+                    listener.onFix(record, due);
+                }
+            }
+        } finally {
+            if (batched > 0) {
+                flush(batched, clock.now());
+            }
+        }
+        return played;
+    }
+
+    private Track trackFor(TrackRecord r) {
+        if (r.uid == null) {
+            if (single == null) {
+                single = new Track(uid, callsign, writerFor(type));
+            }
+            return single;
+        }
+        Track track = tracks.get(r.uid);
+        if (track == null) {
+            track = new Track(r.uid, r.callsign != null ? r.callsign : r.uid,
+                    writerFor(r.type != null ? r.type : DEFAULT_TYPE));
+            tracks.put(r.uid, track);
+        }
+        return track;
+    }
+
+    private CotEncoder writerFor(String type) {
+        CotEncoder writer = writers.get(type);
+        if (writer == null) {
+            writer = CotEncoder.create(encoding, type, HOW, staleMillis);
+            writers.put(type, writer);
+        }
+        return writer;
+    }
+
+    /**
+     * Fill in missing speed and course from the previous fix, and keep
+     * this one for the next
+     */
+    private static void fill(Track track, TrackRecord r) {
+        boolean noSpeed = Double.isNaN(r.speed) || Double.isInfinite(r.speed);
+        boolean noCourse = Double.isNaN(r.course) || Double.isInfinite(r.course);
+        if (noSpeed || noCourse) {
+            double speed = track.speed;
+            double course = track.course;
+            if (track.time != Long.MIN_VALUE && r.time > track.time) {
+                double meters = GeoMath.distanceMeters(track.lat, track.lon, r.lat, r.lon);
+                speed = meters * 1000 / (r.time - track.time);
+                if (meters > 0) {
+                    course = GeoMath.bearingDegrees(track.lat, track.lon, r.lat, r.lon);
+                }
+            }
+            if (noSpeed) {
+                r.speed = speed;
+            }
+            if (noCourse) {
+                r.course = course;
+            }
+        }
+        track.time = r.time;
+        track.lat = r.lat;
+        track.lon = r.lon;
+        track.speed = r.speed;
+        track.course = r.course;
+    }
+
+    private ByteBuffer slot(int k, Track track) {
+        int size = track.writer.getMaxEventBytes(track.names.length);
+        if (slots[k] == null || slots[k].capacity() < size) {
+            slots[k] = ByteBuffer.allocate(size);
+        }
+        return slots[k];
+    }
+
+    private void flush(int batched, long nowMillis) {
+        int sent;
+        try {
+            sent = output.send(slots, batched);
+        } catch (IOException e) {
+            sent = 0;
+        }
+        for (int k = 0; k < sent; k++) {
+            tally.bytes += slotBytes[k];
+        }
+        tally.sent += sent;
+        tally.failed += batched - sent;
+        stats.add(tally, nowMillis);
+        tally.clear();
+    }
+
+    private void forgetTracks() {
+        tracks.clear();
+        single = null;
+    }
+}
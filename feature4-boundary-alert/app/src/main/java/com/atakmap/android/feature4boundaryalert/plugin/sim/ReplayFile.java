@@ -0,0 +1,376 @@
+package com.atakmap.android.feature4boundaryalert.plugin.sim;
+
+import com.atakmap.android.feature4boundaryalert.plugin.cot.Ascii;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * A recorded track log (GPX, NMEA 0183 or captured CoT XML) read in place
+ * through memory mapping, so a multi-gigabyte capture never enters the
+ * heap.
+ *
+ * The file is mapped in windows, each overlapping the next by the longest
+ * allowed record, so every record lies whole inside the window where it
+ * starts; only the two most recently used windows stay mapped. Records
+ * are read in order with {@link #next}.
+ *
+ * Records must be in time order, as recorders write them. Every record
+ * starts with a fixed pattern, so {@link #seek} bisects the file by byte
+ * offset, finding the next record after each midpoint, in O(log n) probes
+ * without reading the file first. Probed and played records are kept in
+ * a sparse index of (offset, time) pairs, at most one per 64 KB of file,
+ * which narrows later seeks.
+ *
+ * Not thread safe.
+ */
+public final class ReplayFile implements Closeable {
+
+    public enum Format {
+        GPX, NMEA, COT;
+
+        /**
+         * Guess from the file name: .gpx, .nmea/.nma/.log/.txt, and .cot/.xml
+         */
+        public static Format forFile(File file) {
+            String name = file.getName().toLowerCase(Locale.US);
+            if (name.endsWith(".gpx")) {
+                return GPX;
+            }
+            if (name.endsWith(".cot") || name.endsWith(".xml")) {
+                return COT;
+            }
+            if (name.endsWith(".nmea") || name.endsWith(".nma") || name.endsWith(".log") || name.endsWith(".txt")) {
+                return NMEA;
+            }
+            throw new IllegalArgumentException("unknown track log type: " + file.getName());
+        }
+    }
+
+    /** bytes mapped at a time; small enough for a 32-bit address space */
+    public static final long DEFAULT_WINDOW = 256L << 20;
+    /** longest record, and the overlap between windows */
+    public static final int MAX_RECORD = 1 << 20;
+
+    // index entries closer than this are not worth keeping
+    private static final long INDEX_SPACING = 64 << 10;
+    // below this a seek reads records in order instead of bisecting
+    private static final long SCAN_BYTES = 4 << 10;
+
+    private final File file;
+    private final Format format;
+    private final RecordFormat records;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final long size;
+    private final long window;
+    private final int overlap;
+
+    // two mapped windows, the older one replaced first
+    private final ByteBuffer[] mapped = new ByteBuffer[2];
+    private final long[] mappedStart = {-1, -1};
+    private int older;
+    private long mapCount;
+    // start of the window found by the last call to window()
+    private long base;
+
+    // sparse index, sorted by offset; times never decrease
+    private long[] indexOffset = new long[64];
+    private long[] indexTime = new long[64];
+    private int indexSize;
+
+    private long position;
+    // set by findRecord
+    private long foundTime;
+    private long foundEnd;
+    private long probes;
+
+    public ReplayFile(File file) throws IOException {
+        this(file, Format.forFile(file), DEFAULT_WINDOW);
+    }
+
+    /**
+     * @param windowBytes bytes mapped at a time
+     */
+    public ReplayFile(File file, Format format, long windowBytes) throws IOException {
+        if (windowBytes < 1 || windowBytes > Integer.MAX_VALUE - MAX_RECORD) {
+            throw new IllegalArgumentException("bad window size " + windowBytes);
+        }
+        this.file = file;
+        this.format = format;
+        this.records = RecordFormat.forFormat(format);
+        this.window = windowBytes;
+        this.overlap = (int) Math.min(MAX_RECORD, windowBytes);
+        raf = new RandomAccessFile(file, "r");
+        try {
+            channel = raf.getChannel();
+            size = channel.size();
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return byte offset the next record is looked for from
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return windows mapped so far
+     */
+    public long getMapCount() {
+        return mapCount;
+    }
+
+    /**
+     * @return records looked at while seeking, over all seeks
+     */
+    public long getProbeCount() {
+        return probes;
+    }
+
+    public int getIndexSize() {
+        return indexSize;
+    }
+
+    /**
+     * Go back to the first record
+     */
+    public void rewind() {
+        position = 0;
+    }
+
+    /**
+     * Read the next usable fix; records that are not are passed over
+     * @return false at the end of the file
+     * @throws IOException on a read error or a record longer than
+     *                     {@link #MAX_RECORD}
+     */
+    public boolean next(TrackRecord out) throws IOException {
+        while (position < size) {
+            long start = findStart(position, size);
+            if (start < 0) {
+                position = size;
+                return false;
+            }
+            ByteBuffer b = window(start);
+            int s = (int) (start - base);
+            int e = recordEnd(b, s, start);
+            if (e < 0) {
+                position = size;
+                return false;
+            }
+            position = base + e;
+            out.clear();
+            if (records.parse(b, s, e, out)) {
+                out.offset = start;
+                remember(start, out.time);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Move to the first record at or after a time
+     * @return the offset of that record, or the file size if there is none
+     */
+    public long seek(long timeMillis) throws IOException {
+        // everything before lo is earlier than the target; records from hi on are not
+        long lo = 0;
+        long hi = size;
+        int k = lastIndexBefore(timeMillis);
+        if (k >= 0) {
+            lo = indexOffset[k];
+        }
+        if (k + 1 < indexSize) {
+            hi = indexOffset[k + 1];
+        }
+        while (hi - lo > SCAN_BYTES) {
+            long mid = lo + (hi - lo) / 2;
+            long r = findRecord(mid, hi);
+            if (r < 0) {
+                hi = mid;
+            } else if (foundTime < timeMillis) {
+                lo = foundEnd;
+            } else {
+                hi = r;
+            }
+        }
+        long r = findRecord(lo, size);
+        while (r >= 0 && r < hi && foundTime < timeMillis) {
+            r = findRecord(foundEnd, size);
+        }
+        position = r < 0 ? size : r;
+        return position;
+    }
+
+    /**
+     * First record starting in [from, limit) that has a time; sets
+     * foundTime and foundEnd
+     * @return its offset, or -1
+     */
+    private long findRecord(long from, long limit) throws IOException {
+        while (from < limit) {
+            long start = findStart(from, limit);
+            if (start < 0) {
+                return -1;
+            }
+            ByteBuffer b = window(start);
+            int s = (int) (start - base);
+            int e = recordEnd(b, s, start);
+            if (e < 0) {
+                return -1;
+            }
+            probes++;
+            long time = records.time(b, s, e);
+            if (time != Ascii.NO_TIME) {
+                foundTime = time;
+                foundEnd = base + e;
+                remember(start, time);
+                return start;
+            }
+            from = base + e;
+        }
+        return -1;
+    }
+
+    /**
+     * Offset of the next record start in [from, limit), or -1
+     */
+    private long findStart(long from, long limit) throws IOException {
+        byte[] pattern = records.start();
+        byte first = pattern[0];
+        long pos = from;
+        while (pos < limit) {
+            ByteBuffer b = window(pos);
+            long stop = Math.min(limit, base + window);
+            int end = (int) (stop - base);
+            for (int i = (int) (pos - base); i < end; i++) {
+                if (b.get(i) == first && Ascii.matches(b, i, pattern) && records.isStart(b, i, b.limit())) {
+                    return base + i;
+                }
+            }
+            pos = stop;
+        }
+        return -1;
+    }
+
+    /**
+     * End of the record starting at s in b, or -1 if it is cut off by the
+     * end of the file
+     */
+    private int recordEnd(ByteBuffer b, int s, long start) throws IOException {
+        int limit = (int) Math.min(b.limit(), (long) s + overlap);
+        int e = records.end(b, s, limit);
+        if (e >= 0) {
+            return e;
+        }
+        if (base + b.limit() < size) {
+            throw new IOException("record longer than " + overlap + " bytes at offset " + start + " in " + file);
+        }
+        return records.endsAtEndOfFile() && limit > s ? limit : -1;
+    }
+
+    /**
+     * Mapped window holding pos, with at least the overlap after it unless
+     * the file ends first; sets base
+     */
+    private ByteBuffer window(long pos) throws IOException {
+        long start = pos / window * window;
+        for (int k = 0; k < mapped.length; k++) {
+            if (mappedStart[k] == start) {
+                older = 1 - k;
+                base = start;
+                return mapped[k];
+            }
+        }
+        if (channel == null || !channel.isOpen()) {
+            throw new IOException("replay file is closed");
+        }
+        long length = Math.min(size - start, window + overlap);
+        int k = older;
+        mapped[k] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        mappedStart[k] = start;
+        older = 1 - k;
+        mapCount++;
+        base = start;
+        return mapped[k];
+    }
+
+    /**
+     * Index of the last entry earlier than the time, or -1
+     */
+    private int lastIndexBefore(long timeMillis) {
+        int lo = 0;
+        int hi = indexSize;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (indexTime[mid] < timeMillis) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo - 1;
+    }
+
+    /**
+     * Add a record to the index unless one is already close by
+     */
+    private void remember(long offset, long time) {
+        int lo = 0;
+        int hi = indexSize;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (indexOffset[mid] < offset) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        if ((lo > 0 && offset - indexOffset[lo - 1] < INDEX_SPACING)
+                || (lo < indexSize && indexOffset[lo] - offset < INDEX_SPACING)) {
+            return;
+        }
+        // an out of order record must not break the binary search on time
+        if ((lo > 0 && time < indexTime[lo - 1]) || (lo < indexSize && time > indexTime[lo])) {
+            return;
+        }
+        if (indexSize == indexOffset.length) {
+            indexOffset = Arrays.copyOf(indexOffset, 2 * indexSize);
+            indexTime = Arrays.copyOf(indexTime, 2 * indexSize);
+        }
+        System.arraycopy(indexOffset, lo, indexOffset, lo + 1, indexSize - lo);
+        System.arraycopy(indexTime, lo, indexTime, lo + 1, indexSize - lo);
+        indexOffset[lo] = offset;
+        indexTime[lo] = time;
+        indexSize++;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mapped[0] = null;
+        mapped[1] = null;
+        mappedStart[0] = -1;
+        mappedStart[1] = -1;
+        raf.close();
+    }
+}
@@ -0,0 +1,97 @@
+package com.atakmap.android.feature4boundaryalert.plugin.sim;
+
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.GeoMath;
+
+/**
+ * Constant speed along a list of waypoints, each leg a great circle.
+ *
+ * Leg lengths and courses are worked out once; a sample finds its leg by
+ * binary search over the distances. An open route stops at the last
+ * waypoint, a looped one returns to the first and starts again.
+ */
+public final class RouteMotion implements MotionModel {
+
+    private final double[] waypoints;
+    private final double speed;
+    private final boolean loop;
+    // distance from the start to the start of each leg, then the total
+    private final double[] legStart;
+    private final double[] legCourse;
+    private final double length;
+
+    /**
+     * @param waypoints packed {lat, lon} pairs, at least two points
+     * @param speedMps meters per second, > 0
+     * @param loop whether to go back to the first waypoint and repeat
+     */
+    public RouteMotion(double[] waypoints, double speedMps, boolean loop) {
+        if (waypoints.length < 4 || waypoints.length % 2 != 0) {
+            throw new IllegalArgumentException("a route needs at least two {lat, lon} waypoints");
+        }
+        if (!(speedMps > 0) || Double.isInfinite(speedMps)) {
+            throw new IllegalArgumentException("speed must be > 0");
+        }
+        this.waypoints = waypoints.clone();
+        this.speed = speedMps;
+        this.loop = loop;
+        int points = waypoints.length / 2;
+        int legs = loop ? points : points - 1;
+        legStart = new double[legs + 1];
+        legCourse = new double[legs];
+        for (int k = 0; k < legs; k++) {
+            int a = 2 * k;
+            int b = 2 * ((k + 1) % points);
+            legCourse[k] = GeoMath.bearingDegrees(waypoints[a], waypoints[a + 1], waypoints[b], waypoints[b + 1]);
+            legStart[k + 1] = legStart[k]
+                    + GeoMath.distanceMeters(waypoints[a], waypoints[a + 1], waypoints[b], waypoints[b + 1]);
+        }
+        length = legStart[legs];
+    }
+
+    /**
+     * @return meters from the first waypoint to the last, or back to the
+     *         first when looped
+     */
+    public double getLengthMeters() {
+        return length;
+    }
+
+    @Override
+    public void sample(double seconds, MotionState out) {
+        double d = speed * seconds;
+        out.speed = speed;
+        if (loop && length > 0) {
+            d %= length;
+            if (d < 0) {
+                d += length;
+            }
+        } else if (d >= length) {
+            int last = legCourse.length - 1;
+            out.lat = waypoints[waypoints.length - 2];
+            out.lon = waypoints[waypoints.length - 1];
+            out.course = legCourse[last];
+            out.speed = 0;
+            return;
+        } else if (d < 0) {
+            d = 0;
+        }
+        // last leg starting at or before d; empty legs are passed over
+        int lo = 0;
+        int hi = legCourse.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (legStart[mid] <= d) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        out.moveTo(waypoints[2 * lo], waypoints[2 * lo + 1], legCourse[lo], d - legStart[lo]);
+        out.course = legCourse[lo];
+    }
+
+    @Override
+    public double getPeriodSeconds() {
+        return loop ? length / speed : 0;
+    }
+}
@@ -0,0 +1,175 @@
+package com.atakmap.android.feature4boundaryalert.plugin.sim;
+
+import java.util.Locale;
+
+/**
+ * Throughput and timing of the events a simulator sends.
+ *
+ * Lag is how long after its due time an event went out; jitter is the
+ * standard deviation of the lag. Schedule lag is how long after its planned
+ * time a tick ran, and a missed tick is a planned one that never ran
+ * because an earlier one was too late; both come from the thread driving
+ * the ticks and stay 0 when ticks are called directly. The sending thread
+ * adds one tick's totals at a time, so the lock is taken once per tick
+ * rather than per event.
+ */
+public final class SendStats {
+
+    private long startMillis = -1;
+    private long lastMillis;
+    private long sent;
+    private long bytes;
+    private long throttled;
+    private long failed;
+    private long skipped;
+    private double lagSum;
+    private double lagSquares;
+    private long lagMax;
+    private long ticks;
+    private long missedTicks;
+    private double scheduleLagSum;
+    private long scheduleLagMax;
+
+    /**
+     * Totals at one moment
+     */
+    public static final class Snapshot {
+        /** events handed to the output */
+        public final long sent;
+        public final long bytes;
+        /** ticks cut short by the rate limit */
+        public final long throttled;
+        /** events the output could not send */
+        public final long failed;
+        /** updates dropped because an entity fell a whole period behind */
+        public final long skipped;
+        public final double eventsPerSecond;
+        public final double meanLagMillis;
+        public final long maxLagMillis;
+        public final double jitterMillis;
+        public final long ticks;
+        /** planned ticks that never ran because an earlier one was late */
+        public final long missedTicks;
+        public final double meanScheduleLagMillis;
+        public final long maxScheduleLagMillis;
+
+        Snapshot(long sent, long bytes, long throttled, long failed, long skipped, double eventsPerSecond,
+                 double meanLagMillis, long maxLagMillis, double jitterMillis, long ticks, long missedTicks,
+                 double meanScheduleLagMillis, long maxScheduleLagMillis) {
+            this.sent = sent;
+            this.bytes = bytes;
+            this.throttled = throttled;
+            this.failed = failed;
+            this.skipped = skipped;
+            this.eventsPerSecond = eventsPerSecond;
+            this.meanLagMillis = meanLagMillis;
+            this.maxLagMillis = maxLagMillis;
+            this.jitterMillis = jitterMillis;
+            this.ticks = ticks;
+            this.missedTicks = missedTicks;
+            this.meanScheduleLagMillis = meanScheduleLagMillis;
+            this.maxScheduleLagMillis = maxScheduleLagMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "sent %d (%.0f/s, %d bytes), lag mean %.1f ms max %d ms, jitter %.1f ms, "
+                            + "throttled %d, failed %d, skipped %d, "
+                            + "ticks %d (missed %d, late mean %.1f ms max %d ms)",
+                    sent, eventsPerSecond, bytes, meanLagMillis, maxLagMillis, jitterMillis,
+                    throttled, failed, skipped,
+                    ticks, missedTicks, meanScheduleLagMillis, maxScheduleLagMillis);
+        }
+    }
+
+    /**
+     * Per tick totals, filled without locking by the sending thread
+     */
+    static final class Tally {
+        int sent;
+        long bytes;
+        int throttled;
+        int failed;
+        int skipped;
+        double lagSum;
+        double lagSquares;
+        long lagMax;
+        long lateMillis;
+        long missedTicks;
+
+        void tick(long lateMillis, long missedTicks) {
+            this.lateMillis = lateMillis;
+            this.missedTicks = missedTicks;
+        }
+
+        void lag(long lagMillis) {
+            lagSum += lagMillis;
+            lagSquares += (double) lagMillis * lagMillis;
+            if (lagMillis > lagMax) {
+                lagMax = lagMillis;
+            }
+        }
+
+        void clear() {
+            sent = 0;
+            bytes = 0;
+            throttled = 0;
+            failed = 0;
+            skipped = 0;
+            lagSum = 0;
+            lagSquares = 0;
+            lagMax = 0;
+            lateMillis = 0;
+            missedTicks = 0;
+        }
+    }
+
+    synchronized void add(Tally tally, long nowMillis) {
+        if (startMillis < 0) {
+            startMillis = nowMillis;
+        }
+        lastMillis = nowMillis;
+        sent += tally.sent;
+        bytes += tally.bytes;
+        throttled += tally.throttled;
+        failed += tally.failed;
+        skipped += tally.skipped;
+        lagSum += tally.lagSum;
+        lagSquares += tally.lagSquares;
+        lagMax = Math.max(lagMax, tally.lagMax);
+        ticks++;
+        missedTicks += tally.missedTicks;
+        scheduleLagSum += tally.lateMillis;
+        scheduleLagMax = Math.max(scheduleLagMax, tally.lateMillis);
+    }
+
+    /**
+     * Start counting again
+     */
+    public synchronized void reset() {
+        startMillis = -1;
+        lastMillis = 0;
+        sent = 0;
+        bytes = 0;
+        throttled = 0;
+        failed = 0;
+        skipped = 0;
+        lagSum = 0;
+        lagSquares = 0;
+        lagMax = 0;
+        ticks = 0;
+        missedTicks = 0;
+        scheduleLagSum = 0;
+        scheduleLagMax = 0;
+    }
+
+    public synchronized Snapshot snapshot() {
+        long elapsed = startMillis < 0 ? 0 : lastMillis - startMillis;
+        double mean = sent > 0 ? lagSum / sent : 0;
+        double variance = sent > 0 ? Math.max(0, lagSquares / sent - mean * mean) : 0;
+        return new Snapshot(sent, bytes, throttled, failed, skipped,
+                elapsed > 0 ? sent * 1000.0 / elapsed : 0, mean, lagMax, Math.sqrt(variance),
+                ticks, missedTicks, ticks > 0 ? scheduleLagSum / ticks : 0, scheduleLagMax);
+    }
+}
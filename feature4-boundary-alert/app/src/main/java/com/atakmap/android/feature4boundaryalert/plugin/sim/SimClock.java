@@ -0,0 +1,140 @@
+package com.atakmap.android.feature4boundaryalert.plugin.sim;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time as seen by the simulator, in epoch milliseconds.
+ *
+ * The simulator reads the clock and waits on it instead of using the wall
+ * clock directly, so the same scenario can run live, faster than live, or
+ * as fast as the CPU allows. An as-fast-as-possible clock never sleeps;
+ * its time moves only when something waits on it, straight to the time
+ * waited for. A run from a fixed start time on such a clock, with seeded
+ * motion, produces the same events byte for byte every time.
+ */
+public abstract class SimClock {
+
+    /**
+     * @return the current simulated time
+     */
+    public abstract long now();
+
+    /**
+     * Wait until the simulated time is at least the target; returns at
+     * once if it already is
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    public abstract void sleepUntil(long millis) throws InterruptedException;
+
+    /**
+     * @return simulated seconds per wall clock second, or 0 when time does
+     *         not follow the wall clock at all
+     */
+    public abstract double getSpeed();
+
+    /**
+     * The wall clock
+     */
+    public static SimClock realTime() {
+        return new Wall();
+    }
+
+    /**
+     * Time that starts at a given instant and runs a number of times
+     * faster than the wall clock
+     * @param startMillis simulated time now
+     * @param speed simulated seconds per wall clock second, > 0
+     */
+    public static SimClock accelerated(long startMillis, double speed) {
+        if (!(speed > 0) || Double.isInfinite(speed)) {
+            throw new IllegalArgumentException("speed must be > 0");
+        }
+        return new Scaled(startMillis, speed);
+    }
+
+    /**
+     * Time that stands still until waited on, then jumps
+     * @param startMillis simulated time now
+     */
+    public static SimClock asFastAsPossible(long startMillis) {
+        return new Virtual(startMillis);
+    }
+
+    private static final class Wall extends SimClock {
+        @Override
+        public long now() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public void sleepUntil(long millis) throws InterruptedException {
+            // short naps so a wall clock change is noticed
+            for (long left = millis - now(); left > 0; left = millis - now()) {
+                Thread.sleep(Math.min(left, 1000));
+            }
+        }
+
+        @Override
+        public double getSpeed() {
+            return 1;
+        }
+    }
+
+    private static final class Scaled extends SimClock {
+        private final long startMillis;
+        private final long startNanos = System.nanoTime();
+        private final double speed;
+
+        Scaled(long startMillis, double speed) {
+            this.startMillis = startMillis;
+            this.speed = speed;
+        }
+
+        @Override
+        public long now() {
+            return startMillis + (long) ((System.nanoTime() - startNanos) * speed / 1e6);
+        }
+
+        @Override
+        public void sleepUntil(long millis) throws InterruptedException {
+            // wall time at which the simulated time reaches the target, rounded up
+            long wake = startNanos + (long) Math.ceil((millis - startMillis) * 1e6 / speed);
+            while (now() < millis) {
+                TimeUnit.NANOSECONDS.sleep(Math.max(wake - System.nanoTime(), 1000));
+            }
+        }
+
+        @Override
+        public double getSpeed() {
+            return speed;
+        }
+    }
+
+    private static final class Virtual extends SimClock {
+        private volatile long now;
+
+        Virtual(long startMillis) {
+            now = startMillis;
+        }
+
+        @Override
+        public long now() {
+            return now;
+        }
+
+        @Override
+        public synchronized void sleepUntil(long millis) throws InterruptedException {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (millis > now) {
+                now = millis;
+            }
+        }
+
+        @Override
+        public double getSpeed() {
+            return 0;
+        }
+    }
+}
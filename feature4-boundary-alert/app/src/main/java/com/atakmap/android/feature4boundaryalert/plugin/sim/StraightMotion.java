@@ -0,0 +1,40 @@
+package com.atakmap.android.feature4boundaryalert.plugin.sim;
+
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.GeoMath;
+
+/**
+ * Constant speed along a great circle, without end
+ */
+public final class StraightMotion implements MotionModel {
+
+    private final double startLat;
+    private final double startLon;
+    private final double heading;
+    private final double speed;
+
+    /**
+     * @param headingDegrees initial course from true north
+     * @param speedMps meters per second
+     */
+    public StraightMotion(double startLat, double startLon, double headingDegrees, double speedMps) {
+        if (!(speedMps >= 0) || Double.isInfinite(speedMps)) {
+            throw new IllegalArgumentException("speed must be >= 0");
+        }
+        this.startLat = startLat;
+        this.startLon = startLon;
+        this.heading = GeoMath.normalizeDegrees(headingDegrees);
+        this.speed = speedMps;
+    }
+
+    @Override
+    public void sample(double seconds, MotionState out) {
+        out.moveTo(startLat, startLon, heading, speed * seconds);
+        out.course = heading;
+        out.speed = speed;
+    }
+
+    @Override
+    public double getPeriodSeconds() {
+        return 0;
+    }
+}
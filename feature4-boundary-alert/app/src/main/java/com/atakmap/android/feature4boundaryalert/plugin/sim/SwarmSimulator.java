@@ -0,0 +1,436 @@
+package com.atakmap.android.feature4boundaryalert.plugin.sim;
+
+import com.atakmap.android.feature4boundaryalert.plugin.cot.CotEncoder;
+import com.atakmap.android.feature4boundaryalert.plugin.cot.CotOutput;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Drives many simulated entities for load testing.
+ *
+ * Entity state lives in parallel primitive arrays indexed by entity, with
+ * every uid and callsign packed into one byte array, so ten thousand
+ * entities are a few dozen arrays rather than ten thousand objects. A
+ * single scheduler thread calls {@link #tick}. Entities wait on a timing
+ * wheel with 10 ms slots for their next update, at their own rate from 0.1
+ * to 50 Hz, so a tick only touches the entities that are due, however
+ * large the swarm. Each due entity is moved by its {@link MotionModel},
+ * encoded into a reusable buffer and sent in batches. Entities on the
+ * same repeating pattern can share one {@link TrajectoryTable}, each with
+ * its own time offset. A token bucket caps the output rate. When it runs
+ * dry the tick ends, and the entities still due go first on the next one,
+ * so every entity gets its turn; held back events show up as lag in the
+ * {@link SendStats}.
+ */
+public final class SwarmSimulator {
+
+    /** events encoded before the batch is handed to the output */
+    static final int BATCH = 256;
+    public static final double MIN_RATE_HZ = 0.1;
+    public static final double MAX_RATE_HZ = 50;
+    /** resolution of the schedule */
+    public static final long WHEEL_TICK_MILLIS = 10;
+    // one turn covers the longest period, so a slot holds only entities due on this turn
+    private static final int WHEEL_SLOTS = 1024;
+    // spreads first updates over each entity's period
+    private static final double GOLDEN = 0.6180339887498949;
+
+    private final CotEncoder writer;
+    private final CotOutput output;
+    private final SendStats stats = new SendStats();
+    private final SendStats.Tally tally = new SendStats.Tally();
+    private RateLimiter limiter = RateLimiter.unlimited();
+
+    // identity: uid at names[uidStart[i]..callsignStart[i]), callsign up to nameEnd[i]
+    private byte[] names = new byte[1024];
+    private int namesLength;
+    private int[] uidStart;
+    private int[] callsignStart;
+    private int[] nameEnd;
+    private int longestName;
+
+    // motion: models may be shared, the offset is the entity's own
+    private MotionModel[] models;
+    private double[] timeOffset;
+    private final MotionState state = new MotionState();
+
+    // schedule
+    private final TimingWheel wheel = new TimingWheel(WHEEL_SLOTS, WHEEL_TICK_MILLIS);
+    // in microseconds, so odd rates such as 30 Hz keep their average
+    private long[] periodMicros;
+    private long[] nextDue;
+    // due entities; the first pendingCount were held back by the rate limit
+    private int[] due;
+    private int pendingCount;
+    // entities below this index have been put on the wheel
+    private int scheduledCount;
+
+    // last sent state
+    private double[] lat;
+    private double[] lon;
+    private double[] speed;
+    private double[] course;
+
+    private int count;
+    private long startMillis;
+    private boolean started;
+
+    private ByteBuffer[] slots = new ByteBuffer[0];
+    private final int[] slotBytes = new int[BATCH];
+    private ExecutorService exec;
+    private volatile RuntimeException lastError;
+
+    /**
+     * @param writer encodes every entity's events, as XML or TAK Protocol;
+     *               its uid and callsign are not used
+     * @param output receives the events in batches
+     */
+    public SwarmSimulator(CotEncoder writer, CotOutput output) {
+        this(writer, output, 16);
+    }
+
+    public SwarmSimulator(CotEncoder writer, CotOutput output, int capacity) {
+        this.writer = writer;
+        this.output = output;
+        allocate(Math.max(capacity, 1));
+    }
+
+    /**
+     * Cap the events sent per second across all entities
+     * @param perSecond 0 for no limit
+     */
+    public synchronized void setMaxRate(double perSecond) {
+        if (perSecond < 0 || Double.isNaN(perSecond)) {
+            throw new IllegalArgumentException("rate must be >= 0");
+        }
+        // allow a tenth of a second's worth at once
+        limiter = perSecond == 0 ? RateLimiter.unlimited() : new RateLimiter(perSecond, Math.max(1, perSecond / 10));
+    }
+
+    /**
+     * Add an entity going round a circle, starting north of the center
+     * @param lapSeconds time for one lap, negative to go anticlockwise
+     * @param rateHz updates per second
+     * @return the entity's index
+     */
+    public int addCircle(String uid, String callsign, double centerLat, double centerLon,
+                         double radiusMeters, double lapSeconds, double rateHz) {
+        return add(uid, callsign, new CircleMotion(centerLat, centerLon, radiusMeters, lapSeconds, 0), rateHz);
+    }
+
+    /**
+     * Add an entity moving on a constant great circle course
+     * @param headingDegrees initial course from true north
+     * @param speedMps meters per second
+     * @return the entity's index
+     */
+    public int addStraight(String uid, String callsign, double startLat, double startLon,
+                           double headingDegrees, double speedMps, double rateHz) {
+        return add(uid, callsign, new StraightMotion(startLat, startLon, headingDegrees, speedMps), rateHz);
+    }
+
+    /**
+     * Add an entity moved by a model
+     * @param model may be shared with other entities unless it keeps state
+     *              between samples
+     * @param rateHz updates per second
+     * @return the entity's index
+     */
+    public synchronized int add(String uid, String callsign, MotionModel model, double rateHz) {
+        if (model == null) {
+            throw new IllegalArgumentException("no motion model");
+        }
+        if (!(rateHz >= MIN_RATE_HZ && rateHz <= MAX_RATE_HZ)) {
+            throw new IllegalArgumentException("rate must be " + MIN_RATE_HZ + " to " + MAX_RATE_HZ + " Hz");
+        }
+        if (count == models.length) {
+            allocate(2 * count);
+        }
+        byte[] uidBytes = writer.name(uid);
+        byte[] callsignBytes = writer.name(callsign);
+        int need = namesLength + uidBytes.length + callsignBytes.length;
+        if (need > names.length) {
+            names = Arrays.copyOf(names, Math.max(need, 2 * names.length));
+        }
+        int i = count++;
+        uidStart[i] = namesLength;
+        System.arraycopy(uidBytes, 0, names, namesLength, uidBytes.length);
+        namesLength += uidBytes.length;
+        callsignStart[i] = namesLength;
+        System.arraycopy(callsignBytes, 0, names, namesLength, callsignBytes.length);
+        namesLength += callsignBytes.length;
+        nameEnd[i] = namesLength;
+        longestName = Math.max(longestName, uidBytes.length + callsignBytes.length);
+
+        models[i] = model;
+        timeOffset[i] = 0;
+        model.sample(0, state);
+        setState(i);
+        periodMicros[i] = Math.round(1e6 / rateHz);
+        return i;
+    }
+
+    /**
+     * Start an entity part way along its path, to spread out entities that
+     * share a model
+     */
+    public synchronized void setTimeOffset(int i, double seconds) {
+        checkIndex(i);
+        timeOffset[i] = seconds;
+        models[i].sample(seconds, state);
+        setState(i);
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    public synchronized double getLatitude(int i) {
+        checkIndex(i);
+        return lat[i];
+    }
+
+    public synchronized double getLongitude(int i) {
+        checkIndex(i);
+        return lon[i];
+    }
+
+    public SendStats getStats() {
+        return stats;
+    }
+
+    /**
+     * @return the last exception thrown by a scheduled tick, or null
+     */
+    public RuntimeException getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Tick in real time on a thread of its own until {@link #stop}
+     * @param tickMillis how often due entities are looked for; the finest
+     *                   update period that can be honoured
+     */
+    public void start(long tickMillis) {
+        start(SimClock.realTime(), tickMillis);
+    }
+
+    /**
+     * Tick on a thread of its own, following a clock, until {@link #stop}
+     */
+    public synchronized void start(final SimClock clock, final long tickMillis) {
+        checkTick(tickMillis);
+        if (exec != null) {
+            return;
+        }
+        exec = Executors.newSingleThreadExecutor();
+        exec.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runUntil(clock, tickMillis, Long.MAX_VALUE);
+                } catch (InterruptedException e) {
+                    // stopped
+                }
+            }
+        });
+    }
+
+    /**
+     * Tick on the calling thread until the clock has moved on by a
+     * duration. With {@link SimClock#asFastAsPossible} this replays hours
+     * of simulated time in seconds.
+     * @throws InterruptedException if the thread is interrupted
+     */
+    public void runFor(SimClock clock, long tickMillis, long durationMillis) throws InterruptedException {
+        checkTick(tickMillis);
+        runUntil(clock, tickMillis, clock.now() + durationMillis);
+    }
+
+    private void runUntil(SimClock clock, long tickMillis, long endMillis) throws InterruptedException {
+        long next = clock.now();
+        while (next <= endMillis) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException();
+            }
+            clock.sleepUntil(next);
+            long now = clock.now();
+            long late = now - next;
+            // ticks that came and went while this one was late
+            long missed = late / tickMillis;
+            try {
+                tick(now, late, missed);
+            } catch (RuntimeException e) {
+                // keep ticking; the error is left for the caller to look at
+                lastError = e;
+            }
+            // carry on from the next tick still ahead rather than catch up
+            next += (missed + 1) * tickMillis;
+        }
+    }
+
+    private static void checkTick(long tickMillis) {
+        if (tickMillis < 1) {
+            throw new IllegalArgumentException("tick must be at least 1 ms");
+        }
+    }
+
+    public synchronized void stop() {
+        if (exec != null) {
+            exec.shutdownNow();
+            exec = null;
+        }
+    }
+
+    /**
+     * Move and send every entity that is due
+     * @return number of events sent
+     */
+    public int tick(long nowMillis) {
+        return tick(nowMillis, 0, 0);
+    }
+
+    /**
+     * @param lateMillis how long after its planned time the tick runs
+     * @param missedTicks planned ticks passed over since the last one
+     */
+    private synchronized int tick(long nowMillis, long lateMillis, long missedTicks) {
+        if (!started) {
+            started = true;
+            startMillis = nowMillis;
+            wheel.start(nowMillis);
+        }
+        // first updates of new entities somewhere within their first period
+        for (; scheduledCount < count; scheduledCount++) {
+            int i = scheduledCount;
+            nextDue[i] = nowMillis * 1000 + (long) (periodMicros[i] * ((i * GOLDEN) % 1.0));
+            wheel.schedule(i, ceilMillis(nextDue[i]));
+        }
+        ensureSlots();
+        tally.clear();
+        tally.tick(lateMillis, missedTicks);
+        int dueCount = wheel.advance(nowMillis, due, pendingCount);
+        pendingCount = 0;
+        int batched = 0;
+        for (int k = 0; k < dueCount; k++) {
+            int i = due[k];
+            if (!limiter.tryAcquire(nowMillis)) {
+                tally.throttled++;
+                // the rest go first next tick
+                pendingCount = dueCount - k;
+                System.arraycopy(due, k, due, 0, pendingCount);
+                break;
+            }
+            move(i, nowMillis);
+            ByteBuffer slot = slots[batched];
+            slot.clear();
+            slotBytes[batched] = writer.write(slot, names, uidStart[i], callsignStart[i], nameEnd[i],
+                    nowMillis, lat[i], lon[i], speed[i], course[i]);
+            slot.flip();
+            long nowMicros = nowMillis * 1000;
+            tally.lag((nowMicros - nextDue[i]) / 1000);
+
+            long next = nextDue[i] + periodMicros[i];
+            if (next <= nowMicros) {
+                // a whole period behind: drop the missed updates instead of bursting
+                tally.skipped += (int) ((nowMicros - next) / periodMicros[i]) + 1;
+                next = nowMicros + periodMicros[i];
+            }
+            nextDue[i] = next;
+            wheel.schedule(i, ceilMillis(next));
+            if (++batched == BATCH) {
+                flush(batched);
+                batched = 0;
+            }
+        }
+        if (batched > 0) {
+            flush(batched);
+        }
+        int sent = tally.sent;
+        stats.add(tally, nowMillis);
+        return sent;
+    }
+
+    private static long ceilMillis(long micros) {
+        long millis = micros / 1000;
+        return millis * 1000 < micros ? millis + 1 : millis;
+    }
+
+    private void flush(int batched) {
+        int sent;
+        try {
+            sent = output.send(slots, batched);
+        } catch (IOException e) {
+            sent = 0;
+        }
+        for (int k = 0; k < sent; k++) {
+            tally.bytes += slotBytes[k];
+        }
+        tally.sent += sent;
+        tally.failed += batched - sent;
+    }
+
+    /**
+     * Position, speed and course of an entity at a time
+     */
+    private void move(int i, long nowMillis) {
+        models[i].sample((nowMillis - startMillis) / 1000.0 + timeOffset[i], state);
+        setState(i);
+    }
+
+    private void setState(int i) {
+        lat[i] = state.lat;
+        lon[i] = state.lon;
+        speed[i] = state.speed;
+        course[i] = state.course;
+    }
+
+    private void ensureSlots() {
+        int size = writer.getMaxEventBytes(longestName);
+        if (slots.length == BATCH && slots[0].capacity() >= size) {
+            return;
+        }
+        slots = new ByteBuffer[BATCH];
+        for (int k = 0; k < BATCH; k++) {
+            slots[k] = ByteBuffer.allocate(size);
+        }
+    }
+
+    private void allocate(int capacity) {
+        uidStart = grow(uidStart, capacity);
+        callsignStart = grow(callsignStart, capacity);
+        nameEnd = grow(nameEnd, capacity);
+        models = models == null ? new MotionModel[capacity] : Arrays.copyOf(models, capacity);
+        timeOffset = grow(timeOffset, capacity);
+        periodMicros = grow(periodMicros, capacity);
+        nextDue = grow(nextDue, capacity);
+        due = grow(due, capacity);
+        wheel.ensureCapacity(capacity);
+        lat = grow(lat, capacity);
+        lon = grow(lon, capacity);
+        speed = grow(speed, capacity);
+        course = grow(course, capacity);
+    }
+
+    private static int[] grow(int[] a, int capacity) {
+        return a == null ? new int[capacity] : Arrays.copyOf(a, capacity);
+    }
+
+    private static long[] grow(long[] a, int capacity) {
+        return a == null ? new long[capacity] : Arrays.copyOf(a, capacity);
+    }
+
+    private static double[] grow(double[] a, int capacity) {
+        return a == null ? new double[capacity] : Arrays.copyOf(a, capacity);
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException("entity " + i + " of " + count);
+        }
+    }
+}
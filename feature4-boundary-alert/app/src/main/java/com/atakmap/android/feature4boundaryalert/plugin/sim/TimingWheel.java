@@ -0,0 +1,120 @@
+package com.atakmap.android.feature4boundaryalert.plugin.sim;
+
+import java.util.Arrays;
+
+/**
+ * Hashed timing wheel of entity indices.
+ *
+ * Time is cut into ticks and each tick maps to one of a power of two
+ * slots. An entity waits in the slot of the first tick at or after its
+ * due time, on a linked list threaded through an int array, so scheduling
+ * is O(1) and allocates nothing. Advancing the wheel visits only the slots
+ * of the ticks that passed and hands back the entities in them that are
+ * due; the cost follows the number of due entities, not the population.
+ * An entity due more than one turn of the wheel ahead stays in its slot
+ * until the turn it is due.
+ *
+ * Not thread safe.
+ */
+final class TimingWheel {
+
+    private static final int NONE = -1;
+
+    private final long tickMillis;
+    private final int mask;
+    private final int[] head;
+    // next entity in the same slot, and the tick each entity waits for
+    private int[] next = new int[0];
+    private long[] dueTick = new long[0];
+
+    private long baseMillis;
+    // last tick swept
+    private long current = -1;
+
+    /**
+     * @param slots rounded up to a power of two
+     */
+    TimingWheel(int slots, long tickMillis) {
+        if (slots < 1 || slots > 1 << 24 || tickMillis < 1) {
+            throw new IllegalArgumentException("bad wheel " + slots + " x " + tickMillis + " ms");
+        }
+        int size = Integer.highestOneBit(slots);
+        if (size < slots) {
+            size <<= 1;
+        }
+        this.tickMillis = tickMillis;
+        this.mask = size - 1;
+        this.head = new int[size];
+        Arrays.fill(head, NONE);
+    }
+
+    /**
+     * Make room for entity indices below capacity
+     */
+    void ensureCapacity(int capacity) {
+        if (capacity > next.length) {
+            next = Arrays.copyOf(next, capacity);
+            dueTick = Arrays.copyOf(dueTick, capacity);
+        }
+    }
+
+    /**
+     * Tick 0 starts now; called once before the first schedule
+     */
+    void start(long nowMillis) {
+        baseMillis = nowMillis;
+        current = -1;
+    }
+
+    /**
+     * Put an entity that is not already on the wheel into the slot for
+     * its due time; a time already swept goes into the next tick
+     */
+    void schedule(int entity, long dueMillis) {
+        long offset = dueMillis - baseMillis;
+        long tick = offset <= 0 ? 0 : (offset + tickMillis - 1) / tickMillis;
+        if (tick <= current) {
+            tick = current + 1;
+        }
+        dueTick[entity] = tick;
+        int slot = (int) (tick & mask);
+        next[entity] = head[slot];
+        head[slot] = entity;
+    }
+
+    /**
+     * Sweep the ticks up to now and take off every entity that is due
+     * @param out receives the due entities from index count on
+     * @return the new count
+     */
+    int advance(long nowMillis, int[] out, int count) {
+        long offset = nowMillis - baseMillis;
+        long target = offset / tickMillis;
+        if (offset < 0 || target <= current) {
+            return count;
+        }
+        // after a long gap one turn visits every slot
+        long from = Math.max(current + 1, target - mask);
+        for (long t = from; t <= target; t++) {
+            int slot = (int) (t & mask);
+            int prev = NONE;
+            int e = head[slot];
+            while (e != NONE) {
+                int after = next[e];
+                if (dueTick[e] <= target) {
+                    if (prev == NONE) {
+                        head[slot] = after;
+                    } else {
+                        next[prev] = after;
+                    }
+                    out[count++] = e;
+                } else {
+                    prev = e;
+                }
+                e = after;
+            }
+        }
+        current = target;
+        return count;
+    }
+}
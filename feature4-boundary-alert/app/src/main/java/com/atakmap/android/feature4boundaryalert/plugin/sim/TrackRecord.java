@@ -0,0 +1,37 @@
+package com.atakmap.android.feature4boundaryalert.plugin.sim;
+
+/**
+ * One recorded fix read from a replay file. Reused between records.
+ */
+public final class TrackRecord {
+
+    /** when the fix was recorded, epoch millis */
+    public long time;
+    public double lat;
+    public double lon;
+    /** height above the ellipsoid in meters, NaN if not recorded */
+    public double hae;
+    /** meters per second, NaN if not recorded */
+    public double speed;
+    /** degrees from true north, NaN if not recorded */
+    public double course;
+    /** identity from a CoT log; null for GPX and NMEA, which hold one track */
+    public String uid;
+    public String callsign;
+    public String type;
+    /** byte offset of the record in the file */
+    public long offset;
+
+    void clear() {
+        time = 0;
+        lat = Double.NaN;
+        lon = Double.NaN;
+        hae = Double.NaN;
+        speed = Double.NaN;
+        course = Double.NaN;
+        uid = null;
+        callsign = null;
+        type = null;
+        offset = 0;
+    }
+}
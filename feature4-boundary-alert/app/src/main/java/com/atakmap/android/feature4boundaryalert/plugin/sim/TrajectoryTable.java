@@ -0,0 +1,109 @@
+package com.atakmap.android.feature4boundaryalert.plugin.sim;
+
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.GeoMath;
+
+/**
+ * One period of a repeating {@link MotionModel}, sampled at a fixed step
+ * and interpolated linearly in between, so a sample costs a table lookup
+ * instead of the model's trigonometry.
+ *
+ * The step is shrunk slightly so that it divides the period exactly, and
+ * the last sample interpolates back to the first. On a circle the chord
+ * between two samples is inside the arc by r(1 - cos(wt/2)): 0.25 m for a
+ * 500 m circle lapped in 100 s at a 1 s step. A table holds no per-call
+ * state and can be shared by any number of entities.
+ */
+public final class TrajectoryTable implements MotionModel {
+
+    /** most samples in a table, 32 bytes each */
+    public static final int MAX_SAMPLES = 1 << 22;
+
+    private final double period;
+    private final double step;
+    private final int samples;
+    private final double[] lat;
+    private final double[] lon;
+    private final double[] speed;
+    private final double[] course;
+
+    /**
+     * @param model a model with a period
+     * @param stepSeconds time between samples, > 0
+     */
+    public TrajectoryTable(MotionModel model, double stepSeconds) {
+        period = model.getPeriodSeconds();
+        if (!(period > 0) || Double.isInfinite(period)) {
+            throw new IllegalArgumentException("only a repeating motion can be tabulated");
+        }
+        if (!(stepSeconds > 0)) {
+            throw new IllegalArgumentException("step must be > 0");
+        }
+        double n = Math.ceil(period / stepSeconds - 1e-9);
+        if (n > MAX_SAMPLES) {
+            throw new IllegalArgumentException("more than " + MAX_SAMPLES + " samples");
+        }
+        samples = Math.max(1, (int) n);
+        step = period / samples;
+        lat = new double[samples];
+        lon = new double[samples];
+        speed = new double[samples];
+        course = new double[samples];
+        MotionState state = new MotionState();
+        for (int k = 0; k < samples; k++) {
+            model.sample(k * step, state);
+            lat[k] = state.lat;
+            lon[k] = state.lon;
+            speed[k] = state.speed;
+            course[k] = state.course;
+        }
+    }
+
+    public int getSampleCount() {
+        return samples;
+    }
+
+    public double getStepSeconds() {
+        return step;
+    }
+
+    @Override
+    public void sample(double seconds, MotionState out) {
+        double x = (seconds % period) / step;
+        if (x < 0) {
+            x += samples;
+        }
+        int k = (int) x;
+        if (k >= samples) {
+            k = samples - 1;
+        }
+        double f = x - k;
+        int next = k + 1 == samples ? 0 : k + 1;
+        out.lat = lat[k] + f * (lat[next] - lat[k]);
+        out.lon = lon[k] + f * wrap(lon[next] - lon[k]);
+        if (out.lon > 180) {
+            out.lon -= 360;
+        } else if (out.lon < -180) {
+            out.lon += 360;
+        }
+        out.speed = speed[k] + f * (speed[next] - speed[k]);
+        out.course = GeoMath.normalizeDegrees(course[k] + f * wrap(course[next] - course[k]));
+    }
+
+    @Override
+    public double getPeriodSeconds() {
+        return period;
+    }
+
+    /**
+     * @return the angle in -180 to 180, the short way round
+     */
+    private static double wrap(double degrees) {
+        if (degrees > 180) {
+            return degrees - 360;
+        }
+        if (degrees < -180) {
+            return degrees + 360;
+        }
+        return degrees;
+    }
+}
@@ -0,0 +1,85 @@
+package com.atakmap.android.test;
+
+import static org.junit.Assert.*;
+
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.BatchContainment;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.PreparedPolygon;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.TrackStateTable;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.TrackTransition;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class BatchContainmentTest {
+
+    @Test
+    public void parallelBatchMatchesSingleChecks() {
+        Random rnd = new Random(21);
+        double[] coords = PreparedPolygonTest.starPolygon(rnd, 500, 38.0, -77.0, 0.5);
+        PreparedPolygon polygon = PreparedPolygon.prepare(coords, coords.length / 2);
+        TrackStateTable states = new TrackStateTable();
+
+        int n = 20_000;
+        String[] uids = new String[n];
+        double[] lats = new double[n];
+        double[] lons = new double[n];
+        for (int i = 0; i < n; i++) {
+            uids[i] = "TRACK-" + i;
+            lats[i] = 37.4 + rnd.nextDouble() * 1.2;
+            lons[i] = -77.6 + rnd.nextDouble() * 1.2;
+        }
+
+        BatchContainment.Result first = BatchContainment.evaluate(polygon, states, uids, lats, lons, n, 1000);
+        int inside = 0;
+        for (int i = 0; i < n; i++) {
+            boolean expected = polygon.contains(lats[i], lons[i]);
+            assertEquals(expected, first.inside.get(i));
+            if (expected) inside++;
+        }
+        // every track starts outside, so each inside track entered
+        assertEquals(inside, first.transitions.size());
+        assertEquals(n, states.size());
+
+        // move every other track to a point far away
+        for (int i = 0; i < n; i += 2) {
+            lats[i] = 0;
+            lons[i] = 0;
+        }
+        BatchContainment.Result second = BatchContainment.evaluate(polygon, states, uids, lats, lons, n, 2000);
+        for (TrackTransition t : second.transitions) {
+            assertFalse(t.entered);
+            assertEquals(0, t.index % 2);
+            assertEquals("TRACK-" + t.index, t.uid);
+        }
+        assertEquals(n, states.size());
+    }
+
+    @Test
+    public void eachFixKeepsItsOwnTimes() {
+        double[] square = {0, 0, 0, 1, 1, 1, 1, 0};
+        PreparedPolygon polygon = PreparedPolygon.prepare(square, 4);
+        TrackStateTable states = new TrackStateTable();
+        String[] uids = {"A", "B", "C"};
+        double[] lats = {0.5, 2, 0.5};
+        double[] lons = {0.5, 2, 0.5};
+        long[] times = {10_000, 12_000, 11_000};
+        long[] stales = {20_000, 90_000, 90_000};
+        long[] words = BatchContainment.containsAll(polygon, lats, lons, 3);
+        BatchContainment.Result result = BatchContainment.applyTransitions(states, words, uids, lats, lons,
+                times, stales, 3);
+        assertEquals(2, result.transitions.size());
+        assertEquals(10_000, result.transitions.get(0).timeMillis);
+        assertEquals(11_000, result.transitions.get(1).timeMillis);
+        assertEquals(11_000, states.getEntryTime(states.slotOf("C")));
+        assertEquals(12_000, states.getLastFixTime(states.slotOf("B")));
+
+        // A goes stale at its own time, the others at theirs
+        String[] later = {"B"};
+        words = BatchContainment.containsAll(polygon, new double[] {2}, new double[] {2}, 1);
+        BatchContainment.applyTransitions(states, words, later, new double[] {2}, new double[] {2},
+                new long[] {30_000}, new long[] {90_000}, 1);
+        assertEquals(-1, states.slotOf("A"));
+        assertEquals(2, states.size());
+    }
+}
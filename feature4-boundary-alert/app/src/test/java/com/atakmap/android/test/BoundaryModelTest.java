@@ -0,0 +1,150 @@
+package com.atakmap.android.test;
+
+import static org.junit.Assert.*;
+
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.BoundaryCrossing;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.BoundaryModel;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.BoundarySnapshot;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class BoundaryModelTest {
+
+    // square around (5, 5) and pentagon around (25, 25); a snapshot can be
+    // told apart by its vertex count
+    private static final double[] SQUARE = {0, 0, 0, 10, 10, 10, 10, 0};
+    private static final double[] PENTAGON = {20, 20, 20, 30, 25, 32, 30, 30, 30, 20};
+
+    @Test
+    public void redrawingResetsTrackState() {
+        BoundaryModel model = new BoundaryModel();
+        draw(model, SQUARE);
+        List<BoundaryCrossing> out = new ArrayList<>();
+        assertEquals(1, model.checkCrossings("A", 5, 5, 1000, 60_000, true, out));
+        assertTrue(model.isInside("A"));
+        assertEquals(1000, model.getEntryTime("A"));
+
+        model.clear();
+        assertFalse(model.snapshot().isComplete());
+        assertEquals(0, model.getTrackCount());
+        assertEquals(0, model.checkCrossings("A", 5, 5, 2000, 60_000, true, out));
+
+        draw(model, PENTAGON);
+        out.clear();
+        assertEquals(0, model.checkCrossings("A", 5, 5, 3000, 60_000, true, out));
+        assertFalse(model.isInside("A"));
+    }
+
+    @Test
+    public void concurrentEditsAndQueries() throws Exception {
+        final BoundaryModel model = new BoundaryModel();
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int round = 0; round < 2000; round++) {
+                        model.clear();
+                        draw(model, round % 2 == 0 ? SQUARE : PENTAGON);
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                } finally {
+                    done.set(true);
+                }
+            }
+        });
+
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < 3; r++) {
+            readers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (!done.get()) {
+                            checkSnapshot(model.snapshot());
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            }));
+        }
+        for (int r = 0; r < 3; r++) {
+            final String uid = "TRACK-" + r;
+            readers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        List<BoundaryCrossing> out = new ArrayList<>();
+                        long time = 0;
+                        while (!done.get()) {
+                            time += 1000;
+                            double p = (time / 1000) % 2 == 0 ? 5 : 25;
+                            out.clear();
+                            model.checkCrossings(uid, p, p, time, Long.MAX_VALUE, true, out);
+                            for (int i = 1; i < out.size(); i++) {
+                                assertTrue(out.get(i).entered != out.get(i - 1).entered);
+                            }
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            }));
+        }
+
+        for (Thread t : readers) t.start();
+        writer.start();
+        writer.join();
+        for (Thread t : readers) t.join();
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        // the last round drew the pentagon
+        BoundarySnapshot last = model.snapshot();
+        assertEquals(5, last.getVertexCount());
+        assertTrue(last.contains(25, 25));
+    }
+
+    private static void draw(BoundaryModel model, double[] coords) {
+        for (int i = 0; i < coords.length; i += 2) {
+            assertTrue(model.addVertex(coords[i], coords[i + 1]));
+        }
+        assertTrue(model.complete());
+    }
+
+    /**
+     * Every snapshot must be a prefix of one of the two shapes, and a
+     * complete one must answer queries for exactly that shape
+     */
+    private static void checkSnapshot(BoundarySnapshot snapshot) {
+        int count = snapshot.getVertexCount();
+        if (count == 0) {
+            assertFalse(snapshot.contains(5, 5));
+            return;
+        }
+        double[] shape = snapshot.getLatitude(0) == 0 ? SQUARE : PENTAGON;
+        assertTrue(count <= shape.length / 2);
+        for (int i = 0; i < count; i++) {
+            assertEquals(shape[2 * i], snapshot.getLatitude(i), 0);
+            assertEquals(shape[2 * i + 1], snapshot.getLongitude(i), 0);
+        }
+        if (snapshot.isComplete()) {
+            assertEquals(shape.length / 2, count);
+            assertEquals(count, snapshot.getPolygon().getVertexCount());
+            assertEquals(shape == SQUARE, snapshot.contains(5, 5));
+            assertEquals(shape == PENTAGON, snapshot.contains(25, 25));
+        } else {
+            assertFalse(snapshot.contains(5, 5));
+        }
+    }
+}
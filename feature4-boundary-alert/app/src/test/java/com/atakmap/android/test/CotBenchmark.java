@@ -0,0 +1,520 @@
+package com.atakmap.android.test;
+
+import com.atakmap.android.feature4boundaryalert.plugin.cot.CotEncoder;
+import com.atakmap.android.feature4boundaryalert.plugin.cot.CotOutput;
+import com.atakmap.android.feature4boundaryalert.plugin.cot.CotReceiver;
+import com.atakmap.android.feature4boundaryalert.plugin.cot.CotWriter;
+import com.atakmap.android.feature4boundaryalert.plugin.cot.FixQueue;
+import com.atakmap.android.feature4boundaryalert.plugin.cot.UdpSender;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.CircleMotion;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.LawnmowerMotion;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.MotionModel;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.MotionState;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.OutputPipeline;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.ReplayEngine;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.ReplayFile;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.SendStats;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.SimClock;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.SwarmSimulator;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.TrajectoryTable;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Stand-alone micro benchmark for CoT encoding and output. Not a unit
+ * test; run the main method from the IDE or with plain java on the test
+ * classpath.
+ */
+public class CotBenchmark {
+
+    private static final int EVENTS = 1_000_000;
+
+    public static void main(String[] args) {
+        benchXmlWriter();
+        benchEncodings();
+        benchUdp();
+        benchSwarm();
+        benchMotion();
+        benchReplay();
+        benchPipeline();
+        benchReceiver();
+    }
+
+    /**
+     * Events per second and bytes allocated per event, string concatenation
+     * with SimpleDateFormat and String.format (the old buildCot) against
+     * the template writer
+     */
+    static void benchXmlWriter() {
+        System.out.println("== CoT XML encoding ==");
+        CotWriter writer = new CotWriter("SIM-ROBOT-1", "a-f-A-M-F", "m-g", "SIMBOT", 20_000);
+        long time = 1_700_000_000_000L;
+        long sink = 0;
+        for (int i = 0; i < EVENTS / 10; i++) {
+            sink += legacyEncode(time + i, 37.42 + i * 1e-7, -122.08, 12.57, i % 360).length;
+            sink += writer.encode(time + i, 37.42 + i * 1e-7, -122.08, 12.57, i % 360).remaining();
+        }
+
+        int legacyEvents = EVENTS / 10;
+        long before = allocatedBytes();
+        long t0 = System.nanoTime();
+        for (int i = 0; i < legacyEvents; i++) {
+            sink += legacyEncode(time + i * 1000L, 37.42 + i * 1e-7, -122.08, 12.57, i % 360).length;
+        }
+        long legacyNs = System.nanoTime() - t0;
+        long legacyBytes = (allocatedBytes() - before) / legacyEvents;
+
+        before = allocatedBytes();
+        t0 = System.nanoTime();
+        for (int i = 0; i < EVENTS; i++) {
+            ByteBuffer cot = writer.encode(time + i * 1000L, 37.42 + i * 1e-7, -122.08, 12.57, i % 360);
+            sink += cot.remaining();
+        }
+        long writerNs = System.nanoTime() - t0;
+        long writerBytes = (allocatedBytes() - before) / EVENTS;
+
+        System.out.println("  encoder          events/s   bytes allocated/event");
+        System.out.println(String.format(Locale.US, "  string concat  %10.0f   %21d",
+                legacyEvents * 1e9 / legacyNs, legacyBytes));
+        System.out.println(String.format(Locale.US, "  template       %10.0f   %21d   (sink %d)",
+                EVENTS * 1e9 / writerNs, writerBytes, sink));
+    }
+
+    /**
+     * Bytes on the wire, encode time and allocation per event, CoT XML
+     * against TAK Protocol v1
+     */
+    static void benchEncodings() {
+        System.out.println("== XML vs TAK Protocol ==");
+        System.out.println("  encoding     bytes/event   ns/event   bytes allocated/event");
+        for (CotEncoder.Encoding encoding : CotEncoder.Encoding.values()) {
+            CotEncoder writer = CotEncoder.create(encoding, "SIM-ROBOT-1", "a-f-A-M-F", "m-g", "SIMBOT", 20_000);
+            long time = 1_700_000_000_000L;
+            long sink = 0;
+            for (int i = 0; i < EVENTS / 10; i++) {
+                sink += writer.encode(time + i, 37.42 + i * 1e-7, -122.08, 12.57, i % 360).remaining();
+            }
+            sink = 0;
+            long before = allocatedBytes();
+            long t0 = System.nanoTime();
+            for (int i = 0; i < EVENTS; i++) {
+                sink += writer.encode(time + i * 1000L, 37.42 + i * 1e-7, -122.08, 12.57, i % 360).remaining();
+            }
+            long ns = System.nanoTime() - t0;
+            long allocated = (allocatedBytes() - before) / EVENTS;
+            System.out.println(String.format(Locale.US, "  %-10s  %12.1f  %9.1f   %21d",
+                    encoding.name().toLowerCase(Locale.US), sink / (double) EVENTS, ns / (double) EVENTS, allocated));
+        }
+    }
+
+    /**
+     * Loopback datagrams per second, a socket and address lookup per
+     * packet (the old sendUdp) against one long-lived sender
+     */
+    static void benchUdp() {
+        System.out.println("== UDP output ==");
+        byte[] event = legacyEncode(1_700_000_000_000L, 37.42, -122.08, 12.57, 90);
+        int packets = 20_000;
+        try (DatagramSocket receiver = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"))) {
+            receiver.setReceiveBufferSize(1 << 20);
+            int port = receiver.getLocalPort();
+
+            long t0 = System.nanoTime();
+            for (int i = 0; i < packets; i++) {
+                DatagramSocket socket = new DatagramSocket();
+                try {
+                    InetAddress addr = InetAddress.getByName("127.0.0.1");
+                    socket.send(new DatagramPacket(event, event.length, addr, port));
+                } finally {
+                    socket.close();
+                }
+            }
+            long perPacketNs = System.nanoTime() - t0;
+
+            ByteBuffer[] batch = new ByteBuffer[100];
+            for (int i = 0; i < batch.length; i++) {
+                batch[i] = ByteBuffer.wrap(event);
+            }
+            try (UdpSender sender = new UdpSender("127.0.0.1", port)) {
+                t0 = System.nanoTime();
+                for (int i = 0; i < packets; i++) {
+                    sender.send(ByteBuffer.wrap(event));
+                }
+                long persistentNs = System.nanoTime() - t0;
+
+                t0 = System.nanoTime();
+                for (int i = 0; i < packets; i += batch.length) {
+                    for (ByteBuffer b : batch) {
+                        b.clear();
+                    }
+                    sender.send(batch, batch.length);
+                }
+                long batchNs = System.nanoTime() - t0;
+
+                System.out.println("  output               packets/s");
+                System.out.println(String.format(Locale.US, "  socket per packet  %11.0f", packets * 1e9 / perPacketNs));
+                System.out.println(String.format(Locale.US, "  persistent         %11.0f", packets * 1e9 / persistentNs));
+                System.out.println(String.format(Locale.US, "  batches of %3d     %11.0f   (sockets opened %d)",
+                        batch.length, packets * 1e9 / batchNs, sender.getOpenCount()));
+            }
+        } catch (IOException e) {
+            System.out.println("  " + e);
+        }
+    }
+
+    /**
+     * Entity updates per second of CPU, bytes allocated and time per 10 ms
+     * tick for swarms of different sizes and rates, output discarded, on a
+     * simulated clock
+     */
+    static void benchSwarm() {
+        System.out.println("== Swarm ==");
+        System.out.println("  entities   rate Hz    events/s of CPU   us/tick   bytes/tick");
+        benchSwarm(10_000, 1, 1);
+        benchSwarm(100_000, 0.1, 0.1);
+        benchSwarm(10_000, 0.1, 50);
+    }
+
+    private static void benchSwarm(int entities, double minRate, double maxRate) {
+        final long[] bytes = new long[1];
+        CotOutput discard = new CotOutput() {
+            @Override
+            public int send(ByteBuffer[] events, int count) {
+                for (int i = 0; i < count; i++) {
+                    bytes[0] += events[i].remaining();
+                }
+                return count;
+            }
+        };
+        SwarmSimulator swarm = new SwarmSimulator(
+                new CotWriter("a-f-G-U-C", "m-g", 20_000), discard, entities);
+        for (int i = 0; i < entities; i++) {
+            double rate = minRate + (maxRate - minRate) * i / Math.max(1, entities - 1);
+            swarm.addCircle("SIM-SWARM-" + i, "SWARM-" + i, 37.42, -122.08, 50 + i % 2000, 30 + i % 270, rate);
+        }
+        long now = 1_700_000_000_000L;
+        for (int t = 0; t < 2000; t++) {
+            swarm.tick(now += 10);
+        }
+        swarm.getStats().reset();
+
+        int ticks = 3000;
+        long before = allocatedBytes();
+        long t0 = System.nanoTime();
+        for (int t = 0; t < ticks; t++) {
+            swarm.tick(now += 10);
+        }
+        long ns = System.nanoTime() - t0;
+        long allocated = allocatedBytes() - before;
+        SendStats.Snapshot stats = swarm.getStats().snapshot();
+        String rates = minRate == maxRate ? String.valueOf(minRate) : minRate + "-" + maxRate;
+        System.out.println(String.format(Locale.US, "  %8d  %8s  %17.0f  %8.1f  %11d   (%d bytes out)",
+                entities, rates, stats.sent * 1e9 / ns, ns / 1e3 / ticks, allocated / ticks, bytes[0]));
+    }
+
+    /**
+     * Nanoseconds per sample, models computed exactly against the same
+     * models tabulated at a 0.5 s step
+     */
+    static void benchMotion() {
+        System.out.println("== Motion models ==");
+        MotionModel circle = new CircleMotion(37.42, -122.08, 500, 100, 0);
+        MotionModel mower = new LawnmowerMotion(37.42, -122.08, 30, 1000, 100, 8, 12);
+        System.out.println("  model        exact ns   table ns");
+        benchMotion("circle", circle);
+        benchMotion("lawnmower", mower);
+    }
+
+    private static void benchMotion(String name, MotionModel model) {
+        TrajectoryTable table = new TrajectoryTable(model, 0.5);
+        MotionState state = new MotionState();
+        int samples = 5_000_000;
+        double sink = 0;
+        for (int i = 0; i < samples / 10; i++) {
+            model.sample(i * 0.01, state);
+            table.sample(i * 0.01, state);
+            sink += state.lat;
+        }
+        long t0 = System.nanoTime();
+        for (int i = 0; i < samples; i++) {
+            model.sample(i * 0.0131, state);
+            sink += state.lat;
+        }
+        long exactNs = System.nanoTime() - t0;
+        t0 = System.nanoTime();
+        for (int i = 0; i < samples; i++) {
+            table.sample(i * 0.0131, state);
+            sink += state.lat;
+        }
+        long tableNs = System.nanoTime() - t0;
+        System.out.println(String.format(Locale.US, "  %-10s %10.1f %10.1f   (%d samples, sink %.0f)",
+                name, exactNs / (double) samples, tableNs / (double) samples, table.getSampleCount(), sink));
+    }
+
+    /**
+     * Replay of a large NMEA log at full speed, and random seeks into it
+     */
+    static void benchReplay() {
+        System.out.println("== Replay ==");
+        int fixes = 500_000;
+        try {
+            File file = File.createTempFile("bench", ".nmea");
+            file.deleteOnExit();
+            ReplayTest.writeNmeaTrack(file, fixes, 1000);
+            final long[] bytes = new long[1];
+            CotOutput discard = new CotOutput() {
+                @Override
+                public int send(ByteBuffer[] events, int count) {
+                    for (int i = 0; i < count; i++) {
+                        bytes[0] += events[i].remaining();
+                    }
+                    return count;
+                }
+            };
+            try (ReplayFile replay = new ReplayFile(file)) {
+                ReplayEngine engine = new ReplayEngine(replay, discard, 20_000);
+                long t0 = System.nanoTime();
+                long played = engine.play(SimClock.asFastAsPossible(1_700_000_000_000L));
+                long ns = System.nanoTime() - t0;
+                System.out.println(String.format(Locale.US,
+                        "  play    %d fixes from %.1f MB: %.0f fixes/s, %.0f MB/s read (%d bytes out)",
+                        played, replay.size() / 1e6, played * 1e9 / ns, replay.size() * 1e3 / ns, bytes[0]));
+            }
+            try (ReplayFile replay = new ReplayFile(file)) {
+                Random random = new Random(1);
+                long first = 1_714_564_800_000L;
+                int seeks = 10_000;
+                long t0 = System.nanoTime();
+                for (int i = 0; i < seeks; i++) {
+                    replay.seek(first + (long) (random.nextDouble() * fixes * 1000));
+                }
+                long ns = System.nanoTime() - t0;
+                System.out.println(String.format(Locale.US, "  seek    %.1f us, %.1f records probed per seek (index %d)",
+                        ns / 1e3 / seeks, replay.getProbeCount() / (double) seeks, replay.getIndexSize()));
+            }
+        } catch (IOException | InterruptedException e) {
+            System.out.println("  failed: " + e);
+        }
+    }
+
+    /**
+     * Cost to the publishing thread of fanning fixes out to an XML sink, a
+     * TAK Protocol sink and a listener, and what each sink got through
+     */
+    static void benchPipeline() {
+        System.out.println("== Output pipeline ==");
+        CotOutput discard = new CotOutput() {
+            @Override
+            public int send(ByteBuffer[] events, int count) {
+                return count;
+            }
+        };
+        try (OutputPipeline pipeline = new OutputPipeline(20_000)) {
+            int[] entities = new int[100];
+            for (int i = 0; i < entities.length; i++) {
+                entities[i] = pipeline.register("SIM-SWARM-" + i, "SWARM-" + i, "a-f-G-U-C");
+            }
+            pipeline.addOutput("xml", discard, CotEncoder.Encoding.XML, 10_000, 0);
+            pipeline.addOutput("tak", discard, CotEncoder.Encoding.PROTOBUF, 10_000, 0);
+            pipeline.addListener("listener", new OutputPipeline.Listener() {
+                @Override
+                public void onFix(String uid, String callsign, long timeMillis, double lat, double lon,
+                                  double speed, double course) {
+                }
+            }, 10_000, 0);
+            long time = 1_700_000_000_000L;
+            long before = allocatedBytes();
+            long t0 = System.nanoTime();
+            for (int i = 0; i < EVENTS; i++) {
+                pipeline.publish(entities[i % entities.length], time + i, 37.42 + i * 1e-7, -122.08, 12.57, i % 360);
+            }
+            long ns = System.nanoTime() - t0;
+            long allocated = allocatedBytes() - before;
+            pipeline.flush(10_000);
+            long drainNs = System.nanoTime() - t0;
+            System.out.println(String.format(Locale.US,
+                    "  publish %.1f ns/fix, %d bytes allocated in all; drained in %.0f ms",
+                    ns / (double) EVENTS, allocated, drainNs / 1e6));
+            for (OutputPipeline.Sink sink : pipeline.getSinks()) {
+                System.out.println(String.format(Locale.US, "  %-8s delivered %d, dropped %d",
+                        sink.getName(), sink.getDeliveredCount(), sink.getDroppedCount()));
+            }
+        } catch (InterruptedException e) {
+            System.out.println("  interrupted");
+        }
+    }
+
+    /**
+     * Receive path on one core: events fed to the receiver one datagram
+     * each, as ATAK sends them, with the queue drained in batches, against
+     * parsing each one to a DOM. Reads a captured log of concatenated
+     * events named by -Dcot.corpus if given, else makes up ATAK position
+     * reports from 1000 devices. Target is 100k events/s.
+     */
+    static void benchReceiver() {
+        System.out.println("== Receiver ==");
+        byte[] corpus;
+        String name = System.getProperty("cot.corpus");
+        try {
+            corpus = name != null ? Files.readAllBytes(new File(name).toPath()) : syntheticCorpus(100_000, 1000);
+        } catch (IOException e) {
+            System.out.println("  failed: " + e);
+            return;
+        }
+        int[] ends = eventEnds(corpus);
+        int events = ends.length;
+        if (events == 0) {
+            System.out.println("  no events in " + name);
+            return;
+        }
+        System.out.println(String.format(Locale.US, "  corpus  %s: %d events, %.0f bytes each",
+                name != null ? name : "synthetic", events, corpus.length / (double) events));
+
+        FixQueue queue = new FixQueue(10_000);
+        FixQueue.Batch batch = new FixQueue.Batch(1000);
+        CotReceiver receiver = new CotReceiver(CotReceiver.DEFAULT_GROUP, CotReceiver.DEFAULT_PORT, queue);
+        ByteBuffer datagram = ByteBuffer.wrap(corpus);
+        // a pass to warm up and fill the uid table, then the measured passes
+        int passes = Math.max(1, EVENTS / events);
+        long drained = 0;
+        long before = 0;
+        long t0 = 0;
+        for (int pass = 0; pass <= passes; pass++) {
+            if (pass == 1) {
+                drained = 0;
+                before = allocatedBytes();
+                t0 = System.nanoTime();
+            }
+            int start = 0;
+            for (int i = 0; i < events; i++) {
+                datagram.limit(ends[i]);
+                datagram.position(start);
+                receiver.receive(datagram);
+                start = ends[i];
+                if (queue.size() >= batch.capacity()) {
+                    drained += queue.drain(batch);
+                }
+            }
+            drained += queue.drain(batch);
+        }
+        long ns = System.nanoTime() - t0;
+        long allocated = allocatedBytes() - before;
+        System.out.println(String.format(Locale.US,
+                "  scan    %.0f events/s, %.0f ns/event, %.2f bytes allocated/event (%d drained, %d rejected, %d dropped)",
+                drained * 1e9 / ns, ns / (double) drained, allocated / (double) drained, drained,
+                receiver.getRejectedCount(), queue.getDroppedCount()));
+
+        try {
+            DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+            int n = Math.min(events, 20_000);
+            double sum = 0;
+            before = allocatedBytes();
+            t0 = System.nanoTime();
+            int start = 0;
+            for (int i = 0; i < n; i++) {
+                // a log may put line breaks between events, and nothing may precede a declaration
+                while (corpus[start] <= ' ') {
+                    start++;
+                }
+                Document doc = builder.parse(new ByteArrayInputStream(corpus, start, ends[i] - start));
+                Element point = (Element) doc.getElementsByTagName("point").item(0);
+                sum += Double.parseDouble(point.getAttribute("lat"));
+                start = ends[i];
+            }
+            ns = System.nanoTime() - t0;
+            allocated = allocatedBytes() - before;
+            System.out.println(String.format(Locale.US,
+                    "  dom     %.0f events/s, %.0f ns/event, %.0f bytes allocated/event (%.0f)",
+                    n * 1e9 / ns, ns / (double) n, allocated / (double) n, sum));
+        } catch (Exception e) {
+            System.out.println("  dom failed: " + e);
+        }
+    }
+
+    private static byte[] syntheticCorpus(int events, int devices) {
+        StringBuilder sb = new StringBuilder();
+        Random random = new Random(1);
+        long time = 1_714_564_800_000L;
+        for (int i = 0; i < events; i++) {
+            int device = i % devices;
+            sb.append(CotReceiverTest.pli("ANDROID-" + (0x10000000L + device * 7919L), iso(time + i * 10L),
+                    37 + device * 1e-3 + random.nextDouble() * 1e-4,
+                    -122 - device * 1e-3 + random.nextDouble() * 1e-4));
+        }
+        return sb.toString().getBytes(Charset.forName("UTF-8"));
+    }
+
+    /**
+     * @return index just past each event's closing tag
+     */
+    private static int[] eventEnds(byte[] corpus) {
+        byte[] close = "</event>".getBytes(Charset.forName("UTF-8"));
+        int[] ends = new int[1024];
+        int n = 0;
+        for (int i = 0; i + close.length <= corpus.length; i++) {
+            int k = 0;
+            while (k < close.length && corpus[i + k] == close[k]) {
+                k++;
+            }
+            if (k == close.length) {
+                if (n == ends.length) {
+                    ends = Arrays.copyOf(ends, 2 * n);
+                }
+                i += close.length - 1;
+                ends[n++] = i + 1;
+            }
+        }
+        return Arrays.copyOf(ends, n);
+    }
+
+    /**
+     * What GpsSimService did per tick before the writer
+     */
+    private static byte[] legacyEncode(long now, double lat, double lon, double speed, double course) {
+        String time = iso(now);
+        String stale = iso(now + 20_000);
+        String cot = ""
+                + "<event version=\"2.0\" uid=\"SIM-ROBOT-1\" type=\"a-f-A-M-F\" how=\"m-g\" "
+                + "time=\"" + time + "\" start=\"" + time + "\" stale=\"" + stale + "\">"
+                + "<point lat=\"" + lat + "\" lon=\"" + lon + "\" hae=\"0\" ce=\"5\" le=\"5\"/>"
+                + "<detail>"
+                + "<contact callsign=\"SIMBOT\"/>"
+                + "<track speed=\"" + String.format(Locale.US, "%.2f", speed) + "\" "
+                + "course=\"" + String.format(Locale.US, "%.1f", course) + "\"/>"
+                + "</detail>"
+                + "</event>";
+        return cot.getBytes();
+    }
+
+    private static String iso(long millis) {
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return sdf.format(new Date(millis));
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
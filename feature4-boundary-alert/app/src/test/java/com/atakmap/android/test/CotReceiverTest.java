@@ -0,0 +1,211 @@
+package com.atakmap.android.test;
+
+import static org.junit.Assert.*;
+
+import com.atakmap.android.feature4boundaryalert.plugin.cot.CotEncoder;
+import com.atakmap.android.feature4boundaryalert.plugin.cot.CotFix;
+import com.atakmap.android.feature4boundaryalert.plugin.cot.CotReceiver;
+import com.atakmap.android.feature4boundaryalert.plugin.cot.CotScanner;
+import com.atakmap.android.feature4boundaryalert.plugin.cot.FixQueue;
+import com.atakmap.android.feature4boundaryalert.plugin.cot.UdpSender;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.BatchContainment;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.BoundaryModel;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.TrackTransition;
+
+import org.junit.Test;
+
+import java.net.DatagramSocket;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+public class CotReceiverTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** a position report as ATAK sends it, detail and all */
+    static String pli(String uid, String time, double lat, double lon) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+                + "<event version=\"2.0\" uid=\"" + uid + "\" type=\"a-f-G-U-C\" how=\"h-e\" time=\"" + time
+                + "\" start=\"" + time + "\" stale=\"2024-05-01T12:06:00.000Z\">"
+                + "<point lat=\"" + lat + "\" lon=\"" + lon + "\" hae=\"41.2\" ce=\"9.9\" le=\"9999999.0\"/>"
+                + "<detail><takv os=\"34\" version=\"5.4.0\" device=\"PIXEL\" platform=\"ATAK-CIV\"/>"
+                + "<contact endpoint=\"*:-1:stcp\" callsign=\"ALPHA &amp; CO\"/>"
+                + "<uid Droid=\"ALPHA\"/><precisionlocation altsrc=\"GPS\" geopointsrc=\"GPS\"/>"
+                + "<__group role=\"Team Member\" name=\"Cyan\"/><status battery=\"88\"/>"
+                + "<track course=\"271.5\" speed=\"3.25\"/></detail></event>";
+    }
+
+    private static ByteBuffer bytes(String s) {
+        return ByteBuffer.wrap(s.getBytes(UTF_8));
+    }
+
+    @Test
+    public void scannerReadsThePositionReport() {
+        CotScanner scanner = new CotScanner();
+        CotFix fix = new CotFix();
+        ByteBuffer b = bytes(pli("ANDROID-&amp;-1", "2024-05-01T12:00:00.250Z", 37.4219999, -122.0840575));
+        int end = scanner.scan(b, 0, b.limit(), fix);
+        assertEquals(b.limit(), end);
+        assertEquals("ANDROID-&-1", fix.uid);
+        assertEquals("a-f-G-U-C", fix.type);
+        assertEquals(1_714_564_800_250L, fix.time);
+        assertEquals(1_714_565_160_000L, fix.stale);
+        assertEquals(37.4219999, fix.lat, 1e-12);
+        assertEquals(-122.0840575, fix.lon, 1e-12);
+        assertEquals(41.2, fix.hae, 1e-12);
+        assertEquals(3.25, fix.speed, 0);
+        assertEquals(271.5, fix.course, 0);
+        assertEquals(-1, scanner.scan(b, end, b.limit(), fix));
+        assertEquals(0, scanner.getRejectedCount());
+    }
+
+    @Test
+    public void repeatedUidsShareOneString() {
+        CotScanner scanner = new CotScanner();
+        CotFix fix = new CotFix();
+        ByteBuffer first = bytes(pli("U-1", "2024-05-01T12:00:00Z", 1, 2));
+        scanner.scan(first, 0, first.limit(), fix);
+        String uid = fix.uid;
+        ByteBuffer again = bytes(pli("U-1", "2024-05-01T12:00:01Z", 1, 2));
+        scanner.scan(again, 0, again.limit(), fix);
+        assertSame(uid, fix.uid);
+        assertEquals(2, scanner.getNameCount());
+
+        // more names than the table holds: it starts over and still answers
+        for (int i = 0; i < 3 * 65536; i++) {
+            ByteBuffer b = bytes(pli("N-" + i, "2024-05-01T12:00:00Z", 1, 2));
+            assertTrue(scanner.scan(b, 0, b.limit(), fix) > 0);
+            assertEquals("N-" + i, fix.uid);
+        }
+        assertTrue(scanner.getNameCount() <= 65536);
+    }
+
+    @Test
+    public void badEventsAreSkipped() {
+        String good = pli("GOOD", "2024-05-01T12:00:00Z", 10, 20);
+        String datagram = ""
+                // no point
+                + "<event version=\"2.0\" uid=\"A\" type=\"t\" time=\"2024-05-01T12:00:00Z\" "
+                + "stale=\"2024-05-01T12:01:00Z\"><detail/></event>"
+                // latitude out of range
+                + pli("B", "2024-05-01T12:00:00Z", 95, 20)
+                // bad time
+                + pli("C", "2024-13-01T12:00:00Z", 10, 20)
+                // not an event, and an empty one
+                + "<eventlog/><event uid=\"D\"/>"
+                + good
+                // cut short
+                + good.substring(0, good.length() - 20);
+        CotScanner scanner = new CotScanner();
+        CotFix fix = new CotFix();
+        ByteBuffer b = bytes(datagram);
+        int end = scanner.scan(b, 0, b.limit(), fix);
+        assertTrue(end > 0);
+        assertEquals("GOOD", fix.uid);
+        assertEquals(4, scanner.getRejectedCount());
+        assertEquals(-1, scanner.scan(b, end, b.limit(), fix));
+        assertEquals(5, scanner.getRejectedCount());
+    }
+
+    @Test
+    public void receiverQueuesEveryEventInADatagram() {
+        FixQueue queue = new FixQueue(100);
+        CotReceiver receiver = new CotReceiver(CotReceiver.DEFAULT_GROUP, CotReceiver.DEFAULT_PORT, queue);
+        assertEquals(3, receiver.receive(bytes(pli("A", "2024-05-01T12:00:00Z", 1, 1)
+                + "\n" + pli("B", "2024-05-01T12:00:01Z", 2, 2)
+                + "\n" + pli("C", "2024-05-01T12:00:02Z", 3, 3))));
+        // a TAK Protocol packet
+        ByteBuffer tak = CotEncoder.create(CotEncoder.Encoding.PROTOBUF, "P", "a-f-G", "m-g", "p", 1000)
+                .encode(0, 1, 1, 0, 0);
+        assertEquals(0, receiver.receive(tak));
+        assertEquals(2, receiver.getPacketsReceived());
+        assertEquals(3, receiver.getEventsReceived());
+        assertEquals(1, receiver.getUnsupportedCount());
+
+        FixQueue.Batch batch = new FixQueue.Batch(2);
+        assertEquals(2, queue.drain(batch));
+        assertEquals("A", batch.uids[0]);
+        assertEquals("B", batch.uids[1]);
+        assertEquals(2, batch.lats[1], 0);
+        assertEquals(1, queue.drain(batch));
+        assertEquals("C", batch.uids[0]);
+        assertEquals(1_714_564_802_000L, batch.getNewestTime());
+    }
+
+    @Test
+    public void fullQueueDropsTheOldest() throws Exception {
+        FixQueue queue = new FixQueue(3);
+        CotFix fix = new CotFix();
+        for (int i = 0; i < 5; i++) {
+            fix.uid = "U-" + i;
+            fix.time = i;
+            assertEquals(i < 3, queue.offer(fix));
+        }
+        assertEquals(2, queue.getDroppedCount());
+        assertEquals(5, queue.getOfferedCount());
+        FixQueue.Batch batch = new FixQueue.Batch(10);
+        assertEquals(3, queue.drain(batch, 0));
+        assertEquals("U-2", batch.uids[0]);
+        assertEquals("U-4", batch.uids[2]);
+        long t0 = System.nanoTime();
+        assertEquals(0, queue.drain(batch, 50));
+        assertEquals(0, batch.count);
+        assertTrue((System.nanoTime() - t0) / 1_000_000 >= 40);
+    }
+
+    @Test
+    public void receivesFromTheSocket() throws Exception {
+        int port;
+        try (DatagramSocket probe = new DatagramSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        FixQueue queue = new FixQueue(100);
+        try (CotReceiver receiver = new CotReceiver(CotReceiver.DEFAULT_GROUP, port, queue);
+             UdpSender sender = new UdpSender("127.0.0.1", port)) {
+            receiver.start();
+            // the socket listens on the port, so direct datagrams arrive as well as the group's
+            sender.send(bytes(pli("NET-1", "2024-05-01T12:00:00Z", 34, -117)));
+            FixQueue.Batch batch = new FixQueue.Batch(10);
+            assertEquals(1, queue.drain(batch, 5000));
+            assertEquals("NET-1", batch.uids[0]);
+            assertEquals(1, receiver.getEventsReceived());
+        }
+    }
+
+    @Test
+    public void boundaryEngineDrainsTheQueue() {
+        BoundaryModel boundary = new BoundaryModel();
+        boundary.addVertex(0, 0);
+        boundary.addVertex(0, 1);
+        boundary.addVertex(1, 1);
+        boundary.addVertex(1, 0);
+        assertTrue(boundary.complete());
+
+        FixQueue queue = new FixQueue(100);
+        CotReceiver receiver = new CotReceiver(CotReceiver.DEFAULT_GROUP, CotReceiver.DEFAULT_PORT, queue);
+        receiver.receive(bytes(pli("IN", "2024-05-01T12:00:00Z", 0.5, 0.5)
+                + pli("SIM-ROBOT-1", "2024-05-01T12:00:01Z", 0.5, 0.5)
+                + pli("OUT", "2024-05-01T12:00:02Z", 2, 2)));
+        FixQueue.Batch batch = new FixQueue.Batch(64);
+        assertEquals(3, queue.drain(batch));
+        // a track checked some other way is left out
+        assertEquals(1, batch.remove("SIM-ROBOT-1"));
+        assertEquals(2, batch.count);
+        assertEquals("OUT", batch.uids[1]);
+        BatchContainment.Result result = boundary.checkBatch(batch.uids, batch.lats, batch.lons,
+                batch.times, batch.stales, batch.count);
+        assertTrue(result.inside.get(0));
+        assertFalse(result.inside.get(1));
+        assertEquals(1, result.transitions.size());
+        TrackTransition entered = result.transitions.get(0);
+        assertEquals("IN", entered.uid);
+        // stamped with the fix's own time, not the batch's newest
+        assertEquals(1_714_564_800_000L, entered.timeMillis);
+        assertTrue(boundary.isInside("IN"));
+        assertFalse(boundary.isInside("SIM-ROBOT-1"));
+        assertEquals(2, boundary.getTrackCount());
+
+        assertEquals(0, boundary.checkBatch(batch.uids, batch.lats, batch.lons,
+                batch.times, batch.stales, batch.count).transitions.size());
+    }
+}
@@ -0,0 +1,179 @@
+package com.atakmap.android.test;
+
+import static org.junit.Assert.*;
+
+import com.atakmap.android.feature4boundaryalert.plugin.cot.CotWriter;
+
+import org.junit.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class CotWriterTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Pattern TIMES = Pattern.compile(
+            "time=\"([^\"]*)\" start=\"([^\"]*)\" stale=\"([^\"]*)\"");
+    private static final Pattern NUMBERS = Pattern.compile(
+            "lat=\"([^\"]*)\" lon=\"([^\"]*)\".*speed=\"([^\"]*)\" course=\"([^\"]*)\"");
+
+    @Test
+    public void eventMatchesTheStringBuiltOne() {
+        CotWriter writer = new CotWriter("SIM-ROBOT-1", "a-f-A-M-F", "m-g", "SIMBOT", 20_000);
+        long time = 1_700_000_000_123L;
+        String cot = text(writer.encode(time, 37.4219999, -122.0840575, 12.566, 271.04));
+        assertEquals(legacy(time, "37.4219999", "-122.0840575", 12.566, 271.04), cot);
+    }
+
+    @Test
+    public void timesMatchSimpleDateFormat() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        CotWriter writer = new CotWriter("u", "t", "h", "c", 20_000);
+        Random rnd = new Random(8);
+        long[] fixed = {0, 951_782_400_000L, 951_868_799_999L, 4_107_542_400_000L, 1_709_251_199_000L};
+        for (int i = 0; i < 20_000; i++) {
+            // 1970 to 2100, plus leap days and century boundaries
+            long time = i < fixed.length ? fixed[i] : (long) (rnd.nextDouble() * 4_102_444_800_000L);
+            Matcher m = TIMES.matcher(text(writer.encode(time, 0, 0, 0, 0)));
+            assertTrue(m.find());
+            assertEquals(format.format(new Date(time)), m.group(1));
+            assertEquals(m.group(1), m.group(2));
+            assertEquals(format.format(new Date(time + 20_000)), m.group(3));
+        }
+    }
+
+    @Test
+    public void numbersRoundToTheirDecimals() {
+        CotWriter writer = new CotWriter("u", "t", "h", "c", 0);
+        Random rnd = new Random(9);
+        for (int i = 0; i < 20_000; i++) {
+            double lat = (rnd.nextDouble() - 0.5) * 180;
+            double lon = (rnd.nextDouble() - 0.5) * 360;
+            double speed = rnd.nextDouble() * 300;
+            double course = rnd.nextDouble() * 360;
+            Matcher m = NUMBERS.matcher(text(writer.encode(0, lat, lon, speed, course)));
+            assertTrue(m.find());
+            assertFixed(lat, m.group(1), 7);
+            assertFixed(lon, m.group(2), 7);
+            assertFixed(speed, m.group(3), 2);
+            assertFixed(course, m.group(4), 1);
+        }
+    }
+
+    @Test
+    public void smallNegativeValuesHaveNoSign() {
+        CotWriter writer = new CotWriter("u", "t", "h", "c", 0);
+        Matcher m = NUMBERS.matcher(text(writer.encode(0, -0.00000001, -0.0, -0.004, -0.04)));
+        assertTrue(m.find());
+        assertEquals("0.0000000", m.group(1));
+        assertEquals("0.0000000", m.group(2));
+        assertEquals("0.00", m.group(3));
+        assertEquals("0.0", m.group(4));
+    }
+
+    @Test
+    public void attributesAreEscaped() {
+        CotWriter writer = new CotWriter("a&b", "t", "h", "<\"Bob's\">", 0);
+        String cot = text(writer.encode(0, 0, 0, 0, 0));
+        assertTrue(cot.contains("uid=\"a&amp;b\""));
+        assertTrue(cot.contains("callsign=\"&lt;&quot;Bob&apos;s&quot;&gt;\""));
+    }
+
+    @Test
+    public void writeAppendsAtThePosition() {
+        CotWriter writer = new CotWriter("u", "t", "h", "c", 0);
+        ByteBuffer out = ByteBuffer.allocate(2 * writer.getMaxEventBytes());
+        int first = writer.write(out, 0, 1, 2, 3, 4);
+        int second = writer.write(out, 0, 1, 2, 3, 4);
+        assertEquals(first, second);
+        assertEquals(first + second, out.position());
+        out.flip();
+        String both = UTF_8.decode(out).toString();
+        assertEquals(both.substring(0, first), both.substring(first));
+    }
+
+    @Test
+    public void longestValuesFit() {
+        CotWriter writer = new CotWriter("u", "t", "h", "c", 0);
+        ByteBuffer cot = writer.encode(253_402_300_799_000L - 1, -89.99999999, -179.99999999, 99_999_999_999.0 - 1, -359.99);
+        assertTrue(cot.remaining() <= writer.getMaxEventBytes());
+    }
+
+    @Test(expected = BufferOverflowException.class)
+    public void shortBufferOverflows() {
+        CotWriter writer = new CotWriter("u", "t", "h", "c", 0);
+        writer.write(ByteBuffer.allocate(64), 0, 1, 2, 3, 4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nanIsRejected() {
+        new CotWriter("u", "t", "h", "c", 0).encode(0, Double.NaN, 0, 0, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void yearTenThousandIsRejected() {
+        new CotWriter("u", "t", "h", "c", 0).encode(253_402_300_800_000L, 0, 0, 0, 0);
+    }
+
+    @Test
+    public void sharedWriterTakesOnlyPackedNames() {
+        CotWriter shared = new CotWriter("a-f-A-M-F", "m-g", 20_000);
+        byte[] uid = shared.name("SIM-ROBOT-1");
+        byte[] callsign = shared.name("SIMBOT");
+        byte[] names = Arrays.copyOf(uid, uid.length + callsign.length);
+        System.arraycopy(callsign, 0, names, uid.length, callsign.length);
+        ByteBuffer out = ByteBuffer.allocate(shared.getMaxEventBytes(names.length));
+        shared.write(out, names, 0, uid.length, names.length, 1_700_000_000_000L, 1, 2, 3, 4);
+        out.flip();
+        CotWriter own = new CotWriter("SIM-ROBOT-1", "a-f-A-M-F", "m-g", "SIMBOT", 20_000);
+        assertEquals(text(own.encode(1_700_000_000_000L, 1, 2, 3, 4)), text(out));
+        try {
+            shared.encode(0, 0, 0, 0, 0);
+            fail("a shared writer has no uid of its own");
+        } catch (IllegalStateException expected) {
+            // the single-entity forms need a uid
+        }
+    }
+
+    /**
+     * The event as GpsSimService used to build it, with lat and lon given
+     * as the text the writer prints
+     */
+    static String legacy(long time, String lat, String lon, double speed, double course) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        String now = format.format(new Date(time));
+        String stale = format.format(new Date(time + 20_000));
+        return ""
+                + "<event version=\"2.0\" uid=\"SIM-ROBOT-1\" type=\"a-f-A-M-F\" how=\"m-g\" "
+                + "time=\"" + now + "\" start=\"" + now + "\" stale=\"" + stale + "\">"
+                + "<point lat=\"" + lat + "\" lon=\"" + lon + "\" hae=\"0\" ce=\"5\" le=\"5\"/>"
+                + "<detail>"
+                + "<contact callsign=\"SIMBOT\"/>"
+                + "<track speed=\"" + String.format(Locale.US, "%.2f", speed) + "\" "
+                + "course=\"" + String.format(Locale.US, "%.1f", course) + "\"/>"
+                + "</detail>"
+                + "</event>";
+    }
+
+    private static void assertFixed(double expected, String text, int decimals) {
+        int point = text.indexOf('.');
+        assertEquals(text, decimals, text.length() - point - 1);
+        // half a unit in the last place, plus the error of scaling
+        assertEquals(text, expected, Double.parseDouble(text), 0.5 * Math.pow(10, -decimals) * (1 + 1e-9));
+    }
+
+    static String text(ByteBuffer event) {
+        return UTF_8.decode(event.duplicate()).toString();
+    }
+}
@@ -0,0 +1,606 @@
+package com.atakmap.android.test;
+
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.Envelope;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.Geofence;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.GeofenceFile;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.GeofenceImporter;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.GeofenceManager;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.PolygonGeofence;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.PolygonSimplifier;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.PreparedPolygon;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.ProjectedPolygon;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.Region;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.VertexStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Stand-alone micro benchmark for the geofence package. Not a unit test;
+ * run the main method from the IDE or with plain java on the test
+ * classpath.
+ */
+public class GeofenceBenchmark {
+
+    private static final int QUERIES = 200_000;
+
+    public static void main(String[] args) {
+        benchIndexScaling();
+        benchPreparedPolygon();
+        benchNearestEdge();
+        benchProjection();
+        benchVertexStorage();
+        benchSimplification();
+        benchStorage();
+        benchImport();
+    }
+
+    /**
+     * Per-fix cost of the R-tree lookup against a linear scan as the number
+     * of zones grows. Zones are spread at constant density so the expected
+     * number of hits per fix stays the same.
+     */
+    static void benchIndexScaling() {
+        System.out.println("== geofence index scaling ==");
+        System.out.println("  zones   linear ns/query   indexed ns/query");
+        for (int n : new int[] { 10, 100, 1_000, 10_000 }) {
+            Random rnd = new Random(42);
+            double extent = 0.05 * Math.sqrt(n);
+            List<PolygonGeofence> zones = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                zones.add(randomZone("zone-" + i, rnd, extent));
+            }
+            GeofenceManager manager = new GeofenceManager();
+            manager.addAll(zones);
+
+            double[] lats = new double[QUERIES];
+            double[] lons = new double[QUERIES];
+            for (int i = 0; i < QUERIES; i++) {
+                lats[i] = 34.0 + rnd.nextDouble() * extent;
+                lons[i] = -117.0 + rnd.nextDouble() * extent;
+            }
+
+            List<String> hits = new ArrayList<>();
+            // warm up both paths
+            for (int i = 0; i < QUERIES; i++) {
+                hits.clear();
+                manager.getContainingIds(lats[i], lons[i], hits);
+                linearScan(zones, lats[i], lons[i], hits);
+            }
+
+            int linearQueries = n >= 10_000 ? QUERIES / 20 : QUERIES;
+            long t0 = System.nanoTime();
+            long sink = 0;
+            for (int i = 0; i < linearQueries; i++) {
+                hits.clear();
+                sink += linearScan(zones, lats[i], lons[i], hits);
+            }
+            long linearNs = (System.nanoTime() - t0) / linearQueries;
+
+            t0 = System.nanoTime();
+            for (int i = 0; i < QUERIES; i++) {
+                hits.clear();
+                sink += manager.getContainingIds(lats[i], lons[i], hits);
+            }
+            long indexedNs = (System.nanoTime() - t0) / QUERIES;
+
+            System.out.println(String.format(Locale.US, "  %6d   %15d   %16d   (hits %d)",
+                    n, linearNs, indexedNs, sink));
+        }
+    }
+
+    /**
+     * Per-fix containment cost for large imported boundaries, plain ray
+     * cast over every edge against the prepared grid.
+     */
+    static void benchPreparedPolygon() {
+        System.out.println("== prepared polygon ==");
+        System.out.println("  vertices   plain ns/query   prepared ns/query   prepare ms");
+        for (int n : new int[] { 100, 5_000, 50_000 }) {
+            Random rnd = new Random(11);
+            double[] coords = PreparedPolygonTest.starPolygon(rnd, n, 38.0, -77.0, 0.5);
+            long t0 = System.nanoTime();
+            PreparedPolygon prepared = PreparedPolygon.prepare(coords, n);
+            long prepareMs = (System.nanoTime() - t0) / 1_000_000;
+
+            int queries = 20_000;
+            double[] lats = new double[queries];
+            double[] lons = new double[queries];
+            for (int i = 0; i < queries; i++) {
+                lats[i] = 37.4 + rnd.nextDouble() * 1.2;
+                lons[i] = -77.6 + rnd.nextDouble() * 1.2;
+            }
+
+            int sink = 0;
+            for (int i = 0; i < queries; i++) {
+                if (prepared.contains(lats[i], lons[i])) sink++;
+                if (PreparedPolygonTest.rayCast(coords, lats[i], lons[i])) sink++;
+            }
+
+            t0 = System.nanoTime();
+            for (int i = 0; i < queries; i++) {
+                if (PreparedPolygonTest.rayCast(coords, lats[i], lons[i])) sink++;
+            }
+            long plainNs = (System.nanoTime() - t0) / queries;
+
+            t0 = System.nanoTime();
+            for (int i = 0; i < queries; i++) {
+                if (prepared.contains(lats[i], lons[i])) sink++;
+            }
+            long preparedNs = (System.nanoTime() - t0) / queries;
+
+            System.out.println(String.format(Locale.US, "  %8d   %14d   %17d   %10d   (inside %d)",
+                    n, plainNs, preparedNs, prepareMs, sink));
+        }
+    }
+
+    /**
+     * Per-fix cost of the signed distance to the nearest edge, every edge
+     * measured against the ring search over the prepared grid. The star
+     * polygon is a worst case: its radial spikes pack dozens of edges into
+     * every cell of a wide band. The smooth one is closer to a drawn or
+     * imported zone.
+     */
+    static void benchNearestEdge() {
+        System.out.println("== nearest edge ==");
+        System.out.println("  shape    vertices   brute ns/query   grid ns/query");
+        for (int n : new int[] { 100, 5_000, 50_000 }) {
+            benchNearestEdge("star", n, PreparedPolygonTest.starPolygon(new Random(13), n, 38.0, -77.0, 0.5));
+        }
+        for (int n : new int[] { 100, 5_000, 50_000 }) {
+            benchNearestEdge("smooth", n, smoothPolygon(new Random(13), n, 38.0, -77.0, 0.5));
+        }
+    }
+
+    private static void benchNearestEdge(String shape, int n, double[] coords) {
+        Random rnd = new Random(13);
+        PreparedPolygon prepared = PreparedPolygon.prepare(coords, n);
+
+        int queries = 5_000;
+        double[] lats = new double[queries];
+        double[] lons = new double[queries];
+        for (int i = 0; i < queries; i++) {
+            lats[i] = 37.4 + rnd.nextDouble() * 1.2;
+            lons[i] = -77.6 + rnd.nextDouble() * 1.2;
+        }
+
+        double sink = 0;
+        for (int i = 0; i < queries; i++) {
+            sink += prepared.nearestEdge(lats[i], lons[i]).signedMeters;
+            sink += HysteresisTest.bruteForceDistance(coords, n, lats[i], lons[i]);
+        }
+
+        long t0 = System.nanoTime();
+        for (int i = 0; i < queries; i++) {
+            sink += HysteresisTest.bruteForceDistance(coords, n, lats[i], lons[i]);
+        }
+        long bruteNs = (System.nanoTime() - t0) / queries;
+
+        t0 = System.nanoTime();
+        for (int i = 0; i < queries; i++) {
+            sink += prepared.nearestEdge(lats[i], lons[i]).signedMeters;
+        }
+        long gridNs = (System.nanoTime() - t0) / queries;
+
+        System.out.println(String.format(Locale.US, "  %-6s   %8d   %14d   %13d   (sum %.0f)",
+                shape, n, bruteNs, gridNs, sink));
+    }
+
+    /**
+     * Containment cost and correctness of the three edge models: straight
+     * lat/lon edges, great circle edges through the cached projection, and
+     * the spherical winding reference that does trig for every edge.
+     * Wrong counts are against the reference.
+     */
+    static void benchProjection() {
+        System.out.println("== edge models ==");
+        System.out.println("  polygon        vertices   planar ns (wrong)   projected ns (wrong)   spherical ns");
+        benchProjection("zone 1 deg", PreparedPolygonTest.starPolygon(new Random(7), 500, 38.0, -77.0, 0.5));
+        benchProjection("zone 20 deg", PreparedPolygonTest.starPolygon(new Random(7), 500, 45.0, 10.0, 10));
+        benchProjection("continent", ProjectedPolygonTest.CONTINENT);
+        benchProjection("antimeridian", ProjectedPolygonTest.ANTIMERIDIAN);
+        benchProjection("polar cap", ProjectedPolygonTest.polarCap(80, 72));
+    }
+
+    private static void benchProjection(String name, double[] coords) {
+        int n = coords.length / 2;
+        Region planar = PreparedPolygon.prepare(coords, n);
+        Region projected = ProjectedPolygon.prepare(coords, n);
+        Envelope e = projected.getEnvelope();
+
+        Random rnd = new Random(3);
+        int queries = 5_000;
+        double[] lats = new double[queries];
+        double[] lons = new double[queries];
+        boolean[] truth = new boolean[queries];
+        for (int i = 0; i < queries; i++) {
+            lats[i] = e.minLat + rnd.nextDouble() * (e.maxLat - e.minLat);
+            lons[i] = e.minLon + rnd.nextDouble() * (e.maxLon - e.minLon);
+            truth[i] = ProjectedPolygonTest.sphericalContains(coords, lats[i], lons[i]);
+        }
+
+        long planarNs = timeContains(planar, lats, lons);
+        long projectedNs = timeContains(projected, lats, lons);
+        long t0 = System.nanoTime();
+        int sink = 0;
+        for (int i = 0; i < queries; i++) {
+            if (ProjectedPolygonTest.sphericalContains(coords, lats[i], lons[i])) sink++;
+        }
+        long sphericalNs = (System.nanoTime() - t0) / queries;
+
+        System.out.println(String.format(Locale.US, "  %-12s   %8d   %9d (%5d)   %12d (%5d)   %12d   (inside %d)",
+                name, n, planarNs, wrong(planar, lats, lons, truth),
+                projectedNs, wrong(projected, lats, lons, truth), sphericalNs, sink));
+    }
+
+    /**
+     * Best of several passes, the first ones double as warm up
+     */
+    private static long timeContains(Region region, double[] lats, double[] lons) {
+        int sink = 0;
+        long best = Long.MAX_VALUE;
+        for (int pass = 0; pass < 10; pass++) {
+            long t0 = System.nanoTime();
+            for (int i = 0; i < lats.length; i++) {
+                if (region.contains(lats[i], lons[i])) sink++;
+            }
+            best = Math.min(best, (System.nanoTime() - t0) / lats.length);
+        }
+        return sink < 0 ? -1 : best;
+    }
+
+    private static int wrong(Region region, double[] lats, double[] lons, boolean[] truth) {
+        int wrong = 0;
+        for (int i = 0; i < lats.length; i++) {
+            if (region.contains(lats[i], lons[i]) != truth[i]) wrong++;
+        }
+        return wrong;
+    }
+
+    /**
+     * Allocation per vertex tap and per containment query, boxed point list
+     * (the old List&lt;GeoPoint&gt; layout) against the packed vertex store.
+     */
+    static void benchVertexStorage() {
+        System.out.println("== vertex storage ==");
+        final int taps = 200;
+        final int rounds = 200;
+        Random rnd = new Random(5);
+        double[] coords = PreparedPolygonTest.starPolygon(rnd, taps, 38.0, -77.0, 0.5);
+
+        long sink = 0;
+        long before = allocatedBytes();
+        for (int round = 0; round < rounds; round++) {
+            List<Point> vertices = new ArrayList<>();
+            for (int i = 0; i < taps; i++) {
+                vertices.add(new Point(coords[2 * i], coords[2 * i + 1]));
+                // getVertices() copy, closing copy and toArray() per tap
+                List<Point> copy = new ArrayList<>(vertices);
+                List<Point> closed = new ArrayList<>(copy);
+                closed.add(copy.get(0));
+                sink += closed.toArray(new Point[0]).length;
+            }
+        }
+        long legacyTapBytes = (allocatedBytes() - before) / ((long) rounds * taps);
+
+        before = allocatedBytes();
+        for (int round = 0; round < rounds; round++) {
+            VertexStore store = new VertexStore();
+            Point[] cache = new Point[16];
+            for (int i = 0; i < taps; i++) {
+                store.add(coords[2 * i], coords[2 * i + 1]);
+                if (i == cache.length) {
+                    cache = java.util.Arrays.copyOf(cache, i * 2);
+                }
+                cache[i] = new Point(coords[2 * i], coords[2 * i + 1]);
+                // toGeoPoints(): one array copy, points are reused
+                Point[] points = java.util.Arrays.copyOf(cache, store.size() + 1);
+                points[store.size()] = points[0];
+                sink += points.length;
+            }
+        }
+        long packedTapBytes = (allocatedBytes() - before) / ((long) rounds * taps);
+
+        List<Point> boxed = new ArrayList<>();
+        VertexStore packed = new VertexStore();
+        for (int i = 0; i < taps; i++) {
+            boxed.add(new Point(coords[2 * i], coords[2 * i + 1]));
+            packed.add(coords[2 * i], coords[2 * i + 1]);
+        }
+        double[] view = packed.toArray();
+        int queries = 200_000;
+        for (int i = 0; i < queries; i++) {
+            if (boxedRayCast(boxed, 38.0, -77.0 + i * 1e-6)) sink++;
+            if (PreparedPolygonTest.rayCast(view, 38.0, -77.0 + i * 1e-6)) sink++;
+        }
+
+        before = allocatedBytes();
+        long t0 = System.nanoTime();
+        for (int i = 0; i < queries; i++) {
+            if (boxedRayCast(boxed, 37.6 + i * 4e-6, -77.0)) sink++;
+        }
+        long boxedNs = (System.nanoTime() - t0) / queries;
+        long boxedBytes = allocatedBytes() - before;
+
+        before = allocatedBytes();
+        t0 = System.nanoTime();
+        for (int i = 0; i < queries; i++) {
+            if (PreparedPolygonTest.rayCast(view, 37.6 + i * 4e-6, -77.0)) sink++;
+        }
+        long packedNs = (System.nanoTime() - t0) / queries;
+        long packedBytes = allocatedBytes() - before;
+
+        System.out.println(String.format(Locale.US,
+                "  bytes per tap (%d-vertex polygon): boxed list %d, packed store %d", taps, legacyTapBytes, packedTapBytes));
+        System.out.println(String.format(Locale.US,
+                "  full ray cast: boxed %d ns/query (%d bytes total), packed %d ns/query (%d bytes total)   (sink %d)",
+                boxedNs, boxedBytes, packedNs, packedBytes, sink));
+    }
+
+    /**
+     * Vertices removed and containment speedup from simplifying a densely
+     * surveyed boundary, for both simplifiers at a few tolerances
+     */
+    static void benchSimplification() {
+        System.out.println("== simplification ==");
+        System.out.println("  method         tol m   vertices   removed   simplify ms   contains ns   nearest ns   speedup");
+        double[] coords = PolygonSimplifierTest.surveyPolygon(new Random(4), 20_000, 38.9, -77.0, 0.05, 0.3);
+        int n = coords.length / 2;
+        PreparedPolygon original = PreparedPolygon.prepare(coords, n);
+        Envelope e = original.getEnvelope();
+        Random rnd = new Random(9);
+        int queries = 20_000;
+        double[] lats = new double[queries];
+        double[] lons = new double[queries];
+        for (int i = 0; i < queries; i++) {
+            lats[i] = e.minLat + rnd.nextDouble() * (e.maxLat - e.minLat);
+            lons[i] = e.minLon + rnd.nextDouble() * (e.maxLon - e.minLon);
+        }
+        long baseContains = timeContains(original, lats, lons);
+        long baseNearest = timeNearest(original, lats, lons);
+        System.out.println(String.format(Locale.US, "  %-12s   %5s   %8d   %7d   %11s   %11d   %10d   %6.1fx",
+                "original", "-", n, 0, "-", baseContains, baseNearest, 1.0));
+        for (double tolerance : new double[] {1, 5, 20}) {
+            for (boolean conservative : new boolean[] {false, true}) {
+                long t0 = System.nanoTime();
+                PolygonSimplifier.Result result = conservative
+                        ? PolygonSimplifier.conservative(coords, n, tolerance)
+                        : PolygonSimplifier.douglasPeucker(coords, n, tolerance);
+                long simplifyMs = (System.nanoTime() - t0) / 1_000_000;
+                PreparedPolygon simplified = PreparedPolygon.prepare(result.coords, result.vertexCount);
+                long containsNs = timeContains(simplified, lats, lons);
+                long nearestNs = timeNearest(simplified, lats, lons);
+                System.out.println(String.format(Locale.US, "  %-12s   %5.0f   %8d   %7d   %11d   %11d   %10d   %6.1fx",
+                        conservative ? "conservative" : "douglas", tolerance, result.vertexCount,
+                        result.removed, simplifyMs, containsNs, nearestNs,
+                        (double) baseNearest / Math.max(1, nearestNs)));
+            }
+        }
+    }
+
+    /**
+     * Start up cost of a large zone set: preparing every polygon and
+     * building the index, as a re-import does, against mapping a
+     * {@link com.atakmap.android.feature4boundaryalert.plugin.geofence.GeofenceFile}
+     */
+    static void benchStorage() {
+        System.out.println("== geofence file ==");
+        System.out.println("  zones   vertices   import ms   save ms   file KB   load ms   first 1000 queries ms");
+        for (int zones : new int[] {1_000, 5_000}) {
+            Random rnd = new Random(6);
+            List<double[]> parsed = new ArrayList<>();
+            for (int i = 0; i < zones; i++) {
+                parsed.add(PreparedPolygonTest.starPolygon(rnd, 300, 34.0 + rnd.nextDouble() * 5,
+                        -117.0 + rnd.nextDouble() * 5, 0.01));
+            }
+            double[] lats = new double[1000];
+            double[] lons = new double[1000];
+            for (int q = 0; q < lats.length; q++) {
+                lats[q] = 34.0 + rnd.nextDouble() * 5;
+                lons[q] = -117.0 + rnd.nextDouble() * 5;
+            }
+
+            long t0 = System.nanoTime();
+            List<Geofence> list = new ArrayList<>();
+            for (int i = 0; i < zones; i++) {
+                list.add(new PolygonGeofence("z" + i, parsed.get(i).clone()));
+            }
+            GeofenceManager imported = new GeofenceManager();
+            imported.addAll(list);
+            imported.getContainingIds(0, 0);
+            long importMs = (System.nanoTime() - t0) / 1_000_000;
+
+            try {
+                File file = File.createTempFile("bench", ".geof");
+                file.deleteOnExit();
+                t0 = System.nanoTime();
+                imported.save(file);
+                long saveMs = (System.nanoTime() - t0) / 1_000_000;
+
+                t0 = System.nanoTime();
+                GeofenceManager loaded = new GeofenceManager();
+                loaded.load(file);
+                loaded.getContainingIds(0, 0);
+                long loadUs = (System.nanoTime() - t0) / 1_000;
+                t0 = System.nanoTime();
+                int hits = 0;
+                for (int q = 0; q < lats.length; q++) {
+                    hits += loaded.getContainingIds(lats[q], lons[q]).size();
+                }
+                long queryMs = (System.nanoTime() - t0) / 1_000_000;
+                System.out.println(String.format(Locale.US, "  %5d   %8d   %9d   %7d   %7d   %7.1f   %21d   (hits %d)",
+                        zones, 300 * zones, importMs, saveMs, file.length() / 1024, loadUs / 1000.0, queryMs, hits));
+            } catch (IOException e) {
+                System.out.println("  " + zones + " zones: " + e);
+            }
+        }
+    }
+
+    /**
+     * Streaming import of a generated GeoJSON overlay straight into a
+     * geofence file. The document is produced on the fly, so the heap
+     * figure is what the importer itself holds on to.
+     */
+    static void benchImport() {
+        System.out.println("== streaming import ==");
+        System.out.println("  features   vertices   input MB   ms   MB/s   peak heap growth MB");
+        for (int features : new int[] {1_000, 10_000}) {
+            final int vertices = 500;
+            final CountingReader input = new CountingReader(new GeofenceImporterTest.GeneratedGeoJson(features, vertices));
+            final Runtime runtime = Runtime.getRuntime();
+            System.gc();
+            final long baseline = runtime.totalMemory() - runtime.freeMemory();
+            final long[] peak = new long[1];
+            try {
+                File file = File.createTempFile("bench", ".geof");
+                file.deleteOnExit();
+                long t0 = System.nanoTime();
+                try (final GeofenceFile.Writer writer = new GeofenceFile.Writer(file)) {
+                    new GeofenceImporter().read(input, GeofenceImporter.Format.GEOJSON, new GeofenceImporter.Sink() {
+                        @Override
+                        public void polygon(String id, double[] coords, int vertexCount) throws IOException {
+                            writer.addPolygon(id, coords, vertexCount);
+                            if (writer.size() % 500 == 0) {
+                                peak[0] = Math.max(peak[0], runtime.totalMemory() - runtime.freeMemory() - baseline);
+                            }
+                        }
+                    });
+                    writer.commit();
+                }
+                long ms = (System.nanoTime() - t0) / 1_000_000;
+                double mb = input.count / (1024.0 * 1024.0);
+                System.out.println(String.format(Locale.US, "  %8d   %8d   %8.1f   %5d   %5.1f   %19.1f",
+                        features, features * vertices, mb, ms, mb * 1000 / Math.max(ms, 1),
+                        peak[0] / (1024.0 * 1024.0)));
+            } catch (IOException e) {
+                System.out.println("  " + features + " features: " + e);
+            }
+        }
+    }
+
+    /**
+     * Counts the characters passed through
+     */
+    private static final class CountingReader extends Reader {
+        private final Reader in;
+        long count;
+
+        CountingReader(Reader in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read(char[] buf, int off, int len) throws IOException {
+            int n = in.read(buf, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static long timeNearest(Region region, double[] lats, double[] lons) {
+        double sink = 0;
+        long best = Long.MAX_VALUE;
+        for (int pass = 0; pass < 5; pass++) {
+            long t0 = System.nanoTime();
+            for (int i = 0; i < lats.length; i++) {
+                sink += region.nearestEdge(lats[i], lons[i]).signedMeters;
+            }
+            best = Math.min(best, (System.nanoTime() - t0) / lats.length);
+        }
+        return sink == Double.MAX_VALUE ? -1 : best;
+    }
+
+    /**
+     * Circle with a gentle random wobble on the radius
+     */
+    private static double[] smoothPolygon(Random rnd, int vertices, double cLat, double cLon, double radius) {
+        double[] coords = new double[2 * vertices];
+        double wobble = 0;
+        for (int v = 0; v < vertices; v++) {
+            double a = 2 * Math.PI * v / vertices;
+            wobble = 0.9 * wobble + 0.1 * (rnd.nextDouble() - 0.5);
+            double r = radius * (1 + 0.1 * wobble);
+            coords[2 * v] = cLat + r * Math.sin(a);
+            coords[2 * v + 1] = cLon + r * Math.cos(a);
+        }
+        return coords;
+    }
+
+    private static boolean boxedRayCast(List<Point> vertices, double lat, double lon) {
+        boolean inside = false;
+        int j = vertices.size() - 1;
+        for (int i = 0; i < vertices.size(); i++) {
+            double lat_i = vertices.get(i).lat;
+            double lon_i = vertices.get(i).lon;
+            double lat_j = vertices.get(j).lat;
+            double lon_j = vertices.get(j).lon;
+            if ((lon_i > lon) != (lon_j > lon) &&
+                (lat < (lat_j - lat_i) * (lon - lon_i) / (lon_j - lon_i) + lat_i)) {
+                inside = !inside;
+            }
+            j = i;
+        }
+        return inside;
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Stand-in for GeoPoint so the benchmark runs without the ATAK SDK
+     */
+    private static final class Point {
+        final double lat;
+        final double lon;
+
+        Point(double lat, double lon) {
+            this.lat = lat;
+            this.lon = lon;
+        }
+    }
+
+    private static int linearScan(List<PolygonGeofence> zones, double lat, double lon, List<String> out) {
+        int found = 0;
+        for (int i = 0; i < zones.size(); i++) {
+            PolygonGeofence g = zones.get(i);
+            if (g.contains(lat, lon)) {
+                out.add(g.getId());
+                found++;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Irregular polygon roughly 0.01 - 0.03 degrees across
+     */
+    static PolygonGeofence randomZone(String id, Random rnd, double extent) {
+        int vertices = 5 + rnd.nextInt(8);
+        double cLat = 34.0 + rnd.nextDouble() * extent;
+        double cLon = -117.0 + rnd.nextDouble() * extent;
+        double[] coords = new double[2 * vertices];
+        for (int v = 0; v < vertices; v++) {
+            double a = 2 * Math.PI * v / vertices;
+            double r = 0.005 + rnd.nextDouble() * 0.01;
+            coords[2 * v] = cLat + r * Math.sin(a);
+            coords[2 * v + 1] = cLon + r * Math.cos(a);
+        }
+        return new PolygonGeofence(id, coords);
+    }
+}
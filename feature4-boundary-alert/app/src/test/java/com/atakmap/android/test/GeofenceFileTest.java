@@ -0,0 +1,167 @@
+package com.atakmap.android.test;
+
+import static org.junit.Assert.*;
+
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.CircleGeofence;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.CorridorGeofence;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.Geofence;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.GeofenceFile;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.GeofenceManager;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.PolygonGeofence;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class GeofenceFileTest {
+
+    @Test
+    public void roundTripAnswersLikeTheOriginal() throws IOException {
+        Random rnd = new Random(21);
+        List<Geofence> zones = mixedZones(rnd, 900);
+        GeofenceManager original = new GeofenceManager();
+        original.addAll(zones);
+
+        File file = tempFile();
+        original.save(file);
+        GeofenceManager loaded = new GeofenceManager();
+        loaded.load(file);
+        assertEquals(zones.size(), loaded.size());
+
+        for (int q = 0; q < 5000; q++) {
+            double lat = 34.0 + rnd.nextDouble();
+            double lon = -117.0 + rnd.nextDouble();
+            assertEquals(original.getContainingIds(lat, lon), loaded.getContainingIds(lat, lon));
+        }
+        for (Geofence g : zones) {
+            Geofence stored = loaded.get(g.getId());
+            assertEquals(g.getEnvelope().minLat, stored.getEnvelope().minLat, 0);
+            assertEquals(g.getEnvelope().maxLon, stored.getEnvelope().maxLon, 0);
+            assertEquals(g.signedDistance(34.5, -116.5), stored.signedDistance(34.5, -116.5), 1e-9);
+        }
+    }
+
+    @Test
+    public void storedFileCanBeWrittenAgain() throws IOException {
+        File first = tempFile();
+        GeofenceFile.write(first, mixedZones(new Random(3), 30));
+        GeofenceFile stored = GeofenceFile.open(first);
+        File second = tempFile();
+        GeofenceFile.write(second, stored.getGeofences());
+        GeofenceFile copy = GeofenceFile.open(second);
+        assertEquals(stored.size(), copy.size());
+        for (int i = 0; i < stored.size(); i++) {
+            assertEquals(stored.getGeofences().get(i).getId(), copy.getGeofences().get(i).getId());
+            assertEquals(stored.getShape(i), copy.getShape(i));
+            assertEquals(stored.getCoordinates(i).length, copy.getCoordinates(i).length);
+        }
+    }
+
+    @Test
+    public void shapesAndCoordinatesAreKept() throws IOException {
+        double[] square = {0, 0, 0, 1, 1, 1, 1, 0};
+        File file = tempFile();
+        GeofenceFile.write(file, Collections.singletonList(new PolygonGeofence("sq", square.clone())));
+        GeofenceFile stored = GeofenceFile.open(file);
+        assertEquals(1, stored.size());
+        assertEquals(GeofenceFile.SHAPE_POLYGON, stored.getShape(0));
+        double[] coords = stored.getCoordinates(0);
+        assertEquals(8, coords.length);
+        for (int i = 0; i < 8; i++) {
+            assertEquals(square[i], coords[i], 0);
+        }
+        assertEquals(1, stored.getEnvelope().maxLat, 0);
+    }
+
+    @Test
+    public void rewriteReplacesTheFile() throws IOException {
+        File file = tempFile();
+        GeofenceFile.write(file, mixedZones(new Random(1), 50));
+        GeofenceFile.write(file, mixedZones(new Random(2), 10));
+        assertEquals(10, GeofenceFile.open(file).size());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void emptySetRoundTrips() throws IOException {
+        File file = tempFile();
+        GeofenceFile.write(file, new ArrayList<Geofence>());
+        GeofenceFile stored = GeofenceFile.open(file);
+        assertEquals(0, stored.size());
+        assertEquals(0, stored.getIndex().size());
+    }
+
+    @Test
+    public void foreignAndNewerFilesAreRejected() throws IOException {
+        File file = tempFile();
+        GeofenceFile.write(file, mixedZones(new Random(4), 5));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // bump the version, stored little endian after the magic
+            raf.seek(4);
+            raf.write(new byte[] {2, 0, 0, 0});
+        }
+        assertOpenFails(file);
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(0);
+            raf.write("<?xml version".getBytes("UTF-8"));
+        }
+        assertOpenFails(file);
+    }
+
+    @Test
+    public void truncatedFileIsRejected() throws IOException {
+        File file = tempFile();
+        GeofenceFile.write(file, mixedZones(new Random(5), 200));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() / 2);
+        }
+        assertOpenFails(file);
+    }
+
+    static List<Geofence> mixedZones(Random rnd, int count) {
+        List<Geofence> zones = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            double lat = 34.0 + rnd.nextDouble();
+            double lon = -117.0 + rnd.nextDouble();
+            switch (i % 3) {
+                case 0:
+                    zones.add(GeofenceBenchmark.randomZone("p" + i, rnd, 1.0));
+                    break;
+                case 1:
+                    zones.add(new CircleGeofence("c" + i, lat, lon, 200 + rnd.nextDouble() * 3000));
+                    break;
+                default:
+                    double[] path = new double[8];
+                    for (int k = 0; k < 4; k++) {
+                        path[2 * k] = lat + (rnd.nextDouble() - 0.5) * 0.05;
+                        path[2 * k + 1] = lon + (rnd.nextDouble() - 0.5) * 0.05;
+                    }
+                    zones.add(new CorridorGeofence("r" + i, path, 50 + rnd.nextDouble() * 500));
+                    break;
+            }
+        }
+        return zones;
+    }
+
+    private static void assertOpenFails(File file) {
+        try {
+            GeofenceFile.open(file);
+            fail("opened " + file);
+        } catch (IOException expected) {
+            // rejected
+        }
+    }
+
+    private static File tempFile() throws IOException {
+        File file = File.createTempFile("geofences", ".geof");
+        file.deleteOnExit();
+        return file;
+    }
+}
@@ -0,0 +1,306 @@
+package com.atakmap.android.test;
+
+import static org.junit.Assert.*;
+
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.GeofenceFile;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.GeofenceImporter;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.GeofenceManager;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class GeofenceImporterTest {
+
+    private static final String KML =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<kml:kml xmlns:kml=\"http://www.opengis.net/kml/2.2\">\n"
+            + "<!-- generated -- by hand -->\n"
+            + "<kml:Document><kml:name>ignored</kml:name>\n"
+            + "<kml:Style id=\"s\"><kml:LineStyle><kml:width>2</kml:width></kml:LineStyle></kml:Style>\n"
+            + "<kml:Placemark id=\"pm1\">\n"
+            + "  <kml:name><![CDATA[North <field>]]></kml:name>\n"
+            + "  <kml:description>a &amp; b</kml:description>\n"
+            + "  <kml:Polygon><kml:outerBoundaryIs><kml:LinearRing>\n"
+            + "    <kml:coordinates>\n"
+            + "      -117.0,34.0,0 -116.9,34.0,0\n"
+            + "      -116.9,34.1,0 -117.0,34.1,0 -117.0,34.0,0\n"
+            + "    </kml:coordinates>\n"
+            + "  </kml:LinearRing></kml:outerBoundaryIs>\n"
+            + "  <kml:innerBoundaryIs><kml:LinearRing><kml:coordinates>"
+            + "-116.96,34.04 -116.94,34.04 -116.94,34.06 -116.96,34.04"
+            + "</kml:coordinates></kml:LinearRing></kml:innerBoundaryIs>\n"
+            + "  </kml:Polygon>\n"
+            + "</kml:Placemark>\n"
+            + "<Placemark id=\"pm2\"><MultiGeometry>\n"
+            + "  <Polygon><outerBoundaryIs><LinearRing><coordinates>1,1 2,1 2,2 1,1</coordinates>"
+            + "</LinearRing></outerBoundaryIs></Polygon>\n"
+            + "  <Polygon><outerBoundaryIs><LinearRing><coordinates>5,5 6,5 6,6</coordinates>"
+            + "</LinearRing></outerBoundaryIs></Polygon>\n"
+            + "  <LineString><coordinates>7,7 8,8</coordinates></LineString>\n"
+            + "</MultiGeometry></Placemark>\n"
+            + "<Placemark><name>thin</name><Polygon><outerBoundaryIs><LinearRing>"
+            + "<coordinates>0,0 1,1 0,0</coordinates></LinearRing></outerBoundaryIs></Polygon></Placemark>\n"
+            + "<Placemark/>\n"
+            + "</kml:Document></kml:kml>\n";
+
+    private static final String GEOJSON =
+            "{\"type\": \"FeatureCollection\", \"name\": \"zones\",\n"
+            + " \"features\": [\n"
+            + "  {\"type\": \"Feature\", \"geometry\": {\"type\": \"Polygon\", \"coordinates\":\n"
+            + "     [[[-117.0, 34.0], [-116.9, 34.0], [-116.9, 34.1], [-117.0, 34.1], [-117.0, 34.0]],\n"
+            + "      [[-116.96, 34.04], [-116.94, 34.04], [-116.94, 34.06], [-116.96, 34.04]]]},\n"
+            + "   \"properties\": {\"name\": \"North \\\"field\\\"\", \"tags\": [1, {\"a\": \"]}\"}]}},\n"
+            + "  {\"type\": \"Feature\", \"id\": 17, \"properties\": null,\n"
+            + "   \"geometry\": {\"type\": \"MultiPolygon\", \"coordinates\":\n"
+            + "     [[[[1, 1, 10], [2, 1, 10], [2, 2, 10], [1, 1, 10]]],\n"
+            + "      [[[5e0, 5], [6, 5], [6, 6]]]]}},\n"
+            + "  {\"type\": \"Feature\", \"properties\": {\"name\": \"road\"},\n"
+            + "   \"geometry\": {\"type\": \"LineString\", \"coordinates\": [[0, 0], [1, 1], [2, 0]]}},\n"
+            + "  {\"type\": \"Feature\", \"properties\": {\"name\": \"both\"},\n"
+            + "   \"geometry\": {\"type\": \"GeometryCollection\", \"geometries\": [\n"
+            + "     {\"type\": \"Point\", \"coordinates\": [3, 3]},\n"
+            + "     {\"type\": \"Polygon\", \"coordinates\": [[[3, 3], [4, 3], [4, 4], [3, 3]]]}]}}\n"
+            + " ]}";
+
+    @Test
+    public void kmlPlacemarksBecomePolygons() throws IOException {
+        GeofenceImporter importer = new GeofenceImporter();
+        Map<String, double[]> polygons = read(importer, new StringReader(KML), GeofenceImporter.Format.KML);
+
+        assertEquals(3, importer.getImportedCount());
+        assertEquals(1, importer.getSkippedCount());
+        assertEquals(1, importer.getHoleCount());
+        assertEquals("[North <field>, pm2, pm2-2]", new ArrayList<>(polygons.keySet()).toString());
+
+        // closing vertex dropped, lat before lon
+        double[] north = polygons.get("North <field>");
+        assertEquals(8, north.length);
+        assertEquals(34.0, north[0], 0);
+        assertEquals(-117.0, north[1], 0);
+        assertEquals(34.1, north[4], 0);
+        assertEquals(-116.9, north[5], 0);
+        assertEquals(6, polygons.get("pm2").length);
+        assertEquals(6, polygons.get("pm2-2").length);
+    }
+
+    @Test
+    public void geoJsonFeaturesBecomePolygons() throws IOException {
+        GeofenceImporter importer = new GeofenceImporter();
+        Map<String, double[]> polygons = read(importer, new StringReader(GEOJSON), GeofenceImporter.Format.GEOJSON);
+
+        assertEquals(4, importer.getImportedCount());
+        assertEquals(1, importer.getHoleCount());
+        assertEquals("[North \"field\", 17, 17-2, both]", new ArrayList<>(polygons.keySet()).toString());
+
+        double[] north = polygons.get("North \"field\"");
+        assertEquals(8, north.length);
+        assertEquals(34.0, north[0], 0);
+        assertEquals(-117.0, north[1], 0);
+        double[] second = polygons.get("17-2");
+        assertEquals(5, second[0], 0);
+        assertEquals(5, second[1], 0);
+        assertEquals(6, second[4], 0);
+    }
+
+    @Test
+    public void bareGeometryIsImported() throws IOException {
+        GeofenceImporter importer = new GeofenceImporter();
+        Map<String, double[]> polygons = read(importer,
+                new StringReader("{\"coordinates\": [[[0,0],[1,0],[1,1]]], \"type\": \"Polygon\"}"),
+                GeofenceImporter.Format.GEOJSON);
+        assertEquals(1, polygons.size());
+        assertEquals("polygon-1", polygons.keySet().iterator().next());
+    }
+
+    @Test
+    public void malformedInputIsAnIOException() {
+        String[] broken = {
+                "{\"type\": \"Polygon\", \"coordinates\": [[[0,0],[1,0],[1,",
+                "[1, 2]",
+                "{\"type\": \"Polygon\", \"coordinates\": [[[0,x],[1,0],[1,1]]]}",
+        };
+        for (String json : broken) {
+            try {
+                new GeofenceImporter().read(new StringReader(json), GeofenceImporter.Format.GEOJSON, ignore());
+                fail("accepted " + json);
+            } catch (IOException expected) {
+                // rejected
+            }
+        }
+        try {
+            new GeofenceImporter().read(new StringReader("<kml><Placemark><Polygon><outerBoundaryIs>"
+                    + "<coordinates>1;2 3,4</coordinates></outerBoundaryIs></Polygon></Placemark></kml>"),
+                    GeofenceImporter.Format.KML, ignore());
+            fail("accepted bad coordinates");
+        } catch (IOException expected) {
+            // rejected
+        }
+    }
+
+    @Test
+    public void importToFileMatchesImportToManager() throws IOException {
+        File kml = File.createTempFile("overlay", ".kml");
+        kml.deleteOnExit();
+        writeString(kml, KML);
+        File target = File.createTempFile("overlay", ".geof");
+        target.deleteOnExit();
+
+        assertEquals(3, new GeofenceImporter().importToFile(kml, target));
+        assertFalse(new File(target.getPath() + ".coords.tmp").exists());
+        GeofenceManager fromFile = new GeofenceManager();
+        fromFile.load(target);
+        GeofenceManager direct = new GeofenceManager();
+        assertEquals(3, new GeofenceImporter().importTo(kml, direct));
+
+        assertEquals(direct.size(), fromFile.size());
+        assertEquals(GeofenceFile.SHAPE_POLYGON, GeofenceFile.open(target).getShape(0));
+        for (double lat = 33.95; lat < 34.15; lat += 0.01) {
+            for (double lon = -117.05; lon < -116.85; lon += 0.01) {
+                assertEquals(direct.getContainingIds(lat, lon), fromFile.getContainingIds(lat, lon));
+            }
+        }
+        assertTrue(fromFile.getContainingIds(34.05, -116.95).contains("North <field>"));
+        assertTrue(fromFile.getContainingIds(1.2, 1.5).contains("pm2"));
+    }
+
+    @Test
+    public void largeDocumentStreamsOnePolygonAtATime() throws IOException {
+        final int features = 2000;
+        final int vertices = 500;
+        final int[] largest = new int[1];
+        GeofenceImporter importer = new GeofenceImporter();
+        importer.read(new GeneratedGeoJson(features, vertices), GeofenceImporter.Format.GEOJSON,
+                new GeofenceImporter.Sink() {
+                    @Override
+                    public void polygon(String id, double[] coords, int vertexCount) {
+                        // the buffer handed over never holds more than one ring
+                        largest[0] = Math.max(largest[0], coords.length / 2);
+                    }
+                });
+        assertEquals(features, importer.getImportedCount());
+        assertTrue(largest[0] < 2 * vertices);
+    }
+
+    @Test
+    public void simplificationAppliesToEachPolygon() throws IOException {
+        final int[] counts = new int[2];
+        GeofenceImporter importer = new GeofenceImporter();
+        importer.setSimplification(5, false);
+        importer.read(new GeneratedGeoJson(2, 2000), GeofenceImporter.Format.GEOJSON, new GeofenceImporter.Sink() {
+            int n;
+
+            @Override
+            public void polygon(String id, double[] coords, int vertexCount) {
+                counts[n++] = vertexCount;
+            }
+        });
+        assertTrue(counts[0] < 2000 && counts[0] >= 3);
+        assertTrue(counts[1] < 2000 && counts[1] >= 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownExtensionIsRejected() {
+        GeofenceImporter.Format.forFile(new File("zones.shp"));
+    }
+
+    private static Map<String, double[]> read(GeofenceImporter importer, Reader reader,
+                                              GeofenceImporter.Format format) throws IOException {
+        final Map<String, double[]> polygons = new LinkedHashMap<>();
+        importer.read(reader, format, new GeofenceImporter.Sink() {
+            @Override
+            public void polygon(String id, double[] coords, int vertexCount) {
+                double[] copy = new double[2 * vertexCount];
+                System.arraycopy(coords, 0, copy, 0, copy.length);
+                polygons.put(id, copy);
+            }
+        });
+        return polygons;
+    }
+
+    private static GeofenceImporter.Sink ignore() {
+        return new GeofenceImporter.Sink() {
+            @Override
+            public void polygon(String id, double[] coords, int vertexCount) {
+            }
+        };
+    }
+
+    private static void writeString(File file, String text) throws IOException {
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8")) {
+            out.write(text);
+        }
+    }
+
+    /**
+     * A FeatureCollection of circle-like polygons produced on demand, so
+     * the document itself is never held in memory
+     */
+    static final class GeneratedGeoJson extends Reader {
+        private final int features;
+        private final int vertices;
+        private final StringBuilder chunk = new StringBuilder();
+        private int chunkPos;
+        private int feature = -1;
+
+        GeneratedGeoJson(int features, int vertices) {
+            this.features = features;
+            this.vertices = vertices;
+        }
+
+        @Override
+        public int read(char[] buf, int off, int len) {
+            if (chunkPos == chunk.length() && !next()) {
+                return -1;
+            }
+            int n = Math.min(len, chunk.length() - chunkPos);
+            chunk.getChars(chunkPos, chunkPos + n, buf, off);
+            chunkPos += n;
+            return n;
+        }
+
+        private boolean next() {
+            chunk.setLength(0);
+            chunkPos = 0;
+            if (feature == -1) {
+                chunk.append("{\"type\":\"FeatureCollection\",\"features\":[");
+            } else if (feature < features) {
+                if (feature > 0) {
+                    chunk.append(',');
+                }
+                double lat = 34 + (feature % 100) * 0.01;
+                double lon = -117 + (feature / 100) * 0.01;
+                chunk.append("{\"type\":\"Feature\",\"properties\":{\"name\":\"z").append(feature)
+                        .append("\"},\"geometry\":{\"type\":\"Polygon\",\"coordinates\":[[");
+                for (int i = 0; i <= vertices; i++) {
+                    double a = 2 * Math.PI * (i % vertices) / vertices;
+                    if (i > 0) {
+                        chunk.append(',');
+                    }
+                    chunk.append('[').append(lon + 0.004 * Math.cos(a)).append(',')
+                            .append(lat + 0.004 * Math.sin(a)).append(']');
+                }
+                chunk.append("]]}}");
+            } else if (feature == features) {
+                chunk.append("]}");
+            } else {
+                return false;
+            }
+            feature++;
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
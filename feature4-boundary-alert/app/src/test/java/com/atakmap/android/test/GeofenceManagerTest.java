@@ -0,0 +1,54 @@
+package com.atakmap.android.test;
+
+import static org.junit.Assert.*;
+
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.GeofenceManager;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.PolygonGeofence;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class GeofenceManagerTest {
+
+    @Test
+    public void indexMatchesLinearScan() {
+        Random rnd = new Random(7);
+        List<PolygonGeofence> zones = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            zones.add(GeofenceBenchmark.randomZone("z" + i, rnd, 1.0));
+        }
+        GeofenceManager manager = new GeofenceManager();
+        manager.addAll(zones);
+
+        for (int q = 0; q < 5000; q++) {
+            double lat = 34.0 + rnd.nextDouble();
+            double lon = -117.0 + rnd.nextDouble();
+            Set<String> expected = new HashSet<>();
+            for (PolygonGeofence g : zones) {
+                if (g.contains(lat, lon)) {
+                    expected.add(g.getId());
+                }
+            }
+            assertEquals(expected, manager.getContainingIds(lat, lon));
+        }
+    }
+
+    @Test
+    public void removeRebuildsIndex() {
+        GeofenceManager manager = new GeofenceManager();
+        manager.add(new PolygonGeofence("a", new double[] { 0, 0, 0, 1, 1, 1, 1, 0 }));
+        manager.add(new PolygonGeofence("b", new double[] { 0.5, 0.5, 0.5, 2, 2, 2, 2, 0.5 }));
+        assertEquals(2, manager.getContainingIds(0.75, 0.75).size());
+
+        assertTrue(manager.remove("a"));
+        Set<String> ids = manager.getContainingIds(0.75, 0.75);
+        assertEquals(1, ids.size());
+        assertTrue(ids.contains("b"));
+        assertTrue(manager.getContainingIds(5, 5).isEmpty());
+    }
+}
@@ -0,0 +1,150 @@
+package com.atakmap.android.test;
+
+import static org.junit.Assert.*;
+
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.CircleGeofence;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.CorridorGeofence;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.Envelope;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.GeoMath;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.Geofence;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.GeofenceManager;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class GeofenceShapesTest {
+
+    @Test
+    public void circleMatchesHaversine() {
+        CircleGeofence circle = new CircleGeofence("c", 38.9, -77.0, 1500);
+        Random rnd = new Random(3);
+        for (int q = 0; q < 2000; q++) {
+            double lat = 38.9 + (rnd.nextDouble() - 0.5) * 0.04;
+            double lon = -77.0 + (rnd.nextDouble() - 0.5) * 0.05;
+            double meters = GeoMath.distanceMeters(38.9, -77.0, lat, lon);
+            if (Math.abs(meters - 1500) > 1e-6) {
+                assertEquals(meters < 1500, circle.contains(lat, lon));
+            }
+            assertEquals(meters - 1500, circle.signedDistance(lat, lon), 1e-6);
+        }
+    }
+
+    @Test
+    public void circleEnvelopeIsTight() {
+        CircleGeofence circle = new CircleGeofence("c", 60, 10, 50_000);
+        Envelope e = circle.getEnvelope();
+        // latitude where the circle is widest, a little poleward of the centre
+        double angle = 50_000 / GeoMath.EARTH_RADIUS_METERS;
+        double widest = Math.toDegrees(Math.asin(Math.sin(Math.toRadians(60)) / Math.cos(angle)));
+        assertTrue(circle.contains(widest, e.maxLon - 1e-6));
+        assertFalse(circle.contains(widest, e.maxLon + 1e-6));
+        assertEquals(60 + Math.toDegrees(50_000 / GeoMath.EARTH_RADIUS_METERS), e.maxLat, 1e-9);
+    }
+
+    @Test
+    public void circleAroundPoleAndAntimeridian() {
+        CircleGeofence polar = new CircleGeofence("p", 89.5, 0, 100_000);
+        assertEquals(90, polar.getEnvelope().maxLat, 0);
+        assertTrue(polar.contains(89.9, 179));
+        CircleGeofence dateLine = new CircleGeofence("d", 0, 179.9, 50_000);
+        assertEquals(-180, dateLine.getEnvelope().minLon, 0);
+        assertTrue(dateLine.contains(0, -179.9));
+    }
+
+    @Test
+    public void corridorMatchesBruteForce() {
+        double[] path = {38.90, -77.05, 38.92, -77.02, 38.91, -76.99, 38.95, -76.97};
+        CorridorGeofence corridor = new CorridorGeofence("r", path, 250);
+        Random rnd = new Random(11);
+        int inside = 0;
+        for (int q = 0; q < 2000; q++) {
+            double lat = 38.88 + rnd.nextDouble() * 0.09;
+            double lon = -77.07 + rnd.nextDouble() * 0.12;
+            double meters = pathDistance(path, lat, lon);
+            // the local plane and the sphere differ by well under a meter here
+            if (Math.abs(meters - 250) > 1) {
+                assertEquals(meters < 250, corridor.contains(lat, lon));
+            }
+            assertEquals(meters - 250, corridor.signedDistance(lat, lon), 1);
+            if (corridor.contains(lat, lon)) {
+                inside++;
+                assertTrue(corridor.getEnvelope().contains(lat, lon));
+            }
+        }
+        assertTrue(inside > 50);
+    }
+
+    @Test
+    public void corridorEndsAreRounded() {
+        CorridorGeofence corridor = new CorridorGeofence("r", new double[] {0, 0, 0, 0.01}, 100);
+        double lonPast = 0.01 + 90 / GeoMath.METERS_PER_DEGREE;
+        assertTrue(corridor.contains(0, lonPast));
+        assertFalse(corridor.contains(80 / GeoMath.METERS_PER_DEGREE, lonPast));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void corridorNeedsTwoPoints() {
+        new CorridorGeofence("r", new double[] {0, 0}, 100);
+    }
+
+    @Test
+    public void mixedShapesMatchLinearScan() {
+        Random rnd = new Random(19);
+        List<Geofence> zones = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            double lat = 34.0 + rnd.nextDouble();
+            double lon = -117.0 + rnd.nextDouble();
+            switch (i % 3) {
+                case 0:
+                    zones.add(GeofenceBenchmark.randomZone("p" + i, rnd, 1.0));
+                    break;
+                case 1:
+                    zones.add(new CircleGeofence("c" + i, lat, lon, 200 + rnd.nextDouble() * 3000));
+                    break;
+                default:
+                    double[] path = new double[8];
+                    for (int k = 0; k < 4; k++) {
+                        path[2 * k] = lat + (rnd.nextDouble() - 0.5) * 0.05;
+                        path[2 * k + 1] = lon + (rnd.nextDouble() - 0.5) * 0.05;
+                    }
+                    zones.add(new CorridorGeofence("r" + i, path, 50 + rnd.nextDouble() * 500));
+                    break;
+            }
+        }
+        GeofenceManager manager = new GeofenceManager();
+        manager.addAll(zones);
+
+        for (int q = 0; q < 5000; q++) {
+            double lat = 34.0 + rnd.nextDouble();
+            double lon = -117.0 + rnd.nextDouble();
+            Set<String> expected = new HashSet<>();
+            for (Geofence g : zones) {
+                if (g.contains(lat, lon)) {
+                    expected.add(g.getId());
+                }
+            }
+            assertEquals(expected, manager.getContainingIds(lat, lon));
+        }
+    }
+
+    /**
+     * Great circle distance to the polyline, sampling each segment finely
+     */
+    private static double pathDistance(double[] path, double lat, double lon) {
+        double best = Double.MAX_VALUE;
+        for (int s = 0; s + 3 < path.length; s += 2) {
+            for (int k = 0; k <= 2000; k++) {
+                double t = k / 2000.0;
+                double pLat = path[s] + t * (path[s + 2] - path[s]);
+                double pLon = path[s + 1] + t * (path[s + 3] - path[s + 1]);
+                best = Math.min(best, GeoMath.distanceMeters(lat, lon, pLat, pLon));
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,225 @@
+package com.atakmap.android.test;
+
+import static org.junit.Assert.*;
+
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.BatchContainment;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.BoundaryCrossing;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.BoundaryModel;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.GeoMath;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.Hysteresis;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.PreparedPolygon;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class HysteresisTest {
+
+    // roughly 1.1 km square; the west edge runs along lon -77.01
+    private static final double[] SQUARE = {38.0, -77.01, 38.01, -77.01, 38.01, -77.0, 38.0, -77.0};
+    private static final double EDGE_LON = -77.01;
+    private static final double LAT = 38.005;
+
+    @Test
+    public void jitterAlongEdgeProducesNoEvents() {
+        BoundaryModel model = squareModel(new Hysteresis(5, 5, 2000));
+        Random rnd = new Random(3);
+        List<BoundaryCrossing> out = new ArrayList<>();
+        double metersPerDegree = GeoMath.metersPerDegreeLon(LAT);
+        for (int s = 0; s < 600; s++) {
+            double jitter = (rnd.nextDouble() * 8 - 4) / metersPerDegree;
+            model.checkCrossings("T", LAT, EDGE_LON + jitter, s * 1000L, Long.MAX_VALUE, false, out);
+        }
+        assertEquals(0, out.size());
+
+        // the same track without the filter flips on most fixes
+        BoundaryModel unfiltered = squareModel(Hysteresis.NONE);
+        rnd = new Random(3);
+        for (int s = 0; s < 600; s++) {
+            double jitter = (rnd.nextDouble() * 8 - 4) / metersPerDegree;
+            unfiltered.checkCrossings("T", LAT, EDGE_LON + jitter, s * 1000L, Long.MAX_VALUE, false, out);
+        }
+        assertTrue(out.size() > 100);
+    }
+
+    @Test
+    public void eventIsConfirmedAfterDwell() {
+        BoundaryModel model = squareModel(new Hysteresis(5, 5, 2000));
+        List<BoundaryCrossing> out = new ArrayList<>();
+        double deep = EDGE_LON + 20 / GeoMath.metersPerDegreeLon(LAT);
+        double far = EDGE_LON - 20 / GeoMath.metersPerDegreeLon(LAT);
+
+        assertEquals(0, model.checkCrossings("T", LAT, deep, 1000, Long.MAX_VALUE, false, out));
+        assertEquals(0, model.checkCrossings("T", LAT, deep, 2000, Long.MAX_VALUE, false, out));
+        assertFalse(model.isInside("T"));
+        assertEquals(1, model.checkCrossings("T", LAT, deep, 3000, Long.MAX_VALUE, false, out));
+        assertTrue(out.get(0).entered);
+        assertEquals(3000, model.getEntryTime("T"));
+
+        // a brief excursion outside is not an exit
+        assertEquals(0, model.checkCrossings("T", LAT, far, 4000, Long.MAX_VALUE, false, out));
+        assertEquals(0, model.checkCrossings("T", LAT, deep, 5000, Long.MAX_VALUE, false, out));
+        assertEquals(0, model.checkCrossings("T", LAT, far, 6000, Long.MAX_VALUE, false, out));
+        assertEquals(0, model.checkCrossings("T", LAT, far, 7000, Long.MAX_VALUE, false, out));
+        assertTrue(model.isInside("T"));
+        assertEquals(1, model.checkCrossings("T", LAT, far, 8000, Long.MAX_VALUE, false, out));
+        assertFalse(out.get(1).entered);
+    }
+
+    @Test
+    public void segmentModeConfirmsACutCorner() {
+        // from west of the square to north of it, about 22 m inside the
+        // north-west corner at the deepest and inside for 4.3 s
+        BoundaryModel model = squareModel(new Hysteresis(5, 5, 2000));
+        List<BoundaryCrossing> out = new ArrayList<>();
+        assertEquals(0, model.checkCrossings("T", 38.008, -77.0115, 0, Long.MAX_VALUE, true, out));
+        assertEquals(2, model.checkCrossings("T", 38.0115, -77.008, 30_000, Long.MAX_VALUE, true, out));
+        BoundaryCrossing entry = out.get(0);
+        BoundaryCrossing exit = out.get(1);
+        assertTrue(entry.entered);
+        assertFalse(exit.entered);
+        // located on the edges, at the interpolated times
+        assertEquals(EDGE_LON, entry.lon, 1e-9);
+        assertEquals(38.01, exit.lat, 1e-9);
+        assertEquals(12_857, entry.timeMillis, 2);
+        assertEquals(17_143, exit.timeMillis, 2);
+        assertFalse(model.isInside("T"));
+
+        // the same fixes checked one by one never see the inside
+        BoundaryModel sampled = squareModel(new Hysteresis(5, 5, 2000));
+        sampled.checkCrossings("T", 38.008, -77.0115, 0, Long.MAX_VALUE, false, out);
+        assertEquals(0, sampled.checkCrossings("T", 38.0115, -77.008, 30_000, Long.MAX_VALUE, false, out));
+    }
+
+    @Test
+    public void segmentModeFiltersShallowAndBriefCuts() {
+        List<BoundaryCrossing> out = new ArrayList<>();
+        // inside the corner for 9 s, but never more than 3.5 m: within the buffer
+        BoundaryModel shallow = squareModel(new Hysteresis(5, 5, 2000));
+        shallow.checkCrossings("T", 38.00985, -77.01008, 0, Long.MAX_VALUE, true, out);
+        assertEquals(0, shallow.checkCrossings("T", 38.01008, -77.00985, 30_000, Long.MAX_VALUE, true, out));
+
+        // deep enough, but inside for well under the dwell time
+        BoundaryModel brief = squareModel(new Hysteresis(5, 5, 2000));
+        brief.checkCrossings("T", 38.008, -77.0115, 0, Long.MAX_VALUE, true, out);
+        assertEquals(0, brief.checkCrossings("T", 38.0115, -77.008, 3000, Long.MAX_VALUE, true, out));
+        assertEquals(0, out.size());
+
+        // without the filter both are reported
+        BoundaryModel unfiltered = squareModel(Hysteresis.NONE);
+        unfiltered.checkCrossings("T", 38.00985, -77.01008, 0, Long.MAX_VALUE, true, out);
+        assertEquals(2, unfiltered.checkCrossings("T", 38.01008, -77.00985, 30_000, Long.MAX_VALUE, true, out));
+    }
+
+    @Test
+    public void segmentModeConfirmsOnALaterFix() {
+        BoundaryModel model = squareModel(new Hysteresis(5, 5, 2000));
+        List<BoundaryCrossing> out = new ArrayList<>();
+        double metersPerDegree = GeoMath.metersPerDegreeLon(LAT);
+        double far = EDGE_LON - 10 / metersPerDegree;
+        double deep = EDGE_LON + 10 / metersPerDegree;
+        assertEquals(0, model.checkCrossings("T", LAT, far, 0, Long.MAX_VALUE, true, out));
+        // crosses the edge at 1000, and is past the buffer by 2000
+        assertEquals(0, model.checkCrossings("T", LAT, deep, 2000, Long.MAX_VALUE, true, out));
+        assertEquals(0, model.checkCrossings("T", LAT, deep, 3000, Long.MAX_VALUE, true, out));
+        assertEquals(1, model.checkCrossings("T", LAT, deep, 4000, Long.MAX_VALUE, true, out));
+        BoundaryCrossing entry = out.get(0);
+        assertTrue(entry.entered);
+        assertEquals(EDGE_LON, entry.lon, 1e-9);
+        assertEquals(1000, entry.timeMillis, 1);
+        assertEquals(entry.timeMillis, model.getEntryTime("T"));
+
+        // stepping back over the edge and in again starts over
+        assertEquals(0, model.checkCrossings("T", LAT, far, 5000, Long.MAX_VALUE, true, out));
+        assertEquals(0, model.checkCrossings("T", LAT, deep, 6000, Long.MAX_VALUE, true, out));
+        assertEquals(0, model.checkCrossings("T", LAT, far, 7000, Long.MAX_VALUE, true, out));
+        assertTrue(model.isInside("T"));
+    }
+
+    @Test
+    public void distanceToEdgeMatchesBruteForce() {
+        Random rnd = new Random(9);
+        double[] coords = PreparedPolygonTest.starPolygon(rnd, 2000, 38.0, -77.0, 0.05);
+        int n = coords.length / 2;
+        PreparedPolygon polygon = PreparedPolygon.prepare(coords, n);
+        for (int q = 0; q < 2000; q++) {
+            double lat = 37.94 + rnd.nextDouble() * 0.12;
+            double lon = -77.06 + rnd.nextDouble() * 0.12;
+            double max = 50 + rnd.nextDouble() * 500;
+            double expected = Math.min(max, bruteForceDistance(coords, n, lat, lon));
+            assertEquals(expected, polygon.distanceToEdge(lat, lon, max), 1e-6);
+        }
+    }
+
+    @Test
+    public void batchesAreFilteredToo() {
+        double metersPerDegree = GeoMath.metersPerDegreeLon(LAT);
+        for (boolean filtered : new boolean[] {true, false}) {
+            BoundaryModel model = squareModel(filtered ? new Hysteresis(5, 5, 2000) : Hysteresis.NONE);
+            Random rnd = new Random(3);
+            int events = 0;
+            // ten jittering tracks, a fix each per second, checked once a second
+            String[] uids = new String[10];
+            double[] lats = new double[10];
+            double[] lons = new double[10];
+            long[] times = new long[10];
+            long[] stales = new long[10];
+            for (int s = 0; s < 60; s++) {
+                for (int k = 0; k < 10; k++) {
+                    uids[k] = "T-" + k;
+                    lats[k] = LAT;
+                    lons[k] = EDGE_LON + (rnd.nextDouble() * 8 - 4) / metersPerDegree;
+                    times[k] = s * 1000L + k;
+                    stales[k] = Long.MAX_VALUE;
+                }
+                events += model.checkBatch(uids, lats, lons, times, stales, 10).transitions.size();
+            }
+            if (filtered) {
+                assertEquals(0, events);
+            } else {
+                assertTrue(events > 100);
+            }
+        }
+
+        // one track's fixes in a single batch, confirmed at the fix that completes the dwell
+        BoundaryModel model = squareModel(new Hysteresis(5, 5, 2000));
+        double deep = EDGE_LON + 20 / metersPerDegree;
+        BatchContainment.Result result = model.checkBatch(new String[] {"T", "T", "T"},
+                new double[] {LAT, LAT, LAT}, new double[] {deep, deep, deep},
+                new long[] {1000, 2000, 3000}, new long[] {Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE}, 3);
+        assertEquals(1, result.transitions.size());
+        assertTrue(result.transitions.get(0).entered);
+        assertEquals(2, result.transitions.get(0).index);
+        assertEquals(3000, model.getEntryTime("T"));
+    }
+
+    private static BoundaryModel squareModel(Hysteresis hysteresis) {
+        BoundaryModel model = new BoundaryModel();
+        for (int i = 0; i < SQUARE.length; i += 2) {
+            model.addVertex(SQUARE[i], SQUARE[i + 1]);
+        }
+        assertTrue(model.complete());
+        model.setHysteresis(hysteresis);
+        return model;
+    }
+
+    /**
+     * Every edge, in the same local plane the polygon uses
+     */
+    static double bruteForceDistance(double[] coords, int n, double lat, double lon) {
+        double kLat = GeoMath.METERS_PER_DEGREE;
+        double kLon = GeoMath.metersPerDegreeLon(lat);
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            int j = (i + 1) % n;
+            double ax = (coords[2 * i + 1] - lon) * kLon, ay = (coords[2 * i] - lat) * kLat;
+            double bx = (coords[2 * j + 1] - lon) * kLon, by = (coords[2 * j] - lat) * kLat;
+            double dx = bx - ax, dy = by - ay;
+            double t = Math.max(0, Math.min(1, -(ax * dx + ay * dy) / (dx * dx + dy * dy)));
+            best = Math.min(best, Math.hypot(ax + t * dx, ay + t * dy));
+        }
+        return best;
+    }
+}
@@ -0,0 +1,211 @@
+package com.atakmap.android.test;
+
+import static org.junit.Assert.*;
+
+import com.atakmap.android.feature4boundaryalert.plugin.cot.CotOutput;
+import com.atakmap.android.feature4boundaryalert.plugin.cot.CotWriter;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.GeoMath;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.CircleMotion;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.LawnmowerMotion;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.MotionModel;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.MotionState;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.RandomWalkMotion;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.RouteMotion;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.StraightMotion;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.SwarmSimulator;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.TrajectoryTable;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class MotionModelTest {
+
+    @Test
+    public void circleKeepsItsRadiusAndTurnsTheRightWay() {
+        MotionState s = new MotionState();
+        CircleMotion clockwise = new CircleMotion(34, -117, 500, 100, 0);
+        clockwise.sample(0, s);
+        assertTrue(s.lat > 34);
+        assertEquals(90, s.course, 1e-9);
+        clockwise.sample(25, s);
+        // a quarter lap clockwise from north is east
+        assertTrue(s.lon > -117);
+        assertEquals(180, s.course, 1e-9);
+        assertEquals(2 * Math.PI * 500 / 100, s.speed, 1e-9);
+        for (double t = 0; t < 300; t += 7.3) {
+            clockwise.sample(t, s);
+            assertEquals(500, GeoMath.distanceMeters(34, -117, s.lat, s.lon), 0.01);
+        }
+
+        // anticlockwise the quarter lap ends west, heading south
+        new CircleMotion(34, -117, 500, -100, 0).sample(25, s);
+        assertTrue(s.lon < -117);
+        assertEquals(180, s.course, 1e-9);
+        assertEquals(100, clockwise.getPeriodSeconds(), 0);
+    }
+
+    @Test
+    public void routeVisitsEveryWaypointInOrder() {
+        double[] square = {34, -117, 34.01, -117, 34.01, -116.99, 34, -116.99};
+        RouteMotion route = new RouteMotion(square, 10, false);
+        MotionState s = new MotionState();
+        double elapsed = 0;
+        for (int k = 1; k < 4; k++) {
+            elapsed += GeoMath.distanceMeters(square[2 * k - 2], square[2 * k - 1], square[2 * k], square[2 * k + 1]) / 10;
+            route.sample(elapsed, s);
+            assertEquals(0, GeoMath.distanceMeters(square[2 * k], square[2 * k + 1], s.lat, s.lon), 0.01);
+        }
+        // halfway along the first leg, heading north
+        route.sample(GeoMath.distanceMeters(34, -117, 34.01, -117) / 20, s);
+        assertEquals(34.005, s.lat, 1e-6);
+        assertEquals(0, s.course, 1e-6);
+        assertEquals(10, s.speed, 0);
+
+        // an open route stops at the end
+        route.sample(1e6, s);
+        assertEquals(34, s.lat, 1e-12);
+        assertEquals(-116.99, s.lon, 1e-12);
+        assertEquals(0, s.speed, 0);
+        assertEquals(0, route.getPeriodSeconds(), 0);
+    }
+
+    @Test
+    public void loopedRouteRepeats() {
+        double[] triangle = {34, -117, 34.01, -117, 34, -116.99};
+        RouteMotion route = new RouteMotion(triangle, 15, true);
+        double period = route.getPeriodSeconds();
+        assertEquals(route.getLengthMeters() / 15, period, 1e-9);
+        MotionState a = new MotionState();
+        MotionState b = new MotionState();
+        for (double t = 0; t < period; t += period / 17) {
+            route.sample(t, a);
+            route.sample(t + 3 * period, b);
+            assertEquals(a.lat, b.lat, 1e-9);
+            assertEquals(a.lon, b.lon, 1e-9);
+            assertEquals(a.course, b.course, 1e-6);
+        }
+        route.sample(period - 1e-6, a);
+        assertEquals(0, GeoMath.distanceMeters(34, -117, a.lat, a.lon), 0.01);
+    }
+
+    @Test
+    public void lawnmowerCoversItsRectangle() {
+        // four 1 km lanes 100 m apart heading north
+        LawnmowerMotion mower = new LawnmowerMotion(34, -117, 0, 1000, 100, 4, 10);
+        double back = Math.hypot(300, 0);
+        assertEquals(4 * 1000 + 3 * 100 + back, mower.getLengthMeters(), 1);
+        MotionState s = new MotionState();
+        double lonScale = GeoMath.metersPerDegreeLon(34);
+        double maxEast = 0;
+        int northbound = 0;
+        int southbound = 0;
+        for (double t = 0; t < mower.getPeriodSeconds(); t += 1) {
+            mower.sample(t, s);
+            double north = (s.lat - 34) * GeoMath.METERS_PER_DEGREE;
+            double east = (s.lon + 117) * lonScale;
+            assertTrue(north > -1 && north < 1001);
+            assertTrue(east > -1 && east < 301);
+            maxEast = Math.max(maxEast, east);
+            if (Math.abs(s.course) < 1e-6) {
+                northbound++;
+            } else if (Math.abs(s.course - 180) < 1e-6) {
+                southbound++;
+            }
+        }
+        assertEquals(300, maxEast, 1);
+        assertEquals(200, northbound, 2);
+        assertEquals(200, southbound, 2);
+    }
+
+    @Test
+    public void randomWalkIsRepeatableAndStaysInBounds() {
+        RandomWalkMotion a = new RandomWalkMotion(34, -117, 5, 10, 45, 500, 42);
+        RandomWalkMotion b = new RandomWalkMotion(34, -117, 5, 10, 45, 500, 42);
+        MotionState sa = new MotionState();
+        MotionState sb = new MotionState();
+        double[] lats = new double[400];
+        for (int t = 0; t < lats.length; t++) {
+            a.sample(t * 10.0 + 3, sa);
+            b.sample(t * 10.0 + 3, sb);
+            assertEquals(sa.lat, sb.lat, 0);
+            assertEquals(sa.lon, sb.lon, 0);
+            lats[t] = sa.lat;
+            // a leg is 50 m, so a stray is caught within one leg
+            assertTrue(GeoMath.distanceMeters(34, -117, sa.lat, sa.lon) < 500 + 100);
+        }
+        // going back in time replays the same walk
+        a.sample(1503, sa);
+        assertEquals(lats[150], sa.lat, 0);
+
+        RandomWalkMotion other = new RandomWalkMotion(34, -117, 5, 10, 45, 500, 43);
+        other.sample(1503, sb);
+        assertTrue(Math.abs(sa.lat - sb.lat) > 1e-9);
+    }
+
+    @Test
+    public void tableMatchesTheModelItSamples() {
+        MotionModel[] models = {
+                new CircleMotion(34, -117, 500, 100, 1),
+                new CircleMotion(0, 179.999, 300, -45, 0),
+                new LawnmowerMotion(34, -117, 30, 800, 80, 5, 12),
+        };
+        MotionState exact = new MotionState();
+        MotionState table = new MotionState();
+        for (MotionModel model : models) {
+            TrajectoryTable tabulated = new TrajectoryTable(model, 0.5);
+            assertEquals(model.getPeriodSeconds(), tabulated.getPeriodSeconds(), 0);
+            assertEquals(model.getPeriodSeconds(), tabulated.getStepSeconds() * tabulated.getSampleCount(), 1e-9);
+            for (double t = -50; t < 3 * model.getPeriodSeconds(); t += 0.37) {
+                model.sample(t, exact);
+                tabulated.sample(t, table);
+                // only corners of the lawnmower are cut by more than a few cm
+                assertEquals(0, GeoMath.distanceMeters(exact.lat, exact.lon, table.lat, table.lon), 3);
+                assertTrue(table.lon >= -180 && table.lon <= 180);
+                assertTrue(table.course >= 0 && table.course < 360);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void onlyRepeatingMotionIsTabulated() {
+        new TrajectoryTable(new StraightMotion(34, -117, 0, 10), 1);
+    }
+
+    @Test
+    public void swarmEntitiesShareOneTable() {
+        final int[] sent = new int[1];
+        CotOutput out = new CotOutput() {
+            @Override
+            public int send(ByteBuffer[] events, int count) {
+                sent[0] += count;
+                return count;
+            }
+        };
+        SwarmSimulator swarm = new SwarmSimulator(
+                new CotWriter("a-f-G-U-C", "m-g", 30_000), out);
+        TrajectoryTable table = new TrajectoryTable(new CircleMotion(34, -117, 400, 80, 0), 0.25);
+        for (int i = 0; i < 8; i++) {
+            int e = swarm.add("u" + i, "c" + i, table, 1);
+            swarm.setTimeOffset(e, i * 10);
+        }
+        swarm.add("walk", "walk", new RandomWalkMotion(34, -117, 3, 5, 30, 0, 7), 1);
+        for (long t = 0; t <= 20_000; t += 100) {
+            swarm.tick(t);
+        }
+        assertEquals(9 * 20, sent[0], 9);
+        // eight entities an eighth of a lap apart
+        MotionState s = new MotionState();
+        for (int i = 0; i < 8; i++) {
+            double r = GeoMath.distanceMeters(34, -117, swarm.getLatitude(i), swarm.getLongitude(i));
+            assertEquals(400, r, 0.5);
+            double bearing = GeoMath.bearingDegrees(34, -117, swarm.getLatitude(i), swarm.getLongitude(i));
+            double bearing0 = GeoMath.bearingDegrees(34, -117, swarm.getLatitude(0), swarm.getLongitude(0));
+            double apart = ((bearing - bearing0 - 45 * i) % 360 + 540) % 360 - 180;
+            // each sent at its own time in the last second, 4.5 degrees apart at most
+            assertEquals(0, apart, 5);
+        }
+        table.sample(0, s);
+        assertEquals(34 + 400 / GeoMath.METERS_PER_DEGREE, s.lat, 1e-6);
+    }
+}
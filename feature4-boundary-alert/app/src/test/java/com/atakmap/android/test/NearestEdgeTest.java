@@ -0,0 +1,63 @@
+package com.atakmap.android.test;
+
+import static org.junit.Assert.*;
+
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.EdgeDistance;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.GeoMath;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.PreparedPolygon;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class NearestEdgeTest {
+
+    @Test
+    public void matchesBruteForceInsideAndOutside() {
+        Random rnd = new Random(17);
+        double[] coords = PreparedPolygonTest.starPolygon(rnd, 5000, 38.0, -77.0, 0.05);
+        int n = coords.length / 2;
+        PreparedPolygon polygon = PreparedPolygon.prepare(coords, n);
+
+        for (int q = 0; q < 3000; q++) {
+            // a quarter of the queries land well outside the envelope
+            double spread = q % 4 == 0 ? 0.5 : 0.12;
+            double lat = 38.0 + (rnd.nextDouble() - 0.5) * spread;
+            double lon = -77.0 + (rnd.nextDouble() - 0.5) * spread;
+            EdgeDistance d = polygon.nearestEdge(lat, lon);
+
+            double expected = HysteresisTest.bruteForceDistance(coords, n, lat, lon);
+            // the planar search and the great circle result agree closely
+            // over these distances
+            assertEquals(expected, d.getMeters(), 1e-3 * expected + 1e-6);
+            assertEquals(polygon.contains(lat, lon), d.isInside());
+            assertTrue(d.edgeIndex >= 0 && d.edgeIndex < n);
+            // the reported point lies on the reported edge
+            double onEdge = HysteresisTest.bruteForceDistance(
+                    edge(coords, d.edgeIndex, n), 2, d.lat, d.lon);
+            assertEquals(0, onEdge, 1e-6);
+        }
+    }
+
+    @Test
+    public void squareDistancesAreGeodesic() {
+        double[] square = {38.0, -77.01, 38.01, -77.01, 38.01, -77.0, 38.0, -77.0};
+        PreparedPolygon polygon = PreparedPolygon.prepare(square, 4);
+
+        EdgeDistance inside = polygon.nearestEdge(38.005, -77.009);
+        assertEquals(0, inside.edgeIndex);
+        assertEquals(-GeoMath.distanceMeters(38.005, -77.009, 38.005, -77.01), inside.signedMeters, 1e-6);
+
+        EdgeDistance north = polygon.nearestEdge(38.02, -77.005);
+        assertEquals(1, north.edgeIndex);
+        assertEquals(0.01 * GeoMath.METERS_PER_DEGREE, north.signedMeters, 1e-3);
+    }
+
+    /**
+     * One edge as a degenerate two vertex ring
+     */
+    private static double[] edge(double[] coords, int i, int n) {
+        int j = (i + 1) % n;
+        return new double[] {coords[2 * i], coords[2 * i + 1], coords[2 * j], coords[2 * j + 1]};
+    }
+}
@@ -0,0 +1,270 @@
+package com.atakmap.android.test;
+
+import static org.junit.Assert.*;
+
+import com.atakmap.android.feature4boundaryalert.plugin.cot.CotEncoder;
+import com.atakmap.android.feature4boundaryalert.plugin.cot.CotOutput;
+import com.atakmap.android.feature4boundaryalert.plugin.cot.CotRecorder;
+import com.atakmap.android.feature4boundaryalert.plugin.cot.UdpSender;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.OutputPipeline;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.ReplayFile;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.TrackRecord;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+public class OutputPipelineTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long T0 = 1_700_000_000_000L;
+
+    @Test
+    public void everySinkGetsEveryFixInItsOwnEncoding() throws Exception {
+        Collect xml = new Collect();
+        Collect tak = new Collect();
+        final List<String> heard = new ArrayList<>();
+        try (OutputPipeline pipeline = new OutputPipeline(20_000)) {
+            int robot = pipeline.register("SIM-ROBOT-1", "SIMBOT", "a-f-A-M-F");
+            int swarm = pipeline.register("S-1", "one", "a-f-G-U-C");
+            pipeline.addOutput("xml", xml, CotEncoder.Encoding.XML, 100, 0);
+            pipeline.addOutput("tak", tak, CotEncoder.Encoding.PROTOBUF, 100, 0);
+            pipeline.addListener("ui", new OutputPipeline.Listener() {
+                @Override
+                public void onFix(String uid, String callsign, long timeMillis, double lat, double lon,
+                                  double speed, double course) {
+                    synchronized (heard) {
+                        heard.add(uid + "/" + callsign + "@" + (timeMillis - T0) + " " + lat + "," + lon);
+                    }
+                }
+            }, 100, 0);
+            for (int t = 0; t < 50; t++) {
+                assertEquals(0, pipeline.publish(t % 2 == 0 ? robot : swarm, T0 + t, 34 + t, -117, 5, 90));
+            }
+            assertTrue(pipeline.flush(5000));
+        }
+
+        assertEquals(50, xml.events.size());
+        assertEquals(50, tak.events.size());
+        assertEquals(50, heard.size());
+        for (int t = 0; t < 50; t++) {
+            String event = new String(xml.events.get(t), UTF_8);
+            assertTrue(event, event.contains(t % 2 == 0 ? "uid=\"SIM-ROBOT-1\" type=\"a-f-A-M-F\""
+                    : "uid=\"S-1\" type=\"a-f-G-U-C\""));
+            TakProtocolWriterTest.Message cot = TakProtocolWriterTest.takMessage(ByteBuffer.wrap(tak.events.get(t)))
+                    .message(2);
+            assertEquals(t % 2 == 0 ? "SIM-ROBOT-1" : "S-1", cot.string(5));
+            assertEquals(T0 + t, cot.number(6));
+            assertEquals(34 + t, cot.real(10), 0);
+            assertEquals((t % 2 == 0 ? "SIM-ROBOT-1/SIMBOT@" : "S-1/one@") + t + " " + (34.0 + t) + ",-117.0",
+                    heard.get(t));
+        }
+    }
+
+    @Test
+    public void slowSinkStallsNobody() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final Collect stuck = new Collect() {
+            @Override
+            public int send(ByteBuffer[] events, int count) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.send(events, count);
+            }
+        };
+        Collect fast = new Collect();
+        try (OutputPipeline pipeline = new OutputPipeline(20_000)) {
+            int e = pipeline.register("E-1", "e", "a-f-G");
+            OutputPipeline.Sink slow = pipeline.addOutput("slow", stuck, CotEncoder.Encoding.XML, 1000, 0);
+            OutputPipeline.Sink quick = pipeline.addOutput("fast", fast, CotEncoder.Encoding.XML, 20_000, 0);
+            // the slow sink takes the first fix and is stuck sending it
+            pipeline.publish(e, T0, 34, -117, 0, 0);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (slow.getQueueSize() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(0, slow.getQueueSize());
+            long t0 = System.nanoTime();
+            for (int t = 1; t < 20_000; t++) {
+                pipeline.publish(e, T0 + t, 34, -117, 0, 0);
+            }
+            long publishMillis = (System.nanoTime() - t0) / 1_000_000;
+            assertTrue("publishing took " + publishMillis + " ms", publishMillis < 2000);
+            assertTrue(quick.flush(10_000));
+            assertEquals(20_000, fast.events.size());
+            assertEquals(0, quick.getDroppedCount());
+
+            // the slow sink kept only its newest, after the fix it is stuck on
+            assertEquals(1000, slow.getQueueSize());
+            assertEquals(20_000, slow.getPublishedCount());
+            long dropped = slow.getDroppedCount();
+            assertEquals(20_000 - 1 - 1000, dropped);
+            release.countDown();
+            assertTrue(slow.flush(5000));
+            assertEquals(20_000 - dropped, stuck.events.size());
+            assertEquals(20_000 - dropped, slow.getDeliveredCount());
+            String last = new String(stuck.events.get(stuck.events.size() - 1), UTF_8);
+            assertEquals(new String(fast.events.get(19_999), UTF_8), last);
+        }
+    }
+
+    @Test
+    public void rateLimitPacesOnlyItsSink() throws Exception {
+        Collect limited = new Collect();
+        Collect open = new Collect();
+        try (OutputPipeline pipeline = new OutputPipeline(20_000)) {
+            int e = pipeline.register("E-1", "e", "a-f-G");
+            OutputPipeline.Sink paced = pipeline.addOutput("paced", limited, CotEncoder.Encoding.XML, 1000, 200);
+            OutputPipeline.Sink free = pipeline.addOutput("free", open, CotEncoder.Encoding.XML, 1000, 0);
+            long t0 = System.nanoTime();
+            for (int t = 0; t < 100; t++) {
+                pipeline.publish(e, T0 + t, 34, -117, 0, 0);
+            }
+            assertTrue(free.flush(5000));
+            long freeMillis = (System.nanoTime() - t0) / 1_000_000;
+            assertTrue(paced.flush(5000));
+            long pacedMillis = (System.nanoTime() - t0) / 1_000_000;
+            // a burst of 20, then 80 at 200 a second
+            assertTrue("paced sink took " + pacedMillis + " ms", pacedMillis >= 350);
+            assertTrue(freeMillis + " vs " + pacedMillis, freeMillis < pacedMillis);
+            assertEquals(100, limited.events.size());
+            assertEquals(100, open.events.size());
+            assertEquals(0, paced.getDroppedCount());
+        }
+    }
+
+    @Test
+    public void recordingReplays() throws Exception {
+        File file = File.createTempFile("recording", ".cot");
+        file.deleteOnExit();
+        try (CotRecorder recorder = new CotRecorder(file, false);
+             OutputPipeline pipeline = new OutputPipeline(20_000)) {
+            int e = pipeline.register("REC-1", "rec", "a-f-G-U-C");
+            pipeline.addOutput("file", recorder, CotEncoder.Encoding.XML, 1000, 0);
+            for (int t = 0; t < 300; t++) {
+                pipeline.publish(e, T0 + 1000L * t, 34 + t * 1e-4, -117, 3, 45);
+            }
+            assertTrue(pipeline.flush(5000));
+            assertEquals(300, recorder.getEventsWritten());
+            assertEquals(file.length(), recorder.getBytesWritten());
+        }
+        try (ReplayFile replay = new ReplayFile(file)) {
+            assertEquals(ReplayFile.Format.COT, replay.getFormat());
+            TrackRecord record = new TrackRecord();
+            int n = 0;
+            while (replay.next(record)) {
+                assertEquals("REC-1", record.uid);
+                assertEquals(T0 + 1000L * n, record.time);
+                assertEquals(34 + n * 1e-4, record.lat, 1e-7);
+                n++;
+            }
+            assertEquals(300, n);
+        }
+    }
+
+    @Test
+    public void unicastUdpSink() throws Exception {
+        try (DatagramSocket receiver = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+             UdpSender udp = new UdpSender("127.0.0.1", receiver.getLocalPort());
+             OutputPipeline pipeline = new OutputPipeline(20_000)) {
+            receiver.setSoTimeout(5000);
+            int e = pipeline.register("U-1", "u", "a-f-G");
+            pipeline.addOutput("unicast", udp, CotEncoder.Encoding.PROTOBUF, 100, 0);
+            pipeline.publish(e, T0, 34, -117, 1, 2);
+            DatagramPacket packet = new DatagramPacket(new byte[2048], 2048);
+            receiver.receive(packet);
+            TakProtocolWriterTest.Message cot = TakProtocolWriterTest.takMessage(
+                    ByteBuffer.wrap(packet.getData(), 0, packet.getLength()).slice()).message(2);
+            assertEquals("U-1", cot.string(5));
+        }
+    }
+
+    @Test
+    public void failuresAreCountedAndPassed() throws Exception {
+        try (OutputPipeline pipeline = new OutputPipeline(20_000)) {
+            int e = pipeline.register("E-1", "e", "a-f-G");
+            final List<Double> heard = new ArrayList<>();
+            OutputPipeline.Sink ui = pipeline.addListener("ui", new OutputPipeline.Listener() {
+                @Override
+                public void onFix(String uid, String callsign, long timeMillis, double lat, double lon,
+                                  double speed, double course) {
+                    if (lat < 0) {
+                        throw new IllegalStateException("south");
+                    }
+                    heard.add(lat);
+                }
+            }, 100, 0);
+            OutputPipeline.Sink broken = pipeline.addOutput("broken", new CotOutput() {
+                @Override
+                public int send(ByteBuffer[] events, int count) throws IOException {
+                    throw new IOException("down");
+                }
+            }, CotEncoder.Encoding.XML, 100, 0);
+            pipeline.publish(e, T0, 1, 0, 0, 0);
+            pipeline.publish(e, T0, -1, 0, 0, 0);
+            pipeline.publish(e, T0, 2, 0, 0, 0);
+            assertTrue(pipeline.flush(5000));
+            assertEquals(2, ui.getDeliveredCount());
+            assertEquals(1, ui.getFailureCount());
+            assertEquals(2, heard.size());
+            assertTrue(ui.getLastError() instanceof IllegalStateException);
+            assertEquals(3, broken.getFailureCount());
+            assertTrue(broken.getLastError() instanceof IOException);
+            try {
+                pipeline.publish(1, T0, 0, 0, 0, 0);
+                fail("published for an unknown entity");
+            } catch (IndexOutOfBoundsException expected) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void badFixCostsOnlyItself() throws Exception {
+        Collect out = new Collect();
+        try (OutputPipeline pipeline = new OutputPipeline(20_000)) {
+            int e = pipeline.register("E-1", "e", "a-f-G");
+            OutputPipeline.Sink sink = pipeline.addOutput("out", out, CotEncoder.Encoding.XML, 100, 0);
+            pipeline.publish(e, T0, 1, 0, 0, 0);
+            pipeline.publish(e, T0 + 1, 2, 0, 0, Double.NaN);
+            pipeline.publish(e, T0 + 2, 3, 0, 0, 0);
+            assertTrue(pipeline.flush(5000));
+            assertEquals(2, sink.getDeliveredCount());
+            assertEquals(1, sink.getFailureCount());
+            assertTrue(sink.getLastError() instanceof IllegalArgumentException);
+            assertEquals(2, out.events.size());
+            assertTrue(new String(out.events.get(1), UTF_8).contains("lat=\"3.0000000\""));
+        }
+    }
+
+    /**
+     * Keeps a copy of every event sent
+     */
+    static class Collect implements CotOutput {
+        final List<byte[]> events = new ArrayList<>();
+
+        @Override
+        public int send(ByteBuffer[] batch, int count) {
+            for (int i = 0; i < count; i++) {
+                byte[] b = new byte[batch[i].remaining()];
+                batch[i].duplicate().get(b);
+                synchronized (events) {
+                    events.add(b);
+                }
+            }
+            return count;
+        }
+    }
+}
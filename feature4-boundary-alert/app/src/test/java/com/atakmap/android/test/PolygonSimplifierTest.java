@@ -0,0 +1,106 @@
+package com.atakmap.android.test;
+
+import static org.junit.Assert.*;
+
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.Envelope;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.GeoMath;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.PolygonSimplifier;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.PreparedPolygon;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class PolygonSimplifierTest {
+
+    @Test
+    public void straightRunsCollapse() {
+        // square with 10 points along each side
+        double[] coords = new double[80];
+        for (int i = 0; i < 10; i++) {
+            double f = i / 10.0;
+            set(coords, i, 0, f);
+            set(coords, 10 + i, f, 1);
+            set(coords, 20 + i, 1, 1 - f);
+            set(coords, 30 + i, 1 - f, 0);
+        }
+        PolygonSimplifier.Result fast = PolygonSimplifier.douglasPeucker(coords, 40, 0.01);
+        assertEquals(4, fast.vertexCount);
+        assertEquals(36, fast.removed);
+        PolygonSimplifier.Result hull = PolygonSimplifier.conservative(coords, 40, 1);
+        assertEquals(4, hull.vertexCount);
+    }
+
+    @Test
+    public void douglasPeuckerStaysWithinTolerance() {
+        double[] coords = surveyPolygon(new Random(4), 5000, 38.9, -77.0, 0.02, 0.5);
+        PolygonSimplifier.Result result = PolygonSimplifier.douglasPeucker(coords, 5000, 3);
+        assertTrue(result.removed > 4000);
+        PreparedPolygon simplified = PreparedPolygon.prepare(result.coords, result.vertexCount);
+        for (int i = 0; i < 5000; i++) {
+            double meters = Math.abs(simplified.nearestEdge(coords[2 * i], coords[2 * i + 1]).signedMeters);
+            assertTrue("vertex " + i + " is " + meters + " m off", meters <= 3.01);
+        }
+    }
+
+    @Test
+    public void conservativeContainsOriginal() {
+        Random rnd = new Random(8);
+        double[][] shapes = {
+                surveyPolygon(rnd, 5000, 38.9, -77.0, 0.02, 0.5),
+                PreparedPolygonTest.starPolygon(rnd, 2000, 38.9, -77.0, 0.02),
+        };
+        for (double[] coords : shapes) {
+            int n = coords.length / 2;
+            PreparedPolygon original = PreparedPolygon.prepare(coords, n);
+            PolygonSimplifier.Result result = PolygonSimplifier.conservative(coords, n, 5);
+            assertTrue(result.removed > 0);
+            PreparedPolygon grown = PreparedPolygon.prepare(result.coords, result.vertexCount);
+
+            Envelope e = original.getEnvelope();
+            for (int q = 0; q < 20000; q++) {
+                double lat = e.minLat + rnd.nextDouble() * (e.maxLat - e.minLat);
+                double lon = e.minLon + rnd.nextDouble() * (e.maxLon - e.minLon);
+                if (original.contains(lat, lon)) {
+                    assertTrue("lost " + lat + ", " + lon, grown.contains(lat, lon));
+                }
+            }
+            for (int i = 0; i < result.vertexCount; i++) {
+                double meters = original.nearestEdge(result.coords[2 * i], result.coords[2 * i + 1]).signedMeters;
+                assertTrue("vertex " + i + " is " + meters + " m off", meters > -0.01 && meters <= 5.01);
+            }
+        }
+    }
+
+    @Test
+    public void smallerToleranceKeepsMore() {
+        double[] coords = surveyPolygon(new Random(2), 3000, 0.5, 30.0, 0.01, 0.3);
+        int previous = 0;
+        for (double tolerance : new double[] {20, 5, 1}) {
+            int kept = PolygonSimplifier.douglasPeucker(coords, 3000, tolerance).vertexCount;
+            assertTrue(kept >= previous);
+            previous = kept;
+        }
+    }
+
+    /**
+     * Circle sampled densely with GPS-like noise on each vertex, as a
+     * walked or surveyed boundary would be
+     */
+    static double[] surveyPolygon(Random rnd, int vertices, double cLat, double cLon,
+                                  double radius, double noiseMeters) {
+        double[] coords = new double[2 * vertices];
+        double noise = noiseMeters / GeoMath.METERS_PER_DEGREE;
+        for (int v = 0; v < vertices; v++) {
+            double a = 2 * Math.PI * v / vertices;
+            coords[2 * v] = cLat + radius * Math.sin(a) + noise * rnd.nextGaussian();
+            coords[2 * v + 1] = cLon + radius * Math.cos(a) + noise * rnd.nextGaussian();
+        }
+        return coords;
+    }
+
+    private static void set(double[] coords, int i, double lat, double lon) {
+        coords[2 * i] = lat;
+        coords[2 * i + 1] = lon;
+    }
+}
@@ -0,0 +1,124 @@
+package com.atakmap.android.test;
+
+import static org.junit.Assert.*;
+
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.BoundaryCrossing;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.PreparedPolygon;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class PreparedPolygonTest {
+
+    @Test
+    public void matchesPlainRayCastOnJaggedPolygon() {
+        Random rnd = new Random(3);
+        double[] coords = starPolygon(rnd, 20_000, 38.0, -77.0, 0.5);
+        PreparedPolygon prepared = PreparedPolygon.prepare(coords, coords.length / 2);
+
+        for (int q = 0; q < 2000; q++) {
+            double lat = 37.4 + rnd.nextDouble() * 1.2;
+            double lon = -77.6 + rnd.nextDouble() * 1.2;
+            assertEquals(rayCast(coords, lat, lon), prepared.contains(lat, lon));
+        }
+    }
+
+    @Test
+    public void verticesAndEdgesAgreeWithRayCast() {
+        double[] square = { 0, 0, 0, 10, 10, 10, 10, 0 };
+        PreparedPolygon prepared = PreparedPolygon.prepare(square, 4);
+        double[][] probes = { { 0, 0 }, { 5, 0 }, { 0, 5 }, { 10, 10 }, { 5, 5 }, { 10, 5 }, { -1, 5 } };
+        for (double[] p : probes) {
+            assertEquals(rayCast(square, p[0], p[1]), prepared.contains(p[0], p[1]));
+        }
+    }
+
+    @Test
+    public void segmentCuttingCornerReportsEntryAndExit() {
+        double[] square = { 0, 0, 0, 10, 10, 10, 10, 0 };
+        PreparedPolygon prepared = PreparedPolygon.prepare(square, 4);
+        List<BoundaryCrossing> out = new ArrayList<>();
+
+        // both fixes outside, the segment clips the corner near (10, 10)
+        int n = prepared.findCrossings(7, 12, 1000, 12, 7, 2000, out);
+        assertEquals(2, n);
+        assertTrue(out.get(0).entered);
+        assertFalse(out.get(1).entered);
+        assertEquals(9.0, out.get(0).lat, 1e-9);
+        assertEquals(10.0, out.get(0).lon, 1e-9);
+        assertEquals(1400, out.get(0).timeMillis);
+        assertEquals(1600, out.get(1).timeMillis);
+    }
+
+    @Test
+    public void segmentThroughVertexCountsOnce() {
+        double[] diamond = { 0, 5, 5, 10, 10, 5, 5, 0 };
+        PreparedPolygon prepared = PreparedPolygon.prepare(diamond, 4);
+        List<BoundaryCrossing> out = new ArrayList<>();
+
+        // enters exactly through the vertex at (5, 0)
+        prepared.findCrossings(5, -5, 0, 5, 5, 1000, out);
+        assertEquals(1, out.size());
+        assertTrue(out.get(0).entered);
+        assertEquals(0.0, out.get(0).lon, 1e-9);
+    }
+
+    @Test
+    public void crossingsAlternateAndMatchEndpoints() {
+        Random rnd = new Random(9);
+        double[] coords = starPolygon(rnd, 2_000, 38.0, -77.0, 0.5);
+        PreparedPolygon prepared = PreparedPolygon.prepare(coords, coords.length / 2);
+        List<BoundaryCrossing> out = new ArrayList<>();
+
+        for (int q = 0; q < 5_000; q++) {
+            double lat0 = 37.4 + rnd.nextDouble() * 1.2;
+            double lon0 = -77.6 + rnd.nextDouble() * 1.2;
+            double lat1 = lat0 + (rnd.nextDouble() - 0.5) * 0.2;
+            double lon1 = lon0 + (rnd.nextDouble() - 0.5) * 0.2;
+            out.clear();
+            prepared.findCrossings(lat0, lon0, 0, lat1, lon1, 1000, out);
+
+            boolean inside = prepared.contains(lat0, lon0);
+            for (BoundaryCrossing c : out) {
+                assertEquals(!inside, c.entered);
+                inside = c.entered;
+            }
+            assertEquals(prepared.contains(lat1, lon1), inside);
+        }
+    }
+
+    /**
+     * Reference ray cast over every edge, same rule as the original
+     * BoundaryManager implementation
+     */
+    static boolean rayCast(double[] c, double lat, double lon) {
+        int n = c.length / 2;
+        boolean inside = false;
+        for (int i = 0, j = n - 1; i < n; j = i++) {
+            double lat_i = c[2 * i], lon_i = c[2 * i + 1];
+            double lat_j = c[2 * j], lon_j = c[2 * j + 1];
+            if ((lon_i > lon) != (lon_j > lon) &&
+                (lat < (lat_j - lat_i) * (lon - lon_i) / (lon_j - lon_i) + lat_i)) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * Star shaped polygon with a jagged radius, similar to a digitized coastline
+     */
+    static double[] starPolygon(Random rnd, int vertices, double cLat, double cLon, double radius) {
+        double[] coords = new double[2 * vertices];
+        for (int v = 0; v < vertices; v++) {
+            double a = 2 * Math.PI * v / vertices;
+            double r = radius * (0.6 + 0.4 * rnd.nextDouble());
+            coords[2 * v] = cLat + r * Math.sin(a);
+            coords[2 * v + 1] = cLon + r * Math.cos(a);
+        }
+        return coords;
+    }
+}
@@ -0,0 +1,180 @@
+package com.atakmap.android.test;
+
+import static org.junit.Assert.*;
+
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.BoundaryCrossing;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.EdgeDistance;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.Envelope;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.PreparedPolygon;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.ProjectedPolygon;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class ProjectedPolygonTest {
+
+    /** square straddling the antimeridian */
+    static final double[] ANTIMERIDIAN = {10, 170, 20, 170, 20, -170, 10, -170};
+
+    /** ring at 80 degrees north, around the pole */
+    static final double[] POLAR_CAP = polarCap(80, 12);
+
+    /** 60 degree square; its great circle top edge bulges to 63.4 N */
+    static final double[] CONTINENT = {0, 0, 60, 0, 60, 60, 0, 60};
+
+    /** concave notch across both the equator and the antimeridian */
+    static final double[] NOTCHED = {-5, 175, 5, 175, 5, -175, 0, -178, -5, -175};
+
+    /** a few hundred meters across, where every mode must agree */
+    static final double[] SMALL = {38.0, -77.01, 38.01, -77.01, 38.01, -77.0, 38.0, -77.0};
+
+    static final double[][] CORPUS = {ANTIMERIDIAN, POLAR_CAP, CONTINENT, NOTCHED, SMALL};
+
+    @Test
+    public void antimeridianSquare() {
+        ProjectedPolygon p = prepare(ANTIMERIDIAN);
+        assertTrue(p.contains(15, 179.9));
+        assertTrue(p.contains(15, -179.9));
+        assertTrue(p.contains(15, 180));
+        assertFalse(p.contains(15, 0));
+        assertFalse(p.contains(15, 160));
+        assertFalse(p.contains(15, -160));
+        Envelope e = p.getEnvelope();
+        assertEquals(-180, e.minLon, 0);
+        assertEquals(180, e.maxLon, 0);
+    }
+
+    @Test
+    public void polarCapContainsThePole() {
+        ProjectedPolygon p = prepare(POLAR_CAP);
+        assertTrue(p.contains(90, 0));
+        assertTrue(p.contains(85, -123));
+        assertTrue(p.contains(85, 57));
+        assertFalse(p.contains(75, 10));
+        assertFalse(p.contains(-85, 0));
+        assertEquals(90, p.getEnvelope().maxLat, 0);
+    }
+
+    @Test
+    public void largePolygonFollowsGreatCircles() {
+        ProjectedPolygon p = prepare(CONTINENT);
+        // above the lat/lon edge but below the arc
+        assertTrue(p.contains(62, 30));
+        assertFalse(PreparedPolygon.prepare(CONTINENT, 4).contains(62, 30));
+        assertFalse(p.contains(64, 30));
+        assertEquals(63.43, p.getEnvelope().maxLat, 0.01);
+    }
+
+    @Test
+    public void corpusMatchesSphericalReference() {
+        Random rnd = new Random(5);
+        for (double[] coords : CORPUS) {
+            ProjectedPolygon p = prepare(coords);
+            Envelope e = p.getEnvelope();
+            for (int q = 0; q < 5000; q++) {
+                double lat = Math.max(-90, Math.min(90, e.minLat - 2 + rnd.nextDouble() * (e.maxLat - e.minLat + 4)));
+                double lon = wrap(centerLon(coords) + (rnd.nextDouble() - 0.5) * 1.2 * lonSpan(coords));
+                assertEquals("at " + lat + ", " + lon, sphericalContains(coords, lat, lon), p.contains(lat, lon));
+            }
+        }
+    }
+
+    @Test
+    public void crossingAntimeridianEdgeIsFound() {
+        ProjectedPolygon p = prepare(ANTIMERIDIAN);
+        List<BoundaryCrossing> out = new ArrayList<>();
+        // eastward along 15 N, from 165 E across the date line to 165 W
+        assertEquals(2, p.findCrossings(15, 165, 0, 15, -165, 1000, out));
+        assertTrue(out.get(0).entered);
+        assertEquals(170, out.get(0).lon, 0.01);
+        assertEquals(0, out.get(0).edgeIndex);
+        assertFalse(out.get(1).entered);
+        assertEquals(-170, out.get(1).lon, 0.01);
+    }
+
+    @Test
+    public void smallPolygonDistancesMatchPlanar() {
+        ProjectedPolygon projected = prepare(SMALL);
+        PreparedPolygon planar = PreparedPolygon.prepare(SMALL, 4);
+        EdgeDistance a = projected.nearestEdge(38.005, -77.009);
+        EdgeDistance b = planar.nearestEdge(38.005, -77.009);
+        assertEquals(b.edgeIndex, a.edgeIndex);
+        assertEquals(b.signedMeters, a.signedMeters, 0.01);
+        assertEquals(planar.distanceToEdge(38.005, -77.009, 500),
+                projected.distanceToEdge(38.005, -77.009, 500), 0.01);
+    }
+
+    private static ProjectedPolygon prepare(double[] coords) {
+        return ProjectedPolygon.prepare(coords, coords.length / 2);
+    }
+
+    static double[] polarCap(double lat, int vertices) {
+        double[] coords = new double[2 * vertices];
+        for (int v = 0; v < vertices; v++) {
+            coords[2 * v] = lat;
+            coords[2 * v + 1] = wrap(v * 360.0 / vertices);
+        }
+        return coords;
+    }
+
+    /**
+     * Reference containment on the sphere: the winding of the edges as
+     * seen from the point, summing the angle each great circle edge
+     * subtends. Trig for every edge of every query; valid for polygons
+     * smaller than a hemisphere.
+     */
+    static boolean sphericalContains(double[] coords, double lat, double lon) {
+        int n = coords.length / 2;
+        double[] p = unit(lat, lon);
+        double total = 0;
+        for (int i = 0; i < n; i++) {
+            int j = (i + 1) % n;
+            double[] a = tangent(p, unit(coords[2 * i], coords[2 * i + 1]));
+            double[] b = tangent(p, unit(coords[2 * j], coords[2 * j + 1]));
+            double cx = a[1] * b[2] - a[2] * b[1];
+            double cy = a[2] * b[0] - a[0] * b[2];
+            double cz = a[0] * b[1] - a[1] * b[0];
+            double sin = cx * p[0] + cy * p[1] + cz * p[2];
+            double cos = a[0] * b[0] + a[1] * b[1] + a[2] * b[2];
+            total += Math.atan2(sin, cos);
+        }
+        return Math.abs(total) > Math.PI;
+    }
+
+    private static double[] unit(double lat, double lon) {
+        double la = Math.toRadians(lat), lo = Math.toRadians(lon);
+        return new double[] {Math.cos(la) * Math.cos(lo), Math.cos(la) * Math.sin(lo), Math.sin(la)};
+    }
+
+    private static double[] tangent(double[] p, double[] v) {
+        double d = p[0] * v[0] + p[1] * v[1] + p[2] * v[2];
+        return new double[] {v[0] - d * p[0], v[1] - d * p[1], v[2] - d * p[2]};
+    }
+
+    private static double centerLon(double[] coords) {
+        double x = 0, y = 0;
+        for (int i = 1; i < coords.length; i += 2) {
+            x += Math.cos(Math.toRadians(coords[i]));
+            y += Math.sin(Math.toRadians(coords[i]));
+        }
+        return Math.toDegrees(Math.atan2(y, x));
+    }
+
+    private static double lonSpan(double[] coords) {
+        double c = centerLon(coords);
+        double span = 0;
+        for (int i = 1; i < coords.length; i += 2) {
+            span = Math.max(span, 2 * Math.abs(wrap(coords[i] - c)));
+        }
+        return span;
+    }
+
+    static double wrap(double lon) {
+        while (lon > 180) lon -= 360;
+        while (lon <= -180) lon += 360;
+        return lon;
+    }
+}
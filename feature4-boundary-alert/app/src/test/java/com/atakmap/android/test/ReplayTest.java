@@ -0,0 +1,403 @@
+package com.atakmap.android.test;
+
+import static org.junit.Assert.*;
+
+import com.atakmap.android.feature4boundaryalert.plugin.cot.CotOutput;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.ReplayEngine;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.ReplayFile;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.SendStats;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.SimClock;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.TrackRecord;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+public class ReplayTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long T0 = 1_714_564_800_000L; // 2024-05-01T12:00:00Z
+    private static final long START = 1_700_000_000_000L;
+
+    @Test
+    public void nmeaRmcSentencesAreFixes() throws IOException {
+        File file = write(".nmea",
+                "$GPGGA,123519,4807.038,N,01131.000,E,1,08,0.9,545.4,M,46.9,M,,*47\r\n"
+                        // the textbook sentence
+                        + "$GPRMC,123519,A,4807.038,N,01131.000,E,022.4,084.4,230394,003.1,W*6A\r\n"
+                        // bad checksum
+                        + "$GPRMC,123520,A,4807.038,N,01131.000,E,022.4,084.4,230394,003.1,W*00\r\n"
+                        // no fix
+                        + nmea("GPRMC,123521,V,4807.038,N,01131.000,E,,,230394,,") + "\r\n"
+                        + nmea("GNRMC,123522.50,A,3345.1200,S,15112.6000,W,1.0,359.9,230394,,,A"));
+        try (ReplayFile replay = new ReplayFile(file)) {
+            assertEquals(ReplayFile.Format.NMEA, replay.getFormat());
+            TrackRecord r = new TrackRecord();
+            assertTrue(replay.next(r));
+            assertEquals(utc("1994-03-23T12:35:19"), r.time);
+            assertEquals(48 + 7.038 / 60, r.lat, 1e-9);
+            assertEquals(11 + 31.0 / 60, r.lon, 1e-9);
+            assertEquals(22.4 * 1852 / 3600, r.speed, 1e-9);
+            assertEquals(84.4, r.course, 1e-9);
+            assertTrue(Double.isNaN(r.hae));
+            assertNull(r.uid);
+
+            // the last line has no line break
+            assertTrue(replay.next(r));
+            assertEquals(utc("1994-03-23T12:35:22") + 500, r.time);
+            assertEquals(-(33 + 45.12 / 60), r.lat, 1e-9);
+            assertEquals(-(151 + 12.6 / 60), r.lon, 1e-9);
+            assertEquals(359.9, r.course, 1e-9);
+            assertFalse(replay.next(r));
+        }
+    }
+
+    @Test
+    public void gpxTrackPointsAreFixes() throws IOException {
+        File file = write(".gpx", "<?xml version=\"1.0\"?>\n<gpx version=\"1.1\"><trk><trkseg>\n"
+                + "<trkpt lat=\"37.5\" lon=\"-122.25\"><ele>12.5</ele><time>2024-05-01T12:00:00Z</time></trkpt>\n"
+                // no time
+                + "<trkpt lat=\"37.6\" lon=\"-122.25\"><ele>13</ele></trkpt>\n"
+                + "<trkpt lon='-122.5' lat='37.75'>\n  <time>2024-05-01T14:00:01.250+02:00</time>\n"
+                + "  <speed>3.5</speed><course>90</course>\n</trkpt>\n"
+                + "</trkseg></trk></gpx>\n");
+        try (ReplayFile replay = new ReplayFile(file)) {
+            TrackRecord r = new TrackRecord();
+            assertTrue(replay.next(r));
+            assertEquals(T0, r.time);
+            assertEquals(37.5, r.lat, 0);
+            assertEquals(-122.25, r.lon, 0);
+            assertEquals(12.5, r.hae, 0);
+            assertTrue(Double.isNaN(r.speed));
+
+            assertTrue(replay.next(r));
+            assertEquals(T0 + 1250, r.time);
+            assertEquals(37.75, r.lat, 0);
+            assertEquals(-122.5, r.lon, 0);
+            assertEquals(3.5, r.speed, 0);
+            assertEquals(90, r.course, 0);
+            assertFalse(replay.next(r));
+        }
+    }
+
+    @Test
+    public void cotEventsKeepTheirIdentity() throws IOException {
+        File file = write(".cot", "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                + cot("ALPHA-1", "A&amp;1", "a-f-G-U-C", T0, 34.5, -117.25, 2.5, 45)
+                + "\n<event version=\"2.0\" uid=\"BRAVO\" type=\"a-h-G\" time=\"2024-05-01T12:00:02Z\""
+                + " start=\"2024-05-01T12:00:02Z\" stale=\"2024-05-01T12:01:02Z\" how=\"h-e\">"
+                + "<point lat=\"35\" lon=\"-118\" hae=\"100\" ce=\"9\" le=\"9\"/><detail/></event>");
+        try (ReplayFile replay = new ReplayFile(file)) {
+            TrackRecord r = new TrackRecord();
+            assertTrue(replay.next(r));
+            assertEquals("ALPHA-1", r.uid);
+            assertEquals("A&1", r.callsign);
+            assertEquals("a-f-G-U-C", r.type);
+            assertEquals(T0, r.time);
+            assertEquals(34.5, r.lat, 0);
+            assertEquals(-117.25, r.lon, 0);
+            assertEquals(2.5, r.speed, 0);
+            assertEquals(45, r.course, 0);
+
+            assertTrue(replay.next(r));
+            assertEquals("BRAVO", r.uid);
+            assertNull(r.callsign);
+            assertEquals("a-h-G", r.type);
+            assertEquals(T0 + 2000, r.time);
+            assertEquals(100, r.hae, 0);
+            assertTrue(Double.isNaN(r.speed));
+            assertFalse(replay.next(r));
+        }
+    }
+
+    @Test
+    public void seekFindsTheSameRecordAsAScan() throws IOException {
+        File file = File.createTempFile("replay", ".nmea");
+        file.deleteOnExit();
+        int fixes = 20_000;
+        writeNmeaTrack(file, fixes, 1000);
+
+        // a small window, so the file is mapped in hundreds of pieces
+        long[] offsets = new long[fixes];
+        long[] times = new long[fixes];
+        try (ReplayFile replay = new ReplayFile(file, ReplayFile.Format.NMEA, 4096)) {
+            TrackRecord r = new TrackRecord();
+            int n = 0;
+            while (replay.next(r)) {
+                offsets[n] = r.offset;
+                times[n] = r.time;
+                n++;
+            }
+            assertEquals(fixes, n);
+            assertTrue(replay.getMapCount() > 100);
+        }
+
+        Random random = new Random(7);
+        try (ReplayFile replay = new ReplayFile(file, ReplayFile.Format.NMEA, 4096)) {
+            TrackRecord r = new TrackRecord();
+            for (int k = 0; k < 500; k++) {
+                long target = T0 - 5000 + (long) (random.nextDouble() * (fixes * 1000L + 10_000));
+                long probes = replay.getProbeCount();
+                long at = replay.seek(target);
+                int expected = firstAtOrAfter(times, target);
+                if (expected == fixes) {
+                    assertEquals(replay.size(), at);
+                    assertFalse(replay.next(r));
+                } else {
+                    assertEquals("seek to " + target, offsets[expected], at);
+                    assertTrue(replay.next(r));
+                    assertEquals(times[expected], r.time);
+                }
+                // bisection and a short scan, not a read of the file
+                assertTrue("probes " + (replay.getProbeCount() - probes),
+                        replay.getProbeCount() - probes < 200);
+            }
+            // exact times too
+            for (int k = 0; k < fixes; k += 997) {
+                assertEquals(offsets[k], replay.seek(times[k]));
+            }
+            assertTrue(replay.getIndexSize() > 0);
+            replay.rewind();
+            assertTrue(replay.next(r));
+            assertEquals(times[0], r.time);
+        }
+    }
+
+    @Test
+    public void recordLongerThanTheWindowOverlapFails() throws IOException {
+        StringBuilder sb = new StringBuilder(cot("A", "A", "a-f-G", T0, 1, 2, 0, 0));
+        sb.append("<event version=\"2.0\" uid=\"B\" type=\"a-f-G\" time=\"2024-05-01T12:00:01Z\">");
+        sb.append("<point lat=\"1\" lon=\"2\"/><detail><remarks>");
+        for (int i = 0; i < 1000; i++) {
+            sb.append("long remarks ");
+        }
+        sb.append("</remarks></detail></event>");
+        sb.append(cot("C", "C", "a-f-G", T0 + 2000, 1, 2, 0, 0));
+        File file = write(".cot", sb.toString());
+        try (ReplayFile replay = new ReplayFile(file, ReplayFile.Format.COT, 4096)) {
+            TrackRecord r = new TrackRecord();
+            assertTrue(replay.next(r));
+            try {
+                replay.next(r);
+                fail("record longer than 4096 bytes read");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("longer than"));
+            }
+        }
+        // fine with the default window
+        try (ReplayFile replay = new ReplayFile(file)) {
+            TrackRecord r = new TrackRecord();
+            int n = 0;
+            while (replay.next(r)) {
+                n++;
+            }
+            assertEquals(3, n);
+        }
+    }
+
+    @Test
+    public void replayAsFastAsPossibleIsRepeatable() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 600; i++) {
+            sb.append(cot(i % 2 == 0 ? "ALPHA" : "BRAVO", "cs", "a-f-G-U-C", T0 + i * 1000L,
+                    34 + i * 1e-4, -117, 5, 0)).append('\n');
+        }
+        File file = write(".cot", sb.toString());
+        SimClockTest.Digest first = new SimClockTest.Digest();
+        SimClockTest.Digest second = new SimClockTest.Digest();
+        Collect events = new Collect();
+        long t0 = System.nanoTime();
+        try (ReplayFile replay = new ReplayFile(file)) {
+            assertEquals(600, new ReplayEngine(replay, first, 30_000).play(SimClock.asFastAsPossible(START)));
+        }
+        try (ReplayFile replay = new ReplayFile(file)) {
+            new ReplayEngine(replay, second, 30_000).play(SimClock.asFastAsPossible(START));
+        }
+        long wallMillis = (System.nanoTime() - t0) / 1_000_000;
+        try (ReplayFile replay = new ReplayFile(file)) {
+            new ReplayEngine(replay, events, 30_000).play(SimClock.asFastAsPossible(START));
+        }
+        // ten minutes of log in well under that
+        assertTrue("took " + wallMillis + " ms", wallMillis < 10_000);
+        assertEquals(600, first.events);
+        assertEquals(first.bytes, second.bytes);
+        assertTrue(Arrays.equals(first.digest(), second.digest()));
+
+        // shifted so the first fix is sent at the clock's start
+        assertEquals(600, events.all.size());
+        assertTrue(events.all.get(0).contains("uid=\"ALPHA\""));
+        assertTrue(events.all.get(0).contains("time=\"2023-11-14T22:13:20Z\""));
+        assertTrue(events.all.get(1).contains("uid=\"BRAVO\""));
+        assertTrue(events.all.get(1).contains("time=\"2023-11-14T22:13:21Z\""));
+        assertTrue(events.all.get(0).contains("type=\"a-f-G-U-C\""));
+    }
+
+    @Test
+    public void missingSpeedAndCourseComeFromThePreviousFix() throws Exception {
+        // due north, 0.001 degree (about 111 m) every 10 s
+        StringBuilder sb = new StringBuilder("<gpx><trk><trkseg>");
+        for (int i = 0; i < 5; i++) {
+            sb.append(String.format(Locale.US, "<trkpt lat=\"%.3f\" lon=\"10\"><time>%s</time></trkpt>",
+                    50 + i * 0.001, iso(T0 + i * 10_000L)));
+        }
+        sb.append("</trkseg></trk></gpx>");
+        File file = write(".gpx", sb.toString());
+        final List<double[]> fixes = new ArrayList<>();
+        try (ReplayFile replay = new ReplayFile(file)) {
+            ReplayEngine engine = new ReplayEngine(replay, new Collect(), 30_000);
+            engine.setTimeShift(0);
+            engine.setListener(new ReplayEngine.Listener() {
+                @Override
+                public void onFix(TrackRecord fix, long timeMillis) {
+                    fixes.add(new double[]{fix.speed, fix.course, timeMillis});
+                }
+            });
+            engine.play(SimClock.asFastAsPossible(T0));
+        }
+        assertEquals(5, fixes.size());
+        assertEquals(0, fixes.get(0)[0], 0);
+        for (int i = 1; i < 5; i++) {
+            assertEquals(11.1, fixes.get(i)[0], 0.1);
+            assertEquals(0, fixes.get(i)[1], 1e-6);
+            // recorded times kept
+            assertEquals(T0 + i * 10_000L, fixes.get(i)[2], 0);
+        }
+    }
+
+    @Test
+    public void seekThenPlayStartsThere() throws Exception {
+        File file = File.createTempFile("replay", ".nmea");
+        file.deleteOnExit();
+        writeNmeaTrack(file, 3600, 1000);
+        Collect events = new Collect();
+        try (ReplayFile replay = new ReplayFile(file)) {
+            ReplayEngine engine = new ReplayEngine(replay, events, 30_000);
+            engine.setTimeShift(0);
+            engine.seek(T0 + 3_000_000);
+            assertEquals(600, engine.play(SimClock.asFastAsPossible(START)));
+            SendStats.Snapshot stats = engine.getStats().snapshot();
+            assertEquals(600, stats.sent);
+            assertEquals(0, stats.failed);
+        }
+        assertTrue(events.all.get(0).contains("time=\"" + iso(T0 + 3_000_000) + "\""));
+    }
+
+    @Test
+    public void acceleratedReplayKeepsTheScaledPace() throws Exception {
+        File file = File.createTempFile("replay", ".nmea");
+        file.deleteOnExit();
+        // 20 s of fixes
+        writeNmeaTrack(file, 21, 1000);
+        Collect events = new Collect();
+        long t0 = System.nanoTime();
+        try (ReplayFile replay = new ReplayFile(file)) {
+            new ReplayEngine(replay, events, 30_000).play(SimClock.accelerated(START, 100));
+        }
+        long wallMillis = (System.nanoTime() - t0) / 1_000_000;
+        assertEquals(21, events.all.size());
+        // about 200 ms
+        assertTrue("took " + wallMillis + " ms", wallMillis >= 190 && wallMillis < 2000);
+    }
+
+    /**
+     * Index of the first time at or after the target
+     */
+    private static int firstAtOrAfter(long[] times, long target) {
+        int i = 0;
+        while (i < times.length && times[i] < target) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Fixes one period apart going east, with other sentences in between
+     */
+    static void writeNmeaTrack(File file, int fixes, long periodMillis) throws IOException {
+        SimpleDateFormat hms = format("HHmmss.SS");
+        SimpleDateFormat dmy = format("ddMMyy");
+        try (Writer w = new OutputStreamWriter(new java.io.BufferedOutputStream(new FileOutputStream(file)), UTF_8)) {
+            for (int i = 0; i < fixes; i++) {
+                long time = T0 + i * periodMillis;
+                double lon = 11.5 + i * 1e-5;
+                String body = String.format(Locale.US, "GPRMC,%s,A,4807.0380,N,%03d%07.4f,E,5.0,90.0,%s,,,A",
+                        hms.format(time).substring(0, 9), (int) lon, (lon - (int) lon) * 60, dmy.format(time));
+                w.write(nmea(body));
+                w.write("\r\n");
+                w.write("$GPGSA,A,3,04,05,,09,12,,,24,,,,,2.5,1.3,2.1*39\r\n");
+            }
+        }
+    }
+
+    static String nmea(String body) {
+        int sum = 0;
+        for (int i = 0; i < body.length(); i++) {
+            sum ^= body.charAt(i);
+        }
+        return String.format(Locale.US, "$%s*%02X", body, sum);
+    }
+
+    static String cot(String uid, String callsign, String type, long time, double lat, double lon,
+                      double speed, double course) {
+        return String.format(Locale.US, "<event version=\"2.0\" uid=\"%s\" type=\"%s\" how=\"m-g\" time=\"%s\""
+                        + " start=\"%s\" stale=\"%s\"><point lat=\"%.7f\" lon=\"%.7f\" hae=\"0\" ce=\"5\" le=\"5\"/>"
+                        + "<detail><contact callsign=\"%s\"/><track speed=\"%.2f\" course=\"%.1f\"/></detail></event>",
+                uid, type, iso(time), iso(time), iso(time + 30_000), lat, lon, callsign, speed, course);
+    }
+
+    private static String iso(long millis) {
+        return format("yyyy-MM-dd'T'HH:mm:ss'Z'").format(millis);
+    }
+
+    private static long utc(String iso) {
+        try {
+            return format("yyyy-MM-dd'T'HH:mm:ss").parse(iso).getTime();
+        } catch (java.text.ParseException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static SimpleDateFormat format(String pattern) {
+        SimpleDateFormat f = new SimpleDateFormat(pattern, Locale.US);
+        f.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return f;
+    }
+
+    private static File write(String suffix, String content) throws IOException {
+        File file = File.createTempFile("replay", suffix);
+        file.deleteOnExit();
+        try (Writer w = new OutputStreamWriter(new FileOutputStream(file), UTF_8)) {
+            w.write(content);
+        }
+        return file;
+    }
+
+    /**
+     * Keeps every event as text
+     */
+    static final class Collect implements CotOutput {
+        final List<String> all = new ArrayList<>();
+
+        @Override
+        public int send(ByteBuffer[] events, int count) {
+            for (int i = 0; i < count; i++) {
+                ByteBuffer b = events[i];
+                all.add(new String(b.array(), b.arrayOffset() + b.position(), b.remaining(), UTF_8));
+            }
+            return count;
+        }
+    }
+}
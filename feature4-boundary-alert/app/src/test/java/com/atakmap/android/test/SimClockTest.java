@@ -0,0 +1,144 @@
+package com.atakmap.android.test;
+
+import static org.junit.Assert.*;
+
+import com.atakmap.android.feature4boundaryalert.plugin.cot.CotOutput;
+import com.atakmap.android.feature4boundaryalert.plugin.cot.CotWriter;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.CircleMotion;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.LawnmowerMotion;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.RandomWalkMotion;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.SendStats;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.SimClock;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.SwarmSimulator;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.TrajectoryTable;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
+
+public class SimClockTest {
+
+    private static final long START = 1_700_000_000_000L;
+
+    @Test
+    public void virtualTimeMovesOnlyWhenWaitedOn() throws InterruptedException {
+        SimClock clock = SimClock.asFastAsPossible(START);
+        assertEquals(START, clock.now());
+        clock.sleepUntil(START + 3_600_000);
+        assertEquals(START + 3_600_000, clock.now());
+        // never backwards
+        clock.sleepUntil(START);
+        assertEquals(START + 3_600_000, clock.now());
+        assertEquals(0, clock.getSpeed(), 0);
+    }
+
+    @Test
+    public void acceleratedTimeRunsFaster() throws InterruptedException {
+        SimClock clock = SimClock.accelerated(START, 100);
+        long t0 = System.nanoTime();
+        clock.sleepUntil(START + 10_000);
+        long wallMillis = (System.nanoTime() - t0) / 1_000_000;
+        assertTrue(clock.now() >= START + 10_000);
+        // 10 simulated seconds in about 100 ms
+        assertTrue("took " + wallMillis + " ms", wallMillis >= 95 && wallMillis < 2000);
+    }
+
+    @Test
+    public void realTimeIsTheWallClock() {
+        long before = System.currentTimeMillis();
+        long now = SimClock.realTime().now();
+        assertTrue(now >= before && now <= System.currentTimeMillis());
+    }
+
+    @Test
+    public void scenarioRunsAreByteIdentical() throws Exception {
+        Digest first = new Digest();
+        Digest second = new Digest();
+        long t0 = System.nanoTime();
+        SendStats.Snapshot stats = scenario(first).getStats().snapshot();
+        long wallMillis = (System.nanoTime() - t0) / 1_000_000;
+        scenario(second);
+
+        // an hour of 100 entities at 1 Hz
+        assertEquals(100 * 3600, stats.sent, 100);
+        assertTrue("took " + wallMillis + " ms", wallMillis < 60_000);
+        assertTrue(first.events > 0);
+        assertEquals(first.events, second.events);
+        assertEquals(first.bytes, second.bytes);
+        assertTrue(Arrays.equals(first.digest(), second.digest()));
+    }
+
+    @Test
+    public void backgroundRunStops() throws Exception {
+        Digest out = new Digest();
+        SwarmSimulator swarm = new SwarmSimulator(writer(), out);
+        swarm.addCircle("u", "c", 34, -117, 100, 60, 1);
+        swarm.start(SimClock.asFastAsPossible(START), 10);
+        Thread.sleep(50);
+        swarm.stop();
+        Thread.sleep(50);
+        long events = out.events;
+        Thread.sleep(50);
+        assertTrue(events > 0);
+        assertEquals(events, out.events);
+    }
+
+    private static SwarmSimulator scenario(Digest out) throws InterruptedException {
+        SwarmSimulator swarm = new SwarmSimulator(writer(), out);
+        Random random = new Random(1234);
+        TrajectoryTable mower = new TrajectoryTable(new LawnmowerMotion(34, -117, 20, 2000, 150, 6, 15), 0.5);
+        for (int i = 0; i < 100; i++) {
+            String uid = "SIM-" + i;
+            switch (i % 3) {
+                case 0:
+                    swarm.add(uid, uid, new CircleMotion(34, -117, 100 + random.nextDouble() * 900,
+                            60 + random.nextDouble() * 240, random.nextDouble() * 2 * Math.PI), 1);
+                    break;
+                case 1:
+                    swarm.add(uid, uid, new RandomWalkMotion(34, -117, 4, 15, 60, 1500, random.nextLong()), 1);
+                    break;
+                default:
+                    int e = swarm.add(uid, uid, mower, 1);
+                    swarm.setTimeOffset(e, random.nextDouble() * mower.getPeriodSeconds());
+                    break;
+            }
+        }
+        swarm.runFor(SimClock.asFastAsPossible(START), 10, 3_600_000);
+        return swarm;
+    }
+
+    private static CotWriter writer() {
+        return new CotWriter("a-f-G-U-C", "m-g", 30_000);
+    }
+
+    /**
+     * Hashes every event in order
+     */
+    static final class Digest implements CotOutput {
+        private final MessageDigest sha;
+        volatile long events;
+        long bytes;
+
+        Digest() throws NoSuchAlgorithmException {
+            sha = MessageDigest.getInstance("SHA-256");
+        }
+
+        @Override
+        public int send(ByteBuffer[] batch, int count) {
+            for (int i = 0; i < count; i++) {
+                bytes += batch[i].remaining();
+                sha.update(batch[i]);
+            }
+            events += count;
+            return count;
+        }
+
+        byte[] digest() {
+            return sha.digest();
+        }
+    }
+}
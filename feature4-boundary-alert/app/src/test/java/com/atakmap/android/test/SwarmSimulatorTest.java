@@ -0,0 +1,270 @@
+package com.atakmap.android.test;
+
+import static org.junit.Assert.*;
+
+import com.atakmap.android.feature4boundaryalert.plugin.cot.CotOutput;
+import com.atakmap.android.feature4boundaryalert.plugin.cot.CotWriter;
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.GeoMath;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.RateLimiter;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.SendStats;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.SimClock;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.SwarmSimulator;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class SwarmSimulatorTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Pattern UID = Pattern.compile("uid=\"([^\"]*)\"");
+    private static final Pattern CALLSIGN = Pattern.compile("callsign=\"([^\"]*)\"");
+
+    @Test
+    public void everyEntityIsSentAtItsOwnRate() {
+        Capture out = new Capture();
+        SwarmSimulator swarm = new SwarmSimulator(writer(), out);
+        swarm.addCircle("fast", "F", 34, -117, 100, 60, 10);
+        swarm.addCircle("slow", "S", 34, -117, 200, -60, 0.5);
+        swarm.addStraight("line", "L", 34, -117, 90, 10, 1);
+
+        for (long t = 0; t < 10_000; t += 10) {
+            swarm.tick(1_000_000 + t);
+        }
+        Map<String, Integer> counts = out.countByUid();
+        assertEquals(100, counts.get("fast"), 1);
+        assertEquals(5, counts.get("slow"), 1);
+        assertEquals(10, counts.get("line"), 1);
+        SendStats.Snapshot stats = swarm.getStats().snapshot();
+        assertEquals(out.events.size(), stats.sent);
+        // first updates are spread over the period, so at most a tick late
+        assertTrue(stats.maxLagMillis < 10);
+        assertEquals(0, stats.failed);
+    }
+
+    @Test
+    public void uidsAndCallsignsStayWithTheirEntity() {
+        Capture out = new Capture();
+        SwarmSimulator swarm = new SwarmSimulator(writer(), out, 2);
+        for (int i = 0; i < 1000; i++) {
+            swarm.addCircle("uid-" + i, "call & " + i, 34, -117, 50 + i, 120, 1);
+        }
+        assertEquals(1000, swarm.size());
+        for (long t = 0; t <= 1000; t += 100) {
+            swarm.tick(t);
+        }
+        Map<String, Integer> counts = out.countByUid();
+        assertEquals(1000, counts.size());
+        for (String cot : out.events) {
+            Matcher uid = UID.matcher(cot);
+            Matcher callsign = CALLSIGN.matcher(cot);
+            assertTrue(uid.find() && callsign.find());
+            assertEquals("call &amp; " + uid.group(1).substring(4), callsign.group(1));
+        }
+    }
+
+    @Test
+    public void entitiesMoveAlongTheirPaths() {
+        SwarmSimulator swarm = new SwarmSimulator(writer(), new Capture());
+        int circle = swarm.addCircle("c", "c", 34, -117, 500, 100, 1);
+        int line = swarm.addStraight("s", "s", 34, -117, 0, 20, 1);
+        for (long t = 0; t <= 50_000; t += 100) {
+            swarm.tick(t);
+            double r = GeoMath.distanceMeters(34, -117, swarm.getLatitude(circle), swarm.getLongitude(circle));
+            if (t > 1000) {
+                assertEquals(500, r, 0.01);
+            }
+        }
+        // half a lap from north is south of the center
+        assertTrue(swarm.getLatitude(circle) < 34 - 0.004);
+        // about 50 s north at 20 m/s, sent at most one period ago
+        double north = GeoMath.distanceMeters(34, -117, swarm.getLatitude(line), swarm.getLongitude(line));
+        assertEquals(1000, north, 25);
+    }
+
+    @Test
+    public void rateLimitHoldsEventsBack() {
+        Capture out = new Capture();
+        SwarmSimulator swarm = new SwarmSimulator(writer(), out);
+        for (int i = 0; i < 500; i++) {
+            swarm.addStraight("u" + i, "c" + i, 34, -117, 0, 1, 2);
+        }
+        swarm.setMaxRate(200);
+        for (long t = 0; t < 10_000; t += 10) {
+            swarm.tick(t);
+        }
+        SendStats.Snapshot stats = swarm.getStats().snapshot();
+        // 1000 events/s wanted, 200/s allowed plus the initial burst
+        assertEquals(2000 + 20, stats.sent, 25);
+        assertTrue(stats.throttled > 0);
+        assertTrue(stats.maxLagMillis > 500);
+        assertTrue(stats.jitterMillis > 0);
+        assertEquals(stats.sent, out.events.size());
+    }
+
+    @Test
+    public void failedSendsAreCounted() {
+        SwarmSimulator swarm = new SwarmSimulator(writer(), new CotOutput() {
+            @Override
+            public int send(ByteBuffer[] events, int count) throws IOException {
+                throw new IOException("network down");
+            }
+        });
+        swarm.addStraight("u", "c", 0, 0, 0, 0, 1);
+        for (long t = 0; t <= 3000; t += 100) {
+            swarm.tick(t);
+        }
+        SendStats.Snapshot stats = swarm.getStats().snapshot();
+        assertEquals(0, stats.sent);
+        assertEquals(4, stats.failed, 1);
+    }
+
+    @Test
+    public void limiterRefillsWithTime() {
+        RateLimiter limiter = new RateLimiter(10, 2);
+        assertTrue(limiter.tryAcquire(0));
+        assertTrue(limiter.tryAcquire(0));
+        assertFalse(limiter.tryAcquire(0));
+        assertFalse(limiter.tryAcquire(50));
+        assertTrue(limiter.tryAcquire(100));
+        // never more than the burst after a long pause
+        assertTrue(limiter.tryAcquire(10_000));
+        assertTrue(limiter.tryAcquire(10_000));
+        assertFalse(limiter.tryAcquire(10_000));
+        assertTrue(RateLimiter.unlimited().tryAcquire(0));
+    }
+
+    @Test
+    public void ratesFromATenthToFiftyHertz() throws InterruptedException {
+        Capture out = new Capture();
+        SwarmSimulator swarm = new SwarmSimulator(writer(), out);
+        double[] rates = {0.1, 0.3, 1, 7, 30, 50};
+        for (int i = 0; i < rates.length; i++) {
+            swarm.addStraight("r" + i, "c", 34, -117, 0, 1, rates[i]);
+        }
+        swarm.runFor(SimClock.asFastAsPossible(0), 10, 100_000);
+        Map<String, Integer> counts = out.countByUid();
+        for (int i = 0; i < rates.length; i++) {
+            assertEquals(rates[i] * 100, counts.get("r" + i), 1);
+        }
+        SendStats.Snapshot stats = swarm.getStats().snapshot();
+        assertEquals(10_001, stats.ticks);
+        assertEquals(0, stats.missedTicks);
+        assertEquals(0, stats.maxScheduleLagMillis);
+        assertEquals(0, stats.skipped);
+        // 30 Hz is a 33 ms period, so sends fall up to a 10 ms slot late
+        assertTrue(stats.maxLagMillis < 10);
+    }
+
+    @Test
+    public void lateTicksAreCounted() throws InterruptedException {
+        SwarmSimulator swarm = new SwarmSimulator(writer(), new Capture());
+        swarm.addStraight("u", "c", 34, -117, 0, 1, 20);
+        // every hundredth wait oversleeps by 55 ms
+        SimClock stalling = new SimClock() {
+            private long now;
+            private int waits;
+
+            @Override
+            public long now() {
+                return now;
+            }
+
+            @Override
+            public void sleepUntil(long millis) {
+                if (millis > now) {
+                    now = millis;
+                }
+                if (++waits % 100 == 0) {
+                    now += 55;
+                }
+            }
+
+            @Override
+            public double getSpeed() {
+                return 0;
+            }
+        };
+        swarm.runFor(stalling, 10, 10_000);
+        SendStats.Snapshot stats = swarm.getStats().snapshot();
+        long stalls = stats.ticks / 100;
+        assertTrue(stalls >= 9);
+        assertEquals(5 * stalls, stats.missedTicks);
+        assertEquals(55, stats.maxScheduleLagMillis);
+        assertEquals(55.0 * stalls / stats.ticks, stats.meanScheduleLagMillis, 1e-9);
+        assertTrue(stats.maxLagMillis > 0 && stats.maxLagMillis <= 55);
+        // the entity is back on time after each stall
+        assertEquals(200, stats.sent, 2);
+    }
+
+    @Test
+    public void longGapsSendEachEntityOnce() {
+        Capture out = new Capture();
+        SwarmSimulator swarm = new SwarmSimulator(writer(), out);
+        for (int i = 0; i < 100; i++) {
+            swarm.addStraight("u" + i, "c", 34, -117, 0, 1, 0.1 + i * 0.4);
+        }
+        swarm.tick(0);
+        out.events.clear();
+        // longer than one turn of the wheel
+        swarm.tick(60_000);
+        Map<String, Integer> counts = out.countByUid();
+        assertEquals(100, counts.size());
+        for (int n : counts.values()) {
+            assertEquals(1, n);
+        }
+        assertTrue(swarm.getStats().snapshot().skipped > 0);
+        out.events.clear();
+        swarm.tick(60_010);
+        swarm.tick(70_000);
+        assertEquals(100, out.countByUid().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rateIsChecked() {
+        new SwarmSimulator(writer(), new Capture()).addCircle("u", "c", 0, 0, 10, 10, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rateAboveFiftyHertzIsRefused() {
+        new SwarmSimulator(writer(), new Capture()).addCircle("u", "c", 0, 0, 10, 10, 60);
+    }
+
+    private static CotWriter writer() {
+        return new CotWriter("a-f-G-U-C", "m-g", 30_000);
+    }
+
+    /**
+     * Keeps every event as text
+     */
+    static final class Capture implements CotOutput {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public int send(ByteBuffer[] batch, int count) {
+            for (int i = 0; i < count; i++) {
+                events.add(UTF_8.decode(batch[i]).toString());
+            }
+            return count;
+        }
+
+        Map<String, Integer> countByUid() {
+            Map<String, Integer> counts = new HashMap<>();
+            for (String cot : events) {
+                Matcher m = UID.matcher(cot);
+                assertTrue(m.find());
+                Integer n = counts.get(m.group(1));
+                counts.put(m.group(1), n == null ? 1 : n + 1);
+            }
+            return counts;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.atakmap.android.test;
+
+import static org.junit.Assert.*;
+
+import com.atakmap.android.feature4boundaryalert.plugin.cot.CotEncoder;
+import com.atakmap.android.feature4boundaryalert.plugin.cot.CotOutput;
+import com.atakmap.android.feature4boundaryalert.plugin.cot.CotWriter;
+import com.atakmap.android.feature4boundaryalert.plugin.cot.TakProtocolWriter;
+import com.atakmap.android.feature4boundaryalert.plugin.sim.SwarmSimulator;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class TakProtocolWriterTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void eventDecodesToTheSameFields() {
+        TakProtocolWriter writer = new TakProtocolWriter("SIM-ROBOT-1", "a-f-A-M-F", "m-g", "SIMBOT", 20_000);
+        long time = 1_700_000_000_123L;
+        ByteBuffer event = writer.encode(time, 37.4219999, -122.0840575, 12.566, 271.04);
+        assertEquals((byte) 0xBF, event.get(0));
+        assertEquals((byte) 0x01, event.get(1));
+        assertEquals((byte) 0xBF, event.get(2));
+
+        Message cot = takMessage(event).message(2);
+        assertEquals("a-f-A-M-F", cot.string(1));
+        assertEquals("SIM-ROBOT-1", cot.string(5));
+        assertEquals(time, cot.number(6));
+        assertEquals(time, cot.number(7));
+        assertEquals(time + 20_000, cot.number(8));
+        assertEquals("m-g", cot.string(9));
+        // doubles go over exactly
+        assertEquals(37.4219999, cot.real(10), 0);
+        assertEquals(-122.0840575, cot.real(11), 0);
+        assertFalse(cot.has(12));
+        assertEquals(5, cot.real(13), 0);
+        assertEquals(5, cot.real(14), 0);
+        Message detail = cot.message(15);
+        assertEquals("SIMBOT", detail.message(2).string(2));
+        assertEquals(12.566, detail.message(7).real(1), 0);
+        assertEquals(271.04, detail.message(7).real(2), 0);
+    }
+
+    @Test
+    public void packedNamesAndLongStrings() {
+        TakProtocolWriter writer = new TakProtocolWriter("a-f-G-U-C", "h-e", 0);
+        StringBuilder longCallsign = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            longCallsign.append("\u03a9<&>");
+        }
+        byte[] uid = writer.name("\u00fcn\u00efc\u00f6d\u00e9-1");
+        byte[] callsign = writer.name(longCallsign.toString());
+        byte[] names = new byte[3 + uid.length + callsign.length];
+        System.arraycopy(uid, 0, names, 3, uid.length);
+        System.arraycopy(callsign, 0, names, 3 + uid.length, callsign.length);
+
+        // a little-endian buffer with something already in it
+        ByteBuffer out = ByteBuffer.allocate(1000).order(ByteOrder.LITTLE_ENDIAN);
+        out.put((byte) 7);
+        int n = writer.write(out, names, 3, 3 + uid.length, names.length, 0, -90, 180, 0.5, 359.9);
+        assertTrue(n <= writer.getMaxEventBytes(uid.length + callsign.length));
+        assertEquals(1 + n, out.position());
+        out.flip();
+        out.position(1);
+
+        Message cot = takMessage(out).message(2);
+        assertEquals("\u00fcn\u00efc\u00f6d\u00e9-1", cot.string(5));
+        assertEquals(0, cot.number(6));
+        assertEquals(0, cot.number(8));
+        assertEquals(-90, cot.real(10), 0);
+        assertEquals(180, cot.real(11), 0);
+        // over 127 bytes, so a two byte length, and not escaped
+        assertEquals(longCallsign.toString(), cot.message(15).message(2).string(2));
+        assertEquals(0.5, cot.message(15).message(7).real(1), 0);
+    }
+
+    @Test
+    public void eventsFitTheirBound() {
+        Random rnd = new Random(3);
+        for (int i = 0; i < 1000; i++) {
+            String uid = "u" + rnd.nextInt();
+            String cs = "c" + rnd.nextLong();
+            TakProtocolWriter writer = new TakProtocolWriter(uid, "a-f-G", "m-g", cs, rnd.nextInt(1_000_000));
+            long time = (long) (rnd.nextDouble() * Long.MAX_VALUE / 2);
+            ByteBuffer event = writer.encode(time, rnd.nextDouble(), rnd.nextDouble(), rnd.nextDouble(), 0);
+            assertTrue(event.remaining() <= writer.getMaxEventBytes());
+            assertEquals(uid, takMessage(event).message(2).string(5));
+        }
+    }
+
+    @Test
+    public void badValuesAreRefused() {
+        TakProtocolWriter writer = new TakProtocolWriter("u", "t", "h", "c", 0);
+        try {
+            writer.encode(0, Double.NaN, 0, 0, 0);
+            fail("NaN written");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            writer.encode(-1, 0, 0, 0, 0);
+            fail("negative time written");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void muchSmallerThanXml() {
+        CotEncoder xml = CotEncoder.create(CotEncoder.Encoding.XML, "SIM-ROBOT-1", "a-f-A-M-F", "m-g", "SIMBOT", 20_000);
+        CotEncoder tak = CotEncoder.create(CotEncoder.Encoding.PROTOBUF, "SIM-ROBOT-1", "a-f-A-M-F", "m-g", "SIMBOT",
+                20_000);
+        assertTrue(xml instanceof CotWriter);
+        assertEquals(CotEncoder.Encoding.PROTOBUF, tak.getEncoding());
+        int xmlBytes = xml.encode(1_700_000_000_000L, 37.42, -122.08, 12.5, 271).remaining();
+        int takBytes = tak.encode(1_700_000_000_000L, 37.42, -122.08, 12.5, 271).remaining();
+        assertTrue(xmlBytes + " vs " + takBytes, takBytes * 2 < xmlBytes);
+        assertEquals(CotEncoder.Encoding.PROTOBUF, CotEncoder.Encoding.forName("Protobuf"));
+        assertEquals(CotEncoder.Encoding.XML, CotEncoder.Encoding.forName(null));
+    }
+
+    @Test
+    public void swarmSendsTakProtocol() {
+        final List<Message> events = new ArrayList<>();
+        CotOutput decode = new CotOutput() {
+            @Override
+            public int send(ByteBuffer[] batch, int count) {
+                for (int i = 0; i < count; i++) {
+                    events.add(takMessage(batch[i]).message(2));
+                }
+                return count;
+            }
+        };
+        SwarmSimulator swarm = new SwarmSimulator(
+                CotEncoder.create(CotEncoder.Encoding.PROTOBUF, "a-f-G-U-C", "m-g", 30_000),
+                decode);
+        swarm.addCircle("S-1", "one", 34, -117, 100, 60, 1);
+        swarm.addStraight("S-2", "two", 35, -118, 90, 5, 1);
+        for (long t = 0; t < 1000; t += 10) {
+            swarm.tick(1_700_000_000_000L + t);
+        }
+        assertEquals(2, events.size());
+        Map<String, String> callsigns = new HashMap<>();
+        for (Message m : events) {
+            callsigns.put(m.string(5), m.message(15).message(2).string(2));
+            assertEquals("a-f-G-U-C", m.string(1));
+        }
+        assertEquals("one", callsigns.get("S-1"));
+        assertEquals("two", callsigns.get("S-2"));
+    }
+
+    /**
+     * The TakMessage after the mesh header, which must take the whole
+     * buffer
+     */
+    static Message takMessage(ByteBuffer event) {
+        ByteBuffer b = event.duplicate();
+        assertEquals((byte) 0xBF, b.get());
+        assertEquals((byte) 0x01, b.get());
+        assertEquals((byte) 0xBF, b.get());
+        byte[] rest = new byte[b.remaining()];
+        b.get(rest);
+        return new Message(rest, 0, rest.length);
+    }
+
+    /**
+     * Just enough of a protobuf reader to check the writer: fields by
+     * number, the last one winning
+     */
+    static final class Message {
+        private final Map<Integer, Object> fields = new HashMap<>();
+
+        Message(byte[] b, int from, int to) {
+            int[] at = {from};
+            while (at[0] < to) {
+                long key = varint(b, at);
+                int field = (int) (key >>> 3);
+                switch ((int) (key & 7)) {
+                    case 0:
+                        fields.put(field, varint(b, at));
+                        break;
+                    case 1:
+                        long bits = 0;
+                        for (int k = 7; k >= 0; k--) {
+                            bits = bits << 8 | (b[at[0] + k] & 0xFF);
+                        }
+                        at[0] += 8;
+                        fields.put(field, Double.longBitsToDouble(bits));
+                        break;
+                    case 2:
+                        int length = (int) varint(b, at);
+                        assertTrue("field " + field + " overruns", at[0] + length <= to);
+                        byte[] value = new byte[length];
+                        System.arraycopy(b, at[0], value, 0, length);
+                        at[0] += length;
+                        fields.put(field, value);
+                        break;
+                    default:
+                        fail("wire type " + (key & 7));
+                }
+            }
+            assertEquals("message overruns", to, at[0]);
+        }
+
+        boolean has(int field) {
+            return fields.containsKey(field);
+        }
+
+        String string(int field) {
+            return new String((byte[]) fields.get(field), UTF_8);
+        }
+
+        long number(int field) {
+            return (Long) fields.get(field);
+        }
+
+        double real(int field) {
+            return (Double) fields.get(field);
+        }
+
+        Message message(int field) {
+            byte[] b = (byte[]) fields.get(field);
+            assertTrue("no field " + field, b != null);
+            return new Message(b, 0, b.length);
+        }
+
+        private static long varint(byte[] b, int[] at) {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte c = b[at[0]++];
+                value |= (long) (c & 0x7F) << shift;
+                if (c >= 0) {
+                    return value;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,458 @@
+package com.atakmap.android.test;
+
+import static org.junit.Assert.*;
+
+import com.atakmap.android.feature4boundaryalert.plugin.cot.CotEncoder;
+import com.atakmap.android.feature4boundaryalert.plugin.cot.CotWriter;
+import com.atakmap.android.feature4boundaryalert.plugin.cot.TcpStreamSender;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLHandshakeException;
+
+public class TcpStreamSenderTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] PASSWORD = "changeit".toCharArray();
+    private static final Pattern EVENT = Pattern.compile(
+            "<event version=\"2\\.0\" uid=\"E-(\\d+)\" type=\"a-f-G-U-C\".*</detail></event>", Pattern.DOTALL);
+
+    @Test
+    public void eventsArriveWholeAndInOrder() throws Exception {
+        try (Server server = new Server(0, -1);
+             TcpStreamSender sender = new TcpStreamSender("127.0.0.1", server.port(), 1000,
+                     TcpStreamSender.Overflow.BLOCK)) {
+            Events events = new Events(100);
+            for (int i = 0; i < 20_000; i += 100) {
+                assertEquals(100, sender.send(events.batch(i), 100));
+            }
+            assertTrue(sender.flush(10_000));
+            assertTrue(server.await(20_000, 10_000));
+            assertEquals(20_000, server.count());
+            for (int i = 0; i < 20_000; i++) {
+                assertEquals(i, (int) server.ids().get(i));
+            }
+            assertEquals(0, server.invalid());
+            assertEquals(20_000, sender.getEventsSent());
+            assertEquals(server.bytes(), sender.getBytesSent());
+            // each send's events go out together, often more
+            assertTrue("writes " + sender.getWriteCount(), sender.getWriteCount() <= 200);
+            assertEquals(1, sender.getConnectCount());
+        }
+    }
+
+    @Test
+    public void reconnectsWhenTheServerHangsUp() throws Exception {
+        try (Server server = new Server(0, 1000);
+             TcpStreamSender sender = new TcpStreamSender("127.0.0.1", server.port(), 5000,
+                     TcpStreamSender.Overflow.BLOCK)) {
+            sender.setReconnectDelay(20, 100);
+            Events events = new Events(1000);
+            sender.send(events.batch(0), 1000);
+            assertTrue(server.await(1000, 5000));
+            // the hang up is noticed and a new connection made
+            long deadline = System.currentTimeMillis() + 5000;
+            while (sender.getConnectCount() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(2, sender.getConnectCount());
+            assertTrue(sender.getLastError() != null);
+
+            sender.send(events.batch(1000), 1000);
+            assertTrue(sender.flush(5000));
+            assertTrue(server.await(2000, 5000));
+            assertEquals(2, server.connections());
+            for (int i = 0; i < 2000; i++) {
+                assertEquals(i, (int) server.ids().get(i));
+            }
+            assertEquals(0, server.invalid());
+        }
+    }
+
+    @Test
+    public void fullQueueDropsTheOldest() throws Exception {
+        int port = freePort();
+        try (TcpStreamSender sender = new TcpStreamSender("127.0.0.1", port, 100,
+                TcpStreamSender.Overflow.DROP_OLDEST)) {
+            sender.setReconnectDelay(20, 50);
+            Events events = new Events(100);
+            long t0 = System.nanoTime();
+            for (int i = 0; i < 1000; i += 100) {
+                // never waits, with nothing listening
+                assertEquals(100, sender.send(events.batch(i), 100));
+            }
+            assertTrue((System.nanoTime() - t0) / 1_000_000 < 1000);
+            assertEquals(900, sender.getDroppedCount());
+            assertEquals(100, sender.getQueueSize());
+            long deadline = System.currentTimeMillis() + 5000;
+            while (sender.getFailureCount() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(sender.getFailureCount() >= 2);
+            assertFalse(sender.isConnected());
+            assertEquals(100, sender.getQueueSize());
+
+            // the server comes up and gets the newest
+            try (Server server = new Server(port, -1)) {
+                assertTrue(sender.flush(5000));
+                assertTrue(server.await(100, 5000));
+                assertEquals(100, server.count());
+                for (int i = 0; i < 100; i++) {
+                    assertEquals(900 + i, (int) server.ids().get(i));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void fullQueueBlocksUntilClosed() throws Exception {
+        final TcpStreamSender sender = new TcpStreamSender("127.0.0.1", freePort(), 10,
+                TcpStreamSender.Overflow.BLOCK);
+        sender.setReconnectDelay(1000, 1000);
+        final Events events = new Events(11);
+        assertEquals(10, sender.send(events.batch(0), 10));
+        final Object[] outcome = new Object[1];
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    outcome[0] = sender.send(events.batch(10), 1);
+                } catch (IOException e) {
+                    outcome[0] = e;
+                }
+            }
+        });
+        producer.start();
+        producer.join(300);
+        assertTrue("send did not wait", producer.isAlive());
+        sender.close();
+        producer.join(2000);
+        assertFalse(producer.isAlive());
+        assertTrue(String.valueOf(outcome[0]), outcome[0] instanceof IOException);
+        try {
+            sender.send(events.batch(0), 1);
+            fail("closed sender took an event");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void meshPacketsAreRefused() throws Exception {
+        try (TcpStreamSender sender = new TcpStreamSender("127.0.0.1", freePort(), 10,
+                TcpStreamSender.Overflow.DROP_OLDEST)) {
+            ByteBuffer tak = CotEncoder.create(CotEncoder.Encoding.PROTOBUF, "P", "a-f-G", "m-g", "p", 1000)
+                    .encode(0, 1, 1, 0, 0);
+            ByteBuffer[] events = {new Events(1).batch(0)[0], tak};
+            try {
+                sender.send(events, 2);
+                fail("a mesh packet went on the stream");
+            } catch (IllegalArgumentException expected) {
+                // nothing is queued, the XML event included
+            }
+            assertEquals(0, sender.getQueueSize());
+        }
+    }
+
+    @Test
+    public void tlsReachesTheNamedHost() throws Exception {
+        KeyStore keys = selfSigned("localhost");
+        try (Server server = new Server(tlsServerSocket(keys), -1);
+             TcpStreamSender sender = new TcpStreamSender("localhost", server.port(), 100,
+                     TcpStreamSender.Overflow.BLOCK)) {
+            sender.setTls(TcpStreamSender.tlsContext(null, null, trusting(keys)));
+            Events events = new Events(100);
+            sender.send(events.batch(0), 100);
+            assertTrue(sender.flush(10_000));
+            assertTrue(server.await(100, 10_000));
+            assertEquals(100, server.count());
+            assertEquals(0, server.invalid());
+            assertEquals(1, sender.getConnectCount());
+        }
+    }
+
+    @Test
+    public void tlsRefusesAnotherHostsCertificate() throws Exception {
+        // trusted, but issued to a different name
+        KeyStore keys = selfSigned("other.example");
+        try (Server server = new Server(tlsServerSocket(keys), -1);
+             TcpStreamSender sender = new TcpStreamSender("localhost", server.port(), 100,
+                     TcpStreamSender.Overflow.BLOCK)) {
+            sender.setTls(TcpStreamSender.tlsContext(null, null, trusting(keys)));
+            sender.setReconnectDelay(1000, 1000);
+            sender.send(new Events(1).batch(0), 1);
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (sender.getFailureCount() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(String.valueOf(sender.getLastError()), sender.getLastError() instanceof SSLHandshakeException);
+            assertEquals(0, sender.getConnectCount());
+            assertEquals(0, server.count());
+        }
+    }
+
+    /**
+     * A key and self-signed certificate for the host, made with the JDK's
+     * keytool
+     */
+    private static KeyStore selfSigned(String host) throws Exception {
+        File file = File.createTempFile("server", ".p12");
+        file.deleteOnExit();
+        if (!file.delete()) {
+            throw new IOException("cannot replace " + file);
+        }
+        Process keytool = new ProcessBuilder(
+                new File(System.getProperty("java.home"), "bin/keytool").getPath(),
+                "-genkeypair", "-alias", "server", "-keyalg", "EC", "-keysize", "256",
+                "-dname", "CN=" + host, "-ext", "SAN=dns:" + host, "-validity", "2",
+                "-storetype", "PKCS12", "-keystore", file.getPath(),
+                "-storepass", new String(PASSWORD), "-keypass", new String(PASSWORD))
+                .redirectErrorStream(true).start();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        try (InputStream in = keytool.getInputStream()) {
+            for (int n; (n = in.read(chunk)) > 0; ) {
+                output.write(chunk, 0, n);
+            }
+        }
+        assertEquals(output.toString("UTF-8"), 0, keytool.waitFor());
+        KeyStore keys = KeyStore.getInstance("PKCS12");
+        try (InputStream in = new FileInputStream(file)) {
+            keys.load(in, PASSWORD);
+        }
+        return keys;
+    }
+
+    private static KeyStore trusting(KeyStore keys) throws Exception {
+        KeyStore trust = KeyStore.getInstance("PKCS12");
+        trust.load(null, null);
+        trust.setCertificateEntry("server", keys.getCertificate("server"));
+        return trust;
+    }
+
+    private static ServerSocket tlsServerSocket(KeyStore keys) throws Exception {
+        SSLContext context = TcpStreamSender.tlsContext(keys, PASSWORD, null);
+        ServerSocket socket = context.getServerSocketFactory().createServerSocket();
+        socket.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+        return socket;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket s = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"))) {
+            return s.getLocalPort();
+        }
+    }
+
+    /**
+     * Events E-0, E-1 and so on, encoded into reused buffers
+     */
+    static final class Events {
+        private final CotWriter writer = new CotWriter("a-f-G-U-C", "m-g", 30_000);
+        private final ByteBuffer[] buffers;
+
+        Events(int size) {
+            buffers = new ByteBuffer[size];
+            for (int i = 0; i < size; i++) {
+                buffers[i] = ByteBuffer.allocate(writer.getMaxEventBytes(40));
+            }
+        }
+
+        ByteBuffer[] batch(int first) {
+            for (int k = 0; k < buffers.length; k++) {
+                byte[] uid = CotWriter.attribute("E-" + (first + k));
+                byte[] names = new byte[uid.length + 2];
+                System.arraycopy(uid, 0, names, 0, uid.length);
+                names[uid.length] = 'c';
+                names[uid.length + 1] = 's';
+                buffers[k].clear();
+                writer.write(buffers[k], names, 0, uid.length, names.length, 1_700_000_000_000L + k, 34, -117, 1, 2);
+                buffers[k].flip();
+            }
+            return buffers;
+        }
+    }
+
+    /**
+     * Loopback stand-in for a TAK server's streaming port: splits what it
+     * reads into events and checks each one
+     */
+    static final class Server implements Closeable {
+        private final ServerSocket socket;
+        private final int hangUpAfter;
+        private final List<Integer> ids = new ArrayList<>();
+        private final List<Socket> clients = new ArrayList<>();
+        private int invalid;
+        private int connections;
+        private long bytes;
+
+        /**
+         * @param hangUpAfter close the first connection after this many
+         *                    events, or -1
+         */
+        Server(int port, int hangUpAfter) throws IOException {
+            this(plain(port), hangUpAfter);
+        }
+
+        /**
+         * @param socket bound, e.g. a TLS one
+         */
+        Server(ServerSocket socket, int hangUpAfter) {
+            this.hangUpAfter = hangUpAfter;
+            this.socket = socket;
+            Thread accept = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    acceptLoop();
+                }
+            });
+            accept.setDaemon(true);
+            accept.start();
+        }
+
+        private static ServerSocket plain(int port) throws IOException {
+            ServerSocket socket = new ServerSocket();
+            socket.setReuseAddress(true);
+            socket.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port));
+            return socket;
+        }
+
+        int port() {
+            return socket.getLocalPort();
+        }
+
+        private void acceptLoop() {
+            try {
+                while (true) {
+                    final Socket client = socket.accept();
+                    final int n;
+                    synchronized (this) {
+                        n = ++connections;
+                        clients.add(client);
+                    }
+                    Thread reader = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            read(client, n == 1 ? hangUpAfter : -1);
+                        }
+                    });
+                    reader.setDaemon(true);
+                    reader.start();
+                }
+            } catch (IOException e) {
+                // closed
+            }
+        }
+
+        private void read(Socket client, int limit) {
+            byte[] end = "</event>".getBytes(UTF_8);
+            ByteArrayOutputStream pending = new ByteArrayOutputStream();
+            byte[] chunk = new byte[65536];
+            int events = 0;
+            try (InputStream in = client.getInputStream()) {
+                int n;
+                while ((n = in.read(chunk)) > 0) {
+                    synchronized (this) {
+                        bytes += n;
+                    }
+                    pending.write(chunk, 0, n);
+                    byte[] b = pending.toByteArray();
+                    int from = 0;
+                    for (int i = indexOf(b, end, 0); i >= 0; i = indexOf(b, end, from)) {
+                        String event = new String(b, from, i + end.length - from, UTF_8);
+                        from = i + end.length;
+                        Matcher m = EVENT.matcher(event);
+                        synchronized (this) {
+                            if (m.matches()) {
+                                ids.add(Integer.parseInt(m.group(1)));
+                            } else {
+                                invalid++;
+                            }
+                            notifyAll();
+                        }
+                        if (++events == limit) {
+                            return;
+                        }
+                    }
+                    pending.reset();
+                    pending.write(b, from, b.length - from);
+                }
+            } catch (IOException e) {
+                // closed
+            }
+        }
+
+        private static int indexOf(byte[] b, byte[] pattern, int from) {
+            outer:
+            for (int i = from; i <= b.length - pattern.length; i++) {
+                for (int k = 0; k < pattern.length; k++) {
+                    if (b[i + k] != pattern[k]) {
+                        continue outer;
+                    }
+                }
+                return i;
+            }
+            return -1;
+        }
+
+        synchronized boolean await(int events, long timeoutMillis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (ids.size() + invalid < events) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) {
+                    return false;
+                }
+                wait(left);
+            }
+            return true;
+        }
+
+        synchronized int count() {
+            return ids.size();
+        }
+
+        synchronized List<Integer> ids() {
+            return new ArrayList<>(ids);
+        }
+
+        synchronized int invalid() {
+            return invalid;
+        }
+
+        synchronized int connections() {
+            return connections;
+        }
+
+        synchronized long bytes() {
+            return bytes;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+            synchronized (this) {
+                for (Socket client : clients) {
+                    client.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.atakmap.android.test;
+
+import static org.junit.Assert.*;
+
+import com.atakmap.android.feature4boundaryalert.plugin.geofence.TrackStateTable;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class TrackStateTableTest {
+
+    @Test
+    public void keepsSlotsStableAcrossGrowth() {
+        TrackStateTable states = new TrackStateTable();
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(i, states.getOrCreateSlot("UID-" + i));
+        }
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(i, states.slotOf("UID-" + i));
+            assertEquals("UID-" + i, states.uidOf(i));
+        }
+        assertEquals(-1, states.slotOf("missing"));
+    }
+
+    @Test
+    public void randomAddRemoveMatchesHashMap() {
+        Random rnd = new Random(4);
+        TrackStateTable states = new TrackStateTable();
+        Map<String, Integer> expected = new HashMap<>();
+        for (int op = 0; op < 200_000; op++) {
+            String uid = "T" + rnd.nextInt(3_000);
+            if (rnd.nextInt(3) == 0) {
+                assertEquals(expected.remove(uid) != null, states.remove(uid));
+            } else {
+                int slot = states.getOrCreateSlot(uid);
+                Integer previous = expected.put(uid, slot);
+                if (previous != null) {
+                    assertEquals((int) previous, slot);
+                }
+            }
+        }
+        assertEquals(expected.size(), states.size());
+        for (Map.Entry<String, Integer> e : expected.entrySet()) {
+            assertEquals((int) e.getValue(), states.slotOf(e.getKey()));
+        }
+    }
+
+    @Test
+    public void staleTracksAreEvictedAndSlotsReused() {
+        TrackStateTable states = new TrackStateTable();
+        for (int i = 0; i < 1_000; i++) {
+            int slot = states.getOrCreateSlot("old-" + i);
+            states.setInside(slot, true, 500);
+            states.recordFix(slot, 0, 0, 1_000);
+        }
+        int fresh = states.getOrCreateSlot("fresh");
+        states.recordFix(fresh, 0, 0, 15_000, 60_000);
+        assertEquals(500, states.getEntryTime(0));
+
+        assertEquals(1_000, states.evictStale(1_000 + TrackStateTable.DEFAULT_STALE_MILLIS + 1));
+        assertEquals(1, states.size());
+        assertEquals(fresh, states.slotOf("fresh"));
+
+        // evicted slots are handed out again before the table grows
+        int reused = states.getOrCreateSlot("new");
+        assertTrue(reused < 1_000);
+        assertFalse(states.isInside(reused));
+        assertFalse(states.hasFix(reused));
+    }
+}
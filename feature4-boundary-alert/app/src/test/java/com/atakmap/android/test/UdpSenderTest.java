@@ -0,0 +1,110 @@
+package com.atakmap.android.test;
+
+import static org.junit.Assert.*;
+
+import com.atakmap.android.feature4boundaryalert.plugin.cot.UdpSender;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+public class UdpSenderTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void oneSocketServesEverySend() throws IOException {
+        try (DatagramSocket receiver = receiver();
+             UdpSender sender = new UdpSender("127.0.0.1", receiver.getLocalPort())) {
+            for (int i = 0; i < 50; i++) {
+                ByteBuffer payload = ByteBuffer.wrap(("event " + i).getBytes(UTF_8));
+                sender.send(payload);
+                assertFalse(payload.hasRemaining());
+                assertEquals("event " + i, receive(receiver));
+            }
+            assertEquals(1, sender.getOpenCount());
+            assertEquals(50, sender.getPacketsSent());
+        }
+    }
+
+    @Test
+    public void onlyTheRemainingBytesAreSent() throws IOException {
+        try (DatagramSocket receiver = receiver();
+             UdpSender sender = new UdpSender("127.0.0.1", receiver.getLocalPort())) {
+            ByteBuffer slice = ByteBuffer.wrap("xx<event/>yy".getBytes(UTF_8));
+            slice.position(2).limit(10);
+            sender.send(slice.slice());
+            assertEquals("<event/>", receive(receiver));
+
+            ByteBuffer direct = ByteBuffer.allocateDirect(16);
+            direct.put("direct".getBytes(UTF_8)).flip();
+            sender.send(direct);
+            assertEquals("direct", receive(receiver));
+            assertEquals(14, sender.getBytesSent());
+        }
+    }
+
+    @Test
+    public void batchSendsEveryBuffer() throws IOException {
+        try (DatagramSocket receiver = receiver();
+             UdpSender sender = new UdpSender("127.0.0.1", receiver.getLocalPort())) {
+            ByteBuffer[] batch = new ByteBuffer[20];
+            for (int i = 0; i < batch.length; i++) {
+                batch[i] = ByteBuffer.wrap(("b" + i).getBytes(UTF_8));
+            }
+            assertEquals(15, sender.send(batch, 15));
+            for (int i = 0; i < 15; i++) {
+                assertEquals("b" + i, receive(receiver));
+            }
+            assertTrue(batch[15].hasRemaining());
+        }
+    }
+
+    @Test
+    public void resetReopensTheSocket() throws IOException {
+        try (DatagramSocket receiver = receiver();
+             UdpSender sender = new UdpSender("127.0.0.1", receiver.getLocalPort())) {
+            sender.send(ByteBuffer.wrap(new byte[] {1}));
+            sender.reset();
+            sender.send(ByteBuffer.wrap(new byte[] {2}));
+            sender.setTimeToLive(4);
+            sender.send(ByteBuffer.wrap(new byte[] {3}));
+            assertEquals(3, sender.getOpenCount());
+            assertEquals(0, sender.getFailureCount());
+            for (int i = 1; i <= 3; i++) {
+                DatagramPacket packet = new DatagramPacket(new byte[8], 8);
+                receiver.receive(packet);
+                assertEquals(i, packet.getData()[0]);
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void closedSenderFails() throws IOException {
+        UdpSender sender = new UdpSender("127.0.0.1", 6969);
+        sender.close();
+        sender.send(ByteBuffer.wrap(new byte[] {1}));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ttlIsChecked() {
+        new UdpSender("239.2.3.1", 6969).setTimeToLive(256);
+    }
+
+    private static DatagramSocket receiver() throws IOException {
+        DatagramSocket socket = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        socket.setSoTimeout(2000);
+        return socket;
+    }
+
+    private static String receive(DatagramSocket socket) throws IOException {
+        DatagramPacket packet = new DatagramPacket(new byte[1500], 1500);
+        socket.receive(packet);
+        return new String(packet.getData(), 0, packet.getLength(), UTF_8);
+    }
+}